@@ -0,0 +1,58 @@
+package examples;
+
+import java.util.Arrays;
+import main.GPUAccess;
+import main.GPUExpression;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * This example computes "result = (a + b) * c" like ShareMemoryBetweenKernels, but with GPUExpression,
+ * which generates one kernel for the whole expression. Each element is read once and written once,
+ * and no intermediate array is needed on the GPU.
+ *
+ * Steps for memory copies performed by this program:
+ *	1. Allocate space for 'a' on the GPU and copy it (it's used by every expression, so it's kept there)
+ *	2. Allocate space for 'b', 'c', and 'result' on the GPU, and copy 'b' and 'c'
+ *	3. Compute the whole expression in one kernel (no copies performed)
+ *	4. Copy 'result' back to the CPU
+ *	5. Clamp 'a' at 4 and at 2, copying 'c' and 'result' each time
+ *	   (the second clamp reuses the kernel of the first, since only the constants are different)
+ */
+
+public class FusedExpression {
+	
+	public static void main(String[] args) {
+		
+		float[] a = {1, 2, 3, 4, 5, 6};
+		float[] b = {3, 2, 1, 0, 1, 2};
+		float[] c = {2, 1, 2, 1, 2, 3};
+		float[] result = new float[a.length];
+		
+		GPUProgram.initializeGPU();
+		
+		// Zero out all the memory copy counters
+		GPUProgram.resetDebugCounters();
+		
+		GPUMem aGPUMem = GPUProgram.copyArrayToGPU(a, GPUAccess.READ);
+		
+		// Nothing is computed until evaluate() is called
+		GPUExpression sum = GPUExpression.of(aGPUMem).add(GPUExpression.of(b));
+		sum.multiply(GPUExpression.of(c)).evaluate(result);
+		System.out.println(Arrays.toString(result));
+		
+		// Clamp 'a' at 4, then at 2 (only the constants are different, so both use the same kernel)
+		GPUExpression x = GPUExpression.of(aGPUMem);
+		GPUExpression.select(x.greaterThan(4), GPUExpression.constant(4), x).multiply(GPUExpression.of(c)).evaluate(result);
+		System.out.println(Arrays.toString(result));
+		GPUExpression.select(x.greaterThan(2), GPUExpression.constant(2), x).multiply(GPUExpression.of(c)).evaluate(result);
+		System.out.println(Arrays.toString(result));
+		
+		// Print the number of memory copies performed to and from the GPU
+		GPUProgram.printDebugCounters();
+		
+		aGPUMem.dispose();
+		GPUExpression.dispose();
+	}
+	
+}
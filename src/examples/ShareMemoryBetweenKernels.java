@@ -8,7 +8,7 @@ import main.GPUProgram;
 /**
  * This example shows how to reference the same memory from two different OpenCL kernels.
  * There are of course much more efficient ways to do this, but this example is only
- * meant to demonstrate the memory sharing capability.
+ * meant to demonstrate the memory sharing capability. (See FusedExpression for one of them.)
  * This example requires "VectorAdd.cl" and "VectorMult.cl"
  * 
  * Programmed by Daniel Williams in 2025.
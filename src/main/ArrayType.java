@@ -0,0 +1,65 @@
+package main;
+
+import org.jocl.Sizeof;
+
+/**
+ * Enum representing the type of the elements stored in a GPUMem, or streamed to the GPU.
+ */
+public enum ArrayType {
+	BYTE, INT, FLOAT, LONG, DOUBLE, BUFFERED_IMAGE_INT, BUFFERED_IMAGE_BYTE;
+	
+	/** Return the size of one element of this type in bytes.
+	 * @return bytes
+	 */
+	public int getSize() {
+		if (this == BYTE) {
+			return Sizeof.cl_uchar;
+		} else if (this == INT) {
+			return Sizeof.cl_int;
+		} else if (this == FLOAT) {
+			return Sizeof.cl_float;
+		} else if (this == LONG) {
+			return Sizeof.cl_long;
+		} else if (this == DOUBLE) {
+			return Sizeof.cl_double;
+		} else if (this == BUFFERED_IMAGE_INT) {
+			return Sizeof.cl_int;
+		} else if (this == BUFFERED_IMAGE_BYTE) {
+			return Sizeof.cl_uchar;
+		}
+		new Exception("\nUnknown ArrayType: " + this).printStackTrace();
+		System.exit(1);
+		return 0;
+	}
+	
+	// Return the name of this type in OpenCL, for compiling the library kernels.
+	String getOpenCLType() {
+		if (this == BYTE || this == BUFFERED_IMAGE_BYTE) {
+			return "uchar";
+		} else if (this == INT || this == BUFFERED_IMAGE_INT) {
+			return "int";
+		} else if (this == FLOAT) {
+			return "float";
+		} else if (this == LONG) {
+			return "long";
+		} else {
+			return "double";
+		}
+	}
+	
+	// Return the compiler options which define T as this type, with T_MIN and T_MAX as its lowest and highest values.
+	// USE_DOUBLE is defined for doubles, so kernels can enable the cl_khr_fp64 extension.
+	String getOpenCLDefines() {
+		if (this == BYTE || this == BUFFERED_IMAGE_BYTE) {
+			return "-D T=uchar -D T_MIN=0 -D T_MAX=UCHAR_MAX";
+		} else if (this == INT || this == BUFFERED_IMAGE_INT) {
+			return "-D T=int -D T_MIN=INT_MIN -D T_MAX=INT_MAX";
+		} else if (this == FLOAT) {
+			return "-D T=float -D T_MIN=-FLT_MAX -D T_MAX=FLT_MAX";
+		} else if (this == LONG) {
+			return "-D T=long -D T_MIN=LONG_MIN -D T_MAX=LONG_MAX";
+		} else {
+			return "-D T=double -D T_MIN=-DBL_MAX -D T_MAX=DBL_MAX -D USE_DOUBLE";
+		}
+	}
+}
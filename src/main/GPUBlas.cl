@@ -0,0 +1,111 @@
+// Dense matrix routines for GPUBlas.java
+// Compiled with T (float or double), and TILE and WPT (the tile size and the rows each work item computes) for GEMM.
+// All matrices are row-major here. (Column-major calls are turned into row-major calls by GPUBlas.java.)
+
+#ifdef USE_DOUBLE
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+#ifdef TILE
+#define RTS (TILE / WPT) // Work items in each column of a tile
+
+// C = alpha * op(A) * op(B) + beta * C, where op(A) is m x k, op(B) is k x n, and C is m x n.
+// Each work group computes a TILE x TILE block of C, with TILE x RTS work items that each compute WPT rows.
+// The tiles of A and B are staged in local memory, so each element is read from global memory only once per work group.
+kernel void gemmKernel(const int m, const int n, const int k, const T alpha,
+		global const T *a, const int lda, const int transA,
+		global const T *b, const int ldb, const int transB,
+		const T beta, global T *c, const int ldc) {
+	
+	local T tileA[TILE][TILE];
+	local T tileB[TILE][TILE];
+	
+	const int lx = get_local_id(0);
+	const int ly = get_local_id(1);
+	const int col = get_group_id(0) * TILE + lx;
+	const int rowBase = get_group_id(1) * TILE;
+	
+	T acc[WPT];
+	for (int w = 0; w < WPT; w++) {
+		acc[w] = 0;
+	}
+	
+	for (int t = 0; t < k; t += TILE) {
+		
+		// Load one tile of op(A) and op(B), with zeros past the edges
+		for (int w = 0; w < WPT; w++) {
+			const int r = ly + w * RTS;
+			const int ai = rowBase + r;
+			const int ap = t + lx;
+			tileA[r][lx] = (ai < m && ap < k) ? (transA ? a[(size_t)ap * lda + ai] : a[(size_t)ai * lda + ap]) : (T)0;
+			
+			const int bp = t + r;
+			tileB[r][lx] = (bp < k && col < n) ? (transB ? b[(size_t)col * ldb + bp] : b[(size_t)bp * ldb + col]) : (T)0;
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+		
+		for (int p = 0; p < TILE; p++) {
+			const T bv = tileB[p][lx];
+			for (int w = 0; w < WPT; w++) {
+				acc[w] += tileA[ly + w * RTS][p] * bv;
+			}
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+	
+	for (int w = 0; w < WPT; w++) {
+		const int row = rowBase + ly + w * RTS;
+		if (row < m && col < n) {
+			const size_t i = (size_t)row * ldc + col;
+			c[i] = (beta == (T)0) ? alpha * acc[w] : alpha * acc[w] + beta * c[i]; // C isn't read if beta is 0
+		}
+	}
+}
+#endif
+
+// y = alpha * A * x + beta * y, where A is m x n.
+// Each work group computes one element of y, so each row of A is read by neighboring work items.
+// The local work group size must be a power of two.
+kernel void gemvRowsKernel(const int m, const int n, const T alpha, global const T *a, const int lda,
+		global const T *x, const T beta, global T *y, local T *scratch) {
+	
+	const int row = get_group_id(0);
+	const size_t lid = get_local_id(0);
+	global const T *aRow = a + (size_t)row * lda;
+	
+	T sum = 0;
+	for (int j = lid; j < n; j += get_local_size(0)) {
+		sum += aRow[j] * x[j];
+	}
+	scratch[lid] = sum;
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	for (size_t stride = get_local_size(0) / 2; stride > 0; stride /= 2) {
+		if (lid < stride) {
+			scratch[lid] += scratch[lid + stride];
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+	
+	if (lid == 0) {
+		y[row] = (beta == (T)0) ? alpha * scratch[0] : alpha * scratch[0] + beta * y[row];
+	}
+}
+
+// y = alpha * A^T * x + beta * y, where A is m x n (so y has n elements).
+// Each work item computes one element of y, so neighboring work items read neighboring elements of each row of A.
+kernel void gemvColumnsKernel(const int m, const int n, const T alpha, global const T *a, const int lda,
+		global const T *x, const T beta, global T *y) {
+	
+	const int col = get_global_id(0);
+	if (col >= n) {
+		return;
+	}
+	
+	T sum = 0;
+	for (int i = 0; i < m; i++) {
+		sum += a[(size_t)i * lda + col] * x[i];
+	}
+	
+	y[col] = (beta == (T)0) ? alpha * sum : alpha * sum + beta * y[col];
+}
\ No newline at end of file
@@ -0,0 +1,274 @@
+package main;
+
+import org.jocl.CL;
+
+/**
+ * GPUBlas multiplies dense float or double matrices stored in GPUMems, like the BLAS routines
+ * SGEMM/DGEMM (matrix times matrix) and SGEMV/DGEMV (matrix times vector). It goes with GPUProgram.
+ *
+ * Matrices may be row-major or column-major, with a leading dimension (the distance between the starts of
+ * neighboring rows, or columns if column-major) that may be larger than the matrix, so sub-matrices can be
+ * used directly. Matrix multiplication is tiled in local memory, with the tile size picked for the GPU
+ * the first time it is used. Nothing is copied to or from the CPU.
+ */
+
+public class GPUBlas {
+	
+	private static final int[] TILE_SIZES = {32, 16, 8};	// GEMM tile sizes to try, largest first
+	private static final int RTS = 8;						// Work items in each column of a GEMM tile
+	private static final int MAX_GROUP_SIZE = 256;			// Work items per work group for GEMV
+	
+	private static GPUProgram[] gemmPrograms = null;		// Compiled gemmKernel kernels, by ArrayType
+	private static int[] tileSizes = null;					// GEMM tile size used by each type
+	private static GPUProgram[] gemvRowsPrograms = null;	// Compiled gemvRowsKernel kernels, by ArrayType
+	private static GPUProgram[] gemvColumnsPrograms = null;	// Compiled gemvColumnsKernel kernels, by ArrayType
+	private static int[] gemvGroupSizes = null;				// Local work group size used by the GEMV kernels
+	
+	/** Matrix multiplication: C = alpha * op(A) * op(B) + beta * C, where op(X) is X or its transpose.
+	 * If beta is 0, then C is not read (so it doesn't need to be initialized).
+	 * @param columnMajor Whether the matrices are stored column-major (as in Fortran) instead of row-major.
+	 * @param transA Whether to use the transpose of A.
+	 * @param transB Whether to use the transpose of B.
+	 * @param m Rows of op(A) and C.
+	 * @param n Columns of op(B) and C.
+	 * @param k Columns of op(A) and rows of op(B).
+	 * @param alpha Scale of the product.
+	 * @param a Float or double GPUMem holding A.
+	 * @param lda Leading dimension of A.
+	 * @param b GPUMem holding B, of the same type as A.
+	 * @param ldb Leading dimension of B.
+	 * @param beta Scale of the original C.
+	 * @param c GPUMem holding C, of the same type as A, which is overwritten with the result.
+	 * @param ldc Leading dimension of C.
+	 */
+	public static synchronized void gemm(boolean columnMajor, boolean transA, boolean transB, int m, int n, int k,
+			double alpha, GPUMem a, int lda, GPUMem b, int ldb, double beta, GPUMem c, int ldc) {
+		
+		// A column-major matrix is a row-major matrix of its transpose, so C^T = op(B)^T * op(A)^T
+		if (columnMajor) {
+			gemmRowMajor(transB, transA, n, m, k, alpha, b, ldb, a, lda, beta, c, ldc);
+		} else {
+			gemmRowMajor(transA, transB, m, n, k, alpha, a, lda, b, ldb, beta, c, ldc);
+		}
+	}
+	
+	/** Matrix-vector multiplication: y = alpha * op(A) * x + beta * y, where op(A) is A or its transpose.
+	 * If beta is 0, then y is not read (so it doesn't need to be initialized).
+	 * @param columnMajor Whether A is stored column-major (as in Fortran) instead of row-major.
+	 * @param transA Whether to use the transpose of A.
+	 * @param m Rows of A.
+	 * @param n Columns of A.
+	 * @param alpha Scale of the product.
+	 * @param a Float or double GPUMem holding A.
+	 * @param lda Leading dimension of A.
+	 * @param x GPUMem holding x, of the same type as A. (n elements, or m if transposed.)
+	 * @param beta Scale of the original y.
+	 * @param y GPUMem holding y, of the same type as A, which is overwritten with the result. (m elements, or n if transposed.)
+	 */
+	public static synchronized void gemv(boolean columnMajor, boolean transA, int m, int n,
+			double alpha, GPUMem a, int lda, GPUMem x, double beta, GPUMem y) {
+		
+		// A column-major matrix is the transpose of a row-major matrix
+		final int rows = columnMajor ? n : m;
+		final int cols = columnMajor ? m : n;
+		final boolean trans = (transA != columnMajor);
+		
+		checkType(a);
+		checkMatrix("A", a, rows, cols, lda);
+		checkMatrix("x", x, 1, trans ? rows : cols, trans ? rows : cols);
+		checkMatrix("y", y, 1, trans ? cols : rows, trans ? cols : rows);
+		if (x.type != a.type || y.type != a.type) {
+			error("A, x, and y must all be the same type.");
+		}
+		
+		getPrograms(a.type);
+		final GPUProgram program = trans ? gemvColumnsPrograms[a.type.ordinal()] : gemvRowsPrograms[a.type.ordinal()];
+		final long groupSize = gemvGroupSizes[a.type.ordinal()];
+		
+		program.setArgument(0, rows, GPUAccess.READ);
+		program.setArgument(1, cols, GPUAccess.READ);
+		program.setArgument(2, toScalar(a.type, alpha), GPUAccess.READ);
+		program.setArgumentMem(3, a.mem);
+		program.setArgument(4, lda, GPUAccess.READ);
+		program.setArgumentMem(5, x.mem);
+		program.setArgument(6, toScalar(a.type, beta), GPUAccess.READ);
+		program.setArgumentMem(7, y.mem);
+		program.setLocalWorkGroupSizes(groupSize);
+		if (trans) {
+			program.setGlobalWorkGroupSizes((cols + groupSize - 1) / groupSize * groupSize);
+		} else {
+			program.setGlobalWorkGroupSizes(rows * groupSize); // One work group for each row
+		}
+		program.enqueueKernel(null, null);
+		
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	/** Release the kernels used by matrix multiplication.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void dispose() {
+		if (gemmPrograms != null) {
+			for (int i = 0; i < gemmPrograms.length; i++) {
+				if (gemmPrograms[i] != null) {
+					gemmPrograms[i].dispose();
+					gemvRowsPrograms[i].dispose();
+					gemvColumnsPrograms[i].dispose();
+				}
+			}
+			gemmPrograms = null;
+			tileSizes = null;
+			gemvRowsPrograms = null;
+			gemvColumnsPrograms = null;
+			gemvGroupSizes = null;
+		}
+	}
+	
+	// Matrix multiplication with row-major matrices
+	private static void gemmRowMajor(boolean transA, boolean transB, int m, int n, int k,
+			double alpha, GPUMem a, int lda, GPUMem b, int ldb, double beta, GPUMem c, int ldc) {
+		
+		checkType(a);
+		checkMatrix("A", a, transA ? k : m, transA ? m : k, lda);
+		checkMatrix("B", b, transB ? n : k, transB ? k : n, ldb);
+		checkMatrix("C", c, m, n, ldc);
+		if (b.type != a.type || c.type != a.type) {
+			error("A, B, and C must all be the same type.");
+		}
+		
+		getPrograms(a.type);
+		final GPUProgram program = gemmPrograms[a.type.ordinal()];
+		final long tile = tileSizes[a.type.ordinal()];
+		
+		program.setArgument(0, m, GPUAccess.READ);
+		program.setArgument(1, n, GPUAccess.READ);
+		program.setArgument(2, k, GPUAccess.READ);
+		program.setArgument(3, toScalar(a.type, alpha), GPUAccess.READ);
+		program.setArgumentMem(4, a.mem);
+		program.setArgument(5, lda, GPUAccess.READ);
+		program.setArgument(6, transA ? 1 : 0, GPUAccess.READ);
+		program.setArgumentMem(7, b.mem);
+		program.setArgument(8, ldb, GPUAccess.READ);
+		program.setArgument(9, transB ? 1 : 0, GPUAccess.READ);
+		program.setArgument(10, toScalar(a.type, beta), GPUAccess.READ);
+		program.setArgumentMem(11, c.mem);
+		program.setArgument(12, ldc, GPUAccess.READ);
+		
+		// One work group for each tile of C
+		program.setLocalWorkGroupSizes(tile, RTS);
+		program.setGlobalWorkGroupSizes((n + tile - 1) / tile * tile, (m + tile - 1) / tile * RTS);
+		program.enqueueKernel(null, null);
+		
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Check that a GPUMem can be used for matrix multiplication
+	private static void checkType(GPUMem mem) {
+		
+		if (mem == null) {
+			error("Argument is null");
+		}
+		
+		if (mem.type != ArrayType.FLOAT && mem.type != ArrayType.DOUBLE) {
+			error("Matrices must be FLOAT or DOUBLE, not " + mem.type);
+		}
+	}
+	
+	// Check that a row-major matrix with the given size and leading dimension fits in a GPUMem
+	private static void checkMatrix(String name, GPUMem mem, int rows, int cols, int ld) {
+		
+		if (mem == null) {
+			error("Matrix " + name + " is null.");
+		}
+		
+		if (mem.mem == null || mem.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (rows <= 0 || cols <= 0) {
+			error("Matrix " + name + " must have a positive size. (Got " + rows + " x " + cols + ")");
+		}
+		
+		if (ld < cols) {
+			error("Leading dimension of " + name + " (" + ld + ") is less than its row length (" + cols + ")");
+		}
+		
+		final long needed = (long)(rows - 1) * ld + cols;
+		if (needed > mem.maxAllocatedSize) {
+			error("Matrix " + name + " needs " + needed + " elements, but the GPUMem only has " + mem.maxAllocatedSize);
+		}
+	}
+	
+	// Return a scalar kernel argument of the given type
+	private static Object toScalar(ArrayType type, double value) {
+		if (type == ArrayType.DOUBLE) {
+			return value;
+		}
+		return (float)value;
+	}
+	
+	// Compile the kernels for this type the first time they're needed, picking the largest GEMM tile the GPU can run
+	private static void getPrograms(ArrayType type) {
+		
+		if (gemmPrograms == null) {
+			gemmPrograms = new GPUProgram[ArrayType.values().length];
+			tileSizes = new int[ArrayType.values().length];
+			gemvRowsPrograms = new GPUProgram[ArrayType.values().length];
+			gemvColumnsPrograms = new GPUProgram[ArrayType.values().length];
+			gemvGroupSizes = new int[ArrayType.values().length];
+		}
+		
+		if (gemmPrograms[type.ordinal()] != null) {
+			return;
+		}
+		
+		if (type == ArrayType.DOUBLE && !GPUProgram.isDoubleSupported()) {
+			error("This GPU does not support doubles.");
+		}
+		
+		// Two tiles must fit in local memory (leaving room for the compiler), and TILE x RTS work items in a work group
+		for (int i = 0; i < TILE_SIZES.length && gemmPrograms[type.ordinal()] == null; i++) {
+			final int tile = TILE_SIZES[i];
+			if (2L * tile * tile * type.getSize() > GPUProgram.getLocalMemorySize() / 2 ||
+				tile * RTS > GPUProgram.getMaxLocalWorkGroupSize()) {
+				continue;
+			}
+			
+			final GPUProgram program = GPUProgram.fromLibrary("gemmKernel", "GPUBlas.cl",
+					type.getOpenCLDefines() + " -D TILE=" + tile + " -D WPT=" + (tile / RTS));
+			if (program.getKernelMaxLocalWorkGroupSize() < tile * RTS) {
+				program.dispose();
+				continue;
+			}
+			
+			gemmPrograms[type.ordinal()] = program;
+			tileSizes[type.ordinal()] = tile;
+		}
+		
+		if (gemmPrograms[type.ordinal()] == null) {
+			error("This GPU cannot run work groups of " + (TILE_SIZES[TILE_SIZES.length - 1] * RTS) + " work items.");
+		}
+		
+		final GPUProgram rowsProgram = GPUProgram.fromLibrary("gemvRowsKernel", "GPUBlas.cl", type.getOpenCLDefines());
+		final GPUProgram columnsProgram = GPUProgram.fromLibrary("gemvColumnsKernel", "GPUBlas.cl", type.getOpenCLDefines());
+		
+		// The row reduction needs a power of two
+		final int maxGroupSize = Math.min(MAX_GROUP_SIZE, Math.min(rowsProgram.getKernelMaxLocalWorkGroupSize(),
+				columnsProgram.getKernelMaxLocalWorkGroupSize()));
+		int groupSize = 1;
+		while (groupSize * 2 <= maxGroupSize) {
+			groupSize *= 2;
+		}
+		rowsProgram.setLocalArgument(8, type, groupSize);
+		
+		gemvRowsPrograms[type.ordinal()] = rowsProgram;
+		gemvColumnsPrograms[type.ordinal()] = columnsProgram;
+		gemvGroupSizes[type.ordinal()] = groupSize;
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
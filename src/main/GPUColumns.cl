@@ -0,0 +1,146 @@
+// Columnar operators for GPUColumns.java
+// Compiled with T (the element type of the column). aggregateKernel also needs ACC (the type of the results),
+// OP_SUM, OP_MIN, or OP_MAX, IDENTITY (the starting value of each result), and ACC_IS_FLOAT if ACC is float.
+// COUNT counts the rows instead of reading values, and CONVERT converts int values to a float ACC.
+
+#ifdef USE_DOUBLE
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+// Write the index of each selected row to the next place in 'selection'.
+// 'flags' is the inclusive scan of the 0 or 1 flag of each row, so a row is selected if its scan is more than the one before.
+kernel void selectKernel(global const int *flags, const int n, global int *selection) {
+	const int i = get_global_id(0);
+	if (i < n) {
+		const int previous = (i > 0) ? flags[i - 1] : 0;
+		if (flags[i] != previous) {
+			selection[previous] = i;
+		}
+	}
+}
+
+// Copy the selected rows of a column
+kernel void gatherKernel(global const T *column, global const int *selection, const int count, global T *output) {
+	const int i = get_global_id(0);
+	if (i < count) {
+		output[i] = column[selection[i]];
+	}
+}
+
+// Flag the first row of each run of equal keys, after sorting
+kernel void runStartKernel(global const T *sortedKeys, const int n, global int *flags) {
+	const int i = get_global_id(0);
+	if (i < n) {
+		flags[i] = (i == 0 || sortedKeys[i] != sortedKeys[i - 1]) ? 1 : 0;
+	}
+}
+
+// Give each row the group of its run of sorted keys, and write the key of each group.
+// 'groups' is the inclusive scan of the flags from runStartKernel, so the group of sorted row i is groups[i] - 1.
+kernel void sortedGroupsKernel(global const T *sortedKeys, global const int *rows, global const int *groups, const int n,
+		global int *groupIds, global T *groupKeys) {
+	
+	const int i = get_global_id(0);
+	if (i >= n) {
+		return;
+	}
+	
+	const int group = groups[i] - 1;
+	groupIds[rows[i]] = group;
+	if (i == 0 || groups[i - 1] != groups[i]) {
+		groupKeys[group] = sortedKeys[i];
+	}
+}
+
+// Write the index of the k largest elements, largest first, from indices sorted by ascending value
+kernel void reverseKernel(global const int *sortedIndices, const int n, const int k, global int *output) {
+	const int i = get_global_id(0);
+	if (i < k) {
+		output[i] = sortedIndices[n - 1 - i];
+	}
+}
+
+// Divide each sum by its count
+kernel void averageKernel(global float *results, global const int *counts, const int groups) {
+	const int g = get_global_id(0);
+	if (g < groups) {
+		results[g] = results[g] / counts[g];
+	}
+}
+
+#ifdef ACC
+
+#if defined(COUNT)
+#define VALUE(i) 1
+#elif defined(CONVERT)
+#define VALUE(i) ((ACC)values[i])
+#else
+#define VALUE(i) values[i]
+#endif
+
+#ifdef ACC_IS_FLOAT
+// There are no atomic functions on floats, so swap in the new bits, and try again if another work item got there first
+#if defined(OP_SUM)
+#define COMBINE(a, b) ((a) + (b))
+#elif defined(OP_MIN)
+#define COMBINE(a, b) fmin(a, b)
+#else
+#define COMBINE(a, b) fmax(a, b)
+#endif
+#define UPDATE(space, p, v) { \
+	volatile space int *bits = (volatile space int *)(p); \
+	int old = *bits; \
+	int assumed; \
+	do { \
+		assumed = old; \
+		old = atomic_cmpxchg(bits, assumed, as_int(COMBINE(as_float(assumed), (v)))); \
+	} while (old != assumed); \
+}
+#else
+#if defined(OP_SUM)
+#define UPDATE(space, p, v) atomic_add(p, v)
+#elif defined(OP_MIN)
+#define UPDATE(space, p, v) atomic_min(p, v)
+#else
+#define UPDATE(space, p, v) atomic_max(p, v)
+#endif
+#endif
+
+// Combine the value of each row into the result of its group (rows with a negative group are skipped).
+// The results must start as IDENTITY. With 'useLocal', each work group first combines its rows in local memory,
+// so most atomic functions go to local memory, and each work group only updates each global result once.
+kernel void aggregateKernel(global const int *groupIds, global const T *values, const int n, global ACC *results,
+		local ACC *partial, const int groups, const int useLocal) {
+	
+	const int localId = get_local_id(0);
+	const int localSize = get_local_size(0);
+	if (useLocal) {
+		for (int g = localId; g < groups; g += localSize) {
+			partial[g] = IDENTITY;
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+	
+	for (int i = get_global_id(0); i < n; i += get_global_size(0)) {
+		const int g = groupIds[i];
+		if (g >= 0 && g < groups) {
+			const ACC v = VALUE(i);
+			if (useLocal) {
+				UPDATE(local, &partial[g], v);
+			} else {
+				UPDATE(global, &results[g], v);
+			}
+		}
+	}
+	
+	if (useLocal) {
+		barrier(CLK_LOCAL_MEM_FENCE);
+		for (int g = localId; g < groups; g += localSize) {
+			if (partial[g] != IDENTITY) {
+				UPDATE(global, &results[g], partial[g]);
+			}
+		}
+	}
+}
+
+#endif
\ No newline at end of file
@@ -0,0 +1,556 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUColumns has relational operators on columns of a table kept on the GPU (one GPUMem for each column),
+ * so filters and aggregations run without writing any OpenCL. It goes with GPUProgram.
+ *
+ * The operators chain on the GPU:
+ *	filter:		rows where a predicate (a GPUExpression of the columns) is true, as a selection vector of row indices.
+ *	gather:		the selected rows of a column, packed together. (Compute new columns from these with GPUExpression.)
+ *	groupBy:	the group of each row, from an INT key column, by hashing (GPUHashTable) or sorting (GPUSort).
+ *	aggregate:	SUM, COUNT, MIN, MAX, or AVG of an INT or FLOAT column in each group.
+ *	topK:		the rows with the k largest values of a column.
+ * The number of rows is the arrayRange.size of the column (or of the selection vector for filter, which has one
+ * element for each row). Only counts (of selected rows or of groups) are copied to the CPU, so that the next
+ * operator knows how much of its input to use.
+ *
+ * Aggregation combines each row into its group with atomic functions. When the results of every group fit in
+ * local memory, each work group combines its rows there first, so a few groups don't slow down with contention.
+ * Sums of floats are added in a different order each time, so they may differ slightly in the last few bits.
+ */
+
+public class GPUColumns {
+	
+	/**
+	 * Enum representing how the values of the rows in each group are combined.
+	 */
+	public enum Aggregate {
+		SUM,	// Sum of the values (INT sums wrap around on overflow)
+		COUNT,	// Number of rows (INT, and no values are needed)
+		MIN,	// Smallest value
+		MAX,	// Largest value
+		AVG;	// Mean of the values (FLOAT)
+	}
+	
+	/**
+	 * Enum representing how rows are put into groups.
+	 */
+	public enum Grouping {
+		HASH,	// With a hash table. Groups are in no particular order.
+		SORT;	// By sorting the keys. Groups are in ascending order of key.
+	}
+	
+	private static final int MAX_GROUP_SIZE = 256;		// Work items per work group of aggregateKernel
+	private static final int GROUPS_PER_UNIT = 8;		// Work groups of aggregateKernel for each compute unit
+	private static final int INSERT_ROWS = 1 << 20;		// Keys inserted into the hash table at once (so it grows to the number of groups, not rows)
+	
+	private static GPUProgram selectProgram = null;			// Compiled selectKernel kernel
+	private static GPUProgram runStartProgram = null;		// Compiled runStartKernel kernel
+	private static GPUProgram sortedGroupsProgram = null;	// Compiled sortedGroupsKernel kernel
+	private static GPUProgram reverseProgram = null;		// Compiled reverseKernel kernel
+	private static GPUProgram averageProgram = null;		// Compiled averageKernel kernel
+	private static GPUProgram[] gatherPrograms = null;		// Compiled gatherKernel kernels, by ArrayType
+	private static GPUProgram[][] aggregatePrograms = null;	// Compiled aggregateKernel kernels, by [value ArrayType][Aggregate]
+	
+	/** Find the rows where a predicate is true (nonzero), and write their indices to 'selection' in order.
+	 * @param predicate An expression of the columns, such as GPUExpression.of(price).greaterThan(100).
+	 * @param selection INT GPUMem with an element for each row. Its arrayRange.size is the number of rows.
+	 * @return The number of rows selected, which are at the start of 'selection'.
+	 */
+	public static synchronized int filter(GPUExpression predicate, GPUMem selection) {
+		
+		if (predicate == null) {
+			error("Argument is null");
+		}
+		
+		checkColumn(selection, "Selection");
+		if (selection.type != ArrayType.INT) {
+			error("Selection must be an INT GPUMem, not " + selection.type);
+		}
+		
+		final int n = getRows(selection);
+		if (n == 0) {
+			return 0;
+		}
+		
+		// Flag each row with 0 or 1, and scan the flags to find where each selected row goes
+		GPUMem flags = createTemp(ArrayType.INT, n);
+		predicate.notEqual(0).evaluate(flags);
+		GPUScan.inclusiveScan(flags, flags);
+		
+		getPrograms();
+		selectProgram.setArgumentMem(0, flags.mem);
+		selectProgram.setArgument(1, n, GPUAccess.READ);
+		selectProgram.setArgumentMem(2, selection.mem);
+		selectProgram.setGlobalWorkGroupSizes(n);
+		selectProgram.enqueueKernel(null, null);
+		
+		final int count = readInt(flags.mem, n - 1);
+		flags.dispose();
+		return count;
+	}
+	
+	/** Copy the selected rows of a column to the start of 'output', in the order of the selection.
+	 * @param column The column (INT, FLOAT, LONG, or DOUBLE).
+	 * @param selection INT GPUMem of row indices, such as from filter().
+	 * @param count The number of rows selected.
+	 * @param output GPUMem of the same type as the column, with room for 'count' elements. It must not be the column itself.
+	 */
+	public static synchronized void gather(GPUMem column, GPUMem selection, int count, GPUMem output) {
+		
+		checkColumn(column, "Column");
+		checkColumn(selection, "Selection");
+		checkColumn(output, "Output");
+		
+		if (selection.type != ArrayType.INT) {
+			error("Selection must be an INT GPUMem, not " + selection.type);
+		}
+		
+		if (output.type != column.type) {
+			error("Output must be " + column.type + ", like the column, not " + output.type);
+		}
+		
+		if (count < 0 || selection.maxAllocatedSize < count || output.maxAllocatedSize < count) {
+			error("Can't gather " + count + " rows with " + selection.maxAllocatedSize + " selected and room for "
+					+ output.maxAllocatedSize + " in the output.");
+		}
+		
+		if (output.mem == column.mem) {
+			error("Cannot gather in place. Use a different output GPUMem.");
+		}
+		
+		if (count == 0) {
+			return;
+		}
+		
+		final GPUProgram program = getGatherProgram(column.type);
+		program.setArgumentMem(0, column.mem);
+		program.setArgumentMem(1, selection.mem);
+		program.setArgument(2, count, GPUAccess.READ);
+		program.setArgumentMem(3, output.mem);
+		program.setGlobalWorkGroupSizes(count);
+		program.enqueueKernel(null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	/** Put the rows into groups with the same key, numbered from 0.
+	 * @param keys INT column of keys. (With HASH, keys can't be Integer.MIN_VALUE or Integer.MIN_VALUE + 1. See GPUHashTable.)
+	 * @param grouping HASH (faster, with groups in no particular order) or SORT (with groups in ascending order of key).
+	 * @param groupIds INT GPUMem to write the group of each row to, with room for every row.
+	 * @param groupKeys INT GPUMem to write the key of each group to, with room for every group
+	 * (which is at most the number of rows).
+	 * @return The number of groups.
+	 */
+	public static synchronized int groupBy(GPUMem keys, Grouping grouping, GPUMem groupIds, GPUMem groupKeys) {
+		
+		checkColumn(keys, "Keys");
+		checkColumn(groupIds, "Group ids");
+		checkColumn(groupKeys, "Group keys");
+		
+		if (keys.type != ArrayType.INT || groupIds.type != ArrayType.INT || groupKeys.type != ArrayType.INT) {
+			error("Keys, group ids, and group keys must be INT GPUMems.");
+		}
+		
+		if (grouping == null) {
+			error("Argument is null");
+		}
+		
+		final int n = getRows(keys);
+		if (groupIds.maxAllocatedSize < n) {
+			error("Group ids need " + n + " elements, but only have " + groupIds.maxAllocatedSize);
+		}
+		
+		if (n == 0) {
+			return 0;
+		}
+		
+		if (grouping == Grouping.HASH) {
+			return hashGroups(keys, n, groupIds, groupKeys);
+		}
+		return sortGroups(keys, n, groupIds, groupKeys);
+	}
+	
+	/** Combine the values of the rows in each group.
+	 * Groups without any rows get 0 (SUM and COUNT), the largest (MIN) or smallest (MAX) value
+	 * (infinity for FLOAT), or NaN (AVG).
+	 * @param groupIds INT GPUMem of the group of each row, such as from groupBy(). Rows with a negative group are skipped.
+	 * Its arrayRange.size is the number of rows.
+	 * @param values INT or FLOAT column of values. (May be null for COUNT.)
+	 * @param groups The number of groups. (With 0 groups, nothing is written.)
+	 * @param aggregate How to combine the values.
+	 * @param results GPUMem to write the result of each group to, with room for every group. It is INT for COUNT,
+	 * FLOAT for AVG, and the type of the values otherwise.
+	 */
+	public static synchronized void aggregate(GPUMem groupIds, GPUMem values, int groups, Aggregate aggregate, GPUMem results) {
+		
+		checkColumn(groupIds, "Group ids");
+		checkColumn(results, "Results");
+		
+		if (aggregate == null) {
+			error("Argument is null");
+		}
+		
+		if (groupIds.type != ArrayType.INT) {
+			error("Group ids must be an INT GPUMem, not " + groupIds.type);
+		}
+		
+		final int n = getRows(groupIds);
+		ArrayType valueType = ArrayType.INT;
+		if (aggregate != Aggregate.COUNT) {
+			checkColumn(values, "Values");
+			
+			if (values.type != ArrayType.INT && values.type != ArrayType.FLOAT) {
+				error("Values must be an INT or FLOAT GPUMem, not " + values.type);
+			}
+			
+			if (values.maxAllocatedSize < n) {
+				error("Values need " + n + " elements, but only have " + values.maxAllocatedSize);
+			}
+			valueType = values.type;
+		}
+		
+		ArrayType resultType = valueType;
+		if (aggregate == Aggregate.COUNT) {
+			resultType = ArrayType.INT;
+		} else if (aggregate == Aggregate.AVG) {
+			resultType = ArrayType.FLOAT;
+		}
+		
+		if (results.type != resultType) {
+			error(aggregate + " of " + valueType + " values needs a " + resultType + " results GPUMem, not " + results.type);
+		}
+		
+		if (groups < 0 || results.maxAllocatedSize < groups) {
+			error("Can't aggregate " + groups + " groups with room for " + results.maxAllocatedSize + " results.");
+		}
+		
+		if (groups == 0) {
+			return;
+		}
+		
+		if (aggregate == Aggregate.AVG) {
+			// Sum and count, then divide
+			GPUMem counts = createTemp(ArrayType.INT, groups);
+			runAggregate(groupIds.mem, groupIds.mem, n, ArrayType.INT, Aggregate.COUNT, counts.mem, groups);
+			runAggregate(groupIds.mem, values.mem, n, valueType, Aggregate.AVG, results.mem, groups);
+			
+			getPrograms();
+			averageProgram.setArgumentMem(0, results.mem);
+			averageProgram.setArgumentMem(1, counts.mem);
+			averageProgram.setArgument(2, groups, GPUAccess.READ);
+			averageProgram.setGlobalWorkGroupSizes(groups);
+			averageProgram.enqueueKernel(null, null);
+			CL.clFinish(GPUProgram.commandQueue);
+			counts.dispose();
+		} else {
+			runAggregate(groupIds.mem, (values != null) ? values.mem : groupIds.mem, n, valueType, aggregate, results.mem, groups);
+			CL.clFinish(GPUProgram.commandQueue);
+		}
+	}
+	
+	/** Find the rows with the k largest values of a column, largest first.
+	 * (Rows with equal values are in descending order of row index.)
+	 * @param column INT, FLOAT, or LONG column.
+	 * @param k The number of rows to find (at most the number of rows).
+	 * @param indices INT GPUMem to write the row indices to, with room for k elements.
+	 */
+	public static synchronized void topK(GPUMem column, int k, GPUMem indices) {
+		
+		checkColumn(column, "Column");
+		checkColumn(indices, "Indices");
+		
+		if (column.type != ArrayType.INT && column.type != ArrayType.FLOAT && column.type != ArrayType.LONG) {
+			error("Column must be INT, FLOAT, or LONG, not " + column.type);
+		}
+		
+		if (indices.type != ArrayType.INT) {
+			error("Indices must be an INT GPUMem, not " + indices.type);
+		}
+		
+		final int n = getRows(column);
+		if (k < 0 || k > n || indices.maxAllocatedSize < k) {
+			error("Can't find the top " + k + " of " + n + " rows with room for " + indices.maxAllocatedSize + " indices.");
+		}
+		
+		if (k == 0) {
+			return;
+		}
+		
+		// Sort a copy of the column with the index of each row, then take the end of the sorted indices
+		GPUMem sorted = copyTemp(column, n);
+		GPUMem rows = createTemp(ArrayType.INT, n);
+		GPUFill.iota(rows, 0, 1);
+		GPUSort.sort(sorted, rows);
+		
+		getPrograms();
+		reverseProgram.setArgumentMem(0, rows.mem);
+		reverseProgram.setArgument(1, n, GPUAccess.READ);
+		reverseProgram.setArgument(2, k, GPUAccess.READ);
+		reverseProgram.setArgumentMem(3, indices.mem);
+		reverseProgram.setGlobalWorkGroupSizes(k);
+		reverseProgram.enqueueKernel(null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+		
+		sorted.dispose();
+		rows.dispose();
+	}
+	
+	/** Release the kernels used by the operators.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void dispose() {
+		if (selectProgram != null) {
+			selectProgram.dispose();
+			runStartProgram.dispose();
+			sortedGroupsProgram.dispose();
+			reverseProgram.dispose();
+			averageProgram.dispose();
+			selectProgram = null;
+			runStartProgram = null;
+			sortedGroupsProgram = null;
+			reverseProgram = null;
+			averageProgram = null;
+		}
+		
+		if (gatherPrograms != null) {
+			for (int i = 0; i < gatherPrograms.length; i++) {
+				if (gatherPrograms[i] != null) {
+					gatherPrograms[i].dispose();
+				}
+			}
+			gatherPrograms = null;
+		}
+		
+		if (aggregatePrograms != null) {
+			for (int i = 0; i < aggregatePrograms.length; i++) {
+				for (int j = 0; j < aggregatePrograms[i].length; j++) {
+					if (aggregatePrograms[i][j] != null) {
+						aggregatePrograms[i][j].dispose();
+					}
+				}
+			}
+			aggregatePrograms = null;
+		}
+	}
+	
+	// Insert the keys into a hash table to find the groups, then number the groups and look up the group of each row
+	private static int hashGroups(GPUMem keys, int n, GPUMem groupIds, GPUMem groupKeys) {
+		
+		// Insert a piece at a time, because an insert grows the table to fit every key in it
+		GPUHashTable table = new GPUHashTable(ArrayType.INT, Math.min(n, INSERT_ROWS));
+		for (int start = 0; start < n; start += INSERT_ROWS) {
+			GPUMem piece = keys.createView(new GPURange(start, Math.min(n, start + INSERT_ROWS)));
+			table.insert(piece);
+			piece.dispose();
+		}
+		
+		final int groups = table.size();
+		if (groupKeys.maxAllocatedSize < groups) {
+			error("Group keys need " + groups + " elements, but only have " + groupKeys.maxAllocatedSize);
+		}
+		
+		// The keys in the table are the keys of the groups. Insert them again, so each one gets its index as its value.
+		GPUMem ignoredValues = createTemp(ArrayType.INT, groups);
+		table.copyEntries(groupKeys, ignoredValues);
+		ignoredValues.dispose();
+		table.clear();
+		GPUMem groupKeysView = groupKeys.createView(new GPURange(0, groups));
+		table.insert(groupKeysView);
+		groupKeysView.dispose();
+		
+		table.probe(keys, groupIds, -1);
+		table.dispose();
+		return groups;
+	}
+	
+	// Sort the keys with their row indices, then number the runs of equal keys
+	private static int sortGroups(GPUMem keys, int n, GPUMem groupIds, GPUMem groupKeys) {
+		
+		GPUMem sortedKeys = copyTemp(keys, n);
+		GPUMem rows = createTemp(ArrayType.INT, n);
+		GPUFill.iota(rows, 0, 1);
+		GPUSort.sort(sortedKeys, rows);
+		
+		getPrograms();
+		GPUMem groupNumbers = createTemp(ArrayType.INT, n);
+		runStartProgram.setArgumentMem(0, sortedKeys.mem);
+		runStartProgram.setArgument(1, n, GPUAccess.READ);
+		runStartProgram.setArgumentMem(2, groupNumbers.mem);
+		runStartProgram.setGlobalWorkGroupSizes(n);
+		runStartProgram.enqueueKernel(null, null);
+		GPUScan.inclusiveScan(groupNumbers, groupNumbers);
+		
+		final int groups = readInt(groupNumbers.mem, n - 1);
+		if (groupKeys.maxAllocatedSize < groups) {
+			error("Group keys need " + groups + " elements, but only have " + groupKeys.maxAllocatedSize);
+		}
+		
+		sortedGroupsProgram.setArgumentMem(0, sortedKeys.mem);
+		sortedGroupsProgram.setArgumentMem(1, rows.mem);
+		sortedGroupsProgram.setArgumentMem(2, groupNumbers.mem);
+		sortedGroupsProgram.setArgument(3, n, GPUAccess.READ);
+		sortedGroupsProgram.setArgumentMem(4, groupIds.mem);
+		sortedGroupsProgram.setArgumentMem(5, groupKeys.mem);
+		sortedGroupsProgram.setGlobalWorkGroupSizes(n);
+		sortedGroupsProgram.enqueueKernel(null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+		
+		sortedKeys.dispose();
+		rows.dispose();
+		groupNumbers.dispose();
+		return groups;
+	}
+	
+	// Set every result to the starting value of the aggregate, then run aggregateKernel
+	// (For AVG, this only sums the values as floats)
+	private static void runAggregate(cl_mem groupIds, cl_mem values, int n, ArrayType valueType, Aggregate aggregate,
+			cl_mem results, int groups) {
+		
+		final boolean isFloat = (aggregate == Aggregate.AVG || (aggregate != Aggregate.COUNT && valueType == ArrayType.FLOAT));
+		final ArrayType resultType = isFloat ? ArrayType.FLOAT : ArrayType.INT;
+		Pointer identity = null;
+		if (aggregate == Aggregate.MIN) {
+			identity = isFloat ? Pointer.to(new float[] {Float.POSITIVE_INFINITY}) : Pointer.to(new int[] {Integer.MAX_VALUE});
+		} else if (aggregate == Aggregate.MAX) {
+			identity = isFloat ? Pointer.to(new float[] {Float.NEGATIVE_INFINITY}) : Pointer.to(new int[] {Integer.MIN_VALUE});
+		} else {
+			identity = isFloat ? Pointer.to(new float[] {0}) : Pointer.to(new int[] {0});
+		}
+		CL.clEnqueueFillBuffer(GPUProgram.commandQueue, results, identity, resultType.getSize(), 0,
+				(long)groups * resultType.getSize(), 0, null, null);
+		if (n == 0) {
+			return;
+		}
+		
+		final GPUProgram program = getAggregateProgram(valueType, aggregate);
+		final int groupSize = Math.min(MAX_GROUP_SIZE, program.getKernelMaxLocalWorkGroupSize());
+		final long workGroups = Math.min((n + groupSize - 1) / groupSize, (long)GROUPS_PER_UNIT * GPUProgram.getMaxComputeUnits());
+		final boolean useLocal = (long)groups * resultType.getSize() <= GPUProgram.getLocalMemorySize() / 2;
+		
+		program.setArgumentMem(0, groupIds);
+		program.setArgumentMem(1, values);
+		program.setArgument(2, n, GPUAccess.READ);
+		program.setArgumentMem(3, results);
+		program.setLocalArgument(4, resultType, useLocal ? groups : 1);
+		program.setArgument(5, groups, GPUAccess.READ);
+		program.setArgument(6, useLocal ? 1 : 0, GPUAccess.READ);
+		program.setLocalWorkGroupSizes(groupSize);
+		program.setGlobalWorkGroupSizes(workGroups * groupSize);
+		program.enqueueKernel(null, null);
+	}
+	
+	// Check that a column can be used
+	private static void checkColumn(GPUMem column, String name) {
+		
+		if (column == null) {
+			error(name + " GPUMem is null");
+		}
+		
+		if (column.mem == null || column.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (column.isImage()) {
+			error(name + " GPUMem cannot be an image.");
+		}
+	}
+	
+	// Return the number of rows in a column
+	private static int getRows(GPUMem column) {
+		if (column.arrayRange.size > Integer.MAX_VALUE) {
+			error("Columns can't have more than " + Integer.MAX_VALUE + " rows. (Got " + column.arrayRange.size + ")");
+		}
+		return (int)column.arrayRange.size;
+	}
+	
+	// Allocate a GPUMem on the GPU that isn't copied to or from an array
+	private static GPUMem createTemp(ArrayType type, long n) {
+		cl_mem mem = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, n * type.getSize(), null, null);
+		GPUProgram.allocCounter++;
+		return new GPUMem(mem, null, type, new GPURange(0, n), GPUAccess.READ_WRITE);
+	}
+	
+	// Allocate a GPUMem with a copy of the first n elements of 'column'
+	private static GPUMem copyTemp(GPUMem column, long n) {
+		GPUMem copy = createTemp(column.type, n);
+		CL.clEnqueueCopyBuffer(GPUProgram.commandQueue, column.mem, copy.mem, 0, 0, n * column.type.getSize(), 0, null, null);
+		return copy;
+	}
+	
+	// Copy one int to the CPU
+	private static int readInt(cl_mem mem, long index) {
+		int[] value = new int[1];
+		CL.clEnqueueReadBuffer(GPUProgram.commandQueue, mem, CL.CL_TRUE, index * ArrayType.INT.getSize(), ArrayType.INT.getSize(),
+				Pointer.to(value), 0, null, null);
+		GPUProgram.copyToCPUCounter++;
+		return value[0];
+	}
+	
+	// Compile the kernels that don't depend on the type of a column the first time they're needed
+	private static void getPrograms() {
+		if (selectProgram == null) {
+			final String options = ArrayType.INT.getOpenCLDefines();
+			selectProgram = GPUProgram.fromLibrary("selectKernel", "GPUColumns.cl", options);
+			runStartProgram = GPUProgram.fromLibrary("runStartKernel", "GPUColumns.cl", options);
+			sortedGroupsProgram = GPUProgram.fromLibrary("sortedGroupsKernel", "GPUColumns.cl", options);
+			reverseProgram = GPUProgram.fromLibrary("reverseKernel", "GPUColumns.cl", options);
+			averageProgram = GPUProgram.fromLibrary("averageKernel", "GPUColumns.cl", options);
+		}
+	}
+	
+	// Return the gather kernel for this type, compiling it the first time it's needed
+	private static GPUProgram getGatherProgram(ArrayType type) {
+		
+		if (gatherPrograms == null) {
+			gatherPrograms = new GPUProgram[ArrayType.values().length];
+		}
+		
+		if (gatherPrograms[type.ordinal()] == null) {
+			if (type == ArrayType.DOUBLE && !GPUProgram.isDoubleSupported()) {
+				error("This GPU does not support doubles.");
+			}
+			gatherPrograms[type.ordinal()] = GPUProgram.fromLibrary("gatherKernel", "GPUColumns.cl", type.getOpenCLDefines());
+		}
+		
+		return gatherPrograms[type.ordinal()];
+	}
+	
+	// Return the aggregate kernel for this type of values, compiling it the first time it's needed
+	private static GPUProgram getAggregateProgram(ArrayType valueType, Aggregate aggregate) {
+		
+		if (aggregatePrograms == null) {
+			aggregatePrograms = new GPUProgram[ArrayType.values().length][Aggregate.values().length];
+		}
+		
+		if (aggregatePrograms[valueType.ordinal()][aggregate.ordinal()] == null) {
+			final boolean isFloat = (aggregate == Aggregate.AVG || (aggregate != Aggregate.COUNT && valueType == ArrayType.FLOAT));
+			String options = valueType.getOpenCLDefines() + (isFloat ? " -D ACC=float -D ACC_IS_FLOAT" : " -D ACC=int");
+			if (aggregate == Aggregate.MIN) {
+				options += " -D OP_MIN -D IDENTITY=" + (isFloat ? "INFINITY" : "INT_MAX");
+			} else if (aggregate == Aggregate.MAX) {
+				options += " -D OP_MAX -D IDENTITY=" + (isFloat ? "-INFINITY" : "INT_MIN");
+			} else {
+				options += " -D OP_SUM -D IDENTITY=0";
+			}
+			
+			if (aggregate == Aggregate.COUNT) {
+				options += " -D COUNT";
+			} else if (aggregate == Aggregate.AVG) {
+				options += " -D CONVERT";
+			}
+			aggregatePrograms[valueType.ordinal()][aggregate.ordinal()] = GPUProgram.fromLibrary("aggregateKernel", "GPUColumns.cl", options);
+		}
+		
+		return aggregatePrograms[valueType.ordinal()][aggregate.ordinal()];
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
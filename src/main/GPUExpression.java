@@ -0,0 +1,833 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUExpression records element-wise math on GPUMems and arrays, and runs the whole expression as one
+ * generated OpenCL kernel, so a chain of operators reads and writes memory once instead of once per operator.
+ * It goes with GPUProgram.
+ *
+ * Nothing runs until evaluate() is called:
+ *	GPUExpression a = GPUExpression.of(aMem);
+ *	GPUExpression b = GPUExpression.of(bArray);
+ *	GPUExpression result = GPUExpression.select(a.greaterThan(0), a.add(b).multiply(2), b.negate());
+ *	result.evaluate(outputMem);
+ *
+ * Inputs can be int, float, or double GPUMems or arrays (arrays are copied to the GPU each time the expression
+ * is evaluated). Math on ints and whole-number constants is done in ints (so it wraps around like Java ints, and
+ * ints above 2^24 stay exact), and so are min, max, abs, floor, ceil, comparisons, and select() of ints. Everything
+ * else (including divide and pow) is done in floats, or in doubles if any input or the output is double. The
+ * result is cast to the type of the output. Comparisons give 1 for true and 0 for false, and select() picks its
+ * second argument where the first is nonzero.
+ *
+ * The kernel of each expression shape is compiled once and cached, so evaluating the same expression again
+ * (or one with the same operators on different inputs or constants) doesn't compile anything. Constants are
+ * passed as kernel arguments, so changing them doesn't make a new shape (unless a whole number becomes a fraction).
+ */
+
+public class GPUExpression {
+	
+	private static final int MAX_CACHED_KERNELS = 64;	// Kernels kept by the cache
+	
+	// Kinds of expressions
+	private static final int MEM = 0;		// A GPUMem
+	private static final int ARRAY = 1;		// An array on the CPU, copied to the GPU when evaluated
+	private static final int CONSTANT = 2;	// A number, passed to the kernel as an argument
+	private static final int UNARY = 3;		// A function of one expression
+	private static final int BINARY = 4;	// An operator or function of two expressions
+	private static final int SELECT = 5;	// One of two expressions, depending on a third
+	
+	private static String[] cachedSources = new String[MAX_CACHED_KERNELS];		// Source code of each cached kernel
+	private static GPUProgram[] cachedPrograms = new GPUProgram[MAX_CACHED_KERNELS];	// Compiled cached kernels
+	private static int nextCachedKernel = 0;		// Where the next new kernel is cached
+	
+	private final int kind;				// What this expression is (MEM, ARRAY, ...)
+	private final String operator;		// OpenCL operator or function (UNARY and BINARY only)
+	private final GPUExpression a;		// First operand (or condition for SELECT)
+	private final GPUExpression b;		// Second operand
+	private final GPUExpression c;		// Third operand (SELECT only)
+	private final GPUMem mem;			// Input on the GPU (MEM only)
+	private final Object array;			// Input on the CPU (ARRAY only)
+	private final ArrayType type;		// Type of the input (MEM and ARRAY only)
+	private final double value;			// Value of a CONSTANT
+	
+	// Used by the factory functions and operators
+	private GPUExpression(int kind, String operator, GPUExpression a, GPUExpression b, GPUExpression c,
+			GPUMem mem, Object array, ArrayType type, double value) {
+		this.kind = kind;
+		this.operator = operator;
+		this.a = a;
+		this.b = b;
+		this.c = c;
+		this.mem = mem;
+		this.array = array;
+		this.type = type;
+		this.value = value;
+	}
+	
+	/** Return an expression for the elements of a GPUMem.
+	 * @param mem An INT, FLOAT, or DOUBLE GPUMem.
+	 * @return The expression.
+	 */
+	public static GPUExpression of(GPUMem mem) {
+		
+		if (mem == null) {
+			error("Argument is null");
+		}
+		
+		if (mem.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (mem.isImage() || (mem.type != ArrayType.INT && mem.type != ArrayType.FLOAT && mem.type != ArrayType.DOUBLE)) {
+			error("Expressions only support INT, FLOAT, and DOUBLE GPUMems, not " + mem.type);
+		}
+		
+		return new GPUExpression(MEM, null, null, null, null, mem, null, mem.type, 0);
+	}
+	
+	/** Return an expression for the elements of an array, which is copied to the GPU when the expression is evaluated.
+	 * @param array The array.
+	 * @return The expression.
+	 */
+	public static GPUExpression of(int[] array) {
+		return ofArray(array, ArrayType.INT);
+	}
+	
+	/** Return an expression for the elements of an array, which is copied to the GPU when the expression is evaluated.
+	 * @param array The array.
+	 * @return The expression.
+	 */
+	public static GPUExpression of(float[] array) {
+		return ofArray(array, ArrayType.FLOAT);
+	}
+	
+	/** Return an expression for the elements of an array, which is copied to the GPU when the expression is evaluated.
+	 * @param array The array.
+	 * @return The expression.
+	 */
+	public static GPUExpression of(double[] array) {
+		return ofArray(array, ArrayType.DOUBLE);
+	}
+	
+	/** Return an expression that's the same number for every element.
+	 * @param value The number.
+	 * @return The expression.
+	 */
+	public static GPUExpression constant(double value) {
+		return new GPUExpression(CONSTANT, null, null, null, null, null, null, null, value);
+	}
+	
+	/** Return an expression that's 'ifTrue' where 'condition' is nonzero, and 'ifFalse' everywhere else.
+	 * @param condition Usually a comparison.
+	 * @param ifTrue The value where the condition is true.
+	 * @param ifFalse The value where the condition is false.
+	 * @return The expression.
+	 */
+	public static GPUExpression select(GPUExpression condition, GPUExpression ifTrue, GPUExpression ifFalse) {
+		
+		if (condition == null || ifTrue == null || ifFalse == null) {
+			error("Argument is null");
+		}
+		
+		return new GPUExpression(SELECT, null, condition, ifTrue, ifFalse, null, null, null, 0);
+	}
+	
+	/** Return an expression for this + other.
+	 * @param other The expression to add.
+	 * @return The expression.
+	 */
+	public GPUExpression add(GPUExpression other) {
+		return binary("+", other);
+	}
+	
+	/** Return an expression for this + other.
+	 * @param other The number to add.
+	 * @return The expression.
+	 */
+	public GPUExpression add(double other) {
+		return binary("+", constant(other));
+	}
+	
+	/** Return an expression for this - other.
+	 * @param other The expression to subtract.
+	 * @return The expression.
+	 */
+	public GPUExpression subtract(GPUExpression other) {
+		return binary("-", other);
+	}
+	
+	/** Return an expression for this - other.
+	 * @param other The number to subtract.
+	 * @return The expression.
+	 */
+	public GPUExpression subtract(double other) {
+		return binary("-", constant(other));
+	}
+	
+	/** Return an expression for this * other.
+	 * @param other The expression to multiply by.
+	 * @return The expression.
+	 */
+	public GPUExpression multiply(GPUExpression other) {
+		return binary("*", other);
+	}
+	
+	/** Return an expression for this * other.
+	 * @param other The number to multiply by.
+	 * @return The expression.
+	 */
+	public GPUExpression multiply(double other) {
+		return binary("*", constant(other));
+	}
+	
+	/** Return an expression for this / other.
+	 * @param other The expression to divide by.
+	 * @return The expression.
+	 */
+	public GPUExpression divide(GPUExpression other) {
+		return binary("/", other);
+	}
+	
+	/** Return an expression for this / other.
+	 * @param other The number to divide by.
+	 * @return The expression.
+	 */
+	public GPUExpression divide(double other) {
+		return binary("/", constant(other));
+	}
+	
+	/** Return an expression for the smaller of this and other.
+	 * @param other The other expression.
+	 * @return The expression.
+	 */
+	public GPUExpression min(GPUExpression other) {
+		return binary("fmin", other);
+	}
+	
+	/** Return an expression for the smaller of this and other.
+	 * @param other The other number.
+	 * @return The expression.
+	 */
+	public GPUExpression min(double other) {
+		return binary("fmin", constant(other));
+	}
+	
+	/** Return an expression for the larger of this and other.
+	 * @param other The other expression.
+	 * @return The expression.
+	 */
+	public GPUExpression max(GPUExpression other) {
+		return binary("fmax", other);
+	}
+	
+	/** Return an expression for the larger of this and other.
+	 * @param other The other number.
+	 * @return The expression.
+	 */
+	public GPUExpression max(double other) {
+		return binary("fmax", constant(other));
+	}
+	
+	/** Return an expression for this to the power of exponent.
+	 * @param exponent The power to raise this to.
+	 * @return The expression.
+	 */
+	public GPUExpression pow(GPUExpression exponent) {
+		return binary("pow", exponent);
+	}
+	
+	/** Return an expression for this to the power of exponent.
+	 * @param exponent The power to raise this to.
+	 * @return The expression.
+	 */
+	public GPUExpression pow(double exponent) {
+		return binary("pow", constant(exponent));
+	}
+	
+	/** Return an expression for 1 where this &lt; other, otherwise 0.
+	 * @param other The expression to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression lessThan(GPUExpression other) {
+		return binary("<", other);
+	}
+	
+	/** Return an expression for 1 where this &lt; other, otherwise 0.
+	 * @param other The number to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression lessThan(double other) {
+		return binary("<", constant(other));
+	}
+	
+	/** Return an expression for 1 where this &lt;= other, otherwise 0.
+	 * @param other The expression to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression lessOrEqual(GPUExpression other) {
+		return binary("<=", other);
+	}
+	
+	/** Return an expression for 1 where this &lt;= other, otherwise 0.
+	 * @param other The number to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression lessOrEqual(double other) {
+		return binary("<=", constant(other));
+	}
+	
+	/** Return an expression for 1 where this &gt; other, otherwise 0.
+	 * @param other The expression to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression greaterThan(GPUExpression other) {
+		return binary(">", other);
+	}
+	
+	/** Return an expression for 1 where this &gt; other, otherwise 0.
+	 * @param other The number to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression greaterThan(double other) {
+		return binary(">", constant(other));
+	}
+	
+	/** Return an expression for 1 where this &gt;= other, otherwise 0.
+	 * @param other The expression to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression greaterOrEqual(GPUExpression other) {
+		return binary(">=", other);
+	}
+	
+	/** Return an expression for 1 where this &gt;= other, otherwise 0.
+	 * @param other The number to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression greaterOrEqual(double other) {
+		return binary(">=", constant(other));
+	}
+	
+	/** Return an expression for 1 where this == other, otherwise 0.
+	 * @param other The expression to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression isEqual(GPUExpression other) {
+		return binary("==", other);
+	}
+	
+	/** Return an expression for 1 where this == other, otherwise 0.
+	 * @param other The number to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression isEqual(double other) {
+		return binary("==", constant(other));
+	}
+	
+	/** Return an expression for 1 where this != other, otherwise 0.
+	 * @param other The expression to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression notEqual(GPUExpression other) {
+		return binary("!=", other);
+	}
+	
+	/** Return an expression for 1 where this != other, otherwise 0.
+	 * @param other The number to compare to.
+	 * @return The expression.
+	 */
+	public GPUExpression notEqual(double other) {
+		return binary("!=", constant(other));
+	}
+	
+	/** Return an expression for -this.
+	 * @return The expression.
+	 */
+	public GPUExpression negate() {
+		return unary("-");
+	}
+	
+	/** Return an expression for the absolute value of this.
+	 * @return The expression.
+	 */
+	public GPUExpression abs() {
+		return unary("fabs");
+	}
+	
+	/** Return an expression for the square root of this.
+	 * @return The expression.
+	 */
+	public GPUExpression sqrt() {
+		return unary("sqrt");
+	}
+	
+	/** Return an expression for e to the power of this.
+	 * @return The expression.
+	 */
+	public GPUExpression exp() {
+		return unary("exp");
+	}
+	
+	/** Return an expression for the natural logarithm of this.
+	 * @return The expression.
+	 */
+	public GPUExpression log() {
+		return unary("log");
+	}
+	
+	/** Return an expression for the sine of this (in radians).
+	 * @return The expression.
+	 */
+	public GPUExpression sin() {
+		return unary("sin");
+	}
+	
+	/** Return an expression for the cosine of this (in radians).
+	 * @return The expression.
+	 */
+	public GPUExpression cos() {
+		return unary("cos");
+	}
+	
+	/** Return an expression for the hyperbolic tangent of this.
+	 * @return The expression.
+	 */
+	public GPUExpression tanh() {
+		return unary("tanh");
+	}
+	
+	/** Return an expression for this rounded down to a whole number.
+	 * @return The expression.
+	 */
+	public GPUExpression floor() {
+		return unary("floor");
+	}
+	
+	/** Return an expression for this rounded up to a whole number.
+	 * @return The expression.
+	 */
+	public GPUExpression ceil() {
+		return unary("ceil");
+	}
+	
+	/** Compute the expression for every element of 'output', in one kernel. Nothing is copied to the CPU.
+	 * @param output An INT, FLOAT, or DOUBLE GPUMem to write the result into. Every input must have at least as many elements.
+	 * It may also be one of the inputs.
+	 */
+	public void evaluate(GPUMem output) {
+		
+		if (output == null) {
+			error("Argument is null");
+		}
+		
+		if (output.mem == null || output.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (output.isImage() || (output.type != ArrayType.INT && output.type != ArrayType.FLOAT && output.type != ArrayType.DOUBLE)) {
+			error("Expressions can only write INT, FLOAT, and DOUBLE GPUMems, not " + output.type);
+		}
+		
+		evaluate(this, output.mem, null, output.type, output.arrayRange.size);
+	}
+	
+	/** Compute the expression for every element of 'output', in one kernel, and copy the result to 'output'.
+	 * @param output The array to write the result into. Every input must have at least as many elements.
+	 */
+	public void evaluate(int[] output) {
+		
+		if (output == null) {
+			error("Argument is null");
+		}
+		
+		evaluate(this, null, output, ArrayType.INT, output.length);
+	}
+	
+	/** Compute the expression for every element of 'output', in one kernel, and copy the result to 'output'.
+	 * @param output The array to write the result into. Every input must have at least as many elements.
+	 */
+	public void evaluate(float[] output) {
+		
+		if (output == null) {
+			error("Argument is null");
+		}
+		
+		evaluate(this, null, output, ArrayType.FLOAT, output.length);
+	}
+	
+	/** Compute the expression for every element of 'output', in one kernel, and copy the result to 'output'.
+	 * @param output The array to write the result into. Every input must have at least as many elements.
+	 */
+	public void evaluate(double[] output) {
+		
+		if (output == null) {
+			error("Argument is null");
+		}
+		
+		evaluate(this, null, output, ArrayType.DOUBLE, output.length);
+	}
+	
+	/** Release the cached kernels.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void dispose() {
+		for (int i = 0; i < cachedPrograms.length; i++) {
+			if (cachedPrograms[i] != null) {
+				cachedPrograms[i].dispose();
+				cachedPrograms[i] = null;
+				cachedSources[i] = null;
+			}
+		}
+		nextCachedKernel = 0;
+	}
+	
+	// Return an expression for an array
+	private static GPUExpression ofArray(Object array, ArrayType type) {
+		
+		if (array == null) {
+			error("Argument is null");
+		}
+		
+		return new GPUExpression(ARRAY, null, null, null, null, null, array, type, 0);
+	}
+	
+	// Return a function of this expression
+	private GPUExpression unary(String operator) {
+		return new GPUExpression(UNARY, operator, this, null, null, null, null, null, 0);
+	}
+	
+	// Return an operator or function of this expression and another
+	private GPUExpression binary(String operator, GPUExpression other) {
+		
+		if (other == null) {
+			error("Argument is null");
+		}
+		
+		return new GPUExpression(BINARY, operator, this, other, null, null, null, null, 0);
+	}
+	
+	// Generate (or find) the kernel for this expression, bind its inputs, and run it.
+	// Either 'outputMem' or 'outputArray' is null.
+	private static synchronized void evaluate(GPUExpression root, cl_mem outputMem, Object outputArray, ArrayType outputType, long n) {
+		
+		GPUProgram.initializeGPU();
+		
+		if (n == 0) {
+			return;
+		}
+		
+		if (n > Integer.MAX_VALUE) {
+			error("Cannot evaluate more than " + Integer.MAX_VALUE + " elements.");
+		}
+		
+		// List every expression once, with operands before the expressions using them
+		GPUExpression[] nodes = new GPUExpression[16];
+		int numNodes = 0;
+		GPUExpression[] stack = new GPUExpression[16];
+		boolean[] expanded = new boolean[16];
+		int stackSize = 0;
+		stack[stackSize++] = root;
+		while (stackSize > 0) {
+			final GPUExpression node = stack[stackSize - 1];
+			if (indexOf(nodes, numNodes, node) >= 0) {
+				stackSize--;
+			} else if (expanded[stackSize - 1] || node.a == null) {
+				if (numNodes == nodes.length) {
+					nodes = copyOf(nodes, 2 * numNodes);
+				}
+				nodes[numNodes++] = node;
+				stackSize--;
+			} else {
+				expanded[stackSize - 1] = true;
+				if (stackSize + 3 > stack.length) {
+					stack = copyOf(stack, 2 * stack.length);
+					boolean[] newExpanded = new boolean[stack.length];
+					System.arraycopy(expanded, 0, newExpanded, 0, stackSize);
+					expanded = newExpanded;
+				}
+				final GPUExpression[] operands = {node.c, node.b, node.a};
+				for (int i = 0; i < operands.length; i++) {
+					if (operands[i] != null) {
+						expanded[stackSize] = false;
+						stack[stackSize++] = operands[i];
+					}
+				}
+			}
+		}
+		
+		// Give each input a kernel argument (the same GPUMem or array is only passed once)
+		final int[] argumentOf = new int[numNodes];
+		final GPUExpression[] arguments = new GPUExpression[numNodes];
+		int numArguments = 0;
+		boolean useDouble = (outputType == ArrayType.DOUBLE);
+		for (int i = 0; i < numNodes; i++) {
+			final GPUExpression node = nodes[i];
+			argumentOf[i] = -1;
+			if (node.kind == MEM || node.kind == ARRAY || node.kind == CONSTANT) {
+				for (int j = 0; j < numArguments && argumentOf[i] < 0; j++) {
+					if ((node.kind == MEM && arguments[j].kind == MEM && arguments[j].mem.mem == node.mem.mem) ||
+						(node.kind == ARRAY && arguments[j].array == node.array)) {
+						argumentOf[i] = j;
+					}
+				}
+				if (argumentOf[i] < 0) {
+					checkInput(node, n);
+					argumentOf[i] = numArguments;
+					arguments[numArguments++] = node;
+				}
+				useDouble |= (node.type == ArrayType.DOUBLE);
+			}
+		}
+		
+		if (useDouble && !GPUProgram.isDoubleSupported()) {
+			error("This GPU does not support doubles.");
+		}
+		
+		// Find the expressions computed in ints (operands come first, so theirs are already known)
+		final boolean[] isInt = new boolean[numNodes];
+		for (int i = 0; i < numNodes; i++) {
+			final GPUExpression node = nodes[i];
+			if (node.kind == MEM || node.kind == ARRAY) {
+				isInt[i] = (node.type == ArrayType.INT);
+			} else if (node.kind == CONSTANT) {
+				isInt[i] = isWholeNumber(node.value);
+			} else if (node.kind == UNARY) {
+				isInt[i] = isInt[indexOf(nodes, numNodes, node.a)] && isIntOperator(node.operator);
+			} else if (node.kind == SELECT) {
+				isInt[i] = isInt[indexOf(nodes, numNodes, node.b)] && isInt[indexOf(nodes, numNodes, node.c)];
+			} else if (isComparison(node.operator)) {
+				isInt[i] = true;
+			} else {
+				isInt[i] = isInt[indexOf(nodes, numNodes, node.a)] && isInt[indexOf(nodes, numNodes, node.b)]
+						&& isIntOperator(node.operator);
+			}
+		}
+		
+		final String source = generateSource(nodes, numNodes, isInt, argumentOf, arguments, numArguments, useDouble, outputType);
+		final GPUProgram program = getProgram(source);
+		
+		// Copy arrays to the GPU, and bind everything
+		final long outputBytes = n * outputType.getSize();
+		cl_mem[] temps = new cl_mem[numArguments + 1];
+		for (int i = 0; i < numArguments; i++) {
+			final GPUExpression argument = arguments[i];
+			if (argument.kind == MEM) {
+				program.setArgumentMem(i, argument.mem.mem);
+			} else if (argument.kind == ARRAY) {
+				temps[i] = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR,
+						n * argument.type.getSize(), getPointer(argument.array), null);
+				GPUProgram.allocCounter++;
+				GPUProgram.copyToGPUCounter++;
+				program.setArgumentMem(i, temps[i]);
+			} else if (isWholeNumber(argument.value)) {
+				program.setArgument(i, (int)argument.value, GPUAccess.READ);
+			} else if (useDouble) {
+				program.setArgument(i, argument.value, GPUAccess.READ);
+			} else {
+				program.setArgument(i, (float)argument.value, GPUAccess.READ);
+			}
+		}
+		
+		if (outputMem == null) {
+			temps[numArguments] = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_WRITE_ONLY, outputBytes, null, null);
+			GPUProgram.allocCounter++;
+			outputMem = temps[numArguments];
+		}
+		
+		program.setArgumentMem(numArguments, outputMem);
+		program.setArgument(numArguments + 1, (int)n, GPUAccess.READ);
+		program.setGlobalWorkGroupSizes(n);
+		program.enqueueKernel(null, null);
+		
+		if (outputArray != null) {
+			CL.clEnqueueReadBuffer(GPUProgram.commandQueue, outputMem, true, 0, outputBytes, getPointer(outputArray), 0, null, null);
+			GPUProgram.copyToCPUCounter++;
+		}
+		
+		CL.clFinish(GPUProgram.commandQueue);
+		for (int i = 0; i < temps.length; i++) {
+			if (temps[i] != null) {
+				CL.clReleaseMemObject(temps[i]);
+			}
+		}
+	}
+	
+	// Write the kernel: one argument for each input, then the output and the number of elements.
+	// Each expression becomes one local variable, so expressions used twice are only computed once.
+	// Variables of expressions computed in ints are ints, and are cast when they're used in float math.
+	private static String generateSource(GPUExpression[] nodes, int numNodes, boolean[] isInt, int[] argumentOf,
+			GPUExpression[] arguments, int numArguments, boolean useDouble, ArrayType outputType) {
+		
+		final String t = useDouble ? "double" : "float";
+		
+		String source = "";
+		if (useDouble) {
+			source += "#pragma OPENCL EXTENSION cl_khr_fp64 : enable\n";
+		}
+		
+		source += "kernel void expressionKernel(";
+		for (int i = 0; i < numArguments; i++) {
+			if (arguments[i].kind == CONSTANT) {
+				source += "const " + (isWholeNumber(arguments[i].value) ? "int" : t) + " arg" + i + ", ";
+			} else {
+				source += "global const " + arguments[i].type.getOpenCLType() + " *arg" + i + ", ";
+			}
+		}
+		source += "global " + outputType.getOpenCLType() + " *output, const int n) {\n";
+		source += "\tconst int i = get_global_id(0);\n";
+		source += "\tif (i >= n) {\n\t\treturn;\n\t}\n";
+		
+		for (int i = 0; i < numNodes; i++) {
+			final GPUExpression node = nodes[i];
+			final String type = isInt[i] ? "int" : t;
+			String value;
+			if (node.kind == CONSTANT) {
+				value = "arg" + argumentOf[i];
+			} else if (node.kind == MEM || node.kind == ARRAY) {
+				value = "(" + type + ")arg" + argumentOf[i] + "[i]";
+			} else if (node.kind == UNARY) {
+				final String operand = operand(nodes, numNodes, isInt, node.a, type);
+				if (!isInt[i]) {
+					value = node.operator + "(" + operand + ")";
+				} else if (node.operator.equals("fabs")) {
+					value = "(int)abs(" + operand + ")";
+				} else if (node.operator.equals("-")) {
+					value = "-" + operand;
+				} else {
+					value = operand;	// floor or ceil of a whole number
+				}
+			} else if (node.kind == SELECT) {
+				value = "(" + variable(nodes, numNodes, node.a) + " != 0) ? " + operand(nodes, numNodes, isInt, node.b, type)
+						+ " : " + operand(nodes, numNodes, isInt, node.c, type);
+			} else {
+				// Comparisons are ints, but compare their operands as ints only if both are
+				final boolean intOperands = isInt[indexOf(nodes, numNodes, node.a)] && isInt[indexOf(nodes, numNodes, node.b)];
+				final String operandType = isComparison(node.operator) ? (intOperands ? "int" : t) : type;
+				final String a = operand(nodes, numNodes, isInt, node.a, operandType);
+				final String b = operand(nodes, numNodes, isInt, node.b, operandType);
+				if (!Character.isLetter(node.operator.charAt(0))) {
+					value = "(" + type + ")(" + a + " " + node.operator + " " + b + ")";
+				} else if (isInt[i]) {
+					value = node.operator.substring(1) + "(" + a + ", " + b + ")";	// min or max
+				} else {
+					value = node.operator + "(" + a + ", " + b + ")";
+				}
+			}
+			source += "\tconst " + type + " v" + i + " = " + value + ";\n";
+		}
+		
+		source += "\toutput[i] = (" + outputType.getOpenCLType() + ")v" + (numNodes - 1) + ";\n";
+		source += "}\n";
+		return source;
+	}
+	
+	// Return the name of the local variable holding an expression
+	private static String variable(GPUExpression[] nodes, int numNodes, GPUExpression node) {
+		return "v" + indexOf(nodes, numNodes, node);
+	}
+	
+	// Return the local variable holding an expression, cast to 'type' if it's an int used in float math
+	private static String operand(GPUExpression[] nodes, int numNodes, boolean[] isInt, GPUExpression node, String type) {
+		final int index = indexOf(nodes, numNodes, node);
+		return (isInt[index] && !type.equals("int")) ? "(" + type + ")v" + index : "v" + index;
+	}
+	
+	// Whether a constant can be passed to the kernel as an int
+	private static boolean isWholeNumber(double value) {
+		return value == Math.rint(value) && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+	}
+	
+	// Whether an operator gives 1 or 0
+	private static boolean isComparison(String operator) {
+		return operator.equals("<") || operator.equals("<=") || operator.equals(">") || operator.equals(">=")
+				|| operator.equals("==") || operator.equals("!=");
+	}
+	
+	// Whether an operator of ints can be computed in ints (divide, pow, and the other functions are done in floats)
+	private static boolean isIntOperator(String operator) {
+		return operator.equals("+") || operator.equals("-") || operator.equals("*") || operator.equals("fmin")
+				|| operator.equals("fmax") || operator.equals("fabs") || operator.equals("floor") || operator.equals("ceil");
+	}
+	
+	// Return the cached kernel for this source code, or compile and cache it (replacing the oldest)
+	private static GPUProgram getProgram(String source) {
+		for (int i = 0; i < cachedSources.length; i++) {
+			if (source.equals(cachedSources[i])) {
+				return cachedPrograms[i];
+			}
+		}
+		
+		if (cachedPrograms[nextCachedKernel] != null) {
+			cachedPrograms[nextCachedKernel].dispose();
+		}
+		cachedSources[nextCachedKernel] = source;
+		cachedPrograms[nextCachedKernel] = GPUProgram.fromSource("expressionKernel", source, "");
+		final GPUProgram program = cachedPrograms[nextCachedKernel];
+		nextCachedKernel = (nextCachedKernel + 1) % cachedPrograms.length;
+		return program;
+	}
+	
+	// Check that an input has at least 'n' elements
+	private static void checkInput(GPUExpression input, long n) {
+		
+		long size = n;
+		if (input.kind == MEM) {
+			if (input.mem.mem == null) {
+				error("Attempted to access deallocated GPUMem object.");
+			}
+			size = input.mem.maxAllocatedSize;
+		} else if (input.kind == ARRAY) {
+			size = getLength(input.array);
+		}
+		
+		if (size < n) {
+			error("Expression input has " + size + " elements, but the output has " + n);
+		}
+	}
+	
+	// Return the position of an expression in a list, or -1
+	private static int indexOf(GPUExpression[] list, int count, GPUExpression node) {
+		for (int i = 0; i < count; i++) {
+			if (list[i] == node) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	// Return a longer copy of a list
+	private static GPUExpression[] copyOf(GPUExpression[] list, int length) {
+		GPUExpression[] newList = new GPUExpression[length];
+		System.arraycopy(list, 0, newList, 0, Math.min(list.length, length));
+		return newList;
+	}
+	
+	// Return the length of an int[], float[], or double[]
+	private static int getLength(Object array) {
+		if (array instanceof int[]) {
+			return ((int[])array).length;
+		} else if (array instanceof float[]) {
+			return ((float[])array).length;
+		}
+		return ((double[])array).length;
+	}
+	
+	// Return a pointer to an int[], float[], or double[]
+	private static Pointer getPointer(Object array) {
+		if (array instanceof int[]) {
+			return Pointer.to((int[])array);
+		} else if (array instanceof float[]) {
+			return Pointer.to((float[])array);
+		}
+		return Pointer.to((double[])array);
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,83 @@
+// Fast Fourier transforms for GPUFFT.java
+// Complex numbers are interleaved floats (real, imaginary), so they are read as float2.
+
+#define MAX_RADIX 32
+
+// Complex multiplication
+#define CMUL(a, b) ((float2)((a).x * (b).x - (a).y * (b).y, (a).x * (b).y + (a).y * (b).x))
+
+// One pass of a mixed-radix Stockham FFT, which leaves the results in order (without a bit-reversal step).
+// Each transform of length 'n' starts at (get_global_id(2) * outerDistance + get_global_id(1) * innerDistance),
+// with 'stride' between its elements. 'l' is the product of the radices of the previous passes.
+// Each work item twiddles 'radix' elements and combines them with a DFT of size 'radix'.
+// 'twiddles' holds (cos, sin) of 2 pi s k / (l * radix), for s = 1 to radix - 1 and k = 0 to l - 1.
+// 'sign' is -1 for forward transforms and 1 for inverse transforms, and the outputs are multiplied by 'scale'.
+kernel void fftPass(global const float2 *input, global float2 *output, const int n, const int radix, const int l,
+		const int stride, const int innerDistance, const int outerDistance,
+		global const float2 *twiddles, const int twiddleOffset, const int sign, const float scale) {
+	
+	const int j = get_global_id(0);
+	const int k = j % l;
+	const int m = n / radix;
+	const size_t base = get_global_id(2) * (size_t)outerDistance + get_global_id(1) * (size_t)innerDistance;
+	
+	float2 x[MAX_RADIX];
+	for (int s = 0; s < radix; s++) {
+		x[s] = input[base + (size_t)(j + s * m) * stride];
+		if (s > 0) {
+			const float2 t = twiddles[twiddleOffset + (s - 1) * l + k];
+			x[s] = CMUL(x[s], (float2)(t.x, sign * t.y));
+		}
+	}
+	
+	const size_t outBase = base + (size_t)((j - k) * radix + k) * stride;
+	const size_t outStride = (size_t)l * stride;
+	if (radix == 2) {
+		output[outBase] = (x[0] + x[1]) * scale;
+		output[outBase + outStride] = (x[0] - x[1]) * scale;
+	} else if (radix == 4) {
+		const float2 a = x[0] + x[2];
+		const float2 b = x[0] - x[2];
+		const float2 c = x[1] + x[3];
+		const float2 d = x[1] - x[3];
+		const float2 e = (float2)(-d.y, d.x) * (float)sign; // d times (sign * i)
+		output[outBase] = (a + c) * scale;
+		output[outBase + outStride] = (b + e) * scale;
+		output[outBase + 2 * outStride] = (a - c) * scale;
+		output[outBase + 3 * outStride] = (b - e) * scale;
+	} else {
+		// Any other radix, directly
+		for (int r = 0; r < radix; r++) {
+			float2 y = (float2)(0.0f, 0.0f);
+			for (int s = 0; s < radix; s++) {
+				const float angle = sign * 2.0f * M_PI_F * ((s * r) % radix) / radix;
+				y += CMUL(x[s], (float2)(cos(angle), sin(angle)));
+			}
+			output[outBase + r * outStride] = y * scale;
+		}
+	}
+}
+
+// Finish real-to-complex transforms of length (2 * half), from the complex transforms 'z' of length 'half'
+// whose inputs were the even and odd real inputs, and write the (half + 1) non-redundant outputs.
+// Each transform starts at (get_global_id(1) * inputDistance) in 'z', and (get_global_id(1) * outputDistance) in 'output'.
+// 'realTwiddles' holds (cos, sin) of -2 pi k / (2 * half), for k = 0 to half.
+kernel void realPostProcess(global const float2 *z, global float2 *output, const int half,
+		const int inputDistance, const int outputDistance, global const float2 *realTwiddles) {
+	
+	const int k = get_global_id(0);
+	if (k > half) {
+		return;
+	}
+	
+	const size_t in = get_global_id(1) * (size_t)inputDistance;
+	const float2 zk = z[in + (k % half)];
+	const float2 zn = z[in + ((half - k) % half)];
+	const float2 conjZn = (float2)(zn.x, -zn.y);
+	
+	// Split into the transforms of the even and odd inputs, and combine them
+	const float2 even = (zk + conjZn) * 0.5f;
+	const float2 d = (zk - conjZn) * 0.5f;
+	const float2 odd = (float2)(d.y, -d.x); // d divided by i
+	output[get_global_id(1) * (size_t)outputDistance + k] = even + CMUL(odd, realTwiddles[k]);
+}
\ No newline at end of file
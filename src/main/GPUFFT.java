@@ -0,0 +1,410 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUFFT is a plan for fast Fourier transforms of one size (1D or 2D), run on float GPUMems
+ * without copying anything to the CPU. It goes with GPUProgram.
+ *
+ * Complex data is interleaved (real, imaginary, real, imaginary, ...), and 2D data is row-major.
+ * Many frames of the same size can be transformed at once ("batch"), stored one after another.
+ * Complex-to-complex transforms are done in place, and real-to-complex transforms write the
+ * (width / 2 + 1) non-redundant outputs of each row into a separate GPUMem.
+ *
+ * Any size whose prime factors are all less than 32 is supported, but sizes made of 2s, 3s, and 5s
+ * (and especially powers of two) are fastest. The twiddle factors of a plan are computed once, so keep
+ * plans around (or use getPlan) instead of creating one for each transform.
+ * Forward transforms are not scaled, and inverse transforms are scaled by 1 / (width * height),
+ * so an inverse transform undoes a forward transform.
+ */
+
+public class GPUFFT {
+	
+	private static final int MAX_RADIX = 32;		// Largest prime factor supported (must match GPUFFT.cl)
+	private static final int MAX_CACHED_PLANS = 16;	// Plans kept by getPlan()
+	
+	private static GPUProgram passProgram = null;		// Compiled fftPass kernel
+	private static GPUProgram realProgram = null;		// Compiled realPostProcess kernel
+	private static GPUFFT[] cachedPlans = new GPUFFT[MAX_CACHED_PLANS];	// Plans returned by getPlan()
+	private static int nextCachedPlan = 0;				// Where getPlan() caches the next new plan
+	
+	private final int width;				// Length of each row
+	private final int height;				// Number of rows (1 for 1D transforms)
+	private Transform rowTransform;			// Transform of each row
+	private Transform columnTransform;		// Transform of each column (2D only)
+	private Transform halfRowTransform = null;		// (Real transforms only) Complex transform of half of each row
+	private cl_mem realTwiddles = null;		// (Real transforms only) Twiddles to finish each row
+	
+	// The passes of a 1D transform of one length, and its twiddle factors on the GPU
+	private static class Transform {
+		final int n;				// Length of the transform
+		final int[] radices;		// Radix of each pass
+		final int[] twiddleOffsets;	// Offset of the twiddles of each pass
+		cl_mem twiddles;			// (cos, sin) of the angles for each pass
+		
+		Transform(int n) {
+			this.n = n;
+			
+			// Factor into 4s first, since radix-4 passes are the fastest
+			int[] factors = new int[32];
+			int numFactors = 0;
+			int remaining = n;
+			while (remaining % 4 == 0) {
+				factors[numFactors++] = 4;
+				remaining /= 4;
+			}
+			for (int p = 2; p < MAX_RADIX && remaining > 1; p++) {
+				while (remaining % p == 0) {
+					factors[numFactors++] = p;
+					remaining /= p;
+				}
+			}
+			
+			if (remaining > 1) {
+				error("FFT size " + n + " has a prime factor (" + remaining + ") that is " + MAX_RADIX + " or more.");
+			}
+			
+			radices = new int[numFactors];
+			twiddleOffsets = new int[numFactors];
+			
+			// Compute the twiddles in double precision
+			float[] table = new float[2 * Math.max(1, n - 1)];
+			int offset = 0;
+			int l = 1;
+			for (int p = 0; p < numFactors; p++) {
+				final int radix = factors[p];
+				radices[p] = radix;
+				twiddleOffsets[p] = offset;
+				for (int s = 1; s < radix; s++) {
+					for (int k = 0; k < l; k++) {
+						final double angle = 2 * Math.PI * s * k / ((double)l * radix);
+						table[2 * offset] = (float)Math.cos(angle);
+						table[2 * offset + 1] = (float)Math.sin(angle);
+						offset++;
+					}
+				}
+				l *= radix;
+			}
+			
+			twiddles = createTable(table);
+		}
+	}
+	
+	/**
+	 * Construct a new plan for 1D transforms.
+	 * @param width Length of each transform.
+	 */
+	public GPUFFT(int width) {
+		this(width, 1);
+	}
+	
+	/**
+	 * Construct a new plan for 2D transforms.
+	 * @param width Length of each row.
+	 * @param height Number of rows.
+	 */
+	public GPUFFT(int width, int height) {
+		GPUProgram.initializeGPU();
+		
+		if (width <= 0 || height <= 0) {
+			error("FFT size must be positive. (Got " + width + " x " + height + ")");
+		}
+		
+		this.width = width;
+		this.height = height;
+		rowTransform = new Transform(width);
+		columnTransform = (height > 1) ? new Transform(height) : null;
+	}
+	
+	/** Return a plan for this size, reusing one of the last few plans returned if possible.
+	 * Plans returned by this function are shared, so don't dispose them. Only the last 16 sizes are kept,
+	 * so call this again instead of holding on to the plan.
+	 * @param width Length of each row.
+	 * @param height Number of rows (1 for 1D transforms).
+	 * @return The plan.
+	 */
+	public static synchronized GPUFFT getPlan(int width, int height) {
+		for (int i = 0; i < cachedPlans.length; i++) {
+			if (cachedPlans[i] != null && cachedPlans[i].width == width && cachedPlans[i].height == height) {
+				return cachedPlans[i];
+			}
+		}
+		
+		// Replace the oldest plan
+		if (cachedPlans[nextCachedPlan] != null) {
+			cachedPlans[nextCachedPlan].dispose();
+		}
+		cachedPlans[nextCachedPlan] = new GPUFFT(width, height);
+		final GPUFFT plan = cachedPlans[nextCachedPlan];
+		nextCachedPlan = (nextCachedPlan + 1) % cachedPlans.length;
+		return plan;
+	}
+	
+	/** Forward complex-to-complex transform, in place.
+	 * @param data Float GPUMem of interleaved complex numbers, holding 'batch' frames of width x height.
+	 * @param batch Number of frames to transform.
+	 */
+	public void forward(GPUMem data, int batch) {
+		transformComplex(this, data, batch, -1);
+	}
+	
+	/** Inverse complex-to-complex transform, in place, scaled by 1 / (width * height).
+	 * @param data Float GPUMem of interleaved complex numbers, holding 'batch' frames of width x height.
+	 * @param batch Number of frames to transform.
+	 */
+	public void inverse(GPUMem data, int batch) {
+		transformComplex(this, data, batch, 1);
+	}
+	
+	/** Forward real-to-complex transform. The width must be even.
+	 * @param input Float GPUMem holding 'batch' frames of width x height real numbers. (This isn't changed.)
+	 * @param output Float GPUMem to write 'batch' frames of (width / 2 + 1) x height interleaved complex numbers into.
+	 * @param batch Number of frames to transform.
+	 */
+	public void forwardReal(GPUMem input, GPUMem output, int batch) {
+		transformReal(this, input, output, batch);
+	}
+	
+	/** Release the twiddle factors on the GPU, and make sure this plan cannot be used again.
+	 */
+	public void dispose() {
+		releaseTransform(rowTransform);
+		releaseTransform(columnTransform);
+		releaseTransform(halfRowTransform);
+		if (realTwiddles != null) {
+			CL.clReleaseMemObject(realTwiddles);
+		}
+		rowTransform = null;
+		columnTransform = null;
+		halfRowTransform = null;
+		realTwiddles = null;
+	}
+	
+	/** Release the kernels and cached plans used by FFTs.
+	 * The kernels are compiled again the next time they are used.
+	 */
+	public static synchronized void disposeAll() {
+		for (int i = 0; i < cachedPlans.length; i++) {
+			if (cachedPlans[i] != null) {
+				cachedPlans[i].dispose();
+				cachedPlans[i] = null;
+			}
+		}
+		
+		if (passProgram != null) {
+			passProgram.dispose();
+			realProgram.dispose();
+			passProgram = null;
+			realProgram = null;
+		}
+	}
+	
+	// Complex-to-complex transform of each row, then of each column
+	private static synchronized void transformComplex(GPUFFT plan, GPUMem data, int batch, int sign) {
+		
+		checkPlan(plan, batch);
+		final long frame = (long)plan.width * plan.height;
+		checkMem(data, 2 * frame * batch);
+		
+		cl_mem temp = createTemp(frame * batch);
+		
+		final float rowScale = (sign > 0) ? 1.0f / plan.width : 1.0f;
+		run(plan.rowTransform, data.mem, data.mem, temp, frame * batch, 1, plan.height * batch, plan.width, 1, 0, sign, rowScale);
+		
+		if (plan.columnTransform != null) {
+			final float columnScale = (sign > 0) ? 1.0f / plan.height : 1.0f;
+			run(plan.columnTransform, data.mem, data.mem, temp, frame * batch, plan.width, plan.width, 1,
+					batch, (int)frame, sign, columnScale);
+		}
+		
+		CL.clFinish(GPUProgram.commandQueue);
+		CL.clReleaseMemObject(temp);
+	}
+	
+	// Real-to-complex transform of each row (as a complex transform of half the length), then complex transform of each column
+	private static synchronized void transformReal(GPUFFT plan, GPUMem input, GPUMem output, int batch) {
+		
+		checkPlan(plan, batch);
+		
+		if (plan.width % 2 != 0) {
+			error("Real transforms need an even width. (Got " + plan.width + ")");
+		}
+		
+		final int half = plan.width / 2;
+		final long rows = (long)plan.height * batch;
+		checkMem(input, rows * plan.width);
+		checkMem(output, rows * (half + 1) * 2);
+		
+		if (input.mem == output.mem) {
+			error("Real transforms cannot be done in place. Use a different output GPUMem.");
+		}
+		
+		// The twiddles for real transforms are only computed if they're used
+		if (plan.halfRowTransform == null) {
+			plan.halfRowTransform = new Transform(half);
+			
+			float[] table = new float[2 * (half + 1)];
+			for (int k = 0; k <= half; k++) {
+				final double angle = -Math.PI * k / half;
+				table[2 * k] = (float)Math.cos(angle);
+				table[2 * k + 1] = (float)Math.sin(angle);
+			}
+			plan.realTwiddles = createTable(table);
+		}
+		
+		// Each row of real numbers is read as a row of complex numbers of half the length
+		// (The second temporary memory is also used for the columns, which are longer)
+		cl_mem[] temps = {createTemp(rows * half), createTemp(rows * (half + 1))};
+		run(plan.halfRowTransform, input.mem, temps[0], temps[1], rows * half, 1, (int)rows, half, 1, 0, -1, 1.0f);
+		
+		getPrograms();
+		realProgram.setArgumentMem(0, temps[0]);
+		realProgram.setArgumentMem(1, output.mem);
+		realProgram.setArgument(2, half, GPUAccess.READ);
+		realProgram.setArgument(3, half, GPUAccess.READ);
+		realProgram.setArgument(4, half + 1, GPUAccess.READ);
+		realProgram.setArgumentMem(5, plan.realTwiddles);
+		realProgram.setGlobalWorkGroupSizes(half + 1, rows);
+		realProgram.enqueueKernel(null, null);
+		
+		if (plan.columnTransform != null) {
+			run(plan.columnTransform, output.mem, output.mem, temps[1], rows * (half + 1), half + 1, half + 1, 1,
+					batch, plan.height * (half + 1), -1, 1.0f);
+		}
+		
+		CL.clFinish(GPUProgram.commandQueue);
+		CL.clReleaseMemObject(temps[0]);
+		CL.clReleaseMemObject(temps[1]);
+	}
+	
+	// Run every pass of a 1D transform on many lines of complex numbers, from 'input' into 'output' (which may be the same).
+	// Line (outer, inner) starts at (outer * outerDistance + inner * innerDistance), with 'stride' between its elements.
+	// Each pass reads from one buffer and writes to the other, so 'temp' must hold as many complex numbers as the data ('size').
+	private static void run(Transform transform, cl_mem input, cl_mem output, cl_mem temp, long size,
+			int stride, int numInner, int innerDistance, int numOuter, int outerDistance, int sign, float scale) {
+		
+		getPrograms();
+		final int numPasses = transform.radices.length;
+		
+		// Arrange the passes so the last one writes to the output
+		if (input == output && numPasses % 2 == 1) {
+			copyComplex(input, temp, size);
+			input = temp;
+		}
+		
+		if (numPasses == 0) { // Length 1
+			if (input != output) {
+				copyComplex(input, output, size);
+			}
+			return;
+		}
+		
+		int l = 1;
+		cl_mem source = input;
+		for (int p = 0; p < numPasses; p++) {
+			final int radix = transform.radices[p];
+			final cl_mem dest = ((numPasses - 1 - p) % 2 == 0) ? output : temp;
+			
+			passProgram.setArgumentMem(0, source);
+			passProgram.setArgumentMem(1, dest);
+			passProgram.setArgument(2, transform.n, GPUAccess.READ);
+			passProgram.setArgument(3, radix, GPUAccess.READ);
+			passProgram.setArgument(4, l, GPUAccess.READ);
+			passProgram.setArgument(5, stride, GPUAccess.READ);
+			passProgram.setArgument(6, innerDistance, GPUAccess.READ);
+			passProgram.setArgument(7, outerDistance, GPUAccess.READ);
+			passProgram.setArgumentMem(8, transform.twiddles);
+			passProgram.setArgument(9, transform.twiddleOffsets[p], GPUAccess.READ);
+			passProgram.setArgument(10, sign, GPUAccess.READ);
+			passProgram.setArgument(11, (p == numPasses - 1) ? scale : 1.0f, GPUAccess.READ);
+			passProgram.setGlobalWorkGroupSizes(transform.n / radix, numInner, numOuter);
+			passProgram.enqueueKernel(null, null);
+			
+			source = dest;
+			l *= radix;
+		}
+	}
+	
+	// Check that a plan can be used
+	private static void checkPlan(GPUFFT plan, int batch) {
+		
+		if (plan.rowTransform == null) {
+			error("Attempted to use a disposed GPUFFT.");
+		}
+		
+		if (batch <= 0) {
+			error("Batch must be positive. (Got " + batch + ")");
+		}
+	}
+	
+	// Check that a GPUMem is a float GPUMem with at least 'floats' elements
+	private static void checkMem(GPUMem mem, long floats) {
+		
+		if (mem == null) {
+			error("Argument is null");
+		}
+		
+		if (mem.mem == null || mem.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (mem.type != ArrayType.FLOAT) {
+			error("FFT data must be a FLOAT GPUMem, not " + mem.type);
+		}
+		
+		if (mem.maxAllocatedSize < floats) {
+			error("FFT needs " + floats + " floats, but the GPUMem only has " + mem.maxAllocatedSize);
+		}
+		
+		if (floats / 2 > Integer.MAX_VALUE) {
+			error("FFT data is too large. (" + floats + " floats)");
+		}
+	}
+	
+	// Copy a table of (cos, sin) pairs to the GPU
+	private static cl_mem createTable(float[] table) {
+		cl_mem mem = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR,
+				(long)table.length * ArrayType.FLOAT.getSize(), Pointer.to(table), null);
+		GPUProgram.allocCounter++;
+		GPUProgram.copyToGPUCounter++;
+		return mem;
+	}
+	
+	// Allocate temporary memory for the given number of complex numbers
+	private static cl_mem createTemp(long complexNumbers) {
+		GPUProgram.allocCounter++;
+		return CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE,
+				Math.max(1, complexNumbers) * 2 * ArrayType.FLOAT.getSize(), null, null);
+	}
+	
+	// Copy complex numbers between places on the GPU
+	private static void copyComplex(cl_mem source, cl_mem dest, long complexNumbers) {
+		CL.clEnqueueCopyBuffer(GPUProgram.commandQueue, source, dest, 0, 0,
+				complexNumbers * 2 * ArrayType.FLOAT.getSize(), 0, null, null);
+		GPUProgram.copyCounter++;
+	}
+	
+	// Release the twiddles of a transform
+	private static void releaseTransform(Transform transform) {
+		if (transform != null && transform.twiddles != null) {
+			CL.clReleaseMemObject(transform.twiddles);
+			transform.twiddles = null;
+		}
+	}
+	
+	// Compile the kernels the first time they're needed
+	private static void getPrograms() {
+		if (passProgram == null) {
+			passProgram = GPUProgram.fromLibrary("fftPass", "GPUFFT.cl", "");
+			realProgram = GPUProgram.fromLibrary("realPostProcess", "GPUFFT.cl", "");
+		}
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
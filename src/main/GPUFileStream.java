@@ -0,0 +1,314 @@
+package main;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_event;
+import org.jocl.cl_mem;
+
+/**
+ * GPUFileStream feeds a binary file through a kernel in fixed-size windows.
+ * This allows files much larger than RAM (or larger than getMaxMemAllocSize()) to be processed,
+ * because only two windows of the file are mapped into memory at any time.
+ * It goes with GPUProgram.
+ *
+ * Each window of the input file is memory-mapped and copied into one of two GPU buffers.
+ * While the kernel processes one window, the next window is copied into the other buffer.
+ * If an output file is set, the results of each window are copied straight into the mapped output file.
+ *
+ * The kernel is run once per window, with the global work offset set to the index of the first
+ * element of the window in the file. So in OpenCL:
+ *	get_global_id(0)                         is the element index in the file.
+ *	get_global_id(0) - get_global_offset(0)  is the element index in the window buffers.
+ */
+
+public class GPUFileStream {
+	
+	private final String inputPath;		// Path to the binary file to stream to the GPU
+	private final ArrayType inputType;	// Type of the elements stored in the input file
+	private final long windowSize;		// Number of elements in each window
+	private final long elementCount;	// Number of elements in the input file
+	
+	private String outputPath = null;		// (Optional) Path to the binary file to write results to
+	private ArrayType outputType = null;	// Type of the elements written to the output file
+	
+	/**
+	 * Construct a new GPUFileStream.
+	 * @param inputPath Path to a binary file of elements (in the byte order of the GPU, usually little-endian).
+	 * @param inputType ArrayType.BYTE, INT, FLOAT, LONG, or DOUBLE.
+	 * @param windowSize Number of elements processed by each execution of the kernel.
+	 */
+	public GPUFileStream(String inputPath, ArrayType inputType, long windowSize) {
+		
+		if (inputType == ArrayType.BUFFERED_IMAGE_INT || inputType == ArrayType.BUFFERED_IMAGE_BYTE) {
+			error("Cannot stream a file of type " + inputType);
+		}
+		
+		if (windowSize <= 0) {
+			error("Window size must be positive. (Got " + windowSize + ")");
+		}
+		
+		// A single mapping is limited to 2 GB, and a single buffer to getMaxMemAllocSize()
+		final long windowBytes = windowSize * inputType.getSize();
+		if (windowBytes > Integer.MAX_VALUE || windowBytes > GPUProgram.getMaxMemAllocSize()) {
+			error("Window of " + windowBytes + " bytes is too large to map or allocate.");
+		}
+		
+		long fileLength = -1;
+		try {
+			RandomAccessFile file = new RandomAccessFile(inputPath, "r");
+			fileLength = file.length();
+			file.close();
+		} catch (IOException e) {
+			System.err.println("Opening: " + inputPath);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		
+		if (fileLength % inputType.getSize() != 0) {
+			error("File length " + fileLength + " is not a multiple of the " + inputType + " size.");
+		}
+		
+		this.inputPath = inputPath;
+		this.inputType = inputType;
+		this.windowSize = windowSize;
+		this.elementCount = fileLength / inputType.getSize();
+	}
+	
+	/** (Optional) Write the results of each window into a file.
+	 * The output file holds one element for each element processed from the input file.
+	 * @param outputPath Path to the binary file to create or overwrite.
+	 * @param outputType ArrayType.BYTE, INT, FLOAT, LONG, or DOUBLE.
+	 */
+	public void setOutputFile(String outputPath, ArrayType outputType) {
+		
+		if (outputType == ArrayType.BUFFERED_IMAGE_INT || outputType == ArrayType.BUFFERED_IMAGE_BYTE) {
+			error("Cannot stream to a file of type " + outputType);
+		}
+		
+		if (windowSize * outputType.getSize() > Integer.MAX_VALUE) {
+			error("Output window is too large to map.");
+		}
+		
+		this.outputPath = outputPath;
+		this.outputType = outputType;
+	}
+	
+	/** Return the number of elements in the input file.
+	 * @return Number of elements (not bytes).
+	 */
+	public long getElementCount() {
+		return elementCount;
+	}
+	
+	/** Run the kernel over every window of the whole input file.
+	 * An empty input file runs nothing (and leaves an empty output file).
+	 * @param program The GPUProgram to execute for each window.
+	 * @param inputArgNum Kernel argument index that receives each window of the input file.
+	 * @param outputArgNum Kernel argument index that receives the output window (ignored without an output file).
+	 */
+	public void process(GPUProgram program, int inputArgNum, int outputArgNum) {
+		
+		if (program == null) {
+			error("GPUProgram is null");
+		}
+		
+		// A GPURange can't be empty, so there are no windows to process
+		if (elementCount == 0) {
+			if (outputPath != null) {
+				try {
+					RandomAccessFile outputFile = new RandomAccessFile(outputPath, "rw");
+					outputFile.setLength(0);
+					outputFile.close();
+				} catch (IOException e) {
+					System.err.println("Opening: " + outputPath);
+					e.printStackTrace();
+					System.exit(1);
+				}
+			}
+			return;
+		}
+		
+		process(program, inputArgNum, outputArgNum, new GPURange(0, elementCount));
+	}
+	
+	/** Run the kernel over every window of the given range of the input file.
+	 * Other kernel arguments may be set on the GPUProgram beforehand as usual.
+	 * The final window may be shorter than the others, so any local work group size must divide it as well.
+	 * @param program The GPUProgram to execute for each window.
+	 * @param inputArgNum Kernel argument index that receives each window of the input file.
+	 * @param outputArgNum Kernel argument index that receives the output window (ignored without an output file).
+	 * @param elementRange The elements of the input file to process.
+	 */
+	public void process(GPUProgram program, int inputArgNum, int outputArgNum, GPURange elementRange) {
+		
+		if (program == null || elementRange == null) {
+			error("Argument is null");
+		}
+		
+		if (elementRange.end > elementCount) {
+			error("GPURange " + elementRange + " overruns file of " + elementCount + " elements");
+		}
+		
+		final boolean hasOutput = outputPath != null;
+		final long inputTypeSize = inputType.getSize();
+		final long outputTypeSize = hasOutput ? outputType.getSize() : 0;
+		final long numWindows = (elementRange.size + windowSize - 1) / windowSize;
+		final cl_command_queue transferQueue = GPUProgram.getTransferQueue();
+		
+		// Two of everything, so one window can be copied while the other is processed
+		cl_mem[] inputMems = new cl_mem[2];
+		cl_mem[] outputMems = new cl_mem[2];
+		MappedByteBuffer[] inputMaps = new MappedByteBuffer[2];
+		MappedByteBuffer[] outputMaps = new MappedByteBuffer[2];
+		cl_event[] writeEvents = new cl_event[2];
+		cl_event[] kernelEvents = new cl_event[2];
+		cl_event[] readEvents = new cl_event[2];
+		
+		RandomAccessFile inputFile = null;
+		RandomAccessFile outputFile = null;
+		
+		try {
+			inputFile = new RandomAccessFile(inputPath, "r");
+			FileChannel inputChannel = inputFile.getChannel();
+			FileChannel outputChannel = null;
+			if (hasOutput) {
+				outputFile = new RandomAccessFile(outputPath, "rw");
+				outputFile.setLength(elementRange.size * outputTypeSize);
+				outputChannel = outputFile.getChannel();
+			}
+			
+			for (int i = 0; i < 2; i++) {
+				inputMems[i] = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY,
+						windowSize * inputTypeSize, null, null);
+				GPUProgram.allocCounter++;
+				if (hasOutput) {
+					outputMems[i] = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_WRITE_ONLY,
+							windowSize * outputTypeSize, null, null);
+					GPUProgram.allocCounter++;
+				}
+			}
+			
+			// Start copying the first window
+			writeWindow(inputChannel, transferQueue, elementRange, 0, inputMems, inputMaps, kernelEvents, writeEvents);
+			
+			for (long w = 0; w < numWindows; w++) {
+				final int slot = (int)(w % 2);
+				final long start = elementRange.start + w * windowSize;
+				final long count = Math.min(windowSize, elementRange.end - start);
+				
+				// Prefetch the next window into the other buffer while this window is processed
+				if (w + 1 < numWindows) {
+					writeWindow(inputChannel, transferQueue, elementRange, w + 1, inputMems, inputMaps, kernelEvents, writeEvents);
+				}
+				
+				// The previous copy out of this output buffer must finish before it is overwritten
+				if (hasOutput && readEvents[slot] != null) {
+					CL.clWaitForEvents(1, new cl_event[] {readEvents[slot]});
+					CL.clReleaseEvent(readEvents[slot]);
+					readEvents[slot] = null;
+				}
+				
+				// Process this window
+				program.setArgumentMem(inputArgNum, inputMems[slot]);
+				if (hasOutput) {
+					program.setArgumentMem(outputArgNum, outputMems[slot]);
+				}
+				program.setGlobalWorkOffsets(start);
+				program.setGlobalWorkGroupSizes(count);
+				
+				if (kernelEvents[slot] != null) {
+					CL.clReleaseEvent(kernelEvents[slot]);
+				}
+				kernelEvents[slot] = new cl_event();
+				program.enqueueKernel(new cl_event[] {writeEvents[slot]}, kernelEvents[slot]);
+				CL.clFlush(GPUProgram.commandQueue);
+				
+				// Copy the results straight into the mapped output file
+				if (hasOutput) {
+					outputMaps[slot] = outputChannel.map(FileChannel.MapMode.READ_WRITE,
+							(start - elementRange.start) * outputTypeSize, count * outputTypeSize);
+					readEvents[slot] = new cl_event();
+					CL.clEnqueueReadBuffer(transferQueue, outputMems[slot], false, 0, count * outputTypeSize,
+							Pointer.to(outputMaps[slot]), 1, new cl_event[] {kernelEvents[slot]}, readEvents[slot]);
+					CL.clFlush(transferQueue);
+					GPUProgram.copyToCPUCounter++;
+				}
+			}
+			
+			// Wait for everything to finish before the mapped buffers are released
+			CL.clFinish(GPUProgram.commandQueue);
+			CL.clFinish(transferQueue);
+			
+			for (int i = 0; i < 2; i++) {
+				if (outputMaps[i] != null) {
+					outputMaps[i].force();
+				}
+			}
+			
+			inputFile.close();
+			if (outputFile != null) {
+				outputFile.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Streaming: " + inputPath);
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			for (int i = 0; i < 2; i++) {
+				releaseEvent(writeEvents[i]);
+				releaseEvent(kernelEvents[i]);
+				releaseEvent(readEvents[i]);
+				if (inputMems[i] != null) {
+					CL.clReleaseMemObject(inputMems[i]);
+				}
+				if (outputMems[i] != null) {
+					CL.clReleaseMemObject(outputMems[i]);
+				}
+			}
+			program.setGlobalWorkOffsets();
+		}
+	}
+	
+	// Map the given window of the input file and start copying it to its GPU buffer.
+	private void writeWindow(FileChannel inputChannel, cl_command_queue transferQueue, GPURange elementRange,
+			long w, cl_mem[] inputMems, MappedByteBuffer[] inputMaps, cl_event[] kernelEvents, cl_event[] writeEvents)
+			throws IOException {
+		
+		final int slot = (int)(w % 2);
+		final long typeSize = inputType.getSize();
+		final long start = elementRange.start + w * windowSize;
+		final long count = Math.min(windowSize, elementRange.end - start);
+		
+		// The kernel that last read this buffer must finish before we overwrite it (or unmap its window)
+		if (kernelEvents[slot] != null) {
+			CL.clWaitForEvents(1, new cl_event[] {kernelEvents[slot]});
+		}
+		releaseEvent(writeEvents[slot]);
+		
+		inputMaps[slot] = inputChannel.map(FileChannel.MapMode.READ_ONLY, start * typeSize, count * typeSize);
+		writeEvents[slot] = new cl_event();
+		CL.clEnqueueWriteBuffer(transferQueue, inputMems[slot], false, 0, count * typeSize,
+				Pointer.to(inputMaps[slot]), 0, null, writeEvents[slot]);
+		CL.clFlush(transferQueue);
+		GPUProgram.copyToGPUCounter++;
+	}
+	
+	// Release an OpenCL event if it exists
+	private static void releaseEvent(cl_event event) {
+		if (event != null) {
+			CL.clReleaseEvent(event);
+		}
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
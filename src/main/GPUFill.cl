@@ -0,0 +1,67 @@
+// Ranges and random numbers for GPUFill.java
+// Compiled with T (the element type), and IS_FLOAT for floats or USE_DOUBLE for doubles (otherwise T is an integer)
+
+#ifdef USE_DOUBLE
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+// Write start + i * step to each element
+kernel void iotaKernel(global T *output, const ulong n, const T start, const T step) {
+	const ulong i = get_global_id(0);
+	if (i < n) {
+		output[i] = start + (T)i * step;
+	}
+}
+
+// Philox4x32-10 (Salmon et al., "Parallel Random Numbers: As Easy as 1, 2, 3"): 128 random bits for each counter and key.
+// It only uses integer math, so every device gives exactly the same bits.
+uint4 philox(ulong counter, ulong seed) {
+	uint4 c = (uint4)((uint)counter, (uint)(counter >> 32), 0, 0);
+	uint2 k = (uint2)((uint)seed, (uint)(seed >> 32));
+	for (int round = 0; round < 10; round++) {
+		if (round > 0) {
+			k += (uint2)(0x9E3779B9, 0xBB67AE85);
+		}
+		const uint hi0 = mul_hi(0xD2511F53u, c.x);
+		const uint lo0 = 0xD2511F53u * c.x;
+		const uint hi1 = mul_hi(0xCD9E8D57u, c.z);
+		const uint lo1 = 0xCD9E8D57u * c.z;
+		c = (uint4)(hi1 ^ c.y ^ k.x, lo1, hi0 ^ c.w ^ k.y, lo0);
+	}
+	return c;
+}
+
+// Fill each element with random number (offset + i) of the stream for 'seed'.
+// Floats and doubles are uniform in [0, 1), or normal (Box-Muller) if 'normal' is set. Integers get uniformly random bits.
+kernel void randomKernel(global T *output, const ulong n, const ulong seed, const ulong offset,
+		const int normal, const T mean, const T stddev) {
+	
+	const ulong i = get_global_id(0);
+	if (i >= n) {
+		return;
+	}
+	
+	const uint4 bits = philox(offset + i, seed);
+
+#if defined(USE_DOUBLE)
+	// 53 bits for each number
+	const double u1 = (double)((((ulong)bits.y << 32) | bits.x) >> 11) * 0x1.0p-53;
+	if (normal) {
+		const double u2 = (double)((((ulong)bits.w << 32) | bits.z) >> 11) * 0x1.0p-53;
+		output[i] = mean + stddev * sqrt(-2.0 * log(1.0 - u1)) * cospi(2.0 * u2);
+	} else {
+		output[i] = u1;
+	}
+#elif defined(IS_FLOAT)
+	// 24 bits for each number
+	const float u1 = (float)(bits.x >> 8) * 0x1.0p-24f;
+	if (normal) {
+		const float u2 = (float)(bits.y >> 8) * 0x1.0p-24f;
+		output[i] = mean + stddev * sqrt(-2.0f * log(1.0f - u1)) * cospi(2.0f * u2);
+	} else {
+		output[i] = u1;
+	}
+#else
+	output[i] = (T)(((ulong)bits.y << 32) | bits.x);
+#endif
+}
\ No newline at end of file
@@ -0,0 +1,224 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+
+/**
+ * GPUFill initializes GPUMems on the GPU, without building the data in an array and copying it:
+ * with one value, a range (iota), or random numbers. It goes with GPUProgram.
+ *
+ * Random numbers are counter-based (Philox4x32-10): element i gets random number (offset + i) of the stream
+ * for 'seed', no matter how the work is split up. So the same seed and offset always give the same numbers,
+ * on any GPU, and a long sequence can be generated in pieces by adding the number of elements to the offset
+ * each time. Uniform numbers are bit-for-bit identical on every GPU. Normal numbers use log() and cospi(),
+ * which may round differently on other GPUs, so they can differ in the last bit.
+ *
+ * Each function covers the first arrayRange.size elements of the GPUMem, which are the ones that
+ * copyArrayToCPU() would copy back.
+ */
+
+public class GPUFill {
+	
+	private static GPUProgram[] iotaPrograms = null;	// Compiled iotaKernel kernels, by ArrayType
+	private static GPUProgram[] randomPrograms = null;	// Compiled randomKernel kernels, by ArrayType
+	
+	/** Set every element to 'value' (converted to the type of the GPUMem).
+	 * @param mem The memory on the GPU to fill (byte, int, float, long, or double).
+	 * @param value The value.
+	 */
+	public static synchronized void fill(GPUMem mem, long value) {
+		fill(mem, value, (double)value);
+	}
+	
+	/** Set every element to 'value' (converted to the type of the GPUMem).
+	 * @param mem The memory on the GPU to fill (byte, int, float, long, or double).
+	 * @param value The value.
+	 */
+	public static synchronized void fill(GPUMem mem, double value) {
+		fill(mem, (long)value, value);
+	}
+	
+	/** Set element i to start + i * step (computed in the type of the GPUMem).
+	 * @param mem The memory on the GPU to fill (int, float, long, or double).
+	 * @param start The first value.
+	 * @param step The difference between each value and the next.
+	 */
+	public static synchronized void iota(GPUMem mem, long start, long step) {
+		iota(mem, start, step, start, step);
+	}
+	
+	/** Set element i to start + i * step (computed in the type of the GPUMem).
+	 * @param mem The memory on the GPU to fill (int, float, long, or double).
+	 * @param start The first value.
+	 * @param step The difference between each value and the next.
+	 */
+	public static synchronized void iota(GPUMem mem, double start, double step) {
+		iota(mem, (long)start, (long)step, start, step);
+	}
+	
+	/** Fill with uniformly distributed random numbers: in [0, 1) for floats and doubles, or any value for ints and longs.
+	 * @param mem The memory on the GPU to fill (int, float, long, or double).
+	 * @param seed Which stream of random numbers to use.
+	 * @param offset Position in the stream of the first element.
+	 */
+	public static synchronized void uniform(GPUMem mem, long seed, long offset) {
+		random(mem, seed, offset, false, 0, 0);
+	}
+	
+	/** Fill with normally distributed random numbers.
+	 * @param mem The memory on the GPU to fill (float or double).
+	 * @param seed Which stream of random numbers to use.
+	 * @param offset Position in the stream of the first element.
+	 * @param mean The mean of the distribution.
+	 * @param standardDeviation The standard deviation of the distribution.
+	 */
+	public static synchronized void normal(GPUMem mem, long seed, long offset, double mean, double standardDeviation) {
+		
+		if (mem != null && mem.type != ArrayType.FLOAT && mem.type != ArrayType.DOUBLE) {
+			error("Normal random numbers need a FLOAT or DOUBLE GPUMem, not " + mem.type);
+		}
+		
+		random(mem, seed, offset, true, mean, standardDeviation);
+	}
+	
+	/** Release the kernels used for ranges and random numbers.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void dispose() {
+		if (iotaPrograms != null) {
+			for (int i = 0; i < iotaPrograms.length; i++) {
+				if (iotaPrograms[i] != null) {
+					iotaPrograms[i].dispose();
+					randomPrograms[i].dispose();
+				}
+			}
+			iotaPrograms = null;
+			randomPrograms = null;
+		}
+	}
+	
+	// Fill with a pattern the size of one element (OpenCL repeats it)
+	private static void fill(GPUMem mem, long longValue, double doubleValue) {
+		
+		checkMem(mem);
+		
+		Pointer pattern = null;
+		if (mem.type == ArrayType.BYTE || mem.type == ArrayType.BUFFERED_IMAGE_BYTE) {
+			pattern = Pointer.to(new byte[] {(byte)longValue});
+		} else if (mem.type == ArrayType.INT || mem.type == ArrayType.BUFFERED_IMAGE_INT) {
+			pattern = Pointer.to(new int[] {(int)longValue});
+		} else if (mem.type == ArrayType.FLOAT) {
+			pattern = Pointer.to(new float[] {(float)doubleValue});
+		} else if (mem.type == ArrayType.LONG) {
+			pattern = Pointer.to(new long[] {longValue});
+		} else {
+			pattern = Pointer.to(new double[] {doubleValue});
+		}
+		
+		final long typeSize = mem.type.getSize();
+		CL.clEnqueueFillBuffer(GPUProgram.commandQueue, mem.mem, pattern, typeSize, 0,
+				mem.arrayRange.size * typeSize, 0, null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Run iotaKernel with the start and step converted to the type of the GPUMem
+	private static void iota(GPUMem mem, long longStart, long longStep, double doubleStart, double doubleStep) {
+		
+		checkMem(mem);
+		checkKernelType(mem);
+		
+		final GPUProgram program = getProgram(mem.type, false);
+		program.setArgumentMem(0, mem.mem);
+		program.setArgument(1, mem.arrayRange.size, GPUAccess.READ);
+		setTypedArgument(program, 2, mem.type, longStart, doubleStart);
+		setTypedArgument(program, 3, mem.type, longStep, doubleStep);
+		program.setGlobalWorkGroupSizes(mem.arrayRange.size);
+		program.enqueueKernel(null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Run randomKernel
+	private static void random(GPUMem mem, long seed, long offset, boolean normal, double mean, double standardDeviation) {
+		
+		checkMem(mem);
+		checkKernelType(mem);
+		
+		final GPUProgram program = getProgram(mem.type, true);
+		program.setArgumentMem(0, mem.mem);
+		program.setArgument(1, mem.arrayRange.size, GPUAccess.READ);
+		program.setArgument(2, seed, GPUAccess.READ);
+		program.setArgument(3, offset, GPUAccess.READ);
+		program.setArgument(4, normal ? 1 : 0, GPUAccess.READ);
+		setTypedArgument(program, 5, mem.type, (long)mean, mean);
+		setTypedArgument(program, 6, mem.type, (long)standardDeviation, standardDeviation);
+		program.setGlobalWorkGroupSizes(mem.arrayRange.size);
+		program.enqueueKernel(null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Set a scalar kernel argument of type T
+	private static void setTypedArgument(GPUProgram program, int argNum, ArrayType type, long longValue, double doubleValue) {
+		if (type == ArrayType.INT) {
+			program.setArgument(argNum, (int)longValue, GPUAccess.READ);
+		} else if (type == ArrayType.FLOAT) {
+			program.setArgument(argNum, (float)doubleValue, GPUAccess.READ);
+		} else if (type == ArrayType.LONG) {
+			program.setArgument(argNum, longValue, GPUAccess.READ);
+		} else {
+			program.setArgument(argNum, doubleValue, GPUAccess.READ);
+		}
+	}
+	
+	// Check that a GPUMem can be filled
+	private static void checkMem(GPUMem mem) {
+		
+		GPUProgram.initializeGPU();
+		
+		if (mem == null) {
+			error("Argument is null");
+		}
+		
+		if (mem.mem == null || mem.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (mem.isImage()) {
+			error("Cannot fill an image.");
+		}
+	}
+	
+	// Check that the kernels support the type of a GPUMem
+	private static void checkKernelType(GPUMem mem) {
+		if (mem.type != ArrayType.INT && mem.type != ArrayType.FLOAT &&
+			mem.type != ArrayType.LONG && mem.type != ArrayType.DOUBLE) {
+			error("Cannot fill a " + mem.type + " GPUMem with a range or random numbers. (Only INT, FLOAT, LONG, and DOUBLE are supported.)");
+		}
+	}
+	
+	// Return the iota or random kernel for this type, compiling the kernels the first time they're needed
+	private static GPUProgram getProgram(ArrayType type, boolean random) {
+		
+		if (iotaPrograms == null) {
+			iotaPrograms = new GPUProgram[ArrayType.values().length];
+			randomPrograms = new GPUProgram[ArrayType.values().length];
+		}
+		
+		if (iotaPrograms[type.ordinal()] == null) {
+			if (type == ArrayType.DOUBLE && !GPUProgram.isDoubleSupported()) {
+				error("This GPU does not support doubles.");
+			}
+			
+			final String options = type.getOpenCLDefines() + (type == ArrayType.FLOAT ? " -D IS_FLOAT" : "");
+			iotaPrograms[type.ordinal()] = GPUProgram.fromLibrary("iotaKernel", "GPUFill.cl", options);
+			randomPrograms[type.ordinal()] = GPUProgram.fromLibrary("randomKernel", "GPUFill.cl", options);
+		}
+		
+		return random ? randomPrograms[type.ordinal()] : iotaPrograms[type.ordinal()];
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,108 @@
+// Graph traversal for GPUGraph.java
+// The graph is in CSR form: the neighbors of vertex v are at offsets[v] up to offsets[v + 1] in 'neighbors'.
+
+// Set every distance to -1 (not reached) except the source, which is the whole first frontier
+kernel void bfsInit(global int *distances, const int vertices, const int source, global int *frontier) {
+	const int v = get_global_id(0);
+	if (v < vertices) {
+		distances[v] = (v == source) ? 0 : -1;
+		if (v == 0) {
+			frontier[0] = source;
+		}
+	}
+}
+
+// Top-down step: each vertex in the frontier claims its unreached neighbors for the next frontier.
+// counters[0] counts the next frontier, and counters[1] counts the edges out of it.
+kernel void bfsTopDown(global const int *offsets, global const int *neighbors, global int *distances,
+		global const int *frontier, const int frontierSize, global int *nextFrontier, global int *counters, const int level) {
+	
+	const int i = get_global_id(0);
+	if (i >= frontierSize) {
+		return;
+	}
+	
+	const int u = frontier[i];
+	const int end = offsets[u + 1];
+	for (int j = offsets[u]; j < end; j++) {
+		const int v = neighbors[j];
+		if (distances[v] == -1 && atomic_cmpxchg(&distances[v], -1, level + 1) == -1) {
+			nextFrontier[atomic_inc(&counters[0])] = v;
+			atomic_add(&counters[1], offsets[v + 1] - offsets[v]);
+		}
+	}
+}
+
+// Bottom-up step: each unreached vertex looks for any neighbor in the frontier, and stops at the first one.
+// When the frontier is large, this checks far fewer edges than top-down. (The graph must be undirected.)
+kernel void bfsBottomUp(global const int *offsets, global const int *neighbors, global int *distances,
+		const int vertices, global int *counters, const int level) {
+	
+	const int v = get_global_id(0);
+	if (v >= vertices || distances[v] != -1) {
+		return;
+	}
+	
+	const int end = offsets[v + 1];
+	for (int j = offsets[v]; j < end; j++) {
+		if (distances[neighbors[j]] == level) {
+			distances[v] = level + 1;
+			atomic_inc(&counters[0]);
+			atomic_add(&counters[1], end - offsets[v]);
+			return;
+		}
+	}
+}
+
+// List the vertices at 'level' as a frontier, to go back to top-down steps after bottom-up steps
+kernel void bfsFrontier(global const int *distances, const int vertices, const int level, global int *frontier, global int *count) {
+	const int v = get_global_id(0);
+	if (v < vertices && distances[v] == level) {
+		frontier[atomic_inc(count)] = v;
+	}
+}
+
+// Start each vertex in its own component
+kernel void componentsInit(global int *labels, const int vertices) {
+	const int v = get_global_id(0);
+	if (v < vertices) {
+		labels[v] = v;
+	}
+}
+
+// Hook: for each edge whose ends have different labels, point the larger label at the smaller one.
+// After componentsShortcut every label is a root, so each step merges trees until no edge has different labels.
+// Labels only decrease, and every label is a vertex of the same component, so each component ends up
+// labeled with its smallest vertex. Edges are used in both directions, so directed graphs get weakly connected components.
+kernel void componentsHook(global const int *offsets, global const int *neighbors, global int *labels,
+		const int vertices, global int *changed) {
+	
+	const int u = get_global_id(0);
+	if (u >= vertices) {
+		return;
+	}
+	
+	const int end = offsets[u + 1];
+	for (int j = offsets[u]; j < end; j++) {
+		const int lu = labels[u];
+		const int lv = labels[neighbors[j]];
+		if (lu != lv) {
+			atomic_min(&labels[max(lu, lv)], min(lu, lv));
+			*changed = 1;
+		}
+	}
+}
+
+// Pointer jumping: replace each label with the label at the end of its chain, so every tree is one level deep
+kernel void componentsShortcut(global int *labels, const int vertices) {
+	const int v = get_global_id(0);
+	if (v >= vertices) {
+		return;
+	}
+	
+	int label = labels[v];
+	while (labels[label] != label) {
+		label = labels[label];
+	}
+	labels[v] = label;
+}
\ No newline at end of file
@@ -0,0 +1,387 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUGraph is a graph kept on the GPU in CSR form, for breadth-first search and connected components
+ * that only copy their results (distances or labels) back when you call copyArrayToCPU(). It goes with GPUProgram.
+ *
+ * In CSR form, the neighbors of vertex v are at offsets[v] up to (not including) offsets[v + 1] in 'neighbors',
+ * so 'offsets' has one more element than the number of vertices. An undirected graph lists each edge from both ends.
+ * A graph can be copied from arrays, or built on GPUMems (or views of them) that are already on the GPU.
+ *
+ * Breadth-first search goes one level at a time. While the frontier is small, each vertex in it claims its
+ * unreached neighbors (top-down). In undirected graphs, once the frontier has many edges, each unreached vertex
+ * looks for a neighbor in the frontier instead (bottom-up), which skips most of the edges (Beamer et al.,
+ * "Direction-Optimizing Breadth-First Search"). Connected components hook the larger label of each edge to the
+ * smaller one, then shorten every chain of labels by pointer jumping, until no edge connects different labels.
+ * Only a few bytes are copied to the CPU for each level or step, to decide whether to keep going.
+ */
+
+public class GPUGraph {
+	
+	private static final int ALPHA = 14;	// Go bottom-up when the frontier has more than 1 / ALPHA of the unexplored edges
+	private static final int BETA = 24;		// Go back to top-down when the frontier has less than 1 / BETA of the vertices
+	
+	private static GPUProgram bfsInitProgram = null;		// Compiled bfsInit kernel
+	private static GPUProgram topDownProgram = null;		// Compiled bfsTopDown kernel
+	private static GPUProgram bottomUpProgram = null;		// Compiled bfsBottomUp kernel
+	private static GPUProgram frontierProgram = null;		// Compiled bfsFrontier kernel
+	private static GPUProgram componentsInitProgram = null;	// Compiled componentsInit kernel
+	private static GPUProgram hookProgram = null;			// Compiled componentsHook kernel
+	private static GPUProgram shortcutProgram = null;		// Compiled componentsShortcut kernel
+	
+	private final int vertices;				// Number of vertices
+	private final int edges;				// Number of edges (counting each direction of an undirected edge)
+	private final boolean undirected;		// Whether every edge is listed from both ends (so bottom-up steps can be used)
+	private cl_mem offsets;					// Where the neighbors of each vertex start (vertices + 1 ints)
+	private cl_mem neighbors;				// The neighbors of every vertex (ints)
+	private final boolean ownsMemory;		// Whether the memory above was allocated by this graph (and is released by dispose())
+	
+	/**
+	 * Construct a new graph on the GPU with a copy of CSR arrays.
+	 * @param offsets Where the neighbors of each vertex start in 'neighbors', then the number of edges.
+	 * @param neighbors The neighbors of every vertex.
+	 * @param undirected Whether every edge is listed from both ends. Breadth-first search is faster on undirected graphs.
+	 */
+	public GPUGraph(int[] offsets, int[] neighbors, boolean undirected) {
+		GPUProgram.initializeGPU();
+		
+		if (offsets == null || neighbors == null) {
+			error("Argument is null");
+		}
+		
+		this.vertices = offsets.length - 1;
+		this.edges = (offsets.length > 0) ? offsets[vertices] : 0;
+		this.undirected = undirected;
+		checkSize();
+		
+		if (offsets[0] != 0 || neighbors.length < edges) {
+			error("Offsets must start at 0 and end at the number of neighbors. (Got " + offsets[0] + " and " + edges
+					+ ", with " + neighbors.length + " neighbors)");
+		}
+		
+		for (int v = 0; v < vertices; v++) {
+			if (offsets[v + 1] < offsets[v]) {
+				error("Offsets must not decrease. (Vertex " + v + " starts at " + offsets[v] + " and ends at " + offsets[v + 1] + ")");
+			}
+		}
+		
+		for (int i = 0; i < edges; i++) {
+			if (neighbors[i] < 0 || neighbors[i] >= vertices) {
+				error("Neighbor " + neighbors[i] + " (edge " + i + ") is not one of the " + vertices + " vertices.");
+			}
+		}
+		
+		this.offsets = createBuffer(Pointer.to(offsets), (long)(vertices + 1) * ArrayType.INT.getSize());
+		this.neighbors = createBuffer(Pointer.to(neighbors), Math.max(1, edges) * (long)ArrayType.INT.getSize());
+		this.ownsMemory = true;
+	}
+	
+	/**
+	 * Construct a new graph from CSR arrays already on the GPU, without copying them.
+	 * The GPUMems must not be changed or disposed while this graph is used, and aren't released by dispose().
+	 * @param offsets INT GPUMem of where the neighbors of each vertex start in 'neighbors', then the number of edges.
+	 * Its arrayRange.size is the number of vertices + 1.
+	 * @param neighbors INT GPUMem of the neighbors of every vertex.
+	 * @param undirected Whether every edge is listed from both ends. Breadth-first search is faster on undirected graphs.
+	 */
+	public GPUGraph(GPUMem offsets, GPUMem neighbors, boolean undirected) {
+		GPUProgram.initializeGPU();
+		
+		if (offsets == null || neighbors == null) {
+			error("Argument is null");
+		}
+		
+		if (offsets.mem == null || offsets.arrayRange == null || neighbors.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (offsets.type != ArrayType.INT || neighbors.type != ArrayType.INT) {
+			error("Offsets and neighbors must be INT GPUMems.");
+		}
+		
+		if (offsets.arrayRange.size > Integer.MAX_VALUE) {
+			error("Graph has too many vertices. (" + (offsets.arrayRange.size - 1) + ")");
+		}
+		
+		// Read the number of edges
+		int[] lastOffset = new int[1];
+		if (offsets.arrayRange.size > 0) {
+			CL.clEnqueueReadBuffer(GPUProgram.commandQueue, offsets.mem, CL.CL_TRUE, (offsets.arrayRange.size - 1) * ArrayType.INT.getSize(),
+					ArrayType.INT.getSize(), Pointer.to(lastOffset), 0, null, null);
+			GPUProgram.copyToCPUCounter++;
+		}
+		
+		this.vertices = (int)offsets.arrayRange.size - 1;
+		this.edges = lastOffset[0];
+		this.undirected = undirected;
+		checkSize();
+		
+		if (neighbors.maxAllocatedSize < edges) {
+			error("Graph has " + edges + " edges, but only " + neighbors.maxAllocatedSize + " neighbors.");
+		}
+		
+		this.offsets = offsets.mem;
+		this.neighbors = neighbors.mem;
+		this.ownsMemory = false;
+	}
+	
+	/** Return the number of vertices.
+	 * @return vertices
+	 */
+	public int getVertices() {
+		return vertices;
+	}
+	
+	/** Return the number of edges (counting each direction of an undirected edge).
+	 * @return edges
+	 */
+	public int getEdges() {
+		return edges;
+	}
+	
+	/** Breadth-first search from one vertex, writing the number of edges from it to every vertex (or -1 if it can't be reached).
+	 * @param source The vertex to start from.
+	 * @param distances INT GPUMem with an element for each vertex.
+	 * @return The number of vertices reached (including the source).
+	 */
+	public int breadthFirstSearch(int source, GPUMem distances) {
+		return breadthFirstSearch(this, source, distances);
+	}
+	
+	/** Label every vertex with the smallest vertex connected to it (ignoring the direction of edges).
+	 * So two vertices are in the same component if and only if they have the same label.
+	 * @param labels INT GPUMem with an element for each vertex.
+	 */
+	public void connectedComponents(GPUMem labels) {
+		connectedComponents(this, labels);
+	}
+	
+	/** Release the memory on the GPU (except GPUMems it was built on), and make sure this graph cannot be used again.
+	 */
+	public void dispose() {
+		if (offsets != null && ownsMemory) {
+			CL.clReleaseMemObject(offsets);
+			CL.clReleaseMemObject(neighbors);
+		}
+		offsets = null;
+		neighbors = null;
+	}
+	
+	/** Release the kernels used by graphs.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void disposeAll() {
+		if (bfsInitProgram != null) {
+			bfsInitProgram.dispose();
+			topDownProgram.dispose();
+			bottomUpProgram.dispose();
+			frontierProgram.dispose();
+			componentsInitProgram.dispose();
+			hookProgram.dispose();
+			shortcutProgram.dispose();
+			bfsInitProgram = null;
+			topDownProgram = null;
+			bottomUpProgram = null;
+			frontierProgram = null;
+			componentsInitProgram = null;
+			hookProgram = null;
+			shortcutProgram = null;
+		}
+	}
+	
+	// One top-down or bottom-up step for each level, until the frontier is empty
+	private static synchronized int breadthFirstSearch(GPUGraph graph, int source, GPUMem distances) {
+		
+		checkOutput(graph, distances);
+		
+		if (source < 0 || source >= graph.vertices) {
+			error("Source " + source + " is not one of the " + graph.vertices + " vertices.");
+		}
+		
+		getPrograms();
+		final long frontierBytes = (long)graph.vertices * ArrayType.INT.getSize();
+		cl_mem frontier = createBuffer(null, frontierBytes);
+		cl_mem nextFrontier = createBuffer(null, frontierBytes);
+		cl_mem counters = createBuffer(null, 2 * ArrayType.INT.getSize());
+		int[] hostCounters = new int[2];
+		
+		bfsInitProgram.setArgumentMem(0, distances.mem);
+		bfsInitProgram.setArgument(1, graph.vertices, GPUAccess.READ);
+		bfsInitProgram.setArgument(2, source, GPUAccess.READ);
+		bfsInitProgram.setArgumentMem(3, frontier);
+		bfsInitProgram.setGlobalWorkGroupSizes(graph.vertices);
+		bfsInitProgram.enqueueKernel(null, null);
+		
+		int reached = 1;
+		int frontierSize = 1;
+		long frontierEdges = 0;		// (Not known for the source, so the first step is always top-down)
+		long unexploredEdges = graph.edges;
+		boolean bottomUp = false;
+		for (int level = 0; frontierSize > 0; level++) {
+			
+			// Choose the direction of this step
+			if (graph.undirected && !bottomUp && frontierEdges > unexploredEdges / ALPHA) {
+				bottomUp = true;
+			} else if (bottomUp && frontierSize < graph.vertices / BETA) {
+				bottomUp = false;
+				zero(counters);
+				frontierProgram.setArgumentMem(0, distances.mem);
+				frontierProgram.setArgument(1, graph.vertices, GPUAccess.READ);
+				frontierProgram.setArgument(2, level, GPUAccess.READ);
+				frontierProgram.setArgumentMem(3, frontier);
+				frontierProgram.setArgumentMem(4, counters);
+				frontierProgram.setGlobalWorkGroupSizes(graph.vertices);
+				frontierProgram.enqueueKernel(null, null);
+			}
+			
+			zero(counters);
+			if (bottomUp) {
+				bottomUpProgram.setArgumentMem(0, graph.offsets);
+				bottomUpProgram.setArgumentMem(1, graph.neighbors);
+				bottomUpProgram.setArgumentMem(2, distances.mem);
+				bottomUpProgram.setArgument(3, graph.vertices, GPUAccess.READ);
+				bottomUpProgram.setArgumentMem(4, counters);
+				bottomUpProgram.setArgument(5, level, GPUAccess.READ);
+				bottomUpProgram.setGlobalWorkGroupSizes(graph.vertices);
+				bottomUpProgram.enqueueKernel(null, null);
+			} else {
+				topDownProgram.setArgumentMem(0, graph.offsets);
+				topDownProgram.setArgumentMem(1, graph.neighbors);
+				topDownProgram.setArgumentMem(2, distances.mem);
+				topDownProgram.setArgumentMem(3, frontier);
+				topDownProgram.setArgument(4, frontierSize, GPUAccess.READ);
+				topDownProgram.setArgumentMem(5, nextFrontier);
+				topDownProgram.setArgumentMem(6, counters);
+				topDownProgram.setArgument(7, level, GPUAccess.READ);
+				topDownProgram.setGlobalWorkGroupSizes(frontierSize);
+				topDownProgram.enqueueKernel(null, null);
+				
+				final cl_mem swap = frontier;
+				frontier = nextFrontier;
+				nextFrontier = swap;
+			}
+			
+			CL.clEnqueueReadBuffer(GPUProgram.commandQueue, counters, CL.CL_TRUE, 0, 2 * ArrayType.INT.getSize(),
+					Pointer.to(hostCounters), 0, null, null);
+			GPUProgram.copyToCPUCounter++;
+			
+			unexploredEdges -= frontierEdges;
+			frontierSize = hostCounters[0];
+			frontierEdges = hostCounters[1];
+			reached += frontierSize;
+		}
+		
+		CL.clReleaseMemObject(frontier);
+		CL.clReleaseMemObject(nextFrontier);
+		CL.clReleaseMemObject(counters);
+		return reached;
+	}
+	
+	// Hook and shortcut until no edge connects different labels
+	private static synchronized void connectedComponents(GPUGraph graph, GPUMem labels) {
+		
+		checkOutput(graph, labels);
+		
+		getPrograms();
+		cl_mem changed = createBuffer(null, ArrayType.INT.getSize());
+		int[] hostChanged = new int[1];
+		
+		componentsInitProgram.setArgumentMem(0, labels.mem);
+		componentsInitProgram.setArgument(1, graph.vertices, GPUAccess.READ);
+		componentsInitProgram.setGlobalWorkGroupSizes(graph.vertices);
+		componentsInitProgram.enqueueKernel(null, null);
+		
+		do {
+			zero(changed);
+			
+			hookProgram.setArgumentMem(0, graph.offsets);
+			hookProgram.setArgumentMem(1, graph.neighbors);
+			hookProgram.setArgumentMem(2, labels.mem);
+			hookProgram.setArgument(3, graph.vertices, GPUAccess.READ);
+			hookProgram.setArgumentMem(4, changed);
+			hookProgram.setGlobalWorkGroupSizes(graph.vertices);
+			hookProgram.enqueueKernel(null, null);
+			
+			shortcutProgram.setArgumentMem(0, labels.mem);
+			shortcutProgram.setArgument(1, graph.vertices, GPUAccess.READ);
+			shortcutProgram.setGlobalWorkGroupSizes(graph.vertices);
+			shortcutProgram.enqueueKernel(null, null);
+			
+			CL.clEnqueueReadBuffer(GPUProgram.commandQueue, changed, CL.CL_TRUE, 0, ArrayType.INT.getSize(),
+					Pointer.to(hostChanged), 0, null, null);
+			GPUProgram.copyToCPUCounter++;
+		} while (hostChanged[0] != 0);
+		
+		CL.clReleaseMemObject(changed);
+	}
+	
+	// Check the size of the graph
+	private void checkSize() {
+		if (vertices <= 0) {
+			error("Graph needs at least one vertex. (Got " + (vertices + 1) + " offsets)");
+		}
+	}
+	
+	// Check that a graph can be used, and that 'output' is an INT GPUMem with an element for each vertex
+	private static void checkOutput(GPUGraph graph, GPUMem output) {
+		
+		if (graph.offsets == null) {
+			error("Attempted to use a disposed GPUGraph.");
+		}
+		
+		if (output == null) {
+			error("Argument is null");
+		}
+		
+		if (output.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (output.type != ArrayType.INT || output.isImage()) {
+			error("Output must be an INT GPUMem, not " + output.type);
+		}
+		
+		if (output.maxAllocatedSize < graph.vertices) {
+			error("Output needs " + graph.vertices + " elements, but only has " + output.maxAllocatedSize);
+		}
+	}
+	
+	// Set an int counter on the GPU to 0
+	private static void zero(cl_mem mem) {
+		CL.clEnqueueFillBuffer(GPUProgram.commandQueue, mem, Pointer.to(new int[] {0}), ArrayType.INT.getSize(), 0,
+				ArrayType.INT.getSize(), 0, null, null);
+	}
+	
+	// Allocate memory on the GPU, copying from 'pointer' if it isn't null
+	private static cl_mem createBuffer(Pointer pointer, long bytes) {
+		GPUProgram.allocCounter++;
+		if (pointer == null) {
+			return CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, bytes, null, null);
+		}
+		GPUProgram.copyToGPUCounter++;
+		return CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR, bytes, pointer, null);
+	}
+	
+	// Compile the kernels the first time they're needed
+	private static void getPrograms() {
+		if (bfsInitProgram == null) {
+			bfsInitProgram = GPUProgram.fromLibrary("bfsInit", "GPUGraph.cl", "");
+			topDownProgram = GPUProgram.fromLibrary("bfsTopDown", "GPUGraph.cl", "");
+			bottomUpProgram = GPUProgram.fromLibrary("bfsBottomUp", "GPUGraph.cl", "");
+			frontierProgram = GPUProgram.fromLibrary("bfsFrontier", "GPUGraph.cl", "");
+			componentsInitProgram = GPUProgram.fromLibrary("componentsInit", "GPUGraph.cl", "");
+			hookProgram = GPUProgram.fromLibrary("componentsHook", "GPUGraph.cl", "");
+			shortcutProgram = GPUProgram.fromLibrary("componentsShortcut", "GPUGraph.cl", "");
+		}
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,230 @@
+// Checksums and hashes of blocks of bytes for GPUHash.java
+// Compiled with T (the type of the block offsets, int or long). Each work item hashes one block.
+// Block i is bytes offsets[i] up to offsets[i + 1], or bytes i * blockSize up to (i + 1) * blockSize if blockSize > 0.
+
+// Find the bytes of block i
+void getBlock(global const T *offsets, const long blockSize, const long dataSize, const int i, long *start, long *end) {
+	if (blockSize > 0) {
+		*start = (long)i * blockSize;
+		*end = min(*start + blockSize, dataSize);
+	} else {
+		*start = (long)offsets[i];
+		*end = (long)offsets[i + 1];
+	}
+}
+
+// Read a little-endian number from any byte (the bytes don't need to be aligned)
+ulong read64(global const uchar *p) {
+	const uchar8 b = vload8(0, p);
+	return (ulong)b.s0 | ((ulong)b.s1 << 8) | ((ulong)b.s2 << 16) | ((ulong)b.s3 << 24) |
+			((ulong)b.s4 << 32) | ((ulong)b.s5 << 40) | ((ulong)b.s6 << 48) | ((ulong)b.s7 << 56);
+}
+
+uint read32(global const uchar *p) {
+	const uchar4 b = vload4(0, p);
+	return (uint)b.s0 | ((uint)b.s1 << 8) | ((uint)b.s2 << 16) | ((uint)b.s3 << 24);
+}
+
+// CRC32C (Castagnoli, reflected polynomial 0x82F63B78), the same as java.util.zip.CRC32C.
+// Each work group builds 8 tables of 256 entries in local memory, so 8 bytes are done at a time (slicing-by-8).
+kernel void crc32cKernel(global const uchar *data, global const T *offsets, const long blockSize, const long dataSize,
+		const int blocks, global ulong *results, local uint *table) {
+	
+	const int localId = get_local_id(0);
+	const int localSize = get_local_size(0);
+	for (int n = localId; n < 256; n += localSize) {
+		uint c = n;
+		for (int bit = 0; bit < 8; bit++) {
+			c = (c & 1) ? (c >> 1) ^ 0x82F63B78u : c >> 1;
+		}
+		table[n] = c;
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	// Table k is the CRC of a byte followed by k zero bytes
+	for (int k = 1; k < 8; k++) {
+		for (int n = localId; n < 256; n += localSize) {
+			const uint previous = table[(k - 1) * 256 + n];
+			table[k * 256 + n] = (previous >> 8) ^ table[previous & 0xFF];
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+	
+	const int i = get_global_id(0);
+	if (i >= blocks) {
+		return;
+	}
+	
+	long p;
+	long end;
+	getBlock(offsets, blockSize, dataSize, i, &p, &end);
+	uint crc = 0xFFFFFFFFu;
+	for (; p + 8 <= end; p += 8) {
+		const uint low = crc ^ read32(data + p);
+		const uint high = read32(data + p + 4);
+		crc = table[7 * 256 + (low & 0xFF)] ^ table[6 * 256 + ((low >> 8) & 0xFF)] ^
+				table[5 * 256 + ((low >> 16) & 0xFF)] ^ table[4 * 256 + (low >> 24)] ^
+				table[3 * 256 + (high & 0xFF)] ^ table[2 * 256 + ((high >> 8) & 0xFF)] ^
+				table[1 * 256 + ((high >> 16) & 0xFF)] ^ table[high >> 24];
+	}
+	for (; p < end; p++) {
+		crc = table[(crc ^ data[p]) & 0xFF] ^ (crc >> 8);
+	}
+	results[i] = ~crc;
+}
+
+#define PRIME64_1 0x9E3779B185EBCA87UL
+#define PRIME64_2 0xC2B2AE3D27D4EB4FUL
+#define PRIME64_3 0x165667B19E3779F9UL
+#define PRIME64_4 0x85EBCA77C2B2AE63UL
+#define PRIME64_5 0x27D4EB2F165667C5UL
+
+// One round of xxHash64
+ulong xxhRound(ulong accumulator, const ulong input) {
+	accumulator += input * PRIME64_2;
+	accumulator = rotate(accumulator, 31UL);
+	return accumulator * PRIME64_1;
+}
+
+// xxHash64 (Collet), the same as the reference XXH64() with the same seed
+kernel void xxHash64Kernel(global const uchar *data, global const T *offsets, const long blockSize, const long dataSize,
+		const int blocks, global ulong *results, const ulong seed) {
+	
+	const int i = get_global_id(0);
+	if (i >= blocks) {
+		return;
+	}
+	
+	long p;
+	long end;
+	getBlock(offsets, blockSize, dataSize, i, &p, &end);
+	const ulong length = end - p;
+	ulong h;
+	if (length >= 32) {
+		ulong v1 = seed + PRIME64_1 + PRIME64_2;
+		ulong v2 = seed + PRIME64_2;
+		ulong v3 = seed;
+		ulong v4 = seed - PRIME64_1;
+		for (; p + 32 <= end; p += 32) {
+			v1 = xxhRound(v1, read64(data + p));
+			v2 = xxhRound(v2, read64(data + p + 8));
+			v3 = xxhRound(v3, read64(data + p + 16));
+			v4 = xxhRound(v4, read64(data + p + 24));
+		}
+		h = rotate(v1, 1UL) + rotate(v2, 7UL) + rotate(v3, 12UL) + rotate(v4, 18UL);
+		h = (h ^ xxhRound(0, v1)) * PRIME64_1 + PRIME64_4;
+		h = (h ^ xxhRound(0, v2)) * PRIME64_1 + PRIME64_4;
+		h = (h ^ xxhRound(0, v3)) * PRIME64_1 + PRIME64_4;
+		h = (h ^ xxhRound(0, v4)) * PRIME64_1 + PRIME64_4;
+	} else {
+		h = seed + PRIME64_5;
+	}
+	h += length;
+	
+	for (; p + 8 <= end; p += 8) {
+		h ^= xxhRound(0, read64(data + p));
+		h = rotate(h, 27UL) * PRIME64_1 + PRIME64_4;
+	}
+	if (p + 4 <= end) {
+		h ^= (ulong)read32(data + p) * PRIME64_1;
+		h = rotate(h, 23UL) * PRIME64_2 + PRIME64_3;
+		p += 4;
+	}
+	for (; p < end; p++) {
+		h ^= data[p] * PRIME64_5;
+		h = rotate(h, 11UL) * PRIME64_1;
+	}
+	
+	h ^= h >> 33;
+	h *= PRIME64_2;
+	h ^= h >> 29;
+	h *= PRIME64_3;
+	h ^= h >> 32;
+	results[i] = h;
+}
+
+#define MURMUR_C1 0x87C37B91114253D5UL
+#define MURMUR_C2 0x4CF5AD432745937FUL
+
+// MurmurHash3 finalizer
+ulong fmix64(ulong k) {
+	k ^= k >> 33;
+	k *= 0xFF51AFD7ED558CCDUL;
+	k ^= k >> 33;
+	k *= 0xC4CEB9FE1A85EC53UL;
+	k ^= k >> 33;
+	return k;
+}
+
+// MurmurHash3_x64_128 (Appleby), the same as the reference with the same (32-bit) seed.
+// Block i gets results[2 * i] (the first 8 bytes of the reference output) and results[2 * i + 1].
+kernel void murmur3Kernel(global const uchar *data, global const T *offsets, const long blockSize, const long dataSize,
+		const int blocks, global ulong *results, const uint seed) {
+	
+	const int i = get_global_id(0);
+	if (i >= blocks) {
+		return;
+	}
+	
+	long p;
+	long end;
+	getBlock(offsets, blockSize, dataSize, i, &p, &end);
+	const ulong length = end - p;
+	ulong h1 = seed;
+	ulong h2 = seed;
+	for (; p + 16 <= end; p += 16) {
+		ulong k1 = read64(data + p);
+		ulong k2 = read64(data + p + 8);
+		
+		k1 *= MURMUR_C1;
+		k1 = rotate(k1, 31UL);
+		k1 *= MURMUR_C2;
+		h1 ^= k1;
+		h1 = rotate(h1, 27UL);
+		h1 += h2;
+		h1 = h1 * 5 + 0x52DCE729;
+		
+		k2 *= MURMUR_C2;
+		k2 = rotate(k2, 33UL);
+		k2 *= MURMUR_C1;
+		h2 ^= k2;
+		h2 = rotate(h2, 31UL);
+		h2 += h1;
+		h2 = h2 * 5 + 0x38495AB5;
+	}
+	
+	// The last 0 to 15 bytes
+	const int tail = (int)(end - p);
+	ulong k1 = 0;
+	ulong k2 = 0;
+	for (int t = 0; t < tail; t++) {
+		if (t >= 8) {
+			k2 |= (ulong)data[p + t] << ((t - 8) * 8);
+		} else {
+			k1 |= (ulong)data[p + t] << (t * 8);
+		}
+	}
+	if (tail > 8) {
+		k2 *= MURMUR_C2;
+		k2 = rotate(k2, 33UL);
+		k2 *= MURMUR_C1;
+		h2 ^= k2;
+	}
+	if (tail > 0) {
+		k1 *= MURMUR_C1;
+		k1 = rotate(k1, 31UL);
+		k1 *= MURMUR_C2;
+		h1 ^= k1;
+	}
+	
+	h1 ^= length;
+	h2 ^= length;
+	h1 += h2;
+	h2 += h1;
+	h1 = fmix64(h1);
+	h2 = fmix64(h2);
+	h1 += h2;
+	h2 += h1;
+	results[2 * i] = h1;
+	results[2 * i + 1] = h2;
+}
\ No newline at end of file
@@ -0,0 +1,315 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.cl_mem;
+
+/**
+ * GPUHash computes checksums and hashes of many blocks of bytes at once on the GPU, such as for finding
+ * duplicate blocks. It goes with GPUProgram.
+ *
+ * Algorithms:
+ *	CRC32C:			32-bit checksum, the same as java.util.zip.CRC32C.getValue(). (The seed is not used.)
+ *	XXHASH64:		64-bit hash, the same as the reference XXH64().
+ *	MURMUR3_128:	128-bit fingerprint, the same as the reference MurmurHash3_x64_128() with the low 32 bits of the seed.
+ *					Each block gets two longs: the first and last 8 bytes of the reference output, as little-endian longs.
+ *
+ * Blocks are either a fixed number of bytes (the last block may be shorter), or given by offsets: block i is bytes
+ * offsets[i] up to (not including) offsets[i + 1], so there is one more offset than there are blocks, and blocks
+ * may have any length (including 0). Each work item hashes a whole block, so the GPU is busiest with thousands of
+ * blocks at once. The results are written to one LONG array (or GPUMem), with one or two longs for each block.
+ */
+
+public class GPUHash {
+	
+	/**
+	 * Enum representing how the bytes of each block are hashed.
+	 */
+	public enum Algorithm {
+		CRC32C(1),		// 32-bit CRC (Castagnoli)
+		XXHASH64(1),	// 64-bit xxHash
+		MURMUR3_128(2);	// 128-bit MurmurHash3
+		
+		protected final int longs;	// Longs in the result of each block
+		
+		Algorithm(int longs) {
+			this.longs = longs;
+		}
+	}
+	
+	private static final int GROUP_SIZE = 128;	// Work items per work group (reduced to what the GPU supports)
+	private static final int CRC_TABLE_SIZE = 8 * 256;	// Entries in the CRC32C tables in local memory
+	
+	private static GPUProgram[][] programs = null;	// Compiled kernels, by [offset ArrayType][Algorithm]
+	
+	/** Hash blocks of bytes given by offsets. Nothing is copied to the CPU.
+	 * @param algorithm How to hash each block.
+	 * @param data BYTE GPUMem with the blocks.
+	 * @param offsets INT or LONG GPUMem of where each block starts, then where the last block ends.
+	 * Its arrayRange.size is the number of blocks + 1. The offsets must not decrease, and must be within 'data'.
+	 * @param seed The seed of the hash (not used by CRC32C).
+	 * @param results LONG GPUMem to write the result of each block to (two longs for each block for MURMUR3_128).
+	 */
+	public static synchronized void hash(Algorithm algorithm, GPUMem data, GPUMem offsets, long seed, GPUMem results) {
+		
+		checkData(algorithm, data);
+		
+		if (offsets == null) {
+			error("Argument is null");
+		}
+		
+		if (offsets.mem == null || offsets.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (offsets.type != ArrayType.INT && offsets.type != ArrayType.LONG) {
+			error("Offsets must be an INT or LONG GPUMem, not " + offsets.type);
+		}
+		
+		if (offsets.arrayRange.size - 1 > Integer.MAX_VALUE) {
+			error("Too many blocks. (" + (offsets.arrayRange.size - 1) + ")");
+		}
+		
+		final int blocks = (int)offsets.arrayRange.size - 1;
+		run(algorithm, data, offsets.mem, offsets.type, 0, blocks, seed, results);
+	}
+	
+	/** Hash blocks of bytes that are all the same size (except the last block, which may be shorter). Nothing is copied to the CPU.
+	 * @param algorithm How to hash each block.
+	 * @param data BYTE GPUMem with the blocks, one after another. Its arrayRange.size is the total number of bytes.
+	 * @param blockSize The number of bytes in each block.
+	 * @param seed The seed of the hash (not used by CRC32C).
+	 * @param results LONG GPUMem to write the result of each block to (two longs for each block for MURMUR3_128).
+	 */
+	public static synchronized void hash(Algorithm algorithm, GPUMem data, long blockSize, long seed, GPUMem results) {
+		
+		checkData(algorithm, data);
+		
+		if (blockSize <= 0) {
+			error("Block size must be positive. (Got " + blockSize + ")");
+		}
+		
+		final long blocks = (data.arrayRange.size + blockSize - 1) / blockSize;
+		if (blocks > Integer.MAX_VALUE) {
+			error("Too many blocks. (" + blocks + ")");
+		}
+		
+		// (The offsets aren't read, so any memory will do)
+		run(algorithm, data, data.mem, ArrayType.INT, blockSize, (int)blocks, seed, results);
+	}
+	
+	/** Hash blocks of bytes given by offsets, and return the results.
+	 * @param algorithm How to hash each block.
+	 * @param data The blocks.
+	 * @param offsets Where each block starts, then where the last block ends.
+	 * @param seed The seed of the hash (not used by CRC32C).
+	 * @return The result of each block (two longs for each block for MURMUR3_128).
+	 */
+	public static synchronized long[] hash(Algorithm algorithm, byte[] data, int[] offsets, long seed) {
+		
+		if (offsets == null) {
+			error("Argument is null");
+		}
+		
+		long[] longOffsets = new long[offsets.length];
+		for (int i = 0; i < offsets.length; i++) {
+			longOffsets[i] = offsets[i];
+		}
+		checkOffsets(data, longOffsets);
+		
+		GPUMem offsetsMem = GPUProgram.copyArrayToGPU(offsets, GPUAccess.READ);
+		final long[] results = hashArray(algorithm, data, offsetsMem, 0, offsets.length - 1, seed);
+		offsetsMem.dispose();
+		return results;
+	}
+	
+	/** Hash blocks of bytes given by offsets, and return the results.
+	 * @param algorithm How to hash each block.
+	 * @param data The blocks.
+	 * @param offsets Where each block starts, then where the last block ends.
+	 * @param seed The seed of the hash (not used by CRC32C).
+	 * @return The result of each block (two longs for each block for MURMUR3_128).
+	 */
+	public static synchronized long[] hash(Algorithm algorithm, byte[] data, long[] offsets, long seed) {
+		
+		checkOffsets(data, offsets);
+		
+		GPUMem offsetsMem = GPUProgram.copyArrayToGPU(offsets, GPUAccess.READ);
+		final long[] results = hashArray(algorithm, data, offsetsMem, 0, offsets.length - 1, seed);
+		offsetsMem.dispose();
+		return results;
+	}
+	
+	/** Hash blocks of bytes that are all the same size (except the last block, which may be shorter), and return the results.
+	 * @param algorithm How to hash each block.
+	 * @param data The blocks, one after another.
+	 * @param blockSize The number of bytes in each block.
+	 * @param seed The seed of the hash (not used by CRC32C).
+	 * @return The result of each block (two longs for each block for MURMUR3_128).
+	 */
+	public static synchronized long[] hash(Algorithm algorithm, byte[] data, int blockSize, long seed) {
+		
+		if (data == null) {
+			error("Argument is null");
+		}
+		
+		if (blockSize <= 0) {
+			error("Block size must be positive. (Got " + blockSize + ")");
+		}
+		
+		return hashArray(algorithm, data, null, blockSize, (int)(((long)data.length + blockSize - 1) / blockSize), seed);
+	}
+	
+	/** Release the kernels used for hashing.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void dispose() {
+		if (programs != null) {
+			for (int i = 0; i < programs.length; i++) {
+				for (int j = 0; j < programs[i].length; j++) {
+					if (programs[i][j] != null) {
+						programs[i][j].dispose();
+					}
+				}
+			}
+			programs = null;
+		}
+	}
+	
+	// Copy the data to the GPU, hash it, and copy the results back
+	private static long[] hashArray(Algorithm algorithm, byte[] data, GPUMem offsets, long blockSize, int blocks, long seed) {
+		
+		if (algorithm == null) {
+			error("Argument is null");
+		}
+		
+		long[] results = new long[blocks * algorithm.longs];
+		if (blocks == 0) {
+			return results;
+		}
+		
+		if (data.length == 0) {
+			// Every block is empty, and GPUMems can't be
+			data = new byte[1];
+		}
+		
+		GPUMem dataMem = GPUProgram.copyArrayToGPU(data, GPUAccess.READ);
+		GPUMem resultsMem = GPUProgram.allocateMemoryOnGPU(results, GPUAccess.WRITE, false);
+		if (offsets != null) {
+			run(algorithm, dataMem, offsets.mem, offsets.type, 0, blocks, seed, resultsMem);
+		} else {
+			run(algorithm, dataMem, dataMem.mem, ArrayType.INT, blockSize, blocks, seed, resultsMem);
+		}
+		GPUProgram.copyArrayToCPU(resultsMem);
+		dataMem.dispose();
+		resultsMem.dispose();
+		return results;
+	}
+	
+	// Run the kernel for an algorithm, with one work item for each block
+	private static void run(Algorithm algorithm, GPUMem data, cl_mem offsets, ArrayType offsetType,
+			long blockSize, int blocks, long seed, GPUMem results) {
+		
+		if (results == null) {
+			error("Argument is null");
+		}
+		
+		if (results.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (results.type != ArrayType.LONG) {
+			error("Results must be a LONG GPUMem, not " + results.type);
+		}
+		
+		if (results.maxAllocatedSize < (long)blocks * algorithm.longs) {
+			error(algorithm + " of " + blocks + " blocks needs " + ((long)blocks * algorithm.longs) + " results, but only has "
+					+ results.maxAllocatedSize);
+		}
+		
+		if (blocks <= 0) {
+			return;
+		}
+		
+		final GPUProgram program = getProgram(offsetType, algorithm);
+		final int groupSize = Math.min(GROUP_SIZE, program.getKernelMaxLocalWorkGroupSize());
+		program.setArgumentMem(0, data.mem);
+		program.setArgumentMem(1, offsets);
+		program.setArgument(2, blockSize, GPUAccess.READ);
+		program.setArgument(3, data.arrayRange.size, GPUAccess.READ);
+		program.setArgument(4, blocks, GPUAccess.READ);
+		program.setArgumentMem(5, results.mem);
+		if (algorithm == Algorithm.CRC32C) {
+			program.setLocalArgument(6, ArrayType.INT, CRC_TABLE_SIZE);
+		} else if (algorithm == Algorithm.XXHASH64) {
+			program.setArgument(6, seed, GPUAccess.READ);
+		} else {
+			program.setArgument(6, (int)seed, GPUAccess.READ);
+		}
+		program.setLocalWorkGroupSizes(groupSize);
+		program.setGlobalWorkGroupSizes((blocks + (long)groupSize - 1) / groupSize * groupSize);
+		program.enqueueKernel(null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Check that the data can be hashed
+	private static void checkData(Algorithm algorithm, GPUMem data) {
+		
+		if (algorithm == null || data == null) {
+			error("Argument is null");
+		}
+		
+		if (data.mem == null || data.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (data.type != ArrayType.BYTE || data.isImage()) {
+			error("Data must be a BYTE GPUMem, not " + data.type);
+		}
+	}
+	
+	// Check that offsets divide the data into blocks
+	private static void checkOffsets(byte[] data, long[] offsets) {
+		
+		if (data == null || offsets == null) {
+			error("Argument is null");
+		}
+		
+		if (offsets.length == 0) {
+			error("Offsets need at least one element (where the first block starts).");
+		}
+		
+		for (int i = 0; i < offsets.length; i++) {
+			if (offsets[i] < 0 || offsets[i] > data.length || (i > 0 && offsets[i] < offsets[i - 1])) {
+				error("Offset " + offsets[i] + " (at " + i + ") must not be less than the one before, and must be within the "
+						+ data.length + " bytes of data.");
+			}
+		}
+	}
+	
+	// Return the kernel for an algorithm, compiling it the first time it's needed
+	private static GPUProgram getProgram(ArrayType offsetType, Algorithm algorithm) {
+		
+		if (programs == null) {
+			programs = new GPUProgram[ArrayType.values().length][Algorithm.values().length];
+		}
+		
+		if (programs[offsetType.ordinal()][algorithm.ordinal()] == null) {
+			String kernelName = "crc32cKernel";
+			if (algorithm == Algorithm.XXHASH64) {
+				kernelName = "xxHash64Kernel";
+			} else if (algorithm == Algorithm.MURMUR3_128) {
+				kernelName = "murmur3Kernel";
+			}
+			programs[offsetType.ordinal()][algorithm.ordinal()] = GPUProgram.fromLibrary(kernelName, "GPUHash.cl",
+					offsetType.getOpenCLDefines());
+		}
+		
+		return programs[offsetType.ordinal()][algorithm.ordinal()];
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,143 @@
+// Open-addressing hash table for GPUHashTable.java
+// Compiled with T (the key type, int or long) and IS_LONG for long keys.
+// Keys are claimed with compare-and-swap, and linear probing moves to the next slot until it finds the key or an empty slot.
+
+#ifdef IS_LONG
+#pragma OPENCL EXTENSION cl_khr_int64_base_atomics : enable
+#define EMPTY LONG_MIN
+#define CMPXCHG(p, cmp, val) atom_cmpxchg(p, cmp, val)
+
+// MurmurHash3 finalizer (fmix64): every bit of the key changes about half of the bits of the hash
+uint hash(long key) {
+	ulong h = (ulong)key;
+	h ^= h >> 33;
+	h *= 0xFF51AFD7ED558CCDUL;
+	h ^= h >> 33;
+	h *= 0xC4CEB9FE1A85EC53UL;
+	h ^= h >> 33;
+	return (uint)h;
+}
+#else
+#define EMPTY INT_MIN
+#define CMPXCHG(p, cmp, val) atomic_cmpxchg(p, cmp, val)
+
+// MurmurHash3 finalizer (fmix32)
+uint hash(int key) {
+	uint h = (uint)key;
+	h ^= h >> 16;
+	h *= 0x85EBCA6Bu;
+	h ^= h >> 13;
+	h *= 0xC2B2AE35u;
+	h ^= h >> 16;
+	return h;
+}
+#endif
+
+// A removed key, which probing goes past (it is only cleared by a rehash)
+#define DELETED (EMPTY + 1)
+
+// Insert each key with its value, or its index in 'keys' if there are no values. A key already in the table gets the new value.
+// counters[0] counts the keys added to the table, and counters[1] counts the keys that can't be used (EMPTY or DELETED).
+// The table must have an empty slot left after inserting every key, so probing always ends.
+kernel void insertKernel(global T *table, global int *tableValues, const int mask, global const T *keys,
+		global const int *values, const int hasValues, const int n, global int *counters) {
+	
+	const int i = get_global_id(0);
+	if (i >= n) {
+		return;
+	}
+	
+	const T key = keys[i];
+	if (key == EMPTY || key == DELETED) {
+		atomic_inc(&counters[1]);
+		return;
+	}
+	
+	const int value = hasValues ? values[i] : i;
+	uint slot = hash(key) & mask;
+	while (true) {
+		const T old = CMPXCHG(&table[slot], EMPTY, key);
+		if (old == EMPTY) {
+			atomic_inc(&counters[0]);
+			tableValues[slot] = value;
+			return;
+		}
+		if (old == key) {
+			tableValues[slot] = value;
+			return;
+		}
+		slot = (slot + 1) & mask;
+	}
+}
+
+// Write the value of each key, or 'notFound' if it isn't in the table
+kernel void probeKernel(global const T *table, global const int *tableValues, const int mask, global const T *keys,
+		global int *values, const int notFound, const int n) {
+	
+	const int i = get_global_id(0);
+	if (i >= n) {
+		return;
+	}
+	
+	const T key = keys[i];
+	int value = notFound;
+	if (key != EMPTY && key != DELETED) {
+		uint slot = hash(key) & mask;
+		T found = table[slot];
+		while (found != EMPTY) {
+			if (found == key) {
+				value = tableValues[slot];
+				break;
+			}
+			slot = (slot + 1) & mask;
+			found = table[slot];
+		}
+	}
+	values[i] = value;
+}
+
+// Replace each key in the table with DELETED. counters[0] counts the keys removed.
+kernel void removeKernel(global T *table, const int mask, global const T *keys, const int n, global int *counters) {
+	
+	const int i = get_global_id(0);
+	if (i >= n) {
+		return;
+	}
+	
+	const T key = keys[i];
+	if (key == EMPTY || key == DELETED) {
+		return;
+	}
+	
+	uint slot = hash(key) & mask;
+	T found = table[slot];
+	while (found != EMPTY) {
+		if (found == key) {
+			// (Only one of several work items removing the same key succeeds)
+			if (CMPXCHG(&table[slot], key, DELETED) == key) {
+				atomic_inc(&counters[0]);
+			}
+			return;
+		}
+		slot = (slot + 1) & mask;
+		found = table[slot];
+	}
+}
+
+// Copy every key in the table, and its value, to the next place in 'keys' and 'values' (in no particular order).
+// counters[0] counts the keys copied.
+kernel void copyKernel(global const T *table, global const int *tableValues, const int slots, global T *keys,
+		global int *values, global int *counters) {
+	
+	const int slot = get_global_id(0);
+	if (slot >= slots) {
+		return;
+	}
+	
+	const T key = table[slot];
+	if (key != EMPTY && key != DELETED) {
+		const int i = atomic_inc(&counters[0]);
+		keys[i] = key;
+		values[i] = tableValues[slot];
+	}
+}
\ No newline at end of file
@@ -0,0 +1,485 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUHashTable is a hash table from int or long keys to int values, kept on the GPU, for lookups, hash joins,
+ * and removing duplicates without copying the data back to a HashMap. It goes with GPUProgram.
+ *
+ * Keys are inserted, probed, and removed in bulk: one work item for each key of a GPUMem (its first arrayRange.size elements).
+ * The table uses open addressing with linear probing. Each key claims a slot with an atomic compare-and-swap,
+ * so inserting the same key from several work items still gives one slot. Removed keys leave a marker that probes
+ * go past, and which is only cleared when the table is rehashed. The table is rehashed into more slots before an
+ * insert would fill more than the maximum load factor of its slots (counting removed keys).
+ *
+ * For a hash join, insert the join keys of one table (each key gets its index as its value), then probe with the keys of
+ * the other table to get the index of a matching row. To remove duplicates, insert the keys, then copy the entries out.
+ *
+ * The smallest two values of the key type (Integer.MIN_VALUE and Integer.MIN_VALUE + 1, or the same for Long) mark
+ * empty slots and removed keys, so they can't be used as keys. Long keys need a GPU with atomic functions on longs.
+ * Inserting and removing keys copies a few bytes back to the CPU, to keep track of the number of keys.
+ */
+
+public class GPUHashTable {
+	
+	private static final int MIN_SLOTS = 16;				// Fewest slots in a table
+	private static final int MAX_SLOTS = 1 << 30;			// Most slots in a table
+	private static final double DEFAULT_LOAD_FACTOR = 0.5;	// Maximum load factor of a new table
+	
+	private static GPUProgram[] insertPrograms = null;		// Compiled insertKernel kernels, by key ArrayType
+	private static GPUProgram[] probePrograms = null;		// Compiled probeKernel kernels, by key ArrayType
+	private static GPUProgram[] removePrograms = null;		// Compiled removeKernel kernels, by key ArrayType
+	private static GPUProgram[] copyPrograms = null;		// Compiled copyKernel kernels, by key ArrayType
+	
+	private final ArrayType keyType;		// INT or LONG
+	private double maxLoadFactor;			// Most of the slots that can be used (by keys or removed keys) before rehashing
+	private int slots;						// Number of slots (a power of two)
+	private int size = 0;					// Number of keys in the table
+	private int used = 0;					// Number of slots used by keys or removed keys
+	private cl_mem table;					// Key in each slot
+	private cl_mem tableValues;				// Value in each slot (ints)
+	private cl_mem counters;				// Two ints counted by the kernels
+	
+	/**
+	 * Construct a new, empty hash table on the GPU.
+	 * @param keyType INT or LONG.
+	 * @param capacity The number of keys expected. The table grows if more are inserted.
+	 */
+	public GPUHashTable(ArrayType keyType, int capacity) {
+		GPUProgram.initializeGPU();
+		
+		if (keyType != ArrayType.INT && keyType != ArrayType.LONG) {
+			error("Keys must be INT or LONG, not " + keyType);
+		}
+		
+		if (keyType == ArrayType.LONG && !GPUProgram.isLongAtomicsSupported()) {
+			error("This GPU does not support atomic functions on longs, which are needed for LONG keys.");
+		}
+		
+		if (capacity < 0) {
+			error("Capacity must not be negative. (Got " + capacity + ")");
+		}
+		
+		this.keyType = keyType;
+		this.maxLoadFactor = DEFAULT_LOAD_FACTOR;
+		this.slots = getSlots(capacity, maxLoadFactor);
+		this.table = createBuffer((long)slots * keyType.getSize());
+		this.tableValues = createBuffer((long)slots * ArrayType.INT.getSize());
+		this.counters = createBuffer(2 * ArrayType.INT.getSize());
+		clearTable(table, keyType, slots);
+	}
+	
+	/** Return the type of the keys.
+	 * @return INT or LONG
+	 */
+	public ArrayType getKeyType() {
+		return keyType;
+	}
+	
+	/** Return the number of keys in the table.
+	 * @return keys
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/** Return the number of slots in the table, which is the most keys it could hold without rehashing.
+	 * @return slots
+	 */
+	public int getSlots() {
+		return slots;
+	}
+	
+	/** Return the most of the slots that can be used (by keys or removed keys) before the table is rehashed.
+	 * @return load factor
+	 */
+	public double getMaxLoadFactor() {
+		return maxLoadFactor;
+	}
+	
+	/** Set the most of the slots that can be used (by keys or removed keys) before the table is rehashed.
+	 * A higher load factor uses less memory, but probes go through more slots.
+	 * @param maxLoadFactor Between 0.1 and 0.9.
+	 */
+	public void setMaxLoadFactor(double maxLoadFactor) {
+		if (!(maxLoadFactor >= 0.1 && maxLoadFactor <= 0.9)) {
+			error("Load factor must be between 0.1 and 0.9. (Got " + maxLoadFactor + ")");
+		}
+		this.maxLoadFactor = maxLoadFactor;
+	}
+	
+	/** Insert keys, each with its index in 'keys' as its value. A key already in the table gets the new value.
+	 * If a key is in 'keys' more than once, it gets the index of one of them.
+	 * @param keys GPUMem of keys (the same type as the table).
+	 */
+	public void insert(GPUMem keys) {
+		insert(this, keys, null);
+	}
+	
+	/** Insert keys with values. A key already in the table gets the new value.
+	 * If a key is in 'keys' more than once, it gets the value of one of them.
+	 * @param keys GPUMem of keys (the same type as the table).
+	 * @param values INT GPUMem with a value for each key.
+	 */
+	public void insert(GPUMem keys, GPUMem values) {
+		if (values == null) {
+			error("Argument is null");
+		}
+		insert(this, keys, values);
+	}
+	
+	/** Look up the value of each key.
+	 * @param keys GPUMem of keys (the same type as the table).
+	 * @param values INT GPUMem to write the value of each key to.
+	 * @param notFound The value to write for keys that aren't in the table.
+	 */
+	public void probe(GPUMem keys, GPUMem values, int notFound) {
+		probe(this, keys, values, notFound);
+	}
+	
+	/** Remove keys from the table. Keys that aren't in the table are ignored.
+	 * @param keys GPUMem of keys (the same type as the table).
+	 */
+	public void remove(GPUMem keys) {
+		remove(this, keys);
+	}
+	
+	/** Copy every key in the table, and its value, to the start of two GPUMems (in no particular order).
+	 * @param keys GPUMem to write the keys to (the same type as the table), with room for size() keys.
+	 * @param values INT GPUMem to write the values to, with room for size() values.
+	 * @return The number of keys copied, which is size().
+	 */
+	public int copyEntries(GPUMem keys, GPUMem values) {
+		return copyEntries(this, keys, values);
+	}
+	
+	/** Rebuild the table with enough slots for 'capacity' keys at the maximum load factor, clearing out removed keys.
+	 * This is done automatically when inserting keys, but can be done in advance (or to shrink the table).
+	 * @param capacity The number of keys expected (at least size()).
+	 */
+	public void rehash(int capacity) {
+		rehash(this, capacity);
+	}
+	
+	/** Remove every key from the table.
+	 */
+	public void clear() {
+		checkTable(this);
+		clearTable(table, keyType, slots);
+		size = 0;
+		used = 0;
+	}
+	
+	/** Release the memory on the GPU, and make sure this table cannot be used again.
+	 */
+	public void dispose() {
+		if (table != null) {
+			CL.clReleaseMemObject(table);
+			CL.clReleaseMemObject(tableValues);
+			CL.clReleaseMemObject(counters);
+		}
+		table = null;
+		tableValues = null;
+		counters = null;
+	}
+	
+	/** Release the kernels used by hash tables.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void disposeAll() {
+		if (insertPrograms != null) {
+			for (int i = 0; i < insertPrograms.length; i++) {
+				if (insertPrograms[i] != null) {
+					insertPrograms[i].dispose();
+					probePrograms[i].dispose();
+					removePrograms[i].dispose();
+					copyPrograms[i].dispose();
+				}
+			}
+			insertPrograms = null;
+			probePrograms = null;
+			removePrograms = null;
+			copyPrograms = null;
+		}
+	}
+	
+	// Rehash first if the keys could fill too many slots, then insert them
+	private static synchronized void insert(GPUHashTable hashTable, GPUMem keys, GPUMem values) {
+		
+		checkTable(hashTable);
+		final int n = checkKeys(hashTable, keys);
+		if (values != null) {
+			checkValues(values, n);
+		}
+		
+		if (n == 0) {
+			return;
+		}
+		
+		if (hashTable.used + (long)n > hashTable.maxLoadFactor * hashTable.slots) {
+			rehash(hashTable, (int)Math.min(Integer.MAX_VALUE, hashTable.size + (long)n));
+		}
+		
+		final int[] counts = runInsert(hashTable, hashTable.table, hashTable.tableValues, hashTable.slots,
+				keys.mem, (values != null) ? values.mem : null, n);
+		hashTable.size += counts[0];
+		hashTable.used += counts[0];
+		
+		if (counts[1] > 0) {
+			error(counts[1] + " keys were not inserted, because the smallest two values of " + hashTable.keyType
+					+ " mark empty slots and removed keys.");
+		}
+	}
+	
+	// Run probeKernel
+	private static synchronized void probe(GPUHashTable hashTable, GPUMem keys, GPUMem values, int notFound) {
+		
+		checkTable(hashTable);
+		final int n = checkKeys(hashTable, keys);
+		checkValues(values, n);
+		
+		if (n == 0) {
+			return;
+		}
+		
+		getPrograms(hashTable.keyType);
+		final GPUProgram program = probePrograms[hashTable.keyType.ordinal()];
+		program.setArgumentMem(0, hashTable.table);
+		program.setArgumentMem(1, hashTable.tableValues);
+		program.setArgument(2, hashTable.slots - 1, GPUAccess.READ);
+		program.setArgumentMem(3, keys.mem);
+		program.setArgumentMem(4, values.mem);
+		program.setArgument(5, notFound, GPUAccess.READ);
+		program.setArgument(6, n, GPUAccess.READ);
+		program.setGlobalWorkGroupSizes(n);
+		program.enqueueKernel(null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Run removeKernel, and count the keys removed
+	private static synchronized void remove(GPUHashTable hashTable, GPUMem keys) {
+		
+		checkTable(hashTable);
+		final int n = checkKeys(hashTable, keys);
+		
+		if (n == 0) {
+			return;
+		}
+		
+		zeroCounters(hashTable.counters);
+		getPrograms(hashTable.keyType);
+		final GPUProgram program = removePrograms[hashTable.keyType.ordinal()];
+		program.setArgumentMem(0, hashTable.table);
+		program.setArgument(1, hashTable.slots - 1, GPUAccess.READ);
+		program.setArgumentMem(2, keys.mem);
+		program.setArgument(3, n, GPUAccess.READ);
+		program.setArgumentMem(4, hashTable.counters);
+		program.setGlobalWorkGroupSizes(n);
+		program.enqueueKernel(null, null);
+		
+		hashTable.size -= readCounters(hashTable.counters)[0];
+	}
+	
+	// Run copyKernel over every slot
+	private static synchronized int copyEntries(GPUHashTable hashTable, GPUMem keys, GPUMem values) {
+		
+		checkTable(hashTable);
+		checkValues(values, hashTable.size);
+		
+		if (keys == null) {
+			error("Argument is null");
+		}
+		
+		if (keys.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (keys.type != hashTable.keyType) {
+			error("Keys must be " + hashTable.keyType + ", not " + keys.type);
+		}
+		
+		if (keys.maxAllocatedSize < hashTable.size) {
+			error("Table has " + hashTable.size + " keys, but the output only has room for " + keys.maxAllocatedSize);
+		}
+		
+		zeroCounters(hashTable.counters);
+		getPrograms(hashTable.keyType);
+		final GPUProgram program = copyPrograms[hashTable.keyType.ordinal()];
+		program.setArgumentMem(0, hashTable.table);
+		program.setArgumentMem(1, hashTable.tableValues);
+		program.setArgument(2, hashTable.slots, GPUAccess.READ);
+		program.setArgumentMem(3, keys.mem);
+		program.setArgumentMem(4, values.mem);
+		program.setArgumentMem(5, hashTable.counters);
+		program.setGlobalWorkGroupSizes(hashTable.slots);
+		program.enqueueKernel(null, null);
+		
+		return readCounters(hashTable.counters)[0];
+	}
+	
+	// Insert every key of the old table into a new, empty table
+	private static synchronized void rehash(GPUHashTable hashTable, int capacity) {
+		
+		checkTable(hashTable);
+		
+		if (capacity < hashTable.size) {
+			error("Capacity " + capacity + " is less than the number of keys in the table. (" + hashTable.size + ")");
+		}
+		
+		final int newSlots = getSlots(capacity, hashTable.maxLoadFactor);
+		final cl_mem newTable = createBuffer((long)newSlots * hashTable.keyType.getSize());
+		final cl_mem newValues = createBuffer((long)newSlots * ArrayType.INT.getSize());
+		clearTable(newTable, hashTable.keyType, newSlots);
+		
+		// (Empty slots and removed keys are skipped as keys that can't be used)
+		runInsert(hashTable, newTable, newValues, newSlots, hashTable.table, hashTable.tableValues, hashTable.slots);
+		
+		CL.clReleaseMemObject(hashTable.table);
+		CL.clReleaseMemObject(hashTable.tableValues);
+		hashTable.table = newTable;
+		hashTable.tableValues = newValues;
+		hashTable.slots = newSlots;
+		hashTable.used = hashTable.size;
+	}
+	
+	// Run insertKernel, and return the number of keys added and the number that can't be used
+	private static int[] runInsert(GPUHashTable hashTable, cl_mem table, cl_mem tableValues, int slots,
+			cl_mem keys, cl_mem values, int n) {
+		
+		zeroCounters(hashTable.counters);
+		getPrograms(hashTable.keyType);
+		final GPUProgram program = insertPrograms[hashTable.keyType.ordinal()];
+		program.setArgumentMem(0, table);
+		program.setArgumentMem(1, tableValues);
+		program.setArgument(2, slots - 1, GPUAccess.READ);
+		program.setArgumentMem(3, keys);
+		program.setArgumentMem(4, (values != null) ? values : keys);	// (Not read without values)
+		program.setArgument(5, (values != null) ? 1 : 0, GPUAccess.READ);
+		program.setArgument(6, n, GPUAccess.READ);
+		program.setArgumentMem(7, hashTable.counters);
+		program.setGlobalWorkGroupSizes(n);
+		program.enqueueKernel(null, null);
+		
+		return readCounters(hashTable.counters);
+	}
+	
+	// Return the number of slots for 'capacity' keys: a power of two, so the hash is masked instead of divided
+	private static int getSlots(int capacity, double maxLoadFactor) {
+		final long needed = (long)Math.ceil(capacity / maxLoadFactor) + 1;
+		if (needed > MAX_SLOTS) {
+			error("Hash table can't hold " + capacity + " keys. (It would need more than " + MAX_SLOTS + " slots)");
+		}
+		
+		int slots = MIN_SLOTS;
+		while (slots < needed) {
+			slots *= 2;
+		}
+		return slots;
+	}
+	
+	// Check that a table can be used
+	private static void checkTable(GPUHashTable hashTable) {
+		if (hashTable.table == null) {
+			error("Attempted to use a disposed GPUHashTable.");
+		}
+	}
+	
+	// Check that a GPUMem holds keys for this table, and return the number of keys
+	private static int checkKeys(GPUHashTable hashTable, GPUMem keys) {
+		
+		if (keys == null) {
+			error("Argument is null");
+		}
+		
+		if (keys.mem == null || keys.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (keys.type != hashTable.keyType || keys.isImage()) {
+			error("Keys must be " + hashTable.keyType + ", not " + keys.type);
+		}
+		
+		if (keys.arrayRange.size > MAX_SLOTS) {
+			error("Too many keys at once. (" + keys.arrayRange.size + ")");
+		}
+		
+		return (int)keys.arrayRange.size;
+	}
+	
+	// Check that a GPUMem has room for 'n' int values
+	private static void checkValues(GPUMem values, int n) {
+		
+		if (values == null) {
+			error("Argument is null");
+		}
+		
+		if (values.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (values.type != ArrayType.INT || values.isImage()) {
+			error("Values must be an INT GPUMem, not " + values.type);
+		}
+		
+		if (values.maxAllocatedSize < n) {
+			error("Needs " + n + " values, but only has " + values.maxAllocatedSize);
+		}
+	}
+	
+	// Set every slot of a table to the key that marks an empty slot
+	private static void clearTable(cl_mem table, ArrayType keyType, int slots) {
+		final Pointer pattern = (keyType == ArrayType.LONG) ? Pointer.to(new long[] {Long.MIN_VALUE})
+				: Pointer.to(new int[] {Integer.MIN_VALUE});
+		CL.clEnqueueFillBuffer(GPUProgram.commandQueue, table, pattern, keyType.getSize(), 0,
+				(long)slots * keyType.getSize(), 0, null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Set both counters on the GPU to 0
+	private static void zeroCounters(cl_mem counters) {
+		CL.clEnqueueFillBuffer(GPUProgram.commandQueue, counters, Pointer.to(new int[] {0}), ArrayType.INT.getSize(), 0,
+				2 * ArrayType.INT.getSize(), 0, null, null);
+	}
+	
+	// Copy both counters to the CPU (waiting for the kernel that counted them)
+	private static int[] readCounters(cl_mem counters) {
+		final int[] hostCounters = new int[2];
+		CL.clEnqueueReadBuffer(GPUProgram.commandQueue, counters, CL.CL_TRUE, 0, 2 * ArrayType.INT.getSize(),
+				Pointer.to(hostCounters), 0, null, null);
+		GPUProgram.copyToCPUCounter++;
+		return hostCounters;
+	}
+	
+	// Allocate memory on the GPU
+	private static cl_mem createBuffer(long bytes) {
+		GPUProgram.allocCounter++;
+		return CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, bytes, null, null);
+	}
+	
+	// Compile the kernels for this key type the first time they're needed
+	private static void getPrograms(ArrayType keyType) {
+		
+		if (insertPrograms == null) {
+			insertPrograms = new GPUProgram[ArrayType.values().length];
+			probePrograms = new GPUProgram[ArrayType.values().length];
+			removePrograms = new GPUProgram[ArrayType.values().length];
+			copyPrograms = new GPUProgram[ArrayType.values().length];
+		}
+		
+		if (insertPrograms[keyType.ordinal()] == null) {
+			final String options = keyType.getOpenCLDefines() + (keyType == ArrayType.LONG ? " -D IS_LONG" : "");
+			insertPrograms[keyType.ordinal()] = GPUProgram.fromLibrary("insertKernel", "GPUHashTable.cl", options);
+			probePrograms[keyType.ordinal()] = GPUProgram.fromLibrary("probeKernel", "GPUHashTable.cl", options);
+			removePrograms[keyType.ordinal()] = GPUProgram.fromLibrary("removeKernel", "GPUHashTable.cl", options);
+			copyPrograms[keyType.ordinal()] = GPUProgram.fromLibrary("copyKernel", "GPUHashTable.cl", options);
+		}
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,248 @@
+// Image processing for GPUImage.java
+// Pixels are float4 (red, green, blue, alpha), from 0 to 255.
+
+// Types of buffered images in Java:
+#define BUFFERED_IMAGE_TYPE_INT_RGB			0x1
+#define BUFFERED_IMAGE_TYPE_INT_ARGB		0x2
+#define BUFFERED_IMAGE_TYPE_INT_ARGB_PRE	0x3
+#define BUFFERED_IMAGE_TYPE_INT_BGR			0x4
+#define BUFFERED_IMAGE_TYPE_3BYTE_BGR		0x5
+#define BUFFERED_IMAGE_TYPE_4BYTE_ABGR		0x6
+#define BUFFERED_IMAGE_TYPE_4BYTE_ABGR_PRE	0x7
+#define BUFFERED_IMAGE_TYPE_BYTE_GRAY		0xA
+
+// What reads from outside the image return (must match GPUImage.EdgeMode)
+#define EDGE_CLAMP	0
+#define EDGE_WRAP	1
+#define EDGE_MIRROR	2
+#define EDGE_ZERO	3
+
+// Move a coordinate that may be outside of the image back into it, or return -1 for EDGE_ZERO.
+int edgeCoord(int x, int size, int edgeMode) {
+	if (x >= 0 && x < size) {
+		return x;
+	} else if (edgeMode == EDGE_CLAMP) {
+		return clamp(x, 0, size - 1);
+	} else if (edgeMode == EDGE_WRAP) {
+		x %= size;
+		return (x < 0) ? x + size : x;
+	} else if (edgeMode == EDGE_MIRROR) {
+		const int period = 2 * size;
+		x %= period;
+		if (x < 0) {
+			x += period;
+		}
+		return (x < size) ? x : period - 1 - x;
+	}
+	return -1;
+}
+
+// Convert a float4 channel to a byte
+uint toByte(float channel) {
+	return convert_uint_sat_rte(clamp(channel, 0.0f, 255.0f));
+}
+
+// Whether a BufferedImage type keeps its colors multiplied by alpha
+bool isPremultiplied(const int imageType) {
+	return imageType == BUFFERED_IMAGE_TYPE_INT_ARGB_PRE || imageType == BUFFERED_IMAGE_TYPE_4BYTE_ABGR_PRE;
+}
+
+// Convert the flattened pixels of a BufferedImage (as setArgument copies them) to float4 pixels.
+// Premultiplied colors are divided by alpha, so the pixels have straight alpha whatever the type.
+kernel void unpackPixels(global const uchar *packed, global float4 *pixels, const int imageType, const int numPixels) {
+	
+	const int i = get_global_id(0);
+	if (i >= numPixels) {
+		return;
+	}
+	
+	global const uint *packedInts = (global const uint *)packed;
+	float4 pixel;
+	if (imageType == BUFFERED_IMAGE_TYPE_INT_RGB) {
+		const uint c = packedInts[i];
+		pixel = (float4)((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF, 255); // Alpha is undefined
+	} else if (imageType == BUFFERED_IMAGE_TYPE_INT_ARGB || imageType == BUFFERED_IMAGE_TYPE_INT_ARGB_PRE) {
+		const uint c = packedInts[i];
+		pixel = (float4)((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF, c >> 24);
+	} else if (imageType == BUFFERED_IMAGE_TYPE_INT_BGR) {
+		const uint c = packedInts[i];
+		pixel = (float4)(c & 0xFF, (c >> 8) & 0xFF, (c >> 16) & 0xFF, 255);
+	} else if (imageType == BUFFERED_IMAGE_TYPE_3BYTE_BGR) {
+		pixel = (float4)(packed[i * 3 + 2], packed[i * 3 + 1], packed[i * 3], 255);
+	} else if (imageType == BUFFERED_IMAGE_TYPE_4BYTE_ABGR || imageType == BUFFERED_IMAGE_TYPE_4BYTE_ABGR_PRE) {
+		pixel = (float4)(packed[i * 4 + 3], packed[i * 4 + 2], packed[i * 4 + 1], packed[i * 4]);
+	} else { // BUFFERED_IMAGE_TYPE_BYTE_GRAY
+		const float gray = packed[i];
+		pixel = (float4)(gray, gray, gray, 255);
+	}
+	
+	if (isPremultiplied(imageType)) {
+		pixel.xyz = (pixel.w > 0.0f) ? pixel.xyz * (255.0f / pixel.w) : (float3)(0.0f);
+	}
+	pixels[i] = pixel;
+}
+
+// Convert float4 pixels back to the flattened pixels of a BufferedImage, rounding and clamping each channel.
+// Colors are multiplied by alpha again for premultiplied types.
+kernel void packPixels(global const float4 *pixels, global uchar *packed, const int imageType, const int numPixels) {
+	
+	const int i = get_global_id(0);
+	if (i >= numPixels) {
+		return;
+	}
+	
+	global uint *packedInts = (global uint *)packed;
+	float4 p = pixels[i];
+	if (isPremultiplied(imageType)) {
+		p.xyz *= clamp(p.w, 0.0f, 255.0f) / 255.0f;
+	}
+	const uint r = toByte(p.x);
+	const uint g = toByte(p.y);
+	const uint b = toByte(p.z);
+	const uint a = toByte(p.w);
+	if (imageType == BUFFERED_IMAGE_TYPE_INT_RGB) {
+		packedInts[i] = (r << 16) | (g << 8) | b;
+	} else if (imageType == BUFFERED_IMAGE_TYPE_INT_ARGB || imageType == BUFFERED_IMAGE_TYPE_INT_ARGB_PRE) {
+		packedInts[i] = (a << 24) | (r << 16) | (g << 8) | b;
+	} else if (imageType == BUFFERED_IMAGE_TYPE_INT_BGR) {
+		packedInts[i] = (b << 16) | (g << 8) | r;
+	} else if (imageType == BUFFERED_IMAGE_TYPE_3BYTE_BGR) {
+		packed[i * 3] = b;
+		packed[i * 3 + 1] = g;
+		packed[i * 3 + 2] = r;
+	} else if (imageType == BUFFERED_IMAGE_TYPE_4BYTE_ABGR || imageType == BUFFERED_IMAGE_TYPE_4BYTE_ABGR_PRE) {
+		packed[i * 4] = a;
+		packed[i * 4 + 1] = b;
+		packed[i * 4 + 2] = g;
+		packed[i * 4 + 3] = r;
+	} else { // BUFFERED_IMAGE_TYPE_BYTE_GRAY
+		packed[i] = toByte(0.299f * p.x + 0.587f * p.y + 0.114f * p.z);
+	}
+}
+
+// Weighted sum of the (2 * radiusX + 1) x (2 * radiusY + 1) neighborhood of each pixel.
+// Each work group first copies its block of pixels, plus a border of radiusX and radiusY pixels, into local memory,
+// so each pixel is read from global memory about once instead of once for every weight.
+// 'weights' is row-major, and weights[0] is applied to the top-left neighbor.
+kernel void convolve(global const float4 *input, global float4 *output, const int width, const int height,
+		global const float *weights, const int radiusX, const int radiusY, const int edgeMode, local float4 *tile) {
+	
+	const int lx = get_local_id(0);
+	const int ly = get_local_id(1);
+	const int groupWidth = get_local_size(0);
+	const int groupHeight = get_local_size(1);
+	const int tileWidth = groupWidth + 2 * radiusX;
+	const int tileHeight = groupHeight + 2 * radiusY;
+	const int tileX = get_group_id(0) * groupWidth - radiusX;
+	const int tileY = get_group_id(1) * groupHeight - radiusY;
+	
+	for (int ty = ly; ty < tileHeight; ty += groupHeight) {
+		const int sy = edgeCoord(tileY + ty, height, edgeMode);
+		for (int tx = lx; tx < tileWidth; tx += groupWidth) {
+			const int sx = edgeCoord(tileX + tx, width, edgeMode);
+			tile[ty * tileWidth + tx] = (sx < 0 || sy < 0) ? (float4)(0.0f) : input[sy * width + sx];
+		}
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	const int x = get_global_id(0);
+	const int y = get_global_id(1);
+	if (x >= width || y >= height) {
+		return;
+	}
+	
+	const int kernelWidth = 2 * radiusX + 1;
+	float4 sum = (float4)(0.0f);
+	for (int ky = 0; ky < 2 * radiusY + 1; ky++) {
+		for (int kx = 0; kx < kernelWidth; kx++) {
+			sum += weights[ky * kernelWidth + kx] * tile[(ly + ky) * tileWidth + lx + kx];
+		}
+	}
+	output[y * width + x] = sum;
+}
+
+// Gradient magnitude of each color channel with the 3 x 3 Sobel operator, keeping the alpha channel.
+kernel void sobel(global const float4 *input, global float4 *output, const int width, const int height, const int edgeMode) {
+	
+	const int x = get_global_id(0);
+	const int y = get_global_id(1);
+	if (x >= width || y >= height) {
+		return;
+	}
+	
+	float4 p[3][3];
+	for (int dy = 0; dy < 3; dy++) {
+		const int sy = edgeCoord(y + dy - 1, height, edgeMode);
+		for (int dx = 0; dx < 3; dx++) {
+			const int sx = edgeCoord(x + dx - 1, width, edgeMode);
+			p[dy][dx] = (sx < 0 || sy < 0) ? (float4)(0.0f) : input[sy * width + sx];
+		}
+	}
+	
+	const float4 gx = (p[0][2] + 2 * p[1][2] + p[2][2]) - (p[0][0] + 2 * p[1][0] + p[2][0]);
+	const float4 gy = (p[2][0] + 2 * p[2][1] + p[2][2]) - (p[0][0] + 2 * p[0][1] + p[0][2]);
+	float4 magnitude = sqrt(gx * gx + gy * gy);
+	magnitude.w = p[1][1].w;
+	output[y * width + x] = magnitude;
+}
+
+// Interpolation filters for resizing (must match GPUImage.Interpolation)
+#define FILTER_BILINEAR	0
+#define FILTER_BICUBIC	1
+#define FILTER_LANCZOS	2
+
+// Weight of a pixel at distance x from the sample position (in pixels of the smaller image)
+float filterWeight(float x, int filter) {
+	x = fabs(x);
+	if (filter == FILTER_BILINEAR) {
+		return max(0.0f, 1.0f - x);
+	} else if (filter == FILTER_BICUBIC) {
+		const float a = -0.5f; // Catmull-Rom
+		if (x < 1.0f) {
+			return ((a + 2.0f) * x - (a + 3.0f)) * x * x + 1.0f;
+		} else if (x < 2.0f) {
+			return ((a * x - 5.0f * a) * x + 8.0f * a) * x - 4.0f * a;
+		}
+		return 0.0f;
+	}
+	
+	// Lanczos with 3 lobes
+	if (x < 1e-5f) {
+		return 1.0f;
+	} else if (x >= 3.0f) {
+		return 0.0f;
+	}
+	const float px = M_PI_F * x;
+	return 3.0f * sin(px) * sin(px / 3.0f) / (px * px);
+}
+
+// Resize an image in one direction: horizontally (inHeight == outHeight) or vertically (inWidth == outWidth).
+// When shrinking, the filter is stretched to cover every input pixel. Weights that would fall off the edge are left out,
+// and the rest are normalized so they add up to 1.
+kernel void resample(global const float4 *input, global float4 *output, const int inWidth, const int inHeight,
+		const int outWidth, const int outHeight, const int horizontal, const int filter, const float support) {
+	
+	const int x = get_global_id(0);
+	const int y = get_global_id(1);
+	if (x >= outWidth || y >= outHeight) {
+		return;
+	}
+	
+	const int inSize = horizontal ? inWidth : inHeight;
+	const int outSize = horizontal ? outWidth : outHeight;
+	const float scale = (float)inSize / outSize;
+	const float filterScale = max(scale, 1.0f);
+	const float center = ((horizontal ? x : y) + 0.5f) * scale;
+	const float radius = support * filterScale;
+	const int first = max((int)floor(center - radius), 0);
+	const int last = min((int)ceil(center + radius), inSize);
+	
+	float4 sum = (float4)(0.0f);
+	float weightSum = 0.0f;
+	for (int i = first; i < last; i++) {
+		const float weight = filterWeight((i + 0.5f - center) / filterScale, filter);
+		sum += weight * (horizontal ? input[y * inWidth + i] : input[i * inWidth + x]);
+		weightSum += weight;
+	}
+	output[y * outWidth + x] = (weightSum != 0.0f) ? sum / weightSum : (float4)(0.0f);
+}
\ No newline at end of file
@@ -0,0 +1,603 @@
+package main;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUImage is an image kept on the GPU as float (red, green, blue, alpha) pixels from 0 to 255,
+ * for filtering with convolutions (blur, sharpen, edge detection, or any kernel of weights).
+ * It goes with GPUProgram.
+ *
+ * Load a BufferedImage (or a GPUMem holding one, as setArgument() copies it), apply any number of filters,
+ * then store the result. The filters read and write the GPU only, and keep the pixels as floats between
+ * filters, so nothing is rounded or copied to the CPU until the image is stored. Every BufferedImage type
+ * that setArgument() accepts can be loaded and stored (INT_RGB, INT_ARGB, INT_ARGB_PRE, INT_BGR, 3BYTE_BGR,
+ * 4BYTE_ABGR, 4BYTE_ABGR_PRE, and BYTE_GRAY), so loading one type and storing another converts between them.
+ *
+ * Other BufferedImage types (like indexed or USHORT images) and subimages are converted to and from INT_ARGB
+ * on the CPU as they're copied. Images can be resized on the GPU with bilinear, bicubic, or Lanczos resampling,
+ * so a whole thumbnail pipeline (load, resize, sharpen, convert, store) only copies each image once each way.
+ *
+ * Convolutions copy each block of pixels into local memory before weighting it, and separable filters
+ * (like a Gaussian blur) are done as a horizontal pass then a vertical pass, which is much faster than
+ * one 2D pass for large kernels. Premultiplied images (INT_ARGB_PRE and 4BYTE_ABGR_PRE) are divided by alpha as
+ * they're loaded and multiplied again as they're stored, so the pixels on the GPU always have straight alpha.
+ */
+
+public class GPUImage {
+	
+	/**
+	 * Enum representing what the filters read outside of the image.
+	 */
+	public enum EdgeMode {
+		CLAMP(0),	// The nearest edge pixel
+		WRAP(1),	// Wrap around to the other side
+		MIRROR(2),	// Reflect (the edge pixel is repeated)
+		ZERO(3);	// Transparent black
+		
+		protected final int value;	// Must match GPUImage.cl
+		
+		EdgeMode(int value) {
+			this.value = value;
+		}
+	}
+	
+	/**
+	 * Enum representing how resize() computes each new pixel from the pixels around it.
+	 */
+	public enum Interpolation {
+		BILINEAR(0, 1),	// Linear between the two nearest pixels in each direction (a tent filter)
+		BICUBIC(1, 2),	// Cubic (Catmull-Rom) through the four nearest pixels in each direction
+		LANCZOS(2, 3);	// Windowed sinc over the six nearest pixels in each direction (sharpest)
+		
+		protected final int value;		// Must match GPUImage.cl
+		protected final float support;	// Radius of the filter, in pixels of the smaller image
+		
+		Interpolation(int value, float support) {
+			this.value = value;
+			this.support = support;
+		}
+	}
+	
+	private static final int[] GROUP_SIZES = {16, 8, 4};	// Work group widths and heights tried for convolutions
+	
+	private static GPUProgram unpackProgram = null;		// Compiled unpackPixels kernel
+	private static GPUProgram packProgram = null;		// Compiled packPixels kernel
+	private static GPUProgram convolveProgram = null;	// Compiled convolve kernel
+	private static GPUProgram sobelProgram = null;		// Compiled sobel kernel
+	private static GPUProgram resampleProgram = null;	// Compiled resample kernel
+	
+	private final int width;			// Width of the image in pixels
+	private final int height;			// Height of the image in pixels
+	private cl_mem pixels;				// float4 pixels of the image
+	private cl_mem temp;				// float4 pixels written by each filter, then swapped with 'pixels'
+	private cl_mem packed = null;		// Pixels of a BufferedImage, as they're copied to and from the CPU
+	
+	/**
+	 * Construct a new transparent black image on the GPU.
+	 * @param width Width of the image in pixels.
+	 * @param height Height of the image in pixels.
+	 */
+	public GPUImage(int width, int height) {
+		GPUProgram.initializeGPU();
+		
+		if (width <= 0 || height <= 0) {
+			error("Image size must be positive. (Got " + width + " x " + height + ")");
+		}
+		
+		this.width = width;
+		this.height = height;
+		
+		// (OpenCL doesn't zero new memory)
+		final float[] zero = {0};
+		pixels = createPixels();
+		temp = createPixels();
+		CL.clEnqueueFillBuffer(GPUProgram.commandQueue, pixels, Pointer.to(zero), ArrayType.FLOAT.getSize(), 0,
+				getNumPixels() * 4 * ArrayType.FLOAT.getSize(), 0, null, null);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	/**
+	 * Construct a new image on the GPU with a copy of a BufferedImage.
+	 * @param image The image to copy. Its type must be one that setArgument() accepts.
+	 */
+	public GPUImage(BufferedImage image) {
+		this(image.getWidth(), image.getHeight());
+		load(image);
+	}
+	
+	/** Return the width of the image.
+	 * @return width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+	
+	/** Return the height of the image.
+	 * @return height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+	
+	/** Copy a BufferedImage to the GPU, replacing the pixels of this image.
+	 * @param image The image to copy. It must be the same size as this image, and its type must be one that setArgument() accepts.
+	 */
+	public void load(BufferedImage image) {
+		transferImage(this, image, true);
+	}
+	
+	/** Replace the pixels of this image with a BufferedImage that's already on the GPU.
+	 * @param image A GPUMem holding the pixels of a BufferedImage the size of this image, as setArgument() or copyArrayToGPU() copies them.
+	 * @param imageType The type of the BufferedImage (BufferedImage.TYPE_INT_RGB, for example).
+	 */
+	public void load(GPUMem image, int imageType) {
+		transferMem(this, image, imageType, true);
+	}
+	
+	/** Copy this image back to a BufferedImage on the CPU. Each channel is rounded and clamped to 0-255.
+	 * @param image The image to copy into. It must be the same size as this image, and its type must be one that setArgument() accepts.
+	 */
+	public void store(BufferedImage image) {
+		transferImage(this, image, false);
+	}
+	
+	/** Write this image into a GPUMem holding a BufferedImage, without copying it to the CPU. Each channel is rounded and clamped to 0-255.
+	 * @param image A GPUMem with room for the pixels of a BufferedImage the size of this image (as setArgument() or allocateMemoryOnGPU() reserves it).
+	 * @param imageType The type of the BufferedImage (BufferedImage.TYPE_INT_RGB, for example).
+	 */
+	public void store(GPUMem image, int imageType) {
+		transferMem(this, image, imageType, false);
+	}
+	
+	/** Return a new BufferedImage with a copy of this image.
+	 * @param imageType The type of the BufferedImage (BufferedImage.TYPE_INT_ARGB, for example).
+	 * @return The new BufferedImage.
+	 */
+	public BufferedImage toBufferedImage(int imageType) {
+		BufferedImage image = new BufferedImage(width, height, imageType);
+		store(image);
+		return image;
+	}
+	
+	/** Return a resized copy of this image, made on the GPU. This image isn't changed.
+	 * When shrinking, the filter is widened so every pixel contributes to the result (no aliasing).
+	 * @param newWidth Width of the new image.
+	 * @param newHeight Height of the new image.
+	 * @param interpolation How each new pixel is computed from the pixels around it.
+	 * @return The new image. (Dispose it when it's no longer needed.)
+	 */
+	public GPUImage resize(int newWidth, int newHeight, Interpolation interpolation) {
+		return resize(this, newWidth, newHeight, interpolation);
+	}
+	
+	/** Replace each pixel with the weighted sum of its neighborhood.
+	 * @param weights Row-major weights, where weights[0] is applied to the top-left neighbor.
+	 * @param kernelWidth Width of the neighborhood. (Must be odd.)
+	 * @param kernelHeight Height of the neighborhood. (Must be odd.)
+	 * @param edgeMode What is read outside of the image.
+	 */
+	public void convolve(float[] weights, int kernelWidth, int kernelHeight, EdgeMode edgeMode) {
+		convolve(this, weights, kernelWidth, kernelHeight, edgeMode);
+	}
+	
+	/** Convolve with a separable kernel: each row with 'rowWeights', then each column with 'columnWeights'.
+	 * This is the same as convolve() with the outer product of the weights, but much faster for large kernels.
+	 * @param rowWeights Weights from left to right. (Must have an odd length.)
+	 * @param columnWeights Weights from top to bottom. (Must have an odd length.)
+	 * @param edgeMode What is read outside of the image.
+	 */
+	public void convolveSeparable(float[] rowWeights, float[] columnWeights, EdgeMode edgeMode) {
+		convolve(this, rowWeights, rowWeights.length, 1, edgeMode);
+		convolve(this, columnWeights, 1, columnWeights.length, edgeMode);
+	}
+	
+	/** Blur with a Gaussian of standard deviation 'sigma', out to 3 sigma.
+	 * @param sigma Standard deviation in pixels.
+	 * @param edgeMode What is read outside of the image.
+	 */
+	public void gaussianBlur(float sigma, EdgeMode edgeMode) {
+		
+		if (sigma <= 0) {
+			error("Sigma must be positive. (Got " + sigma + ")");
+		}
+		
+		final int radius = (int)Math.ceil(3 * sigma);
+		float[] weights = new float[2 * radius + 1];
+		double sum = 0;
+		for (int i = -radius; i <= radius; i++) {
+			final double weight = Math.exp(-(double)i * i / (2.0 * sigma * sigma));
+			weights[i + radius] = (float)weight;
+			sum += weight;
+		}
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = (float)(weights[i] / sum);
+		}
+		
+		convolveSeparable(weights, weights, edgeMode);
+	}
+	
+	/** Replace each pixel with the average of the (2 * radius + 1) x (2 * radius + 1) square around it.
+	 * @param radius Pixels on each side of the center.
+	 * @param edgeMode What is read outside of the image.
+	 */
+	public void boxBlur(int radius, EdgeMode edgeMode) {
+		
+		if (radius < 0) {
+			error("Radius must not be negative. (Got " + radius + ")");
+		}
+		
+		float[] weights = new float[2 * radius + 1];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = 1.0f / weights.length;
+		}
+		
+		convolveSeparable(weights, weights, edgeMode);
+	}
+	
+	/** Sharpen by subtracting 'amount' times the four nearest neighbors of each pixel (a Laplacian).
+	 * @param amount How much to sharpen. (0 doesn't change the image, and 1 is strong.)
+	 * @param edgeMode What is read outside of the image.
+	 */
+	public void sharpen(float amount, EdgeMode edgeMode) {
+		final float[] weights = {
+			0, -amount, 0,
+			-amount, 1 + 4 * amount, -amount,
+			0, -amount, 0
+		};
+		convolve(weights, 3, 3, edgeMode);
+	}
+	
+	/** Replace each color channel with its gradient magnitude (Sobel edge detection). Alpha isn't changed.
+	 * @param edgeMode What is read outside of the image.
+	 */
+	public void sobel(EdgeMode edgeMode) {
+		sobel(this, edgeMode);
+	}
+	
+	/** Release the pixels on the GPU, and make sure this image cannot be used again.
+	 */
+	public void dispose() {
+		if (pixels != null) {
+			CL.clReleaseMemObject(pixels);
+			CL.clReleaseMemObject(temp);
+			pixels = null;
+			temp = null;
+		}
+		if (packed != null) {
+			CL.clReleaseMemObject(packed);
+			packed = null;
+		}
+	}
+	
+	/** Release the kernels used by images.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void disposeAll() {
+		if (unpackProgram != null) {
+			unpackProgram.dispose();
+			packProgram.dispose();
+			convolveProgram.dispose();
+			sobelProgram.dispose();
+			resampleProgram.dispose();
+			unpackProgram = null;
+			packProgram = null;
+			convolveProgram = null;
+			sobelProgram = null;
+			resampleProgram = null;
+		}
+	}
+	
+	// Copy a BufferedImage between the CPU and 'packed', then unpack or pack it.
+	// Unsupported types and subimages are converted to INT_ARGB pixels on the CPU first.
+	private static synchronized void transferImage(GPUImage gpuImage, BufferedImage image, boolean load) {
+		
+		checkImage(gpuImage);
+		
+		if (image == null) {
+			error("Argument is null");
+		}
+		
+		if (image.getWidth() != gpuImage.width || image.getHeight() != gpuImage.height) {
+			error("BufferedImage is " + image.getWidth() + " x " + image.getHeight() + ", but the GPUImage is "
+					+ gpuImage.width + " x " + gpuImage.height);
+		}
+		
+		int imageType = image.getType();
+		long bytes = gpuImage.getNumPixels() * getBytesPerPixel(imageType);
+		int[] argb = null;
+		if (bytes == 0 || (long)image.getRaster().getDataBuffer().getSize() * getElementSize(imageType) != bytes) {
+			imageType = BufferedImage.TYPE_INT_ARGB;
+			bytes = gpuImage.getNumPixels() * getBytesPerPixel(imageType);
+			argb = new int[(int)gpuImage.getNumPixels()];
+			if (load) {
+				image.getRGB(0, 0, gpuImage.width, gpuImage.height, argb, 0, gpuImage.width);
+			}
+		}
+		
+		if (gpuImage.packed == null) {
+			gpuImage.packed = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, gpuImage.getNumPixels() * 4, null, null);
+			GPUProgram.allocCounter++;
+		}
+		
+		getPrograms();
+		final Pointer pointer = (argb != null) ? Pointer.to(argb) : getPixelPointer(image);
+		if (load) {
+			CL.clEnqueueWriteBuffer(GPUProgram.commandQueue, gpuImage.packed, true, 0, bytes, pointer, 0, null, null);
+			GPUProgram.copyToGPUCounter++;
+			convert(unpackProgram, gpuImage.packed, gpuImage.pixels, imageType, gpuImage.getNumPixels());
+			CL.clFinish(GPUProgram.commandQueue);
+		} else {
+			convert(packProgram, gpuImage.pixels, gpuImage.packed, imageType, gpuImage.getNumPixels());
+			CL.clEnqueueReadBuffer(GPUProgram.commandQueue, gpuImage.packed, true, 0, bytes, pointer, 0, null, null);
+			GPUProgram.copyToCPUCounter++;
+			if (argb != null) {
+				image.setRGB(0, 0, gpuImage.width, gpuImage.height, argb, 0, gpuImage.width);
+			}
+		}
+	}
+	
+	// Unpack or pack a BufferedImage held in a GPUMem
+	private static synchronized void transferMem(GPUImage gpuImage, GPUMem image, int imageType, boolean load) {
+		
+		checkImage(gpuImage);
+		
+		if (image == null) {
+			error("Argument is null");
+		}
+		
+		if (image.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (image.isImage()) {
+			error("GPUMem is an OpenCL image. Use a GPUMem made by setArgument() or copyArrayToGPU() instead.");
+		}
+		
+		if (getBytesPerPixel(imageType) == 0) {
+			error("BufferedImage type " + imageType + " is not supported on the GPU. (Use an INT or BYTE type that setArgument() accepts.)");
+		}
+		
+		final boolean intType = getElementSize(imageType) == ArrayType.INT.getSize();
+		if (intType && image.type != ArrayType.BUFFERED_IMAGE_INT && image.type != ArrayType.INT) {
+			error("Image type " + imageType + " needs an INT or BUFFERED_IMAGE_INT GPUMem, not " + image.type);
+		} else if (!intType && image.type != ArrayType.BUFFERED_IMAGE_BYTE && image.type != ArrayType.BYTE) {
+			error("Image type " + imageType + " needs a BYTE or BUFFERED_IMAGE_BYTE GPUMem, not " + image.type);
+		}
+		
+		final long bytes = gpuImage.getNumPixels() * getBytesPerPixel(imageType);
+		if (image.maxAllocatedSize * image.type.getSize() < bytes) {
+			error("A " + gpuImage.width + " x " + gpuImage.height + " image needs " + bytes + " bytes, but the GPUMem only has "
+					+ image.maxAllocatedSize * image.type.getSize());
+		}
+		
+		getPrograms();
+		if (load) {
+			convert(unpackProgram, image.mem, gpuImage.pixels, imageType, gpuImage.getNumPixels());
+		} else {
+			convert(packProgram, gpuImage.pixels, image.mem, imageType, gpuImage.getNumPixels());
+		}
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Run unpackPixels or packPixels
+	private static void convert(GPUProgram program, cl_mem input, cl_mem output, int imageType, long numPixels) {
+		program.setArgumentMem(0, input);
+		program.setArgumentMem(1, output);
+		program.setArgument(2, imageType, GPUAccess.READ);
+		program.setArgument(3, (int)numPixels, GPUAccess.READ);
+		program.setGlobalWorkGroupSizes(numPixels);
+		program.enqueueKernel(null, null);
+	}
+	
+	// Convolve the pixels of an image into 'temp', then swap them
+	private static synchronized void convolve(GPUImage image, float[] weights, int kernelWidth, int kernelHeight, EdgeMode edgeMode) {
+		
+		checkImage(image);
+		
+		if (weights == null || edgeMode == null) {
+			error("Argument is null");
+		}
+		
+		if (kernelWidth <= 0 || kernelHeight <= 0 || kernelWidth % 2 == 0 || kernelHeight % 2 == 0) {
+			error("Kernel size must be odd and positive. (Got " + kernelWidth + " x " + kernelHeight + ")");
+		}
+		
+		if (weights.length < (long)kernelWidth * kernelHeight) {
+			error("A " + kernelWidth + " x " + kernelHeight + " kernel needs " + (long)kernelWidth * kernelHeight
+					+ " weights, but only " + weights.length + " were given.");
+		}
+		
+		getPrograms();
+		final int radiusX = kernelWidth / 2;
+		final int radiusY = kernelHeight / 2;
+		
+		// Use the largest work group whose tile (plus its border) fits in local memory
+		final long floatsPerPixel = 4;
+		int groupSize = 0;
+		for (int i = 0; i < GROUP_SIZES.length && groupSize == 0; i++) {
+			final long g = GROUP_SIZES[i];
+			final long tileBytes = (g + 2 * radiusX) * (g + 2 * radiusY) * floatsPerPixel * ArrayType.FLOAT.getSize();
+			if (g * g <= convolveProgram.getKernelMaxLocalWorkGroupSize() && tileBytes <= GPUProgram.getLocalMemorySize()) {
+				groupSize = (int)g;
+			}
+		}
+		
+		if (groupSize == 0) {
+			error("A " + kernelWidth + " x " + kernelHeight + " kernel is too large for the local memory of this GPU.");
+		}
+		
+		cl_mem weightsMem = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR,
+				(long)kernelWidth * kernelHeight * ArrayType.FLOAT.getSize(), Pointer.to(weights), null);
+		GPUProgram.allocCounter++;
+		GPUProgram.copyToGPUCounter++;
+		
+		convolveProgram.setArgumentMem(0, image.pixels);
+		convolveProgram.setArgumentMem(1, image.temp);
+		convolveProgram.setArgument(2, image.width, GPUAccess.READ);
+		convolveProgram.setArgument(3, image.height, GPUAccess.READ);
+		convolveProgram.setArgumentMem(4, weightsMem);
+		convolveProgram.setArgument(5, radiusX, GPUAccess.READ);
+		convolveProgram.setArgument(6, radiusY, GPUAccess.READ);
+		convolveProgram.setArgument(7, edgeMode.value, GPUAccess.READ);
+		convolveProgram.setLocalArgument(8, ArrayType.FLOAT, (groupSize + 2L * radiusX) * (groupSize + 2L * radiusY) * floatsPerPixel);
+		convolveProgram.setLocalWorkGroupSizes(groupSize, groupSize);
+		convolveProgram.setGlobalWorkGroupSizes(roundUp(image.width, groupSize), roundUp(image.height, groupSize));
+		convolveProgram.enqueueKernel(null, null);
+		
+		CL.clFinish(GPUProgram.commandQueue);
+		CL.clReleaseMemObject(weightsMem);
+		image.swap();
+	}
+	
+	// Run the Sobel operator on the pixels of an image into 'temp', then swap them
+	private static synchronized void sobel(GPUImage image, EdgeMode edgeMode) {
+		
+		checkImage(image);
+		
+		if (edgeMode == null) {
+			error("Argument is null");
+		}
+		
+		getPrograms();
+		sobelProgram.setArgumentMem(0, image.pixels);
+		sobelProgram.setArgumentMem(1, image.temp);
+		sobelProgram.setArgument(2, image.width, GPUAccess.READ);
+		sobelProgram.setArgument(3, image.height, GPUAccess.READ);
+		sobelProgram.setArgument(4, edgeMode.value, GPUAccess.READ);
+		sobelProgram.setGlobalWorkGroupSizes(image.width, image.height);
+		sobelProgram.enqueueKernel(null, null);
+		
+		CL.clFinish(GPUProgram.commandQueue);
+		image.swap();
+	}
+	
+	// Resample an image horizontally into temporary memory, then vertically into a new image
+	private static synchronized GPUImage resize(GPUImage image, int newWidth, int newHeight, Interpolation interpolation) {
+		
+		checkImage(image);
+		
+		if (interpolation == null) {
+			error("Argument is null");
+		}
+		
+		final GPUImage result = new GPUImage(newWidth, newHeight);
+		
+		GPUProgram.allocCounter++;
+		cl_mem resampled = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE,
+				(long)newWidth * image.height * 4 * ArrayType.FLOAT.getSize(), null, null);
+		
+		getPrograms();
+		resample(image.pixels, resampled, image.width, image.height, newWidth, image.height, true, interpolation);
+		resample(resampled, result.pixels, newWidth, image.height, newWidth, newHeight, false, interpolation);
+		
+		CL.clFinish(GPUProgram.commandQueue);
+		CL.clReleaseMemObject(resampled);
+		return result;
+	}
+	
+	// Run the resample kernel in one direction (the other size stays the same)
+	private static void resample(cl_mem input, cl_mem output, int inWidth, int inHeight, int outWidth, int outHeight,
+			boolean horizontal, Interpolation interpolation) {
+		resampleProgram.setArgumentMem(0, input);
+		resampleProgram.setArgumentMem(1, output);
+		resampleProgram.setArgument(2, inWidth, GPUAccess.READ);
+		resampleProgram.setArgument(3, inHeight, GPUAccess.READ);
+		resampleProgram.setArgument(4, outWidth, GPUAccess.READ);
+		resampleProgram.setArgument(5, outHeight, GPUAccess.READ);
+		resampleProgram.setArgument(6, horizontal ? 1 : 0, GPUAccess.READ);
+		resampleProgram.setArgument(7, interpolation.value, GPUAccess.READ);
+		resampleProgram.setArgument(8, interpolation.support, GPUAccess.READ);
+		resampleProgram.setGlobalWorkGroupSizes(outWidth, outHeight);
+		resampleProgram.enqueueKernel(null, null);
+	}
+	
+	// Make the pixels written by the last filter the pixels of the image
+	private void swap() {
+		final cl_mem written = temp;
+		temp = pixels;
+		pixels = written;
+	}
+	
+	// Return the number of pixels in the image
+	private long getNumPixels() {
+		return (long)width * height;
+	}
+	
+	// Allocate float4 pixels for the image
+	private cl_mem createPixels() {
+		GPUProgram.allocCounter++;
+		return CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE,
+				getNumPixels() * 4 * ArrayType.FLOAT.getSize(), null, null);
+	}
+	
+	// Check that an image can be used
+	private static void checkImage(GPUImage image) {
+		if (image.pixels == null) {
+			error("Attempted to use a disposed GPUImage.");
+		}
+	}
+	
+	// Round 'n' up to a multiple of 'multiple'
+	private static long roundUp(long n, long multiple) {
+		return (n + multiple - 1) / multiple * multiple;
+	}
+	
+	// Return the number of bytes in each pixel of a BufferedImage type, or 0 if it isn't supported on the GPU
+	private static int getBytesPerPixel(int imageType) {
+		if (imageType == BufferedImage.TYPE_INT_RGB ||
+			imageType == BufferedImage.TYPE_INT_ARGB ||
+			imageType == BufferedImage.TYPE_INT_ARGB_PRE ||
+			imageType == BufferedImage.TYPE_INT_BGR ||
+			imageType == BufferedImage.TYPE_4BYTE_ABGR ||
+			imageType == BufferedImage.TYPE_4BYTE_ABGR_PRE) {
+			return 4;
+		} else if (imageType == BufferedImage.TYPE_3BYTE_BGR) {
+			return 3;
+		} else if (imageType == BufferedImage.TYPE_BYTE_GRAY) {
+			return 1;
+		}
+		return 0;
+	}
+	
+	// Return the size of each element in the data buffer of a BufferedImage type
+	private static int getElementSize(int imageType) {
+		if (imageType == BufferedImage.TYPE_INT_RGB ||
+			imageType == BufferedImage.TYPE_INT_ARGB ||
+			imageType == BufferedImage.TYPE_INT_ARGB_PRE ||
+			imageType == BufferedImage.TYPE_INT_BGR) {
+			return ArrayType.INT.getSize();
+		}
+		return ArrayType.BYTE.getSize();
+	}
+	
+	// Return a pointer to the pixels of a BufferedImage
+	private static Pointer getPixelPointer(BufferedImage image) {
+		if (getElementSize(image.getType()) == ArrayType.INT.getSize()) {
+			return Pointer.to(((DataBufferInt)image.getRaster().getDataBuffer()).getData());
+		}
+		return Pointer.to(((DataBufferByte)image.getRaster().getDataBuffer()).getData());
+	}
+	
+	// Compile the kernels the first time they're needed
+	private static void getPrograms() {
+		if (unpackProgram == null) {
+			unpackProgram = GPUProgram.fromLibrary("unpackPixels", "GPUImage.cl", "");
+			packProgram = GPUProgram.fromLibrary("packPixels", "GPUImage.cl", "");
+			convolveProgram = GPUProgram.fromLibrary("convolve", "GPUImage.cl", "");
+			sobelProgram = GPUProgram.fromLibrary("sobel", "GPUImage.cl", "");
+			resampleProgram = GPUProgram.fromLibrary("resample", "GPUImage.cl", "");
+		}
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
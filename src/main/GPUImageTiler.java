@@ -0,0 +1,247 @@
+package main;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_event;
+import org.jocl.cl_mem;
+
+/**
+ * GPUImageTiler runs a kernel over a BufferedImage one tile at a time, so images larger than
+ * getMaxMemAllocSize() can be processed within a bounded amount of GPU memory.
+ * It goes with GPUProgram.
+ *
+ * Each tile is copied to the GPU with a halo (apron) of extra pixels around it, so stencil kernels
+ * (blurs, edge detection, etc.) can read their neighbors. Only the interior of each tile is
+ * written back to the output image. While the kernel processes one tile, the next tile is copied
+ * to the GPU and the previous tile is copied back.
+ *
+ * The kernel sees the pixels in the same flattened layout as setArgument() (one int per pixel for
+ * INT images, or getRaster().getNumDataElements() bytes per pixel for BYTE images), and receives
+ * six consecutive int arguments starting at 'firstTileArgNum':
+ *	tileX, tileY			Position of the interior of the tile in the image.
+ *	inputX, inputY			Position of the input tile (interior plus halo) in the image.
+ *	inputWidth, inputHeight	Size of the input tile. (The halo is cut off at the edges of the image.)
+ *
+ * The global work size is set to the size of the interior of the tile, so for each work item:
+ *	int x = tileX + get_global_id(0);	// Pixel in the image
+ *	int y = tileY + get_global_id(1);
+ *	input[(y - inputY) * inputWidth + (x - inputX)]				is the input pixel.
+ *	output[get_global_id(1) * get_global_size(0) + get_global_id(0)]	is the output pixel.
+ */
+
+public class GPUImageTiler {
+	
+	private final int tileWidth;	// Maximum width of the interior of each tile (pixels)
+	private final int tileHeight;	// Maximum height of the interior of each tile (pixels)
+	private final int halo;			// Extra pixels on each side of the input tiles
+	
+	/**
+	 * Construct a new GPUImageTiler.
+	 * @param tileWidth Width of the interior of each tile, in pixels.
+	 * @param tileHeight Height of the interior of each tile, in pixels.
+	 * @param halo Number of extra pixels on each side of each tile that the kernel may read (0 for none).
+	 */
+	public GPUImageTiler(int tileWidth, int tileHeight, int halo) {
+		
+		if (tileWidth <= 0 || tileHeight <= 0) {
+			error("Tile size must be positive. (Got " + tileWidth + " x " + tileHeight + ")");
+		}
+		
+		if (halo < 0) {
+			error("Halo cannot be negative.");
+		}
+		
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.halo = halo;
+	}
+	
+	/** Run the kernel over every tile of the input image, and write the results into the output image.
+	 * Other kernel arguments may be set on the GPUProgram beforehand as usual.
+	 * Edge tiles may be smaller than the others, so any local work group size must divide them as well.
+	 * @param program The GPUProgram to execute for each tile.
+	 * @param input The image to read from.
+	 * @param output The image to write to. Must be a different image with the same size and type as 'input'.
+	 * @param inputArgNum Kernel argument index that receives each input tile (with its halo).
+	 * @param outputArgNum Kernel argument index that receives each output tile (without a halo).
+	 * @param firstTileArgNum Kernel argument index of the first of the six int tile arguments.
+	 */
+	public void process(GPUProgram program, BufferedImage input, BufferedImage output,
+			int inputArgNum, int outputArgNum, int firstTileArgNum) {
+		
+		if (program == null || input == null || output == null) {
+			error("Argument is null");
+		}
+		
+		if (input == output) {
+			error("Input and output must be different images, since tiles read their neighbors.");
+		}
+		
+		if (input.getWidth() != output.getWidth() || input.getHeight() != output.getHeight() ||
+			input.getType() != output.getType()) {
+			error("Output image must have the same size and type as the input image.");
+		}
+		
+		final int imageWidth = input.getWidth();
+		final int imageHeight = input.getHeight();
+		final long pixelBytes = getPixelBytes(input);
+		final long imageRowPitch = imageWidth * pixelBytes;
+		final Pointer inputPointer = getPixelPointer(input);
+		final Pointer outputPointer = getPixelPointer(output);
+		
+		final long inputTileBytes = (tileWidth + 2L * halo) * (tileHeight + 2L * halo) * pixelBytes;
+		final long outputTileBytes = (long)tileWidth * tileHeight * pixelBytes;
+		if (inputTileBytes > GPUProgram.getMaxMemAllocSize()) {
+			error("Tile of " + inputTileBytes + " bytes exceeds the maximum allocation size.");
+		}
+		
+		final int tilesX = (imageWidth + tileWidth - 1) / tileWidth;
+		final int tilesY = (imageHeight + tileHeight - 1) / tileHeight;
+		final int numTiles = tilesX * tilesY;
+		final cl_command_queue transferQueue = GPUProgram.getTransferQueue();
+		
+		// Two of everything, so one tile can be copied while the other is processed
+		cl_mem[] inputMems = new cl_mem[2];
+		cl_mem[] outputMems = new cl_mem[2];
+		cl_event[] kernelEvents = new cl_event[2];
+		for (int i = 0; i < 2; i++) {
+			inputMems[i] = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY, inputTileBytes, null, null);
+			outputMems[i] = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_WRITE_ONLY, outputTileBytes, null, null);
+			GPUProgram.allocCounter += 2;
+		}
+		
+		// Start by copying the first tile
+		writeTile(transferQueue, inputPointer, imageWidth, imageHeight, imageRowPitch, pixelBytes, tilesX, 0, inputMems[0], null);
+		
+		for (int t = 0; t < numTiles; t++) {
+			final int slot = t % 2;
+			final int other = 1 - slot;
+			
+			// Position and size of this tile and its halo
+			final int tileX = (t % tilesX) * tileWidth;
+			final int tileY = (t / tilesX) * tileHeight;
+			final int width = Math.min(tileWidth, imageWidth - tileX);
+			final int height = Math.min(tileHeight, imageHeight - tileY);
+			final int inputX = Math.max(0, tileX - halo);
+			final int inputY = Math.max(0, tileY - halo);
+			final int inputWidth = Math.min(imageWidth, tileX + width + halo) - inputX;
+			final int inputHeight = Math.min(imageHeight, tileY + height + halo) - inputY;
+			
+			// Process this tile
+			program.setArgumentMem(inputArgNum, inputMems[slot]);
+			program.setArgumentMem(outputArgNum, outputMems[slot]);
+			program.setArgument(firstTileArgNum, tileX, GPUAccess.READ);
+			program.setArgument(firstTileArgNum + 1, tileY, GPUAccess.READ);
+			program.setArgument(firstTileArgNum + 2, inputX, GPUAccess.READ);
+			program.setArgument(firstTileArgNum + 3, inputY, GPUAccess.READ);
+			program.setArgument(firstTileArgNum + 4, inputWidth, GPUAccess.READ);
+			program.setArgument(firstTileArgNum + 5, inputHeight, GPUAccess.READ);
+			program.setGlobalWorkGroupSizes(width, height);
+			
+			releaseEvent(kernelEvents[slot]);
+			kernelEvents[slot] = new cl_event();
+			program.enqueueKernel(null, kernelEvents[slot]);
+			CL.clFlush(GPUProgram.commandQueue);
+			
+			// While that runs, copy the next tile to the GPU, once the previous kernel is done with its buffer
+			if (t + 1 < numTiles) {
+				writeTile(transferQueue, inputPointer, imageWidth, imageHeight, imageRowPitch, pixelBytes,
+						tilesX, t + 1, inputMems[other], kernelEvents[other]);
+			}
+			
+			// ...and copy the previous tile back
+			if (t > 0) {
+				readTile(transferQueue, outputPointer, imageWidth, imageHeight, imageRowPitch, pixelBytes,
+						tilesX, t - 1, outputMems[other], kernelEvents[other]);
+			}
+		}
+		
+		// Copy the last tile back
+		final int last = (numTiles - 1) % 2;
+		readTile(transferQueue, outputPointer, imageWidth, imageHeight, imageRowPitch, pixelBytes,
+				tilesX, numTiles - 1, outputMems[last], kernelEvents[last]);
+		
+		for (int i = 0; i < 2; i++) {
+			releaseEvent(kernelEvents[i]);
+			CL.clReleaseMemObject(inputMems[i]);
+			CL.clReleaseMemObject(outputMems[i]);
+		}
+	}
+	
+	// Copy tile 't' and its halo from the image to the GPU.
+	// This blocks, but runs on the transfer queue so the kernel for the current tile keeps running.
+	private void writeTile(cl_command_queue queue, Pointer image, int imageWidth, int imageHeight,
+			long imageRowPitch, long pixelBytes, int tilesX, int t, cl_mem mem, cl_event waitFor) {
+		
+		final int tileX = (t % tilesX) * tileWidth;
+		final int tileY = (t / tilesX) * tileHeight;
+		final int inputX = Math.max(0, tileX - halo);
+		final int inputY = Math.max(0, tileY - halo);
+		final int inputWidth = Math.min(imageWidth, tileX + tileWidth + halo) - inputX;
+		final int inputHeight = Math.min(imageHeight, tileY + tileHeight + halo) - inputY;
+		
+		CL.clEnqueueWriteBufferRect(queue, mem, true,
+				new long[] {0, 0, 0}, new long[] {inputX * pixelBytes, inputY, 0},
+				new long[] {inputWidth * pixelBytes, inputHeight, 1},
+				inputWidth * pixelBytes, 0, imageRowPitch, 0, image,
+				waitFor == null ? 0 : 1, waitFor == null ? null : new cl_event[] {waitFor}, null);
+		GPUProgram.copyToGPUCounter++;
+	}
+	
+	// Copy the interior of tile 't' from the GPU back into the image, once its kernel has finished.
+	private void readTile(cl_command_queue queue, Pointer image, int imageWidth, int imageHeight,
+			long imageRowPitch, long pixelBytes, int tilesX, int t, cl_mem mem, cl_event waitFor) {
+		
+		final int tileX = (t % tilesX) * tileWidth;
+		final int tileY = (t / tilesX) * tileHeight;
+		final int width = Math.min(tileWidth, imageWidth - tileX);
+		final int height = Math.min(tileHeight, imageHeight - tileY);
+		
+		CL.clEnqueueReadBufferRect(queue, mem, true,
+				new long[] {0, 0, 0}, new long[] {tileX * pixelBytes, tileY, 0},
+				new long[] {width * pixelBytes, height, 1},
+				width * pixelBytes, 0, imageRowPitch, 0, image,
+				1, new cl_event[] {waitFor}, null);
+		GPUProgram.copyToCPUCounter++;
+	}
+	
+	// Return the number of bytes used by each pixel in the flattened image.
+	private static long getPixelBytes(BufferedImage image) {
+		if (image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+			return 4L * image.getRaster().getNumDataElements();
+		}
+		return image.getRaster().getNumDataElements();
+	}
+	
+	// Return a pointer to the pixels of an INT or BYTE BufferedImage, as used by setArgument().
+	private static Pointer getPixelPointer(BufferedImage image) {
+		final int type = image.getType();
+		if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_BGR ||
+			type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE) {
+			return Pointer.to(((DataBufferInt)image.getRaster().getDataBuffer()).getData());
+		} else if (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR ||
+				   type == BufferedImage.TYPE_4BYTE_ABGR_PRE || type == BufferedImage.TYPE_BYTE_GRAY) {
+			return Pointer.to(((DataBufferByte)image.getRaster().getDataBuffer()).getData());
+		}
+		error("BufferedImage must be an INT or BYTE type.");
+		return null;
+	}
+	
+	// Release an OpenCL event if it exists
+	private static void releaseEvent(cl_event event) {
+		if (event != null) {
+			CL.clReleaseEvent(event);
+		}
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
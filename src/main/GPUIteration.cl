@@ -0,0 +1,17 @@
+// Convergence checks for GPUIteration.java
+// Compiled with T (float or double).
+
+#ifdef USE_DOUBLE
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+// Write how much each element changed in the last iteration: |a - b|, or (a - b)^2 if 'squared'
+kernel void changeKernel(global const T *a, global const T *b, const long n, const int squared, global T *change) {
+	const long i = get_global_id(0);
+	if (i >= n) {
+		return;
+	}
+	
+	const T d = a[i] - b[i];
+	change[i] = squared ? d * d : fabs(d);
+}
\ No newline at end of file
@@ -0,0 +1,266 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.cl_mem;
+
+/**
+ * GPUIteration runs an iterative kernel that reads one buffer and writes the next, such as a Jacobi solver or a
+ * heat diffusion stencil, swapping the two buffers between launches so nothing is copied. It goes with GPUProgram.
+ *
+ * The kernel's input and output arguments are set to two GPUMems of the same type and size, and after each launch
+ * they trade places (with GPUProgram.swapArguments()), so the output of one iteration is the input of the next.
+ * Every few iterations, how much the values changed in the last iteration (the residual) is reduced on the GPU,
+ * and only that one number is copied back, to decide whether to stop.
+ *
+ * Norms of the change from one iteration to the next:
+ *	MAX:	The largest absolute change of any element.
+ *	L2:		The square root of the sum of the squared changes.
+ * Residuals need FLOAT or DOUBLE GPUMems. Iterations without checks work with any type.
+ *
+ * Everything else the kernel needs (its other arguments, and the global and local work group sizes) is set on
+ * the GPUProgram as usual, and stays the same from one iteration to the next.
+ */
+
+public class GPUIteration {
+	
+	/**
+	 * Enum representing how the change of every element is combined into one residual.
+	 */
+	public enum Norm {
+		MAX,	// Largest absolute change
+		L2;		// Square root of the sum of the squared changes
+	}
+	
+	private static GPUProgram[] changePrograms = null;	// Compiled changeKernel kernels, by ArrayType
+	
+	private final GPUProgram program;	// The iterative kernel
+	private final int inputArg;			// Argument the kernel reads from
+	private final int outputArg;		// Argument the kernel writes to
+	private GPUMem current;				// Newest values (the input of the next iteration)
+	private GPUMem previous;			// Values before the last iteration (the output of the next iteration)
+	private GPUMem change;				// Change of each element (allocated the first time a residual is computed)
+	private long iterations;			// Iterations run so far
+	private double residual;			// Residual of the last check (NaN before the first one)
+	
+	/**
+	 * Construct a new iteration driver, and set the input and output arguments of the kernel.
+	 * @param program The kernel, which reads the argument 'inputArg' and writes the argument 'outputArg'.
+	 * Neither argument may already be set to a different GPUMem.
+	 * @param inputArg The index of the argument the kernel reads from.
+	 * @param outputArg The index of the argument the kernel writes to.
+	 * @param initial GPUMem with the values to start from, which is the input of the first iteration.
+	 * @param other GPUMem of the same type and size as 'initial', which is the output of the first iteration.
+	 */
+	public GPUIteration(GPUProgram program, int inputArg, int outputArg, GPUMem initial, GPUMem other) {
+		
+		if (program == null || initial == null || other == null) {
+			error("Argument is null");
+		}
+		
+		if (initial.mem == null || initial.arrayRange == null || other.mem == null || other.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (inputArg == outputArg || initial.mem == other.mem) {
+			error("The input and output must be different arguments with different GPUMems.");
+		}
+		
+		if (initial.type != other.type || initial.arrayRange.size != other.arrayRange.size) {
+			error("The input and output must have the same type and size. (Got " + initial.arrayRange.size + " "
+					+ initial.type + " and " + other.arrayRange.size + " " + other.type + ")");
+		}
+		
+		program.setArgument(inputArg, initial);
+		program.setArgument(outputArg, other);
+		
+		this.program = program;
+		this.inputArg = inputArg;
+		this.outputArg = outputArg;
+		this.current = initial;
+		this.previous = other;
+		this.iterations = 0;
+		this.residual = Double.NaN;
+	}
+	
+	/** Run iterations until the residual is at most a tolerance, checking it every few iterations.
+	 * The residual is also checked after the last iteration, so getResidual() is up to date.
+	 * @param maxIterations The most iterations to run.
+	 * @param checkEvery How many iterations to run between checks of the residual.
+	 * @param norm How the change of every element is combined into one residual.
+	 * @param tolerance Stop once the residual is at most this.
+	 * @return The number of iterations run.
+	 */
+	public int run(int maxIterations, int checkEvery, Norm norm, double tolerance) {
+		
+		if (norm == null) {
+			error("Argument is null");
+		}
+		
+		if (maxIterations < 0 || checkEvery <= 0) {
+			error("Need at least 0 iterations, and at least 1 iteration between checks. (Got " + maxIterations
+					+ " iterations, checked every " + checkEvery + ")");
+		}
+		
+		int done = 0;
+		while (done < maxIterations) {
+			final int count = Math.min(checkEvery, maxIterations - done);
+			step(count);
+			done += count;
+			
+			if (residual(norm) <= tolerance) {
+				break;
+			}
+		}
+		return done;
+	}
+	
+	/** Run iterations without checking the residual.
+	 * @param count The number of iterations to run.
+	 */
+	public void step(int count) {
+		
+		checkIteration(this);
+		
+		if (count < 0) {
+			error("Can't run a negative number of iterations. (Got " + count + ")");
+		}
+		
+		for (int i = 0; i < count; i++) {
+			program.enqueueKernel(null, null);
+			program.swapArguments(inputArg, outputArg);
+			
+			final GPUMem swap = current;
+			current = previous;
+			previous = swap;
+		}
+		iterations += count;
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	/** Compute the residual of the last iteration on the GPU, and copy only it to the CPU.
+	 * @param norm How the change of every element is combined into one residual.
+	 * @return The residual, which is also returned by getResidual() until the next check.
+	 */
+	public double residual(Norm norm) {
+		return residual(this, norm);
+	}
+	
+	/** Return the residual of the last check (NaN if it hasn't been checked).
+	 * @return residual
+	 */
+	public double getResidual() {
+		return residual;
+	}
+	
+	/** Return the number of iterations run so far.
+	 * @return iterations
+	 */
+	public long getIterations() {
+		return iterations;
+	}
+	
+	/** Return the GPUMem with the newest values, which is the input of the next iteration.
+	 * @return GPUMem
+	 */
+	public GPUMem getCurrent() {
+		return current;
+	}
+	
+	/** Return the GPUMem with the values before the last iteration, which is the output of the next iteration.
+	 * @return GPUMem
+	 */
+	public GPUMem getPrevious() {
+		return previous;
+	}
+	
+	/** Release the memory used for residuals, and make sure this driver cannot be used again.
+	 * The kernel and the two GPUMems it was given are left for the caller to dispose.
+	 */
+	public void dispose() {
+		if (change != null) {
+			change.dispose();
+		}
+		change = null;
+		current = null;
+		previous = null;
+	}
+	
+	/** Release the kernels used for residuals.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void disposeAll() {
+		if (changePrograms != null) {
+			for (int i = 0; i < changePrograms.length; i++) {
+				if (changePrograms[i] != null) {
+					changePrograms[i].dispose();
+				}
+			}
+			changePrograms = null;
+		}
+	}
+	
+	// Write the change of each element, then reduce it with GPUReduce
+	private static synchronized double residual(GPUIteration iteration, Norm norm) {
+		
+		checkIteration(iteration);
+		
+		if (norm == null) {
+			error("Argument is null");
+		}
+		
+		if (iteration.iterations == 0) {
+			error("Need at least one iteration to compute a residual.");
+		}
+		
+		final ArrayType type = iteration.current.type;
+		if (type != ArrayType.FLOAT && type != ArrayType.DOUBLE) {
+			error("Residuals need FLOAT or DOUBLE GPUMems, not " + type);
+		}
+		
+		final long n = iteration.current.arrayRange.size;
+		if (iteration.change == null) {
+			cl_mem mem = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, n * type.getSize(), null, null);
+			GPUProgram.allocCounter++;
+			iteration.change = new GPUMem(mem, null, type, new GPURange(0, n), GPUAccess.READ_WRITE);
+		}
+		
+		if (changePrograms == null) {
+			changePrograms = new GPUProgram[ArrayType.values().length];
+		}
+		if (changePrograms[type.ordinal()] == null) {
+			changePrograms[type.ordinal()] = GPUProgram.fromLibrary("changeKernel", "GPUIteration.cl", type.getOpenCLDefines());
+		}
+		
+		final GPUProgram program = changePrograms[type.ordinal()];
+		program.setArgumentMem(0, iteration.current.mem);
+		program.setArgumentMem(1, iteration.previous.mem);
+		program.setArgument(2, n, GPUAccess.READ);
+		program.setArgument(3, (norm == Norm.L2) ? 1 : 0, GPUAccess.READ);
+		program.setArgumentMem(4, iteration.change.mem);
+		program.setGlobalWorkGroupSizes(n);
+		program.enqueueKernel(null, null);
+		
+		final GPUReduce.Operation op = (norm == Norm.L2) ? GPUReduce.Operation.SUM : GPUReduce.Operation.MAX;
+		double result = (type == ArrayType.FLOAT) ? GPUReduce.reduceFloat(iteration.change, op)
+				: GPUReduce.reduceDouble(iteration.change, op);
+		if (norm == Norm.L2) {
+			result = Math.sqrt(result);
+		}
+		
+		iteration.residual = result;
+		return result;
+	}
+	
+	// Check that an iteration driver can be used
+	private static void checkIteration(GPUIteration iteration) {
+		if (iteration.current == null) {
+			error("Attempted to use a disposed GPUIteration.");
+		}
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,155 @@
+// K-means clustering for GPUKMeans.java
+// Points and centroids are row-major float matrices, with 'd' floats in each row.
+
+// Squared distance between two points
+float squaredDistance(global const float *a, global const float *b, const int d) {
+	float sum = 0;
+	for (int j = 0; j < d; j++) {
+		const float diff = a[j] - b[j];
+		sum += diff * diff;
+	}
+	return sum;
+}
+
+// Add to a cluster sum in global memory. OpenCL 1.2 only has integer atomics, so compare-and-swap the float's bits
+// until no other point changed the sum in between.
+void atomicAddGlobal(volatile global float *p, const float value) {
+	volatile global int *bits = (volatile global int *)p;
+	int old = *bits;
+	int assumed;
+	do {
+		assumed = old;
+		old = atomic_cmpxchg(bits, assumed, as_int(as_float(assumed) + value));
+	} while (old != assumed);
+}
+
+// The same, in local memory
+void atomicAddLocal(volatile local float *p, const float value) {
+	volatile local int *bits = (volatile local int *)p;
+	int old = *bits;
+	int assumed;
+	do {
+		assumed = old;
+		old = atomic_cmpxchg(bits, assumed, as_int(as_float(assumed) + value));
+	} while (old != assumed);
+}
+
+// Assign each point to its nearest centroid, count the assignments that changed, and add each point to the sum
+// of its cluster. 'sums', 'counts', and 'changed' must start at 0. With 'useLocal', each work group first adds up
+// its points in local memory, so each work group only adds to each global sum once.
+kernel void assignKernel(global const float *points, const int n, const int d, global const float *centroids, const int k,
+		global int *assignments, global float *sums, global int *counts, global int *changed,
+		local float *partialSums, local int *partialCounts, const int useLocal) {
+	
+	const int localId = get_local_id(0);
+	const int localSize = get_local_size(0);
+	if (useLocal) {
+		for (int i = localId; i < k * d; i += localSize) {
+			partialSums[i] = 0;
+		}
+		for (int c = localId; c < k; c += localSize) {
+			partialCounts[c] = 0;
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+	
+	int changedHere = 0;
+	for (int i = get_global_id(0); i < n; i += get_global_size(0)) {
+		global const float *point = points + (long)i * d;
+		int best = 0;
+		float bestDistance = INFINITY;
+		for (int c = 0; c < k; c++) {
+			const float distance = squaredDistance(point, centroids + (long)c * d, d);
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = c;
+			}
+		}
+		
+		if (assignments[i] != best) {
+			assignments[i] = best;
+			changedHere++;
+		}
+		
+		if (useLocal) {
+			for (int j = 0; j < d; j++) {
+				atomicAddLocal(&partialSums[best * d + j], point[j]);
+			}
+			atomic_inc(&partialCounts[best]);
+		} else {
+			for (int j = 0; j < d; j++) {
+				atomicAddGlobal(&sums[(long)best * d + j], point[j]);
+			}
+			atomic_inc(&counts[best]);
+		}
+	}
+	
+	if (changedHere > 0) {
+		atomic_add(changed, changedHere);
+	}
+	
+	if (useLocal) {
+		barrier(CLK_LOCAL_MEM_FENCE);
+		for (int c = localId; c < k; c += localSize) {
+			if (partialCounts[c] > 0) {
+				atomic_add(&counts[c], partialCounts[c]);
+				for (int j = 0; j < d; j++) {
+					atomicAddGlobal(&sums[c * d + j], partialSums[c * d + j]);
+				}
+			}
+		}
+	}
+}
+
+// Move each centroid to the mean of its points. A centroid without any points stays where it is.
+kernel void updateKernel(global const float *sums, global const int *counts, global float *centroids, const int k, const int d) {
+	const int i = get_global_id(0);
+	if (i < k * d) {
+		const int count = counts[i / d];
+		if (count > 0) {
+			centroids[i] = sums[i] / count;
+		}
+	}
+}
+
+// Lower the squared distance of each point to its nearest centroid, for centroid 'c' (k-means++ seeding)
+kernel void distanceKernel(global const float *points, const int n, const int d, global const float *centroids, const int c,
+		global float *minDistances) {
+	const int i = get_global_id(0);
+	if (i < n) {
+		const float distance = squaredDistance(points + (long)i * d, centroids + (long)c * d, d);
+		minDistances[i] = fmin(minDistances[i], distance);
+	}
+}
+
+// Copy a random point to centroid 'c' (one work item). Without weights, every point is equally likely.
+// With weights, 'cumulative' is the inclusive scan of the squared distances, so a point is picked with probability
+// proportional to its squared distance to the nearest centroid (k-means++).
+kernel void pickKernel(global const float *cumulative, const int n, global const float *uniforms, const int c,
+		global const float *points, const int d, global float *centroids, const int byWeight) {
+	
+	if (get_global_id(0) != 0) {
+		return;
+	}
+	
+	int index = min((int)(uniforms[c] * n), n - 1);
+	if (byWeight && cumulative[n - 1] > 0) {
+		// Find the first point whose cumulative weight is more than the target
+		const float target = uniforms[c] * cumulative[n - 1];
+		int low = 0;
+		int high = n - 1;
+		while (low < high) {
+			const int middle = low + (high - low) / 2;
+			if (cumulative[middle] > target) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		index = low;
+	}
+	
+	for (int j = 0; j < d; j++) {
+		centroids[(long)c * d + j] = points[(long)index * d + j];
+	}
+}
\ No newline at end of file
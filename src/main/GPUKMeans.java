@@ -0,0 +1,260 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUKMeans clusters points on the GPU with k-means (Lloyd's algorithm), keeping the points, centroids,
+ * and assignments in GPUMems the whole time. It goes with GPUProgram.
+ *
+ * Points and centroids are row-major float matrices: point i is at i * dimensions in the points GPUMem.
+ * Each iteration assigns every point to its nearest centroid and adds it to the sum of its cluster in one kernel
+ * (in local memory first, when the sums fit), then moves each centroid to the mean of its points. The only thing
+ * copied to the CPU is the number of assignments that changed, to decide when to stop.
+ *
+ * cluster() picks the starting centroids with k-means++: the first is a random point, and each one after that is
+ * a point picked with probability proportional to its squared distance to the nearest centroid so far. The random
+ * numbers come from GPUFill, so the same seed always picks the same centroids. refine() starts from the centroids
+ * already in the GPUMem instead.
+ *
+ * Sums of floats are added in a different order each time, so centroids may differ slightly in the last few bits.
+ */
+
+public class GPUKMeans {
+	
+	private static final int MAX_GROUP_SIZE = 256;	// Work items per work group of assignKernel
+	private static final int GROUPS_PER_UNIT = 8;	// Work groups of assignKernel for each compute unit
+	
+	private static GPUProgram assignProgram = null;		// Compiled assignKernel kernel
+	private static GPUProgram updateProgram = null;		// Compiled updateKernel kernel
+	private static GPUProgram distanceProgram = null;	// Compiled distanceKernel kernel
+	private static GPUProgram pickProgram = null;		// Compiled pickKernel kernel
+	
+	/** Cluster the points into k clusters, starting with centroids picked by k-means++.
+	 * @param points FLOAT GPUMem of the points, one after another (row-major). Its arrayRange.size is the
+	 * number of points times the number of dimensions.
+	 * @param dimensions The length of each point.
+	 * @param k The number of clusters (at most the number of points).
+	 * @param centroids FLOAT GPUMem to write the centroids to (k * dimensions floats).
+	 * @param assignments INT GPUMem to write the cluster of each point to.
+	 * @param maxIterations The most iterations to run.
+	 * @param tolerance Stop when at most this fraction of the points change cluster in an iteration (0 to run until none do).
+	 * @param seed Which stream of random numbers to pick the starting centroids with.
+	 * @return The number of iterations run.
+	 */
+	public static synchronized int cluster(GPUMem points, int dimensions, int k, GPUMem centroids, GPUMem assignments,
+			int maxIterations, double tolerance, long seed) {
+		final int n = checkArguments(points, dimensions, k, centroids, assignments, maxIterations, tolerance);
+		seed(points, n, dimensions, k, centroids, seed);
+		return iterate(points, n, dimensions, k, centroids, assignments, maxIterations, tolerance);
+	}
+	
+	/** Cluster the points into k clusters, starting from the centroids already in 'centroids'.
+	 * @param points FLOAT GPUMem of the points, one after another (row-major). Its arrayRange.size is the
+	 * number of points times the number of dimensions.
+	 * @param dimensions The length of each point.
+	 * @param k The number of clusters (at most the number of points).
+	 * @param centroids FLOAT GPUMem of the starting centroids (k * dimensions floats), which are moved in place.
+	 * @param assignments INT GPUMem to write the cluster of each point to.
+	 * @param maxIterations The most iterations to run.
+	 * @param tolerance Stop when at most this fraction of the points change cluster in an iteration (0 to run until none do).
+	 * @return The number of iterations run.
+	 */
+	public static synchronized int refine(GPUMem points, int dimensions, int k, GPUMem centroids, GPUMem assignments,
+			int maxIterations, double tolerance) {
+		final int n = checkArguments(points, dimensions, k, centroids, assignments, maxIterations, tolerance);
+		return iterate(points, n, dimensions, k, centroids, assignments, maxIterations, tolerance);
+	}
+	
+	/** Release the kernels used for clustering.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void dispose() {
+		if (assignProgram != null) {
+			assignProgram.dispose();
+			updateProgram.dispose();
+			distanceProgram.dispose();
+			pickProgram.dispose();
+			assignProgram = null;
+			updateProgram = null;
+			distanceProgram = null;
+			pickProgram = null;
+		}
+	}
+	
+	// Pick the starting centroids with k-means++, entirely on the GPU
+	private static void seed(GPUMem points, int n, int d, int k, GPUMem centroids, long seed) {
+		
+		getPrograms();
+		GPUMem uniforms = createTemp(ArrayType.FLOAT, k);
+		GPUMem minDistances = createTemp(ArrayType.FLOAT, n);
+		GPUMem cumulative = createTemp(ArrayType.FLOAT, n);
+		GPUFill.uniform(uniforms, seed, 0);
+		GPUFill.fill(minDistances, Double.POSITIVE_INFINITY);
+		
+		for (int c = 0; c < k; c++) {
+			if (c > 0) {
+				// Weight each point by its squared distance to the nearest centroid so far
+				distanceProgram.setArgumentMem(0, points.mem);
+				distanceProgram.setArgument(1, n, GPUAccess.READ);
+				distanceProgram.setArgument(2, d, GPUAccess.READ);
+				distanceProgram.setArgumentMem(3, centroids.mem);
+				distanceProgram.setArgument(4, c - 1, GPUAccess.READ);
+				distanceProgram.setArgumentMem(5, minDistances.mem);
+				distanceProgram.setGlobalWorkGroupSizes(n);
+				distanceProgram.enqueueKernel(null, null);
+				GPUScan.inclusiveScan(minDistances, cumulative);
+			}
+			
+			pickProgram.setArgumentMem(0, cumulative.mem);
+			pickProgram.setArgument(1, n, GPUAccess.READ);
+			pickProgram.setArgumentMem(2, uniforms.mem);
+			pickProgram.setArgument(3, c, GPUAccess.READ);
+			pickProgram.setArgumentMem(4, points.mem);
+			pickProgram.setArgument(5, d, GPUAccess.READ);
+			pickProgram.setArgumentMem(6, centroids.mem);
+			pickProgram.setArgument(7, (c > 0) ? 1 : 0, GPUAccess.READ);
+			pickProgram.setGlobalWorkGroupSizes(1);
+			pickProgram.enqueueKernel(null, null);
+		}
+		CL.clFinish(GPUProgram.commandQueue);
+		
+		uniforms.dispose();
+		minDistances.dispose();
+		cumulative.dispose();
+	}
+	
+	// Assign and update until few enough assignments change
+	private static int iterate(GPUMem points, int n, int d, int k, GPUMem centroids, GPUMem assignments,
+			int maxIterations, double tolerance) {
+		
+		getPrograms();
+		GPUMem sums = createTemp(ArrayType.FLOAT, (long)k * d);
+		GPUMem counts = createTemp(ArrayType.INT, k);
+		GPUMem changed = createTemp(ArrayType.INT, 1);
+		int[] hostChanged = new int[1];
+		
+		// No point starts in a cluster, so every assignment changes in the first iteration
+		fill(assignments.mem, n, -1);
+		
+		final int groupSize = Math.min(MAX_GROUP_SIZE, assignProgram.getKernelMaxLocalWorkGroupSize());
+		final long workGroups = Math.min((n + groupSize - 1) / groupSize, (long)GROUPS_PER_UNIT * GPUProgram.getMaxComputeUnits());
+		final long localBytes = ((long)k * d + k) * ArrayType.FLOAT.getSize();
+		final boolean useLocal = localBytes <= GPUProgram.getLocalMemorySize() / 2;
+		final long maxChanged = (long)(tolerance * n);
+		
+		int iterations = 0;
+		while (iterations < maxIterations) {
+			fill(sums.mem, (long)k * d, 0);
+			fill(counts.mem, k, 0);
+			fill(changed.mem, 1, 0);
+			
+			assignProgram.setArgumentMem(0, points.mem);
+			assignProgram.setArgument(1, n, GPUAccess.READ);
+			assignProgram.setArgument(2, d, GPUAccess.READ);
+			assignProgram.setArgumentMem(3, centroids.mem);
+			assignProgram.setArgument(4, k, GPUAccess.READ);
+			assignProgram.setArgumentMem(5, assignments.mem);
+			assignProgram.setArgumentMem(6, sums.mem);
+			assignProgram.setArgumentMem(7, counts.mem);
+			assignProgram.setArgumentMem(8, changed.mem);
+			assignProgram.setLocalArgument(9, ArrayType.FLOAT, useLocal ? (long)k * d : 1);
+			assignProgram.setLocalArgument(10, ArrayType.INT, useLocal ? k : 1);
+			assignProgram.setArgument(11, useLocal ? 1 : 0, GPUAccess.READ);
+			assignProgram.setLocalWorkGroupSizes(groupSize);
+			assignProgram.setGlobalWorkGroupSizes(workGroups * groupSize);
+			assignProgram.enqueueKernel(null, null);
+			
+			updateProgram.setArgumentMem(0, sums.mem);
+			updateProgram.setArgumentMem(1, counts.mem);
+			updateProgram.setArgumentMem(2, centroids.mem);
+			updateProgram.setArgument(3, k, GPUAccess.READ);
+			updateProgram.setArgument(4, d, GPUAccess.READ);
+			updateProgram.setGlobalWorkGroupSizes((long)k * d);
+			updateProgram.enqueueKernel(null, null);
+			iterations++;
+			
+			CL.clEnqueueReadBuffer(GPUProgram.commandQueue, changed.mem, CL.CL_TRUE, 0, ArrayType.INT.getSize(),
+					Pointer.to(hostChanged), 0, null, null);
+			GPUProgram.copyToCPUCounter++;
+			if (hostChanged[0] <= maxChanged) {
+				break;
+			}
+		}
+		
+		sums.dispose();
+		counts.dispose();
+		changed.dispose();
+		return iterations;
+	}
+	
+	// Check the arguments of cluster() and refine(), and return the number of points
+	private static int checkArguments(GPUMem points, int dimensions, int k, GPUMem centroids, GPUMem assignments,
+			int maxIterations, double tolerance) {
+		
+		if (points == null || centroids == null || assignments == null) {
+			error("Argument is null");
+		}
+		
+		if (points.mem == null || points.arrayRange == null || centroids.mem == null || assignments.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (points.type != ArrayType.FLOAT || centroids.type != ArrayType.FLOAT || assignments.type != ArrayType.INT) {
+			error("Points and centroids must be FLOAT GPUMems, and assignments must be an INT GPUMem.");
+		}
+		
+		if (dimensions <= 0 || points.arrayRange.size % dimensions != 0) {
+			error("The number of floats (" + points.arrayRange.size + ") must be a multiple of the dimensions (" + dimensions + ")");
+		}
+		
+		if (points.arrayRange.size / dimensions > Integer.MAX_VALUE) {
+			error("Too many points. (" + (points.arrayRange.size / dimensions) + ")");
+		}
+		
+		final int n = (int)(points.arrayRange.size / dimensions);
+		if (k <= 0 || k > n) {
+			error("Can make 1 to " + n + " clusters. (Got " + k + ")");
+		}
+		
+		if (centroids.maxAllocatedSize < (long)k * dimensions || assignments.maxAllocatedSize < n) {
+			error("Need room for " + ((long)k * dimensions) + " centroid floats and " + n + " assignments. (Got "
+					+ centroids.maxAllocatedSize + " and " + assignments.maxAllocatedSize + ")");
+		}
+		
+		if (maxIterations <= 0 || !(tolerance >= 0 && tolerance < 1)) {
+			error("Need at least one iteration and a tolerance from 0 to 1. (Got " + maxIterations + " and " + tolerance + ")");
+		}
+		return n;
+	}
+	
+	// Set the first n 4-byte elements to the bits of an int (without waiting, unlike GPUFill)
+	private static void fill(cl_mem mem, long n, int value) {
+		CL.clEnqueueFillBuffer(GPUProgram.commandQueue, mem, Pointer.to(new int[] {value}), ArrayType.INT.getSize(), 0,
+				n * ArrayType.INT.getSize(), 0, null, null);
+	}
+	
+	// Allocate a GPUMem on the GPU that isn't copied to or from an array
+	private static GPUMem createTemp(ArrayType type, long n) {
+		cl_mem mem = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, n * type.getSize(), null, null);
+		GPUProgram.allocCounter++;
+		return new GPUMem(mem, null, type, new GPURange(0, n), GPUAccess.READ_WRITE);
+	}
+	
+	// Compile the kernels the first time they're needed
+	private static void getPrograms() {
+		if (assignProgram == null) {
+			assignProgram = GPUProgram.fromLibrary("assignKernel", "GPUKMeans.cl", "");
+			updateProgram = GPUProgram.fromLibrary("updateKernel", "GPUKMeans.cl", "");
+			distanceProgram = GPUProgram.fromLibrary("distanceKernel", "GPUKMeans.cl", "");
+			pickProgram = GPUProgram.fromLibrary("pickKernel", "GPUKMeans.cl", "");
+		}
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
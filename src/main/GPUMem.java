@@ -1,7 +1,11 @@
 package main;
 
+import java.awt.image.BufferedImage;
+
 import org.jocl.CL;
 import org.jocl.Pointer;
+import org.jocl.cl_buffer_region;
+import org.jocl.cl_image_format;
 import org.jocl.cl_mem;
 
 // GPUMem keeps track of a pointer to memory in the GPU, and the type of memory.
@@ -15,6 +19,13 @@ public class GPUMem {
 	protected long maxAllocatedSize;	// Size of the cl_mem on the GPU (in elements, not bytes)
 	protected Pointer pointer;		// Pointer to the Java array to read or write to.
 	
+	protected BufferedImage image = null;			// (Images only) The BufferedImage to read or write to.
+	protected cl_image_format imageFormat = null;	// (Images only) Channel order of the image on the GPU.
+	protected int[] imageStaging = null;			// (Images only) Pixels converted to 4-byte BGRA, if the layout isn't supported directly.
+	
+	protected GPUMem parent = null;		// (Views only) The GPUMem whose memory this aliases.
+	protected long viewOffset = 0;		// (Views only) Offset of this view in the parent's memory (in elements).
+	
 	protected GPUMem(cl_mem mem, Pointer arrayPointer, ArrayType type, GPURange arrayRange, GPUAccess accessType) {
 		this.mem = mem;
 		this.type = type;
@@ -35,7 +46,60 @@ public class GPUMem {
 		this.arrayRange = newRange;
 	}
 	
+	/** Create a view of part of this memory on the GPU, without copying anything.
+	 * The view can be bound to a kernel argument as if it were its own buffer, but it shares
+	 * memory with this GPUMem, so writes through either one are seen by both.
+	 * Copying the view back to the CPU fills the matching part of this GPUMem's array.
+	 * @param range The elements of this GPUMem (on the GPU) that the view covers.
+	 * The start, in bytes, must be a multiple of GPUProgram.getMemBaseAddrAlign().
+	 * @return GPUMem pointer to the view.
+	 */
+	public GPUMem createView(GPURange range) {
+		
+		if (mem == null || arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (isImage()) {
+			error("Cannot create a view of an image.");
+		}
+		
+		if (range.end > maxAllocatedSize) {
+			error("Range " + range + " out of bounds for GPUMem of max-length " + maxAllocatedSize + ".");
+		}
+		
+		// OpenCL can't make a view of a view, so make it from the original memory instead
+		GPUMem root = this;
+		long rootOffset = range.start;
+		if (parent != null) {
+			root = parent;
+			rootOffset += viewOffset;
+		}
+		
+		final long typeSize = type.getSize();
+		if ((rootOffset * typeSize) % GPUProgram.getMemBaseAddrAlign() != 0) {
+			error("View offset of " + (rootOffset * typeSize) + " bytes is not a multiple of " +
+					GPUProgram.getMemBaseAddrAlign() + " bytes.");
+		}
+		
+		cl_mem subBuffer = CL.clCreateSubBuffer(root.mem, accessType.value, CL.CL_BUFFER_CREATE_TYPE_REGION,
+				new cl_buffer_region(rootOffset * typeSize, range.size * typeSize), null);
+		
+		// Element 0 of the view corresponds to element 'range.start' of this GPUMem in the array
+		final long arrayStart = arrayRange.start + range.start;
+		GPUMem view = new GPUMem(subBuffer, pointer, type, new GPURange(arrayStart, arrayStart + range.size), accessType);
+		view.parent = root;
+		view.viewOffset = rootOffset;
+		return view;
+	}
+	
+	// Return whether this is a view of another GPUMem (see createView)
+	public boolean isView() {
+		return parent != null;
+	}
+	
 	// Release all GPU memory and make sure this object cannot be used again.
+	// Disposing a view leaves its parent intact.
 	public void dispose() {
 		if (mem != null) {
 			CL.clReleaseMemObject(mem);
@@ -43,12 +107,26 @@ public class GPUMem {
 		}
 		arrayRange = null;
 		pointer = null;
+		image = null;
+		imageStaging = null;
+		parent = null;
 		accessType = null;
 		maxAllocatedSize = -1;
 	}
 	
+	// Return whether this is an OpenCL image (image2d_t) rather than a plain buffer.
+	public boolean isImage() {
+		return imageFormat != null;
+	}
+	
 	// Return the access type for this GPU memory.
 	public GPUAccess getAccessType() {
 		return accessType;
 	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
 }
@@ -0,0 +1,100 @@
+// Nearest neighbor search for GPUNearestNeighbors.java
+// The dot products of the queries and the database are computed by GPUBlas. These kernels turn them into scores,
+// and select the best K for each query. Compiled with K (the most neighbors that can be found at once).
+
+#define METRIC_DOT 0
+#define METRIC_COSINE 1
+#define METRIC_L2 2
+
+// Write the squared length of each vector
+kernel void squaredNormsKernel(global const float *vectors, const int count, const int dimensions, global float *norms) {
+	const int i = get_global_id(0);
+	if (i >= count) {
+		return;
+	}
+	
+	global const float *v = vectors + (long)i * dimensions;
+	float sum = 0;
+	for (int d = 0; d < dimensions; d++) {
+		sum += v[d] * v[d];
+	}
+	norms[i] = sum;
+}
+
+// Score of a database vector for a query, from their dot product. Higher is nearer, so L2 is minus the squared distance.
+// The cosine of an all-zero vector is taken as 0 rather than dividing by 0.
+float score(const float dot, const float queryNorm, const float databaseNorm, const int metric) {
+	if (metric == METRIC_COSINE) {
+		const float norms = queryNorm * databaseNorm;
+		return (norms > 0) ? dot * rsqrt(norms) : 0.0f;
+	} else if (metric == METRIC_L2) {
+		return -fmax(queryNorm + databaseNorm - 2 * dot, 0.0f);
+	}
+	return dot;
+}
+
+// Whether score a (of database vector ia) goes before score b (of ib): higher first, then lower index first.
+// NaN goes after every number, so one NaN can't stop the better scores after it from being kept.
+#define BEFORE(a, ia, b, ib) (isnan(b) ? (isnan(a) ? (ia) < (ib) : true) : ((a) > (b) || ((a) == (b) && (ia) < (ib))))
+
+// One work group for each query. Each work item keeps the best k scores of every local-size-th database vector
+// (sorted in private memory). Then k times, the work group finds the best of the first scores of the work items,
+// writes it, and that work item moves on to its next score. The local size must be a power of two.
+kernel void selectKernel(global const float *dots, const int n, global const float *queryNorms,
+		global const float *databaseNorms, const int metric, const int k, const int outputStart,
+		global int *ids, global float *scores, local float *localScores, local int *localIds, local int *localItems) {
+	
+	const int query = get_group_id(0);
+	const int item = get_local_id(0);
+	const int localSize = get_local_size(0);
+	global const float *row = dots + (long)query * n;
+	const float queryNorm = (metric != METRIC_DOT) ? queryNorms[query] : 0;
+	
+	// Insertion sort, keeping the best k
+	float best[K];
+	int bestIds[K];
+	int count = 0;
+	for (int j = item; j < n; j += localSize) {
+		const float s = score(row[j], queryNorm, (metric != METRIC_DOT) ? databaseNorms[j] : 0, metric);
+		if (count == k && !BEFORE(s, j, best[k - 1], bestIds[k - 1])) {
+			continue;
+		}
+		
+		int p = (count < k) ? count++ : k - 1;
+		while (p > 0 && BEFORE(s, j, best[p - 1], bestIds[p - 1])) {
+			best[p] = best[p - 1];
+			bestIds[p] = bestIds[p - 1];
+			p--;
+		}
+		best[p] = s;
+		bestIds[p] = j;
+	}
+	
+	// Merge the lists of the work items, one neighbor at a time (an empty list has NaN at index INT_MAX, which goes last)
+	int head = 0;
+	for (int r = 0; r < k; r++) {
+		localScores[item] = (head < count) ? best[head] : NAN;
+		localIds[item] = (head < count) ? bestIds[head] : INT_MAX;
+		localItems[item] = item;
+		barrier(CLK_LOCAL_MEM_FENCE);
+		
+		for (int stride = localSize / 2; stride > 0; stride /= 2) {
+			if (item < stride && BEFORE(localScores[item + stride], localIds[item + stride], localScores[item], localIds[item])) {
+				localScores[item] = localScores[item + stride];
+				localIds[item] = localIds[item + stride];
+				localItems[item] = localItems[item + stride];
+			}
+			barrier(CLK_LOCAL_MEM_FENCE);
+		}
+		
+		if (item == 0) {
+			const long out = (long)(outputStart + query) * k + r;
+			ids[out] = localIds[0];
+			scores[out] = (metric == METRIC_L2) ? -localScores[0] : localScores[0];
+		}
+		if (item == localItems[0]) {
+			head++;
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,357 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUNearestNeighbors finds the k nearest neighbors of query vectors in a database of float vectors kept on the GPU,
+ * by exact (brute-force) search. It goes with GPUProgram.
+ *
+ * The database is a row-major matrix with one vector in each row, copied to the GPU once (or used from a GPUMem
+ * that is already there). Queries are searched in batches: the dot products of a batch with every database vector are
+ * computed with the tiled matrix multiplication of GPUBlas, then a work group for each query turns them into scores
+ * and selects the best k. Only the ids and scores of the neighbors are written, and copied back if you ask for arrays.
+ *
+ * Metrics:
+ *	DOT:	The dot product. Higher is nearer.
+ *	COSINE:	The cosine of the angle between the vectors (the dot product of the normalized vectors). Higher is nearer.
+ *	L2:		The squared Euclidean distance. Lower is nearer.
+ * For COSINE and L2, the length of each database vector is computed once, when the database is given.
+ * L2 uses |q|^2 + |x|^2 - 2 q.x, which is much faster than subtracting the vectors, but loses some precision
+ * for vectors that are very close together compared to their length.
+ */
+
+public class GPUNearestNeighbors {
+	
+	/**
+	 * Enum representing how near two vectors are.
+	 */
+	public enum Metric {
+		DOT(0),		// Dot product (higher is nearer)
+		COSINE(1),	// Cosine similarity (higher is nearer)
+		L2(2);		// Squared Euclidean distance (lower is nearer)
+		
+		protected final int value;	// Value of METRIC_... in the kernel
+		
+		Metric(int value) {
+			this.value = value;
+		}
+	}
+	
+	/** The most neighbors that can be found for each query. */
+	public static final int MAX_K = 128;
+	
+	private static final int MIN_K = 8;					// Fewest neighbors a kernel is compiled for
+	private static final int MAX_GROUP_SIZE = 256;		// Work items for each query when selecting neighbors
+	private static final long MAX_DOTS_BYTES = 1 << 28;	// Most memory used for the dot products of a batch of queries
+	
+	private static GPUProgram normsProgram = null;		// Compiled squaredNormsKernel kernel
+	private static GPUProgram[] selectPrograms = null;	// Compiled selectKernel kernels, by log2 of K
+	
+	private final int size;					// Number of database vectors
+	private final int dimensions;			// Length of each vector
+	private final Metric metric;			// How near two vectors are
+	private GPUMem database;				// Database vectors (row-major)
+	private GPUMem databaseNorms;			// Squared length of each database vector (COSINE and L2 only)
+	private final boolean ownsMemory;		// Whether 'database' was allocated here (and is released by dispose())
+	
+	/**
+	 * Construct a new search over a copy of database vectors on the GPU.
+	 * @param database The vectors, one after another (row-major), so vector i starts at i * dimensions.
+	 * @param dimensions The length of each vector.
+	 * @param metric How near two vectors are.
+	 */
+	public GPUNearestNeighbors(float[] database, int dimensions, Metric metric) {
+		GPUProgram.initializeGPU();
+		
+		if (database == null || metric == null) {
+			error("Argument is null");
+		}
+		
+		this.dimensions = dimensions;
+		this.size = getVectors(database.length, dimensions);
+		this.metric = metric;
+		
+		cl_mem mem = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR,
+				(long)size * dimensions * ArrayType.FLOAT.getSize(), Pointer.to(database), null);
+		GPUProgram.allocCounter++;
+		GPUProgram.copyToGPUCounter++;
+		this.database = new GPUMem(mem, null, ArrayType.FLOAT, new GPURange(0, (long)size * dimensions), GPUAccess.READ);
+		this.ownsMemory = true;
+		computeNorms();
+	}
+	
+	/**
+	 * Construct a new search over database vectors already on the GPU, without copying them.
+	 * The GPUMem must not be changed or disposed while this search is used, and isn't released by dispose().
+	 * @param database FLOAT GPUMem of the vectors, one after another (row-major). Its arrayRange.size is the
+	 * number of vectors times the number of dimensions.
+	 * @param dimensions The length of each vector.
+	 * @param metric How near two vectors are.
+	 */
+	public GPUNearestNeighbors(GPUMem database, int dimensions, Metric metric) {
+		GPUProgram.initializeGPU();
+		
+		if (database == null || metric == null) {
+			error("Argument is null");
+		}
+		
+		if (database.mem == null || database.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (database.type != ArrayType.FLOAT || database.isImage()) {
+			error("Database must be a FLOAT GPUMem, not " + database.type);
+		}
+		
+		this.dimensions = dimensions;
+		this.size = getVectors(database.arrayRange.size, dimensions);
+		this.metric = metric;
+		this.database = database;
+		this.ownsMemory = false;
+		computeNorms();
+	}
+	
+	/** Return the number of database vectors.
+	 * @return vectors
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/** Return the length of each vector.
+	 * @return dimensions
+	 */
+	public int getDimensions() {
+		return dimensions;
+	}
+	
+	/** Return how near two vectors are.
+	 * @return metric
+	 */
+	public Metric getMetric() {
+		return metric;
+	}
+	
+	/** Find the k nearest database vectors to each query, nearest first. Nothing is copied to the CPU.
+	 * @param queries FLOAT GPUMem of query vectors, one after another (row-major). Its arrayRange.size is the
+	 * number of queries times the number of dimensions.
+	 * @param k The number of neighbors to find for each query (up to MAX_K and the number of database vectors).
+	 * @param ids INT GPUMem to write the index of each neighbor to (k for each query, one query after another).
+	 * @param scores FLOAT GPUMem to write the score of each neighbor to (see Metric).
+	 */
+	public void search(GPUMem queries, int k, GPUMem ids, GPUMem scores) {
+		search(this, queries, k, ids, scores);
+	}
+	
+	/** Find the k nearest database vectors to each query, nearest first, and copy them to the CPU.
+	 * @param queries Query vectors, one after another (row-major).
+	 * @param k The number of neighbors to find for each query (up to MAX_K and the number of database vectors).
+	 * @param ids The array to write the index of each neighbor to (k for each query, one query after another).
+	 * @param scores The array to write the score of each neighbor to (see Metric).
+	 */
+	public void search(float[] queries, int k, int[] ids, float[] scores) {
+		
+		if (queries == null || ids == null || scores == null) {
+			error("Argument is null");
+		}
+		
+		final long count = getVectors(queries.length, dimensions);
+		if (ids.length < count * k || scores.length < count * k) {
+			error("Need room for " + (count * k) + " neighbors. (Got " + ids.length + " ids and " + scores.length + " scores)");
+		}
+		
+		GPUMem queriesMem = GPUProgram.copyArrayToGPU(queries, GPUAccess.READ);
+		GPUMem idsMem = GPUProgram.allocateMemoryOnGPU(ids, GPUAccess.WRITE, false);
+		GPUMem scoresMem = GPUProgram.allocateMemoryOnGPU(scores, GPUAccess.WRITE, false);
+		search(this, queriesMem, k, idsMem, scoresMem);
+		
+		// Only copy back the neighbors, so the rest of the arrays is left alone
+		idsMem.setRange(new GPURange(0, count * k));
+		scoresMem.setRange(new GPURange(0, count * k));
+		GPUProgram.copyArrayToCPU(idsMem);
+		GPUProgram.copyArrayToCPU(scoresMem);
+		queriesMem.dispose();
+		idsMem.dispose();
+		scoresMem.dispose();
+	}
+	
+	/** Release the memory on the GPU (except a database GPUMem it was given), and make sure this search cannot be used again.
+	 */
+	public void dispose() {
+		if (database != null && ownsMemory) {
+			database.dispose();
+		}
+		if (databaseNorms != null) {
+			databaseNorms.dispose();
+		}
+		database = null;
+		databaseNorms = null;
+	}
+	
+	/** Release the kernels used for nearest neighbor search.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void disposeAll() {
+		if (normsProgram != null) {
+			normsProgram.dispose();
+			normsProgram = null;
+		}
+		
+		if (selectPrograms != null) {
+			for (int i = 0; i < selectPrograms.length; i++) {
+				if (selectPrograms[i] != null) {
+					selectPrograms[i].dispose();
+				}
+			}
+			selectPrograms = null;
+		}
+	}
+	
+	// Search a batch of queries at a time, so the dot products fit in memory
+	private static synchronized void search(GPUNearestNeighbors search, GPUMem queries, int k, GPUMem ids, GPUMem scores) {
+		
+		if (search.database == null) {
+			error("Attempted to use a disposed GPUNearestNeighbors.");
+		}
+		
+		if (queries == null || ids == null || scores == null) {
+			error("Argument is null");
+		}
+		
+		if (queries.mem == null || queries.arrayRange == null || ids.mem == null || scores.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (queries.type != ArrayType.FLOAT || ids.type != ArrayType.INT || scores.type != ArrayType.FLOAT) {
+			error("Queries and scores must be FLOAT GPUMems, and ids must be an INT GPUMem.");
+		}
+		
+		if (k <= 0 || k > MAX_K || k > search.size) {
+			error("Can find 1 to " + Math.min(MAX_K, search.size) + " neighbors. (Got " + k + ")");
+		}
+		
+		final int count = getVectors(queries.arrayRange.size, search.dimensions);
+		if (ids.maxAllocatedSize < (long)count * k || scores.maxAllocatedSize < (long)count * k) {
+			error("Need room for " + ((long)count * k) + " neighbors. (Got " + ids.maxAllocatedSize + " ids and "
+					+ scores.maxAllocatedSize + " scores)");
+		}
+		
+		final long dotsBytes = Math.min(MAX_DOTS_BYTES, GPUProgram.getMaxMemAllocSize());
+		final int batch = (int)Math.max(1, Math.min(count, dotsBytes / ((long)search.size * ArrayType.FLOAT.getSize())));
+		GPUMem batchQueries = (batch < count) ? createTemp((long)batch * search.dimensions) : queries;
+		GPUMem dots = createTemp((long)batch * search.size);
+		GPUMem queryNorms = createTemp(batch);
+		
+		final GPUProgram program = getSelectProgram(k);
+		int groupSize = Math.min(MAX_GROUP_SIZE, program.getKernelMaxLocalWorkGroupSize());
+		groupSize = Integer.highestOneBit(groupSize);
+		
+		for (int start = 0; start < count; start += batch) {
+			final int batchCount = Math.min(batch, count - start);
+			if (batchQueries != queries) {
+				CL.clEnqueueCopyBuffer(GPUProgram.commandQueue, queries.mem, batchQueries.mem,
+						(long)start * search.dimensions * ArrayType.FLOAT.getSize(), 0,
+						(long)batchCount * search.dimensions * ArrayType.FLOAT.getSize(), 0, null, null);
+			}
+			
+			GPUBlas.gemm(false, false, true, batchCount, search.size, search.dimensions,
+					1, batchQueries, search.dimensions, search.database, search.dimensions, 0, dots, search.size);
+			if (search.metric != Metric.DOT) {
+				runNorms(batchQueries, batchCount, search.dimensions, queryNorms);
+			}
+			
+			program.setArgumentMem(0, dots.mem);
+			program.setArgument(1, search.size, GPUAccess.READ);
+			program.setArgumentMem(2, queryNorms.mem);
+			program.setArgumentMem(3, (search.databaseNorms != null) ? search.databaseNorms.mem : queryNorms.mem);
+			program.setArgument(4, search.metric.value, GPUAccess.READ);
+			program.setArgument(5, k, GPUAccess.READ);
+			program.setArgument(6, start, GPUAccess.READ);
+			program.setArgumentMem(7, ids.mem);
+			program.setArgumentMem(8, scores.mem);
+			program.setLocalArgument(9, ArrayType.FLOAT, groupSize);
+			program.setLocalArgument(10, ArrayType.INT, groupSize);
+			program.setLocalArgument(11, ArrayType.INT, groupSize);
+			program.setLocalWorkGroupSizes(groupSize);
+			program.setGlobalWorkGroupSizes((long)batchCount * groupSize);
+			program.enqueueKernel(null, null);
+		}
+		CL.clFinish(GPUProgram.commandQueue);
+		
+		if (batchQueries != queries) {
+			batchQueries.dispose();
+		}
+		dots.dispose();
+		queryNorms.dispose();
+	}
+	
+	// Compute the squared length of each database vector (only used by COSINE and L2)
+	private void computeNorms() {
+		if (metric != Metric.DOT) {
+			databaseNorms = createTemp(size);
+			runNorms(database, size, dimensions, databaseNorms);
+			CL.clFinish(GPUProgram.commandQueue);
+		}
+	}
+	
+	// Run squaredNormsKernel
+	private static synchronized void runNorms(GPUMem vectors, int count, int dimensions, GPUMem norms) {
+		if (normsProgram == null) {
+			normsProgram = GPUProgram.fromLibrary("squaredNormsKernel", "GPUNearestNeighbors.cl", "-D K=1");
+		}
+		
+		normsProgram.setArgumentMem(0, vectors.mem);
+		normsProgram.setArgument(1, count, GPUAccess.READ);
+		normsProgram.setArgument(2, dimensions, GPUAccess.READ);
+		normsProgram.setArgumentMem(3, norms.mem);
+		normsProgram.setGlobalWorkGroupSizes(count);
+		normsProgram.enqueueKernel(null, null);
+	}
+	
+	// Return the number of vectors in 'length' floats
+	private static int getVectors(long length, int dimensions) {
+		
+		if (dimensions <= 0) {
+			error("Vectors must have at least one dimension. (Got " + dimensions + ")");
+		}
+		
+		if (length % dimensions != 0 || length == 0) {
+			error("The number of floats (" + length + ") must be a positive multiple of the dimensions (" + dimensions + ")");
+		}
+		
+		if (length / dimensions > Integer.MAX_VALUE) {
+			error("Too many vectors. (" + (length / dimensions) + ")");
+		}
+		return (int)(length / dimensions);
+	}
+	
+	// Allocate a FLOAT GPUMem on the GPU that isn't copied to or from an array
+	private static GPUMem createTemp(long n) {
+		cl_mem mem = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, n * ArrayType.FLOAT.getSize(), null, null);
+		GPUProgram.allocCounter++;
+		return new GPUMem(mem, null, ArrayType.FLOAT, new GPURange(0, n), GPUAccess.READ_WRITE);
+	}
+	
+	// Return the select kernel for k neighbors, compiled for the next power of two (so a few kernels cover every k)
+	private static GPUProgram getSelectProgram(int k) {
+		
+		if (selectPrograms == null) {
+			selectPrograms = new GPUProgram[Integer.numberOfTrailingZeros(MAX_K) + 1];
+		}
+		
+		final int maxK = Math.max(MIN_K, Integer.highestOneBit(k - 1) << 1);
+		final int i = Integer.numberOfTrailingZeros(maxK);
+		if (selectPrograms[i] == null) {
+			selectPrograms[i] = GPUProgram.fromLibrary("selectKernel", "GPUNearestNeighbors.cl", "-D K=" + maxK);
+		}
+		return selectPrograms[i];
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
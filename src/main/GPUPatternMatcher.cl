@@ -0,0 +1,41 @@
+// Multi-pattern byte search (Aho-Corasick) for GPUPatternMatcher.java
+// table[state * 256 + byte] is the next state, or ~(the next state) if a pattern ends there, so most bytes only read the table.
+// outputs[state] is (the first pattern that ends at the state, or -1; the next state down the failure links where a pattern ends, or -1).
+// patterns[pattern] is (the next pattern with the same bytes, or -1; the length of the pattern).
+
+// Each work item reports the matches that end in its segment of the data (after the first 'skip' bytes, which were
+// already scanned). It starts 'overlap' bytes early (the length of the longest pattern - 1), so the automaton is in
+// the right state when the segment starts, and matches that start in the segment before are found.
+kernel void scanKernel(global const uchar *data, const long dataSize, const long skip, const long offset,
+		const int segmentSize, const int overlap, global const int *table, global const int2 *outputs,
+		global const int2 *patterns, global long *hitOffsets, global int *hitPatterns, const int maxHits,
+		global int *hitCount) {
+	
+	const long start = skip + (long)get_global_id(0) * segmentSize;
+	if (start >= dataSize) {
+		return;
+	}
+	const long end = min(start + segmentSize, dataSize);
+	
+	int state = 0;
+	for (long p = max(start - overlap, 0L); p < end; p++) {
+		const int next = table[state * 256 + data[p]];
+		state = (next < 0) ? ~next : next;
+		if (next < 0 && p >= start) {
+			
+			// Report every pattern that ends here
+			int s = (outputs[state].x >= 0) ? state : outputs[state].y;
+			while (s >= 0) {
+				const int2 output = outputs[s];
+				for (int pattern = output.x; pattern >= 0; pattern = patterns[pattern].x) {
+					const int hit = atomic_inc(hitCount);
+					if (hit >= 0 && hit < maxHits) {
+						hitOffsets[hit] = offset + p + 1 - patterns[pattern].y;
+						hitPatterns[hit] = pattern;
+					}
+				}
+				s = output.y;
+			}
+		}
+	}
+}
\ No newline at end of file
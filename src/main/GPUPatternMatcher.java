@@ -0,0 +1,406 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUPatternMatcher finds every occurrence of many byte patterns (such as thousands of signatures) in large buffers
+ * of bytes on the GPU, with the Aho-Corasick algorithm. It goes with GPUProgram.
+ *
+ * The patterns are compiled once, on the CPU, into an automaton with a full table of the next state for each byte,
+ * which is copied to the GPU. Each work item then scans a segment of the data, starting a little early (the length of
+ * the longest pattern - 1) so that matches starting in the segment before are found too. Each match is written as an
+ * offset (where the match starts) and a pattern id (the index of the pattern), compacted on the GPU with an atomic
+ * counter, so only the matches are copied back. Overlapping matches and matches of different patterns at the same
+ * place are all found.
+ *
+ * Data too large for the GPU, such as a mapped file, can be scanned in chunks without missing matches that cross from
+ * one chunk into the next: scanNext() keeps the end of each chunk for the next one, and the GPUMem version of scan()
+ * takes data that starts with the end of the previous chunk (see getOverlap()).
+ *
+ * The table has 256 ints for each state, and there is up to one state for each byte of the patterns (fewer when they
+ * share prefixes), so 10,000 patterns of 20 bytes take up to 200MB on the GPU.
+ */
+
+public class GPUPatternMatcher {
+	
+	private static final int MAX_STATES = Integer.MAX_VALUE / 256;	// Most states the table can hold
+	private static final int INITIAL_STATES = 1024;					// States the table has room for before it grows
+	private static final int SEGMENT_SIZE = 1024;					// Fewest bytes each work item scans
+	
+	private static GPUProgram program = null;	// Compiled scanKernel kernel
+	
+	private final int patterns;			// Number of patterns
+	private final int states;			// Number of states in the automaton
+	private final int maxLength;		// Length of the longest pattern
+	private GPUMem table;				// Next state for each state and byte (INT, 256 for each state)
+	private GPUMem outputs;				// First pattern and next state with a pattern, for each state (INT, 2 for each state)
+	private GPUMem patternInfo;			// Next pattern with the same bytes and length, for each pattern (INT, 2 for each pattern)
+	private byte[] streamTail;			// End of the data given to scanNext(), for matches that cross into the next chunk
+	private long streamOffset;			// Bytes given to scanNext() since the stream started
+	
+	/**
+	 * Construct a new matcher for patterns, and copy its automaton to the GPU.
+	 * @param patterns The bytes of each pattern. A match of patterns[i] is reported with pattern id i.
+	 * Patterns may not be empty, and may repeat (each copy is reported).
+	 */
+	public GPUPatternMatcher(byte[][] patterns) {
+		GPUProgram.initializeGPU();
+		
+		if (patterns == null) {
+			error("Argument is null");
+		}
+		
+		if (patterns.length == 0) {
+			error("Need at least one pattern.");
+		}
+		
+		int maxLength = 0;
+		for (int i = 0; i < patterns.length; i++) {
+			if (patterns[i] == null || patterns[i].length == 0) {
+				error("Pattern " + i + " is null or empty.");
+			}
+			maxLength = Math.max(maxLength, patterns[i].length);
+		}
+		
+		// Build the trie of the patterns, where 0 (the start state) means there is no transition yet
+		int states = 1;
+		int[] table = new int[INITIAL_STATES * 256];
+		int[] firstPattern = new int[INITIAL_STATES];
+		firstPattern[0] = -1;
+		int[] patternInfo = new int[2 * patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			int state = 0;
+			for (int j = 0; j < patterns[i].length; j++) {
+				final int b = patterns[i][j] & 0xFF;
+				if (table[state * 256 + b] == 0) {
+					if (states == MAX_STATES) {
+						error("Too many states. (More than " + MAX_STATES + ")");
+					}
+					if (states == firstPattern.length) {
+						final int capacity = Math.min(2 * states, MAX_STATES);
+						table = grow(table, capacity * 256);
+						firstPattern = grow(firstPattern, capacity);
+					}
+					firstPattern[states] = -1;
+					table[state * 256 + b] = states++;
+				}
+				state = table[state * 256 + b];
+			}
+			
+			// Patterns with the same bytes end at the same state
+			patternInfo[2 * i] = firstPattern[state];
+			patternInfo[2 * i + 1] = patterns[i].length;
+			firstPattern[state] = i;
+		}
+		
+		if ((long)states * 256 * ArrayType.INT.getSize() > GPUProgram.getMaxMemAllocSize()) {
+			error("The table of " + states + " states needs " + ((long)states * 256 * ArrayType.INT.getSize())
+					+ " bytes, but the GPU can only allocate " + GPUProgram.getMaxMemAllocSize());
+		}
+		
+		// Visit the states breadth-first, so each failure link points to a state that was already finished
+		final int[] failure = new int[states];
+		final int[] outputs = new int[2 * states];
+		final int[] queue = new int[states];
+		int head = 0;
+		int tail = 1;
+		outputs[0] = -1;
+		outputs[1] = -1;
+		while (head < tail) {
+			final int state = queue[head++];
+			for (int b = 0; b < 256; b++) {
+				final int child = table[state * 256 + b];
+				final int fallback = (state == 0) ? 0 : table[failure[state] * 256 + b];
+				if (child != 0) {
+					failure[child] = fallback;
+					outputs[2 * child] = firstPattern[child];
+					outputs[2 * child + 1] = (firstPattern[fallback] >= 0) ? fallback : outputs[2 * fallback + 1];
+					queue[tail++] = child;
+				} else {
+					table[state * 256 + b] = fallback;
+				}
+			}
+		}
+		
+		// Mark the transitions to states where a pattern ends
+		for (int i = 0; i < states * 256; i++) {
+			final int next = table[i];
+			if (outputs[2 * next] >= 0 || outputs[2 * next + 1] >= 0) {
+				table[i] = ~next;
+			}
+		}
+		
+		this.patterns = patterns.length;
+		this.states = states;
+		this.maxLength = maxLength;
+		this.table = upload(table, states * 256);
+		this.outputs = upload(outputs, outputs.length);
+		this.patternInfo = upload(patternInfo, patternInfo.length);
+		this.streamTail = new byte[0];
+		this.streamOffset = 0;
+	}
+	
+	/** Return the number of patterns.
+	 * @return patterns
+	 */
+	public int getPatterns() {
+		return patterns;
+	}
+	
+	/** Return the number of states in the automaton (up to one more than the number of bytes in the patterns).
+	 * @return states
+	 */
+	public int getStates() {
+		return states;
+	}
+	
+	/** Return the length of the longest pattern.
+	 * @return bytes
+	 */
+	public int getMaxPatternLength() {
+		return maxLength;
+	}
+	
+	/** Return how many bytes of the previous chunk must come before the next chunk so that no match is missed
+	 * (the length of the longest pattern - 1).
+	 * @return bytes
+	 */
+	public int getOverlap() {
+		return maxLength - 1;
+	}
+	
+	/** Find the matches in data on the GPU, in no particular order (GPUSort.sort(hitOffsets, hitPatterns) puts them
+	 * in order). Only the number of matches is copied to the CPU.
+	 * To scan chunks of a larger buffer, start each chunk with the last getOverlap() bytes of the chunk before,
+	 * and pass their number as 'skip'. Those bytes are only used to find the matches that end after them.
+	 * @param data BYTE GPUMem to search. Its arrayRange.size is the number of bytes.
+	 * @param skip The number of bytes at the start of 'data' that were already scanned.
+	 * @param offset The offset of the first byte of 'data', added to the offset of each match.
+	 * @param hitOffsets LONG GPUMem to write where each match starts to.
+	 * @param hitPatterns INT GPUMem to write the pattern id of each match to.
+	 * @return The number of matches. If there are more than fit in hitOffsets and hitPatterns, only some of them are
+	 * written (so scan again with more room).
+	 */
+	public int scan(GPUMem data, long skip, long offset, GPUMem hitOffsets, GPUMem hitPatterns) {
+		
+		if (data == null || hitOffsets == null || hitPatterns == null) {
+			error("Argument is null");
+		}
+		
+		if (data.mem == null || data.arrayRange == null || hitOffsets.mem == null || hitPatterns.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (data.type != ArrayType.BYTE || data.isImage()) {
+			error("Data must be a BYTE GPUMem, not " + data.type);
+		}
+		
+		if (hitOffsets.type != ArrayType.LONG || hitPatterns.type != ArrayType.INT) {
+			error("Hit offsets must be a LONG GPUMem, and hit patterns must be an INT GPUMem.");
+		}
+		
+		if (skip < 0 || skip > data.arrayRange.size) {
+			error("Can skip 0 to " + data.arrayRange.size + " bytes. (Got " + skip + ")");
+		}
+		
+		final long maxHits = Math.min(hitOffsets.maxAllocatedSize, hitPatterns.maxAllocatedSize);
+		return scan(this, data.mem, data.arrayRange.size, skip, offset, hitOffsets.mem, hitPatterns.mem, maxHits);
+	}
+	
+	/** Find the matches in data, sorted by offset, and copy them to the CPU.
+	 * @param data The bytes to search.
+	 * @param hitOffsets The array to write where each match starts to.
+	 * @param hitPatterns The array to write the pattern id of each match to.
+	 * @return The number of matches. If there are more than fit in hitOffsets and hitPatterns, only some of them are
+	 * written (so scan again with bigger arrays).
+	 */
+	public int scan(byte[] data, long[] hitOffsets, int[] hitPatterns) {
+		
+		if (data == null) {
+			error("Argument is null");
+		}
+		
+		return scanArrays(this, new byte[0], data, 0, hitOffsets, hitPatterns);
+	}
+	
+	/** Find the matches in the next chunk of a stream of bytes, sorted by offset, and copy them to the CPU.
+	 * Matches that start in earlier chunks and end in this one are found too. Offsets are from the start of the
+	 * stream, which is the first chunk given after this matcher was made or resetStream() was called.
+	 * @param chunk The next bytes of the stream.
+	 * @param hitOffsets The array to write where each match starts to.
+	 * @param hitPatterns The array to write the pattern id of each match to.
+	 * @return The number of matches that end in this chunk. If there are more than fit in hitOffsets and hitPatterns,
+	 * only some of them are written.
+	 */
+	public int scanNext(byte[] chunk, long[] hitOffsets, int[] hitPatterns) {
+		
+		if (chunk == null) {
+			error("Argument is null");
+		}
+		
+		final byte[] tail = streamTail;
+		final int hits = scanArrays(this, tail, chunk, streamOffset - tail.length, hitOffsets, hitPatterns);
+		
+		// Keep the last bytes of the stream for the next chunk
+		final int keep = (int)Math.min(getOverlap(), (long)tail.length + chunk.length);
+		final int fromTail = Math.max(0, keep - chunk.length);
+		streamTail = new byte[keep];
+		System.arraycopy(tail, tail.length - fromTail, streamTail, 0, fromTail);
+		System.arraycopy(chunk, chunk.length - (keep - fromTail), streamTail, fromTail, keep - fromTail);
+		streamOffset += chunk.length;
+		return hits;
+	}
+	
+	/** Start a new stream, so the next chunk given to scanNext() is at offset 0.
+	 */
+	public void resetStream() {
+		streamTail = new byte[0];
+		streamOffset = 0;
+	}
+	
+	/** Release the memory on the GPU, and make sure this matcher cannot be used again.
+	 */
+	public void dispose() {
+		if (table != null) {
+			table.dispose();
+			outputs.dispose();
+			patternInfo.dispose();
+		}
+		table = null;
+		outputs = null;
+		patternInfo = null;
+	}
+	
+	/** Release the kernel used for pattern matching.
+	 * It is compiled again the next time it is used.
+	 */
+	public static synchronized void disposeAll() {
+		if (program != null) {
+			program.dispose();
+			program = null;
+		}
+	}
+	
+	// Copy the tail of the previous chunk and the data to the GPU, scan it, and copy the matches back sorted by offset
+	private static int scanArrays(GPUPatternMatcher matcher, byte[] tail, byte[] data, long offset,
+			long[] hitOffsets, int[] hitPatterns) {
+		
+		if (hitOffsets == null || hitPatterns == null) {
+			error("Argument is null");
+		}
+		
+		final long dataSize = (long)tail.length + data.length;
+		if (data.length == 0) {
+			// Nothing new to scan, and GPUMems can't be empty
+			return 0;
+		}
+		
+		cl_mem dataMem = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY, dataSize, null, null);
+		GPUProgram.allocCounter++;
+		if (tail.length > 0) {
+			CL.clEnqueueWriteBuffer(GPUProgram.commandQueue, dataMem, CL.CL_TRUE, 0, tail.length, Pointer.to(tail),
+					0, null, null);
+			GPUProgram.copyToGPUCounter++;
+		}
+		CL.clEnqueueWriteBuffer(GPUProgram.commandQueue, dataMem, CL.CL_TRUE, tail.length, data.length, Pointer.to(data),
+				0, null, null);
+		GPUProgram.copyToGPUCounter++;
+		
+		// (GPUMems can't be empty, so there is always room for at least one match on the GPU)
+		final int maxHits = Math.min(hitOffsets.length, hitPatterns.length);
+		GPUMem offsetsMem = GPUProgram.allocateMemoryOnGPU((maxHits > 0) ? hitOffsets : new long[1], GPUAccess.READ_WRITE, false);
+		GPUMem patternsMem = GPUProgram.allocateMemoryOnGPU((maxHits > 0) ? hitPatterns : new int[1], GPUAccess.READ_WRITE, false);
+		final int hits = scan(matcher, dataMem, dataSize, tail.length, offset, offsetsMem.mem, patternsMem.mem, maxHits);
+		
+		final int written = Math.min(hits, maxHits);
+		if (written > 0) {
+			offsetsMem.setRange(new GPURange(0, written));
+			patternsMem.setRange(new GPURange(0, written));
+			GPUSort.sort(offsetsMem, patternsMem);
+			GPUProgram.copyArrayToCPU(offsetsMem);
+			GPUProgram.copyArrayToCPU(patternsMem);
+		}
+		
+		CL.clReleaseMemObject(dataMem);
+		offsetsMem.dispose();
+		patternsMem.dispose();
+		return hits;
+	}
+	
+	// Run scanKernel over the data after 'skip', with a segment of the data for each work item, and return the number of matches
+	private static synchronized int scan(GPUPatternMatcher matcher, cl_mem data, long dataSize, long skip, long offset,
+			cl_mem hitOffsets, cl_mem hitPatterns, long maxHits) {
+		
+		if (matcher.table == null) {
+			error("Attempted to use a disposed GPUPatternMatcher.");
+		}
+		
+		if (skip == dataSize) {
+			return 0;
+		}
+		
+		// Make each segment long enough that starting early doesn't rescan too much of the data
+		final int segmentSize = Math.max(SEGMENT_SIZE, 8 * matcher.getOverlap());
+		final long segments = (dataSize - skip + segmentSize - 1) / segmentSize;
+		
+		cl_mem hitCount = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, ArrayType.INT.getSize(), null, null);
+		GPUProgram.allocCounter++;
+		CL.clEnqueueFillBuffer(GPUProgram.commandQueue, hitCount, Pointer.to(new int[] {0}), ArrayType.INT.getSize(), 0,
+				ArrayType.INT.getSize(), 0, null, null);
+		
+		if (program == null) {
+			program = GPUProgram.fromLibrary("scanKernel", "GPUPatternMatcher.cl", "");
+		}
+		
+		program.setArgumentMem(0, data);
+		program.setArgument(1, dataSize, GPUAccess.READ);
+		program.setArgument(2, skip, GPUAccess.READ);
+		program.setArgument(3, offset, GPUAccess.READ);
+		program.setArgument(4, segmentSize, GPUAccess.READ);
+		program.setArgument(5, matcher.getOverlap(), GPUAccess.READ);
+		program.setArgumentMem(6, matcher.table.mem);
+		program.setArgumentMem(7, matcher.outputs.mem);
+		program.setArgumentMem(8, matcher.patternInfo.mem);
+		program.setArgumentMem(9, hitOffsets);
+		program.setArgumentMem(10, hitPatterns);
+		program.setArgument(11, (int)Math.min(maxHits, Integer.MAX_VALUE), GPUAccess.READ);
+		program.setArgumentMem(12, hitCount);
+		program.setGlobalWorkGroupSizes(segments);
+		program.enqueueKernel(null, null);
+		
+		final int[] hostHitCount = new int[1];
+		CL.clEnqueueReadBuffer(GPUProgram.commandQueue, hitCount, CL.CL_TRUE, 0, ArrayType.INT.getSize(),
+				Pointer.to(hostHitCount), 0, null, null);
+		GPUProgram.copyToCPUCounter++;
+		CL.clReleaseMemObject(hitCount);
+		
+		if (hostHitCount[0] < 0) {
+			error("Too many matches to count. (More than " + Integer.MAX_VALUE + ")");
+		}
+		return hostHitCount[0];
+	}
+	
+	// Copy the first 'length' ints of an array to a new INT GPUMem, without keeping the array
+	private static GPUMem upload(int[] array, int length) {
+		cl_mem mem = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR,
+				(long)length * ArrayType.INT.getSize(), Pointer.to(array), null);
+		GPUProgram.allocCounter++;
+		GPUProgram.copyToGPUCounter++;
+		return new GPUMem(mem, null, ArrayType.INT, new GPURange(0, length), GPUAccess.READ);
+	}
+	
+	// Return a copy of an array with room for 'length' elements
+	private static int[] grow(int[] array, int length) {
+		final int[] grown = new int[length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
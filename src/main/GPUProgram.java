@@ -5,6 +5,8 @@ import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 
 import org.jocl.CL;
@@ -14,6 +16,9 @@ import org.jocl.cl_command_queue;
 import org.jocl.cl_context;
 import org.jocl.cl_context_properties;
 import org.jocl.cl_device_id;
+import org.jocl.cl_event;
+import org.jocl.cl_image_desc;
+import org.jocl.cl_image_format;
 import org.jocl.cl_kernel;
 import org.jocl.cl_mem;
 import org.jocl.cl_platform_id;
@@ -23,43 +28,19 @@ import org.jocl.cl_program;
  * @author Daniel Williams
  * 
  * Created on February 27, 2019
- * Last update on July 27, 2025
+ * Last update on October 19, 2026
  *
  * This class provides access to OpenCL based general purpose parallel computing using the GPU.
  * 
  * This uses the JOCL (not JogAmp) implementation of Java OpenCL bindings.
  */
 
-enum ArrayType {
-	BYTE, INT, FLOAT, LONG, DOUBLE, BUFFERED_IMAGE_INT, BUFFERED_IMAGE_BYTE;
-	
-	public int getSize() {
-		if (this == BYTE) {
-			return Sizeof.cl_uchar;
-		} else if (this == INT) {
-			return Sizeof.cl_int;
-		} else if (this == FLOAT) {
-			return Sizeof.cl_float;
-		} else if (this == LONG) {
-			return Sizeof.cl_long;
-		} else if (this == DOUBLE) {
-			return Sizeof.cl_double;
-		} else if (this == BUFFERED_IMAGE_INT) {
-			return Sizeof.cl_int;
-		} else if (this == BUFFERED_IMAGE_BYTE) {
-			return Sizeof.cl_uchar;
-		}
-		new Exception("\nUnknown ArrayType: " + this).printStackTrace();
-		System.exit(1);
-		return 0;
-	}
-}
-
 public class GPUProgram {
 	
-	private static cl_command_queue commandQueue;
-	private static cl_context context;
-	private static cl_device_id device;
+	static cl_command_queue commandQueue;
+	static cl_context context;
+	static cl_device_id device;
+	private static cl_command_queue transferQueue;	// Second queue for overlapping copies with kernels
 	private cl_program program;
 	private cl_kernel kernel;
 	
@@ -78,10 +59,17 @@ public class GPUProgram {
 	// Local work size for each dimension
 	private long[] localWorkSize = null;
 	
+	// Offset of the global work IDs for each dimension
+	private long[] globalWorkOffset = null;
+	
 	private int maxArrayArgIndex = 0;
 	private int[] arrayArgumentNum; 
 	private GPUMem[] arrayGPUPointers;
 	
+	// Local memory arguments sized by the local work group (0 if not used)
+	private long[] localArgumentElementsPerItem;
+	private ArrayType[] localArgumentTypes;
+	
 	/** Step 1: Call this first to initialize the GPU.
 	 * Calling this multiple times is okay.
 	 */
@@ -162,31 +150,86 @@ public class GPUProgram {
 	public GPUProgram(String kernelName, String filePath, String includePath) {
 		initializeGPU();
 		
+		String sourceCode = null;
 		try {
 			// Load the lines of code for the OpenCL kernel
-			final BufferedReader br = new BufferedReader(
-					new InputStreamReader(new FileInputStream(filePath)));
-			String sourceCode = "";
-			String line = null;
-			while (true) {
-				line = br.readLine();
-				if (line == null) {
-					break;
-				}
-				sourceCode += line + "\n";
+			sourceCode = readSource(new FileInputStream(filePath));
+		} catch (Exception e) {
+			System.err.println("Reading: " + filePath);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		
+		String opts = "-Werror -cl-mad-enable -cl-fast-relaxed-math -cl-unsafe-math-optimizations";
+		
+		// Include any other files if needed
+		if (includePath != null && !includePath.trim().isEmpty()) {
+			opts += " -I " + includePath;
+		}
+		
+		build(kernelName, sourceCode, opts, filePath);
+	}
+	
+	/** Step 2c: (Alternative) Create the kernel from OpenCL source code held in a String, such as generated code.
+	 * @param kernelName Name of the function to execute in the shader program source.
+	 * @param sourceCode The OpenCL source code to compile.
+	 * @param options (Optional) Compiler options, such as "-D TYPE=float". Unlike the constructors,
+	 * this does not add "-cl-fast-relaxed-math" or the other default options.
+	 * @return The new GPUProgram.
+	 */
+	public static GPUProgram fromSource(String kernelName, String sourceCode, String options) {
+		initializeGPU();
+		
+		GPUProgram gpuProgram = new GPUProgram();
+		gpuProgram.build(kernelName, sourceCode, options == null ? "" : options, "<source>");
+		return gpuProgram;
+	}
+	
+	// Create a kernel from one of the OpenCL files bundled with the library (next to this class).
+	static GPUProgram fromLibrary(String kernelName, String resourceName, String options) {
+		initializeGPU();
+		
+		String sourceCode = null;
+		try {
+			sourceCode = readSource(GPUProgram.class.getResourceAsStream(resourceName));
+		} catch (Exception e) {
+			System.err.println("Reading: " + resourceName);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		
+		GPUProgram gpuProgram = new GPUProgram();
+		gpuProgram.build(kernelName, sourceCode, "-Werror " + options, resourceName);
+		return gpuProgram;
+	}
+	
+	// Used by fromSource() and fromLibrary(), which call build() themselves
+	private GPUProgram() {
+	}
+	
+	// Read all of the lines of OpenCL source code from a stream
+	private static String readSource(InputStream stream) throws IOException {
+		final BufferedReader br = new BufferedReader(new InputStreamReader(stream));
+		String sourceCode = "";
+		String line = null;
+		while (true) {
+			line = br.readLine();
+			if (line == null) {
+				break;
 			}
-			br.close();
-			
+			sourceCode += line + "\n";
+		}
+		br.close();
+		return sourceCode;
+	}
+	
+	// Compile the source code with the given options, and create the kernel
+	private void build(String kernelName, String sourceCode, String opts, String sourceName) {
+		
+		try {
 			// Create the program
 			program = CL.clCreateProgramWithSource(context, 1, new String[] {sourceCode}, null, null);
 			
-			String opts = "-Werror -cl-mad-enable -cl-fast-relaxed-math -cl-unsafe-math-optimizations";
-			
-			// Include any other files if needed
-			if (includePath != null && !includePath.trim().isEmpty()) {
-				opts += " -I " + includePath;
-			}
-			
 			// Build the program
 			CL.clBuildProgram(program, 0, null, opts, null, null);
 			
@@ -204,7 +247,7 @@ public class GPUProgram {
 			// Create the kernel
 			kernel = CL.clCreateKernel(program, kernelName, null);
 		} catch (Exception e) {
-			System.err.println("Building: " + filePath);
+			System.err.println("Building: " + sourceName);
 			e.printStackTrace();
 			dispose();
 			System.exit(1);
@@ -212,6 +255,8 @@ public class GPUProgram {
 
 		arrayArgumentNum = new int[30]; 
 		arrayGPUPointers = new GPUMem[30];
+		localArgumentElementsPerItem = new long[30];
+		localArgumentTypes = new ArrayType[30];
 		
 		// Set all of the write indices to -1
 		for (int i = 0; i < arrayArgumentNum.length; i++) {
@@ -261,6 +306,18 @@ public class GPUProgram {
 		}
 	}
 	
+	/** Step 3d (optional): Set the offsets of the global work IDs.
+	 * @param offsets (Variadic) get_global_id(i) in OpenCL will start at offsets[i] instead of 0.
+	 * Use get_global_offset(i) in OpenCL to recover the offset. Pass no values to clear the offsets.
+	 */
+	public void setGlobalWorkOffsets(long ... offsets) {
+		if (offsets.length == 0) {
+			globalWorkOffset = null;
+		} else {
+			globalWorkOffset = offsets;
+		}
+	}
+	
 	/** Step 4a: Set the arguments for the given kernel.
 	 * Arguments only need to be set if they have changed!  They will persist in the GPU otherwise.
 	 * @param argNum The index of the parameter into the function in the OpenCL kernel to execute (starting at 0).
@@ -294,6 +351,8 @@ public class GPUProgram {
 			error("Argument is null");
 		}
 		
+		clearLocalArgument(argNum);
+		
 		if (arg instanceof Float)  {
 			CL.clSetKernelArg(kernel, argNum, Sizeof.cl_float, Pointer.to(new float[] { (float)arg }));
 			return null;
@@ -305,6 +364,10 @@ public class GPUProgram {
 		} else if (arg instanceof Long) {
 			CL.clSetKernelArg(kernel, argNum, Sizeof.cl_long, Pointer.to(new long[] { (long)arg }));
 			return null;
+			
+		} else if (arg instanceof Double) {
+			CL.clSetKernelArg(kernel, argNum, Sizeof.cl_double, Pointer.to(new double[] { (double)arg }));
+			return null;
 		
 		} else {
 			
@@ -453,6 +516,77 @@ public class GPUProgram {
 		}
 	}
 	
+	/** Step 4c: Set a BufferedImage argument as an OpenCL image (image2d_t) instead of a flat buffer.
+	 * Kernels read pixels with read_imagef(), optionally through a GPUSampler for hardware filtering,
+	 * and write pixels with write_imagef(). The channels are always seen in (r, g, b, a) order,
+	 * regardless of the BufferedImage type, so the kernel doesn't need to decode the pixel layout.
+	 * Types without alpha (such as TYPE_INT_RGB and TYPE_3BYTE_BGR) are read with an alpha of 1.
+	 * The argument must be declared 'read_only image2d_t' or 'write_only image2d_t' in OpenCL.
+	 * Arguments only need to be set if they have changed!  They will persist in the GPU otherwise.
+	 * @param argNum The index of the parameter into the function in the OpenCL kernel to execute (starting at 0).
+	 * @param image The BufferedImage to copy to the GPU. Supports the same types as setArgument().
+	 * @param accessType GPUAccess.WRITE, GPUAccess.READ, or GPUAccess.READ_WRITE (requires OpenCL 2.0).
+	 * If set to "WRITE" or "READ_WRITE", then this image will be automatically copied back to the CPU after
+	 * calling executeKernel().
+	 * @return GPUMem pointer to the image allocated on the GPU.
+	 */
+	public GPUMem setImageArgument(int argNum, BufferedImage image, GPUAccess accessType) {
+		
+		if (argNum < 0) {
+			error("Kernel argNum must be positive");
+		}
+		
+		if (image == null) {
+			error("Argument is null");
+		}
+		
+		clearLocalArgument(argNum);
+		maxArrayArgIndex = Math.max(maxArrayArgIndex, argNum);
+		
+		// Find the image on the GPU if it already exists
+		GPUMem imageMem = arrayGPUPointers[argNum];
+		if (imageMem != null && imageMem.mem != null) {
+			
+			if (!imageMem.isImage()) {
+				error("Argument is a BufferedImage, but GPUMem points to a " + imageMem.type);
+			}
+			
+			// Protect against changing the access type of memory that already exists
+			if (imageMem.accessType != accessType) {
+				error("Access type changed!");
+			}
+			
+			// If the new image has a different size or layout, then allocate a new one
+			if (imageMem.image.getWidth() != image.getWidth() ||
+				imageMem.image.getHeight() != image.getHeight() ||
+				imageMem.image.getType() != image.getType()) {
+				imageMem.dispose(); // Release the old image before allocating the new one
+				imageMem = null;
+			}
+		} else {
+			imageMem = null;
+		}
+		
+		if (imageMem == null) {
+			imageMem = allocateImageOnGPU(image, accessType);
+		} else {
+			attachImage(imageMem, image);
+		}
+		
+		// Copy this image to the GPU
+		if (accessType == GPUAccess.READ || accessType == GPUAccess.READ_WRITE) {
+			writeImagePixels(imageMem);
+		}
+		
+		CL.clSetKernelArg(kernel, argNum, Sizeof.cl_mem, Pointer.to(imageMem.mem));
+		
+		// Keep track of the image for later if needed
+		arrayArgumentNum[argNum] = argNum;
+		arrayGPUPointers[argNum] = imageMem;
+		
+		return imageMem;
+	}
+	
 	/** Step 4d: Set the arguments for the given kernel with a pointer to memory already on the GPU.
 	 * Arguments only need to be set if they have changed!  They will persist in the GPU otherwise.
 	 * @param argNum The index of the parameter into the function in the OpenCL kernel to execute (starting at 0).
@@ -473,6 +607,7 @@ public class GPUProgram {
 			error("GPUMem must not be null");
 		}
 		
+		clearLocalArgument(argNum);
 		maxArrayArgIndex = Math.max(maxArrayArgIndex, argNum);
 		
 		// Don't do error checking if this GPUMem was deallocated anyway.
@@ -497,6 +632,136 @@ public class GPUProgram {
 		arrayGPUPointers[argNum] = gpuMemPointer;
 	}
 	
+	/** Swap the GPUMems of two arguments, without copying anything. This is how the input and output of an iterative
+	 * kernel (such as a stencil) trade places between launches, since setArgument() won't change the GPUMem of an argument.
+	 * @param argNumA The index of one argument, which must already be set to a GPUMem.
+	 * @param argNumB The index of the other argument, which must already be set to a GPUMem of the same type and size.
+	 */
+	public void swapArguments(int argNumA, int argNumB) {
+	
+		if (argNumA < 0 || argNumB < 0 || argNumA > maxArrayArgIndex || argNumB > maxArrayArgIndex) {
+			error("Kernel argNum must be an argument that was set to a GPUMem");
+		}
+	
+		final GPUMem a = arrayGPUPointers[argNumA];
+		final GPUMem b = arrayGPUPointers[argNumB];
+		if (a == null || b == null || a.mem == null || b.mem == null) {
+			error("Both arguments must be set to GPUMems that haven't been deallocated.");
+		}
+	
+		if (a.type != b.type || a.arrayRange.size != b.arrayRange.size) {
+			error("Can't swap a " + a.type + " GPUMem of " + a.arrayRange.size + " elements with a " + b.type
+					+ " GPUMem of " + b.arrayRange.size + " elements.");
+		}
+	
+		CL.clSetKernelArg(kernel, argNumA, Sizeof.cl_mem, Pointer.to(b.mem));
+		CL.clSetKernelArg(kernel, argNumB, Sizeof.cl_mem, Pointer.to(a.mem));
+		arrayGPUPointers[argNumA] = b;
+		arrayGPUPointers[argNumB] = a;
+	}
+	
+	/** Step 4e: Set a GPUSampler argument (sampler_t in OpenCL) for reading from image arguments.
+	 * @param argNum The index of the parameter into the function in the OpenCL kernel to execute (starting at 0).
+	 * @param sampler The GPUSampler to use.
+	 */
+	public void setArgument(int argNum, GPUSampler sampler) {
+		
+		if (argNum < 0) {
+			error("Kernel argNum must be positive");
+		}
+		
+		if (sampler == null || sampler.sampler == null) {
+			error("GPUSampler must not be null or disposed");
+		}
+		
+		clearLocalArgument(argNum);
+		CL.clSetKernelArg(kernel, argNum, Sizeof.cl_sampler, Pointer.to(sampler.sampler));
+	}
+	
+	/** Step 4f: Set a local memory argument ('local float *scratch' in OpenCL).
+	 * Local memory is shared by the work items of each local work group, and is much faster than global memory.
+	 * Nothing is copied to or from the GPU for this argument.
+	 * @param argNum The index of the parameter into the function in the OpenCL kernel to execute (starting at 0).
+	 * @param type The type of each element.
+	 * @param numElements Number of elements to reserve for each local work group.
+	 */
+	public void setLocalArgument(int argNum, ArrayType type, long numElements) {
+		
+		if (argNum < 0) {
+			error("Kernel argNum must be positive");
+		}
+		
+		if (argNum >= arrayGPUPointers.length) {
+			error("Kernel argNum must be less than " + arrayGPUPointers.length + ". (Got " + argNum + ")");
+		}
+		
+		if (type == null) {
+			error("Argument is null");
+		}
+		
+		if (numElements <= 0) {
+			error("Local memory argument must have a positive size. (Got " + numElements + ")");
+		}
+		
+		if (arrayGPUPointers[argNum] != null) {
+			error("Argument " + argNum + " is already bound to a GPUMem");
+		}
+		
+		clearLocalArgument(argNum);
+		CL.clSetKernelArg(kernel, argNum, numElements * type.getSize(), null);
+		checkLocalMemorySize();
+	}
+	
+	/** Step 4g: Set a local memory argument whose size scales with the local work group size.
+	 * The size is recomputed from setLocalWorkGroupSizes() each time the kernel is executed,
+	 * so 'elementsPerWorkItem' = 1 gives one element for each work item in the group.
+	 * @param argNum The index of the parameter into the function in the OpenCL kernel to execute (starting at 0).
+	 * @param type The type of each element.
+	 * @param elementsPerWorkItem Number of elements to reserve for each work item in a local work group.
+	 */
+	public void setLocalArgumentPerWorkItem(int argNum, ArrayType type, long elementsPerWorkItem) {
+		
+		if (argNum < 0) {
+			error("Kernel argNum must be positive");
+		}
+		
+		if (argNum >= arrayGPUPointers.length) {
+			error("Kernel argNum must be less than " + arrayGPUPointers.length + ". (Got " + argNum + ")");
+		}
+		
+		if (type == null) {
+			error("Argument is null");
+		}
+		
+		if (elementsPerWorkItem <= 0) {
+			error("Local memory argument must have a positive size. (Got " + elementsPerWorkItem + ")");
+		}
+		
+		if (arrayGPUPointers[argNum] != null) {
+			error("Argument " + argNum + " is already bound to a GPUMem");
+		}
+		
+		localArgumentElementsPerItem[argNum] = elementsPerWorkItem;
+		localArgumentTypes[argNum] = type;
+	}
+	
+	// Stop resizing an argument that was set with setLocalArgumentPerWorkItem(), since it's been set to something else
+	private void clearLocalArgument(int argNum) {
+		if (argNum < localArgumentElementsPerItem.length) {
+			localArgumentElementsPerItem[argNum] = 0;
+			localArgumentTypes[argNum] = null;
+		}
+	}
+	
+	// Make sure the local memory used by this kernel fits on the GPU
+	private void checkLocalMemorySize() {
+		final long used = getKernelWorkGroupInfo(CL.CL_KERNEL_LOCAL_MEM_SIZE);
+		final long available = getLocalMemorySize();
+		if (used > available) {
+			error("Kernel uses " + used + " bytes of local memory, but the GPU only has " + available + " bytes.");
+		}
+	}
+	
 	/** Step 5a: Process the data on the GPU and copy the results back.
 	 * If this is used, then you can skip executeKernelNoCopyback() and copyFromGPU().
 	 */
@@ -515,6 +780,16 @@ public class GPUProgram {
 	 */
 	public void executeKernelNoCopyback() {
 		
+		enqueueKernel(null, null);
+		
+		// Wait for the computation to finish
+		CL.clFinish(commandQueue);
+	}
+	
+	// Check the work sizes and enqueue the kernel without waiting for it to finish.
+	// The kernel waits for all events in 'waitList' (may be null), and signals 'event' (may be null).
+	void enqueueKernel(cl_event[] waitList, cl_event event) {
+		
 		if (globalWorkSize == null) {
 			error("Global work size not set. (Use setGlobalWorkGroupSizes)");
 		}
@@ -535,12 +810,51 @@ public class GPUProgram {
 			}
 		}
 		
+		if (globalWorkOffset != null && globalWorkOffset.length != globalWorkSize.length) {
+			error("Dimension of global work offset must equal dimension of global work group!");
+		}
+		
+		// Size the local memory arguments which depend on the local work group size
+		boolean hasLocalArguments = false;
+		for (int i = 0; i < localArgumentElementsPerItem.length; i++) {
+			if (localArgumentElementsPerItem[i] > 0) {
+				if (localWorkSize == null) {
+					error("Local memory argument " + i + " is sized per work item, so local work group sizes must be set.");
+				}
+				
+				long workItems = 1;
+				for (int j = 0; j < localWorkSize.length; j++) {
+					workItems *= localWorkSize[j];
+				}
+				
+				CL.clSetKernelArg(kernel, i, workItems * localArgumentElementsPerItem[i] * localArgumentTypes[i].getSize(), null);
+				hasLocalArguments = true;
+			}
+		}
+		if (hasLocalArguments) {
+			checkLocalMemorySize();
+		}
+		
 		// This does the actual processing
 		CL.clEnqueueNDRangeKernel(commandQueue, kernel, globalWorkSize.length,
-				null, globalWorkSize, localWorkSize, 0, null, null);
+				globalWorkOffset, globalWorkSize, localWorkSize,
+				waitList == null ? 0 : waitList.length, waitList, event);
+	}
+	
+	// Bind memory to a kernel argument without tracking it for copy-back or disposal.
+	// This is for helper classes which own (and later release) the memory themselves.
+	void setArgumentMem(int argNum, cl_mem mem) {
 		
-		// Wait for the computation to finish
-		CL.clFinish(commandQueue);
+		if (argNum < 0) {
+			error("Kernel argNum must be positive");
+		}
+		
+		if (arrayGPUPointers[argNum] != null) {
+			error("Argument " + argNum + " is already bound to a GPUMem managed by this GPUProgram");
+		}
+		
+		clearLocalArgument(argNum);
+		CL.clSetKernelArg(kernel, argNum, Sizeof.cl_mem, Pointer.to(mem));
 	}
 
 	/** Step 5c: Copy the data back from the GPU.
@@ -572,7 +886,9 @@ public class GPUProgram {
 					}
 					
 					// If we haven't already copied this GPUMem to the CPU, then copy it over now.
-					if (!alreadyCopied) {
+					if (!alreadyCopied && arrayGPUPointers[i].isImage()) {
+						readImagePixels(arrayGPUPointers[i]);
+					} else if (!alreadyCopied) {
 						long argTypeSize = arrayGPUPointers[i].type.getSize();
 						CL.clEnqueueReadBuffer(commandQueue, arrayGPUPointers[i].mem, true, 0,
 								argTypeSize * arrayGPUPointers[i].arrayRange.size,
@@ -697,6 +1013,16 @@ public class GPUProgram {
 			numElements = ((int[])arr).length;
 			typeSize = Sizeof.cl_int;
 			arrayPointer = Pointer.to((int[])arr);
+		} else if (arr instanceof long[]) {
+			type = ArrayType.LONG;
+			numElements = ((long[])arr).length;
+			typeSize = Sizeof.cl_long;
+			arrayPointer = Pointer.to((long[])arr);
+		} else if (arr instanceof double[]) {
+			type = ArrayType.DOUBLE;
+			numElements = ((double[])arr).length;
+			typeSize = Sizeof.cl_double;
+			arrayPointer = Pointer.to((double[])arr);
 		} else {
 			error2("Unimplemented array type.");
 		}
@@ -813,6 +1139,18 @@ public class GPUProgram {
 				originalArrayLength = ((int[])arr).length;
 				typeSize = Sizeof.cl_int;
 				dataPointer = Pointer.to((int[])arr);
+			} else if (arr instanceof long[]) {
+				type = ArrayType.LONG;
+				argTypeName = "long[]";
+				originalArrayLength = ((long[])arr).length;
+				typeSize = Sizeof.cl_long;
+				dataPointer = Pointer.to((long[])arr);
+			} else if (arr instanceof double[]) {
+				type = ArrayType.DOUBLE;
+				argTypeName = "double[]";
+				originalArrayLength = ((double[])arr).length;
+				typeSize = Sizeof.cl_double;
+				dataPointer = Pointer.to((double[])arr);
 			} else {
 				error2("Unsupported array type.");
 			}
@@ -830,6 +1168,10 @@ public class GPUProgram {
 				error2("Attempted to access deallocated GPUMem object.");
 			}
 			
+			if (existingMem.isImage()) {
+				error2("Use copyImageToGPU() to copy to an image.");
+			}
+			
 			if (existingMem.type != type) {
 				error2("Argument is a " + argTypeName + ", but GPUMem points to a " + existingMem.type);
 			}
@@ -874,6 +1216,10 @@ public class GPUProgram {
 	 * @param source A GPUMem pointer who's memory on the GPU will be copied back to the associated array on the CPU.
 	 */
 	public static void copyArrayToCPU(GPUMem source) {
+		if (source != null && source.isImage()) {
+			readImagePixels(source);
+			return;
+		}
 		copyArrayToCPU_helper(source, source.pointer, source.arrayRange.size, source.type.getSize());
 	}
 	
@@ -946,6 +1292,14 @@ public class GPUProgram {
 			numElements = ((int[])destArray).length;
 			type = ArrayType.INT;
 			dataPointer = Pointer.to((int[])destArray);
+		} else if (destArray instanceof long[]) {
+			numElements = ((long[])destArray).length;
+			type = ArrayType.LONG;
+			dataPointer = Pointer.to((long[])destArray);
+		} else if (destArray instanceof double[]) {
+			numElements = ((double[])destArray).length;
+			type = ArrayType.DOUBLE;
+			dataPointer = Pointer.to((double[])destArray);
 		} else {
 			error2("Unsupported array type.");
 		}
@@ -961,7 +1315,7 @@ public class GPUProgram {
 		}
 		
 		// Copy data from the GPU to main memory
-		CL.clEnqueueReadBuffer(commandQueue, source.mem, true, 0, 0,
+		CL.clEnqueueReadBuffer(commandQueue, source.mem, true, 0, numElements * source.type.getSize(),
 				dataPointer, 0, null, null);
 		copyToCPUCounter++;
 	}
@@ -1014,6 +1368,10 @@ public class GPUProgram {
 		if (source.type != dest.type) {
 			error2("Cannot copy between " + source.type + " and " + dest.type);
 		}
+		
+		if (source.isImage() || dest.isImage()) {
+			error2("Cannot copy between images with copyGPUMem().");
+		}
 
 		long typeSize = 1;
 		if (source.type == ArrayType.BUFFERED_IMAGE_INT) {
@@ -1039,6 +1397,554 @@ public class GPUProgram {
 		copyCounter++;
 	}
 	
+	// Return a second command queue, so memory copies can run at the same time as kernels.
+	// Work on this queue must be ordered against the main queue with events.
+	@SuppressWarnings("deprecation")
+	static synchronized cl_command_queue getTransferQueue() {
+		initializeGPU();
+		
+		if (transferQueue == null) {
+			try {
+				transferQueue = CL.clCreateCommandQueueWithProperties(context, device, null, null);
+			} catch (Exception e) { // This is for older systems (OpenCL 1.2)
+				transferQueue = CL.clCreateCommandQueue(context, device, 0, null);
+			}
+		}
+		return transferQueue;
+	}
+	
+	/** Copy a rectangular region of the array associated with a GPUMem to the same region on the GPU.
+	 * Useful for updating only the part of an image or grid that changed.
+	 * @param existingMem The GPUMem to update. Its array must have the same layout as the memory on the GPU.
+	 * @param region The region to copy, in elements of the array type. It must end within the GPUMem's arrayRange.
+	 */
+	public static void copyRegionToGPU(GPUMem existingMem, GPURegion region) {
+		
+		if (existingMem == null) {
+			error2("GPUMem is null!");
+		}
+		
+		if (existingMem.arrayRange == null) {
+			error2("Attempted to access deallocated GPUMem object.");
+		}
+		
+		// The array holds at least the elements of the GPUMem's range
+		copyRegionToGPU_helper(existingMem.pointer, existingMem.type, existingMem.arrayRange.end, region, existingMem, region);
+	}
+	
+	/** Copy a rectangular region of an array to a rectangular region of memory on the GPU.
+	 * Only the bytes inside the region are transferred.
+	 * @param arr The array to copy from (float[], byte[], int[], long[], double[], or an INT or BYTE BufferedImage).
+	 * @param sourceRegion The region of 'arr' to copy, in elements of the array type.
+	 * @param dest The GPUMem to copy into.
+	 * @param destRegion The region of 'dest' to copy to. (Must be the same size as the source region.)
+	 */
+	public static void copyRegionToGPU(Object arr, GPURegion sourceRegion, GPUMem dest, GPURegion destRegion) {
+		
+		if (arr == null) {
+			error2("Array to copy from must not be null.");
+		}
+		
+		Pointer dataPointer = getRegionArrayPointer(arr);
+		copyRegionToGPU_helper(dataPointer, getRegionArrayType(arr), getRegionArrayLength(arr), sourceRegion, dest, destRegion);
+	}
+	
+	// Local helper function for the above two
+	private static void copyRegionToGPU_helper(Pointer dataPointer, ArrayType type, long arrayLength,
+			GPURegion sourceRegion, GPUMem dest, GPURegion destRegion) {
+		
+		if (!initialized) {
+			initializeGPU();
+		}
+		
+		checkRegionCopy(type, arrayLength, sourceRegion, dest, destRegion);
+		
+		if (dataPointer == null) {
+			error2("Pointer to CPU memory is null");
+		}
+		
+		final long typeSize = dest.type.getSize();
+		CL.clEnqueueWriteBufferRect(commandQueue, dest.mem, true,
+				getRegionOrigin(destRegion, typeSize), getRegionOrigin(sourceRegion, typeSize), getRegionSize(sourceRegion, typeSize),
+				destRegion.rowPitch * typeSize, destRegion.slicePitch * typeSize,
+				sourceRegion.rowPitch * typeSize, sourceRegion.slicePitch * typeSize,
+				dataPointer, 0, null, null);
+		copyToGPUCounter++;
+	}
+	
+	/** Copy a rectangular region of memory on the GPU back to the same region of its associated array.
+	 * @param source The GPUMem to copy from. Its array must have the same layout as the memory on the GPU.
+	 * @param region The region to copy, in elements of the array type. It must end within the GPUMem's arrayRange.
+	 */
+	public static void copyRegionToCPU(GPUMem source, GPURegion region) {
+		
+		if (source == null) {
+			error2("Source GPUMem is null.");
+		}
+		
+		if (source.arrayRange == null) {
+			error2("Attempted to access deallocated GPUMem object.");
+		}
+		
+		// The array holds at least the elements of the GPUMem's range
+		copyRegionToCPU_helper(source, region, source.pointer, source.type, source.arrayRange.end, region);
+	}
+	
+	/** Copy a rectangular region of memory on the GPU to a rectangular region of an array.
+	 * Only the bytes inside the region are transferred.
+	 * @param source The GPUMem to copy from.
+	 * @param sourceRegion The region of 'source' to copy, in elements of the array type.
+	 * @param destArray The array to copy into (float[], byte[], int[], long[], double[], or an INT or BYTE BufferedImage).
+	 * @param destRegion The region of 'destArray' to copy to. (Must be the same size as the source region.)
+	 */
+	public static void copyRegionToCPU(GPUMem source, GPURegion sourceRegion, Object destArray, GPURegion destRegion) {
+		
+		if (destArray == null) {
+			error2("Array to copy to must not be null.");
+		}
+		
+		copyRegionToCPU_helper(source, sourceRegion, getRegionArrayPointer(destArray),
+				getRegionArrayType(destArray), getRegionArrayLength(destArray), destRegion);
+	}
+	
+	// Local helper function for the above two
+	private static void copyRegionToCPU_helper(GPUMem source, GPURegion sourceRegion, Pointer dataPointer,
+			ArrayType type, long arrayLength, GPURegion destRegion) {
+		
+		if (!initialized) {
+			initializeGPU();
+		}
+		
+		checkRegionCopy(type, arrayLength, destRegion, source, sourceRegion);
+		
+		if (dataPointer == null) {
+			error2("Pointer to CPU memory is null");
+		}
+		
+		final long typeSize = source.type.getSize();
+		CL.clEnqueueReadBufferRect(commandQueue, source.mem, true,
+				getRegionOrigin(sourceRegion, typeSize), getRegionOrigin(destRegion, typeSize), getRegionSize(sourceRegion, typeSize),
+				sourceRegion.rowPitch * typeSize, sourceRegion.slicePitch * typeSize,
+				destRegion.rowPitch * typeSize, destRegion.slicePitch * typeSize,
+				dataPointer, 0, null, null);
+		copyToCPUCounter++;
+	}
+	
+	/** Copy a rectangular region between two buffers on the GPU, such as cropping an image.
+	 * @param source A GPUMem pointer to the memory on the GPU to copy from.
+	 * @param sourceRegion The region of 'source' to copy, in elements of the array type.
+	 * @param dest A GPUMem pointer to the memory on the GPU to be overwritten.
+	 * @param destRegion The region of 'dest' to copy to. (Must be the same size as the source region.)
+	 */
+	public static void copyRegionGPUMem(GPUMem source, GPURegion sourceRegion, GPUMem dest, GPURegion destRegion) {
+		
+		if (!initialized) {
+			initializeGPU();
+		}
+		
+		if (source == null || dest == null) {
+			error2("Source or destination GPUMem is null!");
+		}
+		
+		checkRegionCopy(dest.type, dest.maxAllocatedSize, destRegion, source, sourceRegion);
+		checkRegionCopy(source.type, source.maxAllocatedSize, sourceRegion, dest, destRegion);
+		
+		final long typeSize = source.type.getSize();
+		CL.clEnqueueCopyBufferRect(commandQueue, source.mem, dest.mem,
+				getRegionOrigin(sourceRegion, typeSize), getRegionOrigin(destRegion, typeSize), getRegionSize(sourceRegion, typeSize),
+				sourceRegion.rowPitch * typeSize, sourceRegion.slicePitch * typeSize,
+				destRegion.rowPitch * typeSize, destRegion.slicePitch * typeSize,
+				0, null, null);
+		copyCounter++;
+	}
+	
+	// Check that a region of an array (of the given type and length) can be copied to or from a region of a GPUMem
+	private static void checkRegionCopy(ArrayType arrayType, long arrayLength, GPURegion arrayRegion,
+			GPUMem mem, GPURegion memRegion) {
+		
+		if (mem == null) {
+			error2("GPUMem is null!");
+		}
+		
+		if (arrayRegion == null || memRegion == null) {
+			error2("GPURegion is null!");
+		}
+		
+		if (mem.arrayRange == null || mem.accessType == null) {
+			error2("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (mem.isImage()) {
+			error2("Cannot copy regions of images.");
+		}
+		
+		if (arrayType != mem.type) {
+			error2("Cannot copy between " + arrayType + " and " + mem.type);
+		}
+		
+		if (arrayRegion.width != memRegion.width || arrayRegion.height != memRegion.height ||
+			arrayRegion.depth != memRegion.depth) {
+			error2("GPURegion " + arrayRegion + " doesn't match the size of GPURegion " + memRegion);
+		}
+		
+		if (arrayRegion.getEnd() > arrayLength) {
+			error2("GPURegion " + arrayRegion + " overruns array of length " + arrayLength);
+		}
+		
+		if (memRegion.getEnd() > mem.maxAllocatedSize) {
+			error2("GPURegion " + memRegion + " overruns GPUMem of max-length " + mem.maxAllocatedSize);
+		}
+	}
+	
+	// Return the origin of a region in bytes, rows, and slices, as used by the OpenCL rectangle copies
+	private static long[] getRegionOrigin(GPURegion region, long typeSize) {
+		return new long[] {region.x * typeSize, region.y, region.z};
+	}
+	
+	// Return the size of a region in bytes, rows, and slices, as used by the OpenCL rectangle copies
+	private static long[] getRegionSize(GPURegion region, long typeSize) {
+		return new long[] {region.width * typeSize, region.height, region.depth};
+	}
+	
+	// Return a pointer to an array (or BufferedImage pixels) for region copies
+	private static Pointer getRegionArrayPointer(Object arr) {
+		if (arr instanceof float[]) {
+			return Pointer.to((float[])arr);
+		} else if (arr instanceof byte[]) {
+			return Pointer.to((byte[])arr);
+		} else if (arr instanceof int[]) {
+			return Pointer.to((int[])arr);
+		} else if (arr instanceof long[]) {
+			return Pointer.to((long[])arr);
+		} else if (arr instanceof double[]) {
+			return Pointer.to((double[])arr);
+		} else if (arr instanceof BufferedImage && getRegionArrayType(arr) == ArrayType.BUFFERED_IMAGE_INT) {
+			return Pointer.to(((DataBufferInt)((BufferedImage)arr).getRaster().getDataBuffer()).getData());
+		} else if (arr instanceof BufferedImage) {
+			return Pointer.to(((DataBufferByte)((BufferedImage)arr).getRaster().getDataBuffer()).getData());
+		}
+		error2("Unsupported array type.");
+		return null;
+	}
+	
+	// Return the ArrayType of an array (or BufferedImage) for region copies
+	private static ArrayType getRegionArrayType(Object arr) {
+		if (arr instanceof float[]) {
+			return ArrayType.FLOAT;
+		} else if (arr instanceof byte[]) {
+			return ArrayType.BYTE;
+		} else if (arr instanceof int[]) {
+			return ArrayType.INT;
+		} else if (arr instanceof long[]) {
+			return ArrayType.LONG;
+		} else if (arr instanceof double[]) {
+			return ArrayType.DOUBLE;
+		} else if (arr instanceof BufferedImage) {
+			final int imageType = ((BufferedImage)arr).getType();
+			if (imageType == BufferedImage.TYPE_INT_RGB ||
+				imageType == BufferedImage.TYPE_INT_BGR ||
+				imageType == BufferedImage.TYPE_INT_ARGB_PRE ||
+				imageType == BufferedImage.TYPE_INT_ARGB) {
+				return ArrayType.BUFFERED_IMAGE_INT;
+			} else if (imageType == BufferedImage.TYPE_3BYTE_BGR ||
+					   imageType == BufferedImage.TYPE_4BYTE_ABGR ||
+					   imageType == BufferedImage.TYPE_4BYTE_ABGR_PRE ||
+					   imageType == BufferedImage.TYPE_BYTE_GRAY) {
+				return ArrayType.BUFFERED_IMAGE_BYTE;
+			}
+			error2("BufferedImage must be an INT or BYTE type.");
+		}
+		error2("Unsupported array type.");
+		return null;
+	}
+	
+	// Return the number of elements in an array (or BufferedImage data buffer) for region copies
+	private static long getRegionArrayLength(Object arr) {
+		if (arr instanceof float[]) {
+			return ((float[])arr).length;
+		} else if (arr instanceof byte[]) {
+			return ((byte[])arr).length;
+		} else if (arr instanceof int[]) {
+			return ((int[])arr).length;
+		} else if (arr instanceof long[]) {
+			return ((long[])arr).length;
+		} else if (arr instanceof double[]) {
+			return ((double[])arr).length;
+		} else if (arr instanceof BufferedImage) {
+			return ((BufferedImage)arr).getRaster().getDataBuffer().getSize();
+		}
+		error2("Unsupported array type.");
+		return -1;
+	}
+	
+	/** Reserve a blank image on the GPU for the given BufferedImage, and return a GPUMem pointer to it.
+	 * The image can be bound to kernels with setArgument(int, GPUMem), and copied back to
+	 * the BufferedImage with copyArrayToCPU().
+	 * @param image The BufferedImage associated with this image, whose size and type are used for allocation.
+	 * @param accessType GPUAccess.WRITE, GPUAccess.READ, or GPUAccess.READ_WRITE
+	 * @return GPUMem pointer to the new image allocated on the GPU.
+	 */
+	public static GPUMem allocateImageOnGPU(BufferedImage image, GPUAccess accessType) {
+		
+		if (!initialized) {
+			initializeGPU();
+		}
+		
+		if (image == null) {
+			error2("Argument is null");
+		}
+		
+		if (getDeviceInfoInt(device, CL.CL_DEVICE_IMAGE_SUPPORT) == 0) {
+			error2("This GPU does not support images.");
+		}
+		
+		// Pick the channel order that matches the memory layout of the pixels.
+		// (Java stores INT pixels as 0xAARRGGBB, which is B, G, R, A in little-endian memory.)
+		final int imageType = image.getType();
+		ArrayType type = ArrayType.BUFFERED_IMAGE_INT;
+		int channelOrder = -1;
+		if (imageType == BufferedImage.TYPE_INT_RGB ||
+			imageType == BufferedImage.TYPE_INT_ARGB ||
+			imageType == BufferedImage.TYPE_INT_ARGB_PRE) {
+			channelOrder = CL.CL_BGRA;
+		} else if (imageType == BufferedImage.TYPE_INT_BGR) {
+			channelOrder = CL.CL_RGBA;
+		} else if (imageType == BufferedImage.TYPE_4BYTE_ABGR ||
+				   imageType == BufferedImage.TYPE_4BYTE_ABGR_PRE) {
+			if (isImageFormatSupported(accessType.value, CL.CL_ABGR)) {
+				type = ArrayType.BUFFERED_IMAGE_BYTE;
+				channelOrder = CL.CL_ABGR;
+			}
+		} else if (imageType == BufferedImage.TYPE_3BYTE_BGR) {
+			// There is no 3-byte image format in OpenCL, so this is always converted
+		} else if (imageType == BufferedImage.TYPE_BYTE_GRAY) {
+			// (CL_R would read as (gray, 0, 0, 1), so without CL_LUMINANCE this is converted)
+			if (isImageFormatSupported(accessType.value, CL.CL_LUMINANCE)) {
+				type = ArrayType.BUFFERED_IMAGE_BYTE;
+				channelOrder = CL.CL_LUMINANCE;
+			}
+		} else {
+			error2("BufferedImage must be an INT or BYTE type.");
+		}
+		
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		
+		// Otherwise, convert the pixels to 4-byte BGRA on the CPU.
+		// INT pixels without alpha are staged too, so their alpha can be set to 0xFF.
+		int[] staging = null;
+		if (channelOrder == -1) {
+			channelOrder = CL.CL_BGRA;
+			staging = new int[width * height];
+		} else if (isOpaqueIntImage(image)) {
+			staging = new int[width * height];
+		}
+		
+		cl_image_format format = new cl_image_format();
+		format.image_channel_order = channelOrder;
+		format.image_channel_data_type = CL.CL_UNORM_INT8;
+		
+		cl_mem mem = createImage2D(accessType.value, format, width, height);
+		allocCounter++;
+		
+		GPUMem imageMem = new GPUMem(mem, null, type, new GPURange(0, (long)width * height), accessType);
+		imageMem.imageFormat = format;
+		imageMem.imageStaging = staging;
+		attachImage(imageMem, image);
+		
+		return imageMem;
+	}
+	
+	/** Copy a BufferedImage to a new image on the GPU and return a GPU pointer.
+	 * @param image The BufferedImage to copy to the GPU.
+	 * @param accessType GPUAccess.READ or GPUAccess.READ_WRITE
+	 * @return GPUMem pointer to the image on the GPU.
+	 */
+	public static GPUMem copyImageToGPU(BufferedImage image, GPUAccess accessType) {
+		
+		if (accessType == GPUAccess.WRITE) {
+			error2("Cannot copy write-only memory to GPU!\n" +
+					"(It can only be written to by the GPU.)");
+		}
+		
+		GPUMem imageMem = allocateImageOnGPU(image, accessType);
+		writeImagePixels(imageMem);
+		return imageMem;
+	}
+	
+	/** Copy a BufferedImage over an existing image on the GPU.
+	 * The BufferedImage becomes the one that the image is copied back into.
+	 * @param image The BufferedImage to copy to the GPU. Must match the size and type of the existing image.
+	 * @param existingMem The existing image to overwrite on the GPU.
+	 * @return GPUMem pointer to the image on the GPU.
+	 */
+	public static GPUMem copyImageToGPU(BufferedImage image, GPUMem existingMem) {
+		
+		if (!initialized) {
+			initializeGPU();
+		}
+		
+		if (image == null || existingMem == null) {
+			error2("Argument is null");
+		}
+		
+		if (existingMem.arrayRange == null || existingMem.accessType == null) {
+			error2("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (!existingMem.isImage()) {
+			error2("GPUMem is not an image. Use copyArrayToGPU() instead.");
+		}
+		
+		if (existingMem.image.getWidth() != image.getWidth() ||
+			existingMem.image.getHeight() != image.getHeight() ||
+			existingMem.image.getType() != image.getType()) {
+			error2("BufferedImage doesn't match the size and type of the image on the GPU.");
+		}
+		
+		attachImage(existingMem, image);
+		writeImagePixels(existingMem);
+		return existingMem;
+	}
+	
+	// Return whether a BufferedImage has INT pixels with an undefined alpha byte.
+	private static boolean isOpaqueIntImage(BufferedImage image) {
+		return image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_BGR;
+	}
+	
+	// Associate a BufferedImage with an image GPUMem, so it can be copied in either direction.
+	private static void attachImage(GPUMem imageMem, BufferedImage image) {
+		imageMem.image = image;
+		if (imageMem.imageStaging != null) {
+			imageMem.pointer = Pointer.to(imageMem.imageStaging);
+		} else if (imageMem.type == ArrayType.BUFFERED_IMAGE_INT) {
+			imageMem.pointer = Pointer.to(((DataBufferInt)image.getRaster().getDataBuffer()).getData());
+		} else {
+			imageMem.pointer = Pointer.to(((DataBufferByte)image.getRaster().getDataBuffer()).getData());
+		}
+	}
+	
+	// Copy the pixels of the BufferedImage associated with an image GPUMem to the GPU.
+	private static void writeImagePixels(GPUMem imageMem) {
+		
+		final BufferedImage image = imageMem.image;
+		
+		// Convert the pixels to 4-byte BGRA if the layout isn't supported directly,
+		// or set the undefined alpha of INT pixels without it to 0xFF (the same as converted 3-byte pixels)
+		if (imageMem.imageStaging != null && isOpaqueIntImage(image)) {
+			final int[] data = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+			final int[] staging = imageMem.imageStaging;
+			for (int i = 0; i < staging.length; i++) {
+				staging[i] = 0xFF000000 | data[i];
+			}
+		} else if (imageMem.imageStaging != null) {
+			final byte[] data = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+			final int[] staging = imageMem.imageStaging;
+			if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+				for (int i = 0; i < staging.length; i++) {
+					staging[i] = 0xFF000000 | ((data[i * 3 + 2] & 0xFF) << 16) |
+							((data[i * 3 + 1] & 0xFF) << 8) | (data[i * 3] & 0xFF);
+				}
+			} else if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+				for (int i = 0; i < staging.length; i++) {
+					staging[i] = 0xFF000000 | ((data[i] & 0xFF) * 0x010101);
+				}
+			} else { // TYPE_4BYTE_ABGR and TYPE_4BYTE_ABGR_PRE
+				for (int i = 0; i < staging.length; i++) {
+					staging[i] = ((data[i * 4] & 0xFF) << 24) | ((data[i * 4 + 3] & 0xFF) << 16) |
+							((data[i * 4 + 2] & 0xFF) << 8) | (data[i * 4 + 1] & 0xFF);
+				}
+			}
+		}
+		
+		CL.clEnqueueWriteImage(commandQueue, imageMem.mem, true, new long[] {0, 0, 0},
+				new long[] {image.getWidth(), image.getHeight(), 1}, 0, 0, imageMem.pointer, 0, null, null);
+		copyToGPUCounter++;
+	}
+	
+	// Copy an image on the GPU back to its associated BufferedImage.
+	private static void readImagePixels(GPUMem imageMem) {
+		
+		if (!initialized) {
+			initializeGPU();
+		}
+		
+		if (imageMem.arrayRange == null || imageMem.accessType == null) {
+			error2("Attempted to access deallocated GPUMem object.");
+		}
+		
+		final BufferedImage image = imageMem.image;
+		
+		CL.clEnqueueReadImage(commandQueue, imageMem.mem, true, new long[] {0, 0, 0},
+				new long[] {image.getWidth(), image.getHeight(), 1}, 0, 0, imageMem.pointer, 0, null, null);
+		copyToCPUCounter++;
+		
+		// Convert the pixels back from 4-byte BGRA (INT pixels without alpha are copied as they are)
+		if (imageMem.imageStaging != null && isOpaqueIntImage(image)) {
+			final int[] data = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+			System.arraycopy(imageMem.imageStaging, 0, data, 0, data.length);
+		} else if (imageMem.imageStaging != null) {
+			final byte[] data = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+			final int[] staging = imageMem.imageStaging;
+			if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+				for (int i = 0; i < staging.length; i++) {
+					data[i * 3] = (byte)staging[i];
+					data[i * 3 + 1] = (byte)(staging[i] >> 8);
+					data[i * 3 + 2] = (byte)(staging[i] >> 16);
+				}
+			} else if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+				// Keep red, as a CL_LUMINANCE image keeps the first channel written to it
+				for (int i = 0; i < staging.length; i++) {
+					data[i] = (byte)(staging[i] >> 16);
+				}
+			} else { // TYPE_4BYTE_ABGR and TYPE_4BYTE_ABGR_PRE
+				for (int i = 0; i < staging.length; i++) {
+					data[i * 4] = (byte)(staging[i] >> 24);
+					data[i * 4 + 1] = (byte)staging[i];
+					data[i * 4 + 2] = (byte)(staging[i] >> 8);
+					data[i * 4 + 3] = (byte)(staging[i] >> 16);
+				}
+			}
+		}
+	}
+	
+	// Allocate a 2D image on the GPU
+	@SuppressWarnings("deprecation")
+	private static cl_mem createImage2D(long flags, cl_image_format format, long width, long height) {
+		try {
+			cl_image_desc desc = new cl_image_desc();
+			desc.image_type = CL.CL_MEM_OBJECT_IMAGE2D;
+			desc.image_width = width;
+			desc.image_height = height;
+			return CL.clCreateImage(context, flags, format, desc, null, null);
+		} catch (Exception e) { // This is for older systems (OpenCL 1.1)
+			return CL.clCreateImage2D(context, flags, new cl_image_format[] {format}, width, height, 0, null, null);
+		}
+	}
+	
+	// Return whether the GPU supports 8-bit images with the given channel order
+	private static boolean isImageFormatSupported(long flags, int channelOrder) {
+		int[] numFormats = {0};
+		CL.clGetSupportedImageFormats(context, flags, CL.CL_MEM_OBJECT_IMAGE2D, 0, null, numFormats);
+		if (numFormats[0] == 0) {
+			return false;
+		}
+		
+		cl_image_format[] formats = new cl_image_format[numFormats[0]];
+		for (int i = 0; i < formats.length; i++) {
+			formats[i] = new cl_image_format();
+		}
+		CL.clGetSupportedImageFormats(context, flags, CL.CL_MEM_OBJECT_IMAGE2D, formats.length, formats, null);
+		
+		for (int i = 0; i < formats.length; i++) {
+			if (formats[i].image_channel_order == channelOrder &&
+				formats[i].image_channel_data_type == CL.CL_UNORM_INT8) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/** Return the number of bytes of global memory in this GPU.
 	 * @return bytes
 	 */
@@ -1063,6 +1969,35 @@ public class GPUProgram {
 		return value[0];
 	}
 	
+	/** Returns the alignment required for the start of a view (see GPUMem.createView).
+	 * @return bytes
+	 */
+	public static long getMemBaseAddrAlign() {
+		initializeGPU();
+		return getDeviceInfoInt(device, CL.CL_DEVICE_MEM_BASE_ADDR_ALIGN) / 8; // Reported in bits
+	}
+	
+	/** Return the number of parallel compute units on this GPU.
+	 */
+	public static int getMaxComputeUnits() {
+		initializeGPU();
+		return (int)getDeviceInfoInt(device, CL.CL_DEVICE_MAX_COMPUTE_UNITS);
+	}
+	
+	/** Return whether this GPU supports double-precision arithmetic in kernels (the cl_khr_fp64 extension).
+	 */
+	public static boolean isDoubleSupported() {
+		initializeGPU();
+		return getDeviceInfoString(device, CL.CL_DEVICE_EXTENSIONS).contains("cl_khr_fp64");
+	}
+	
+	/** Return whether this GPU supports atomic functions on longs in global memory (the cl_khr_int64_base_atomics extension).
+	 */
+	public static boolean isLongAtomicsSupported() {
+		initializeGPU();
+		return getDeviceInfoString(device, CL.CL_DEVICE_EXTENSIONS).contains("cl_khr_int64_base_atomics");
+	}
+	
 	/** Return the maximum size of a local work group
 	 */
 	public static int getMaxLocalWorkGroupSize() {
@@ -1070,6 +2005,28 @@ public class GPUProgram {
 		return (int)getDeviceInfoInt(device, CL.CL_DEVICE_MAX_WORK_GROUP_SIZE);
 	}
 	
+	/** Return the number of bytes of local memory available to each local work group.
+	 * @return bytes
+	 */
+	public static long getLocalMemorySize() {
+		initializeGPU();
+		return getDeviceInfoInt(device, CL.CL_DEVICE_LOCAL_MEM_SIZE);
+	}
+	
+	/** Return the maximum local work group size for this kernel, which may be less than getMaxLocalWorkGroupSize().
+	 * @return work items
+	 */
+	public int getKernelMaxLocalWorkGroupSize() {
+		return (int)getKernelWorkGroupInfo(CL.CL_KERNEL_WORK_GROUP_SIZE);
+	}
+	
+	// Get some integer value from the kernel properties on this device
+	private long getKernelWorkGroupInfo(int paramName) {
+		long[] value = {0};
+		CL.clGetKernelWorkGroupInfo(kernel, device, paramName, Sizeof.cl_ulong, Pointer.to(value), null);
+		return value[0];
+	}
+	
 	/** Display metrics for the GPU.
 	 */
 	public static void printDeviceStatistics() {
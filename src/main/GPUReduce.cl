@@ -0,0 +1,77 @@
+// Parallel reductions for GPUReduce.java
+// Compiled with T (the element type), T_MIN and T_MAX (its limits), and one of:
+// OP_SUM, OP_MIN, OP_MAX, OP_ARGMIN, or OP_ARGMAX
+
+#ifdef USE_DOUBLE
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+#if defined(OP_MIN) || defined(OP_ARGMIN)
+#define IDENTITY T_MAX
+#define COMPARE(a, b) ((a) < (b))
+#elif defined(OP_MAX) || defined(OP_ARGMAX)
+#define IDENTITY T_MIN
+#define COMPARE(a, b) ((a) > (b))
+#endif
+
+// Whether value 'a' at index 'ai' should replace value 'b' at index 'bi'.
+// Ties go to the lowest index, so the result doesn't depend on the work group size.
+// ULONG_MAX is the index of "nothing yet", which is always replaced.
+#define BETTER(a, ai, b, bi) ((ai) != ULONG_MAX && ((bi) == ULONG_MAX || COMPARE(a, b) || ((a) == (b) && (ai) < (bi))))
+
+// Reduce 'n' elements of 'input' to one value per work group.
+// Each work item first accumulates a strided part of the input, then the work group combines them in a tree.
+// The local work group size must be a power of two.
+// For the min/max operations, 'inputIndices' holds the index of each input value if 'hasInputIndices'
+// is set (for the final pass over the results of each work group), and the index of the result
+// of each work group is written to 'outputIndices'.
+kernel void reduceKernel(global const T *input, const ulong n,
+		global const ulong *inputIndices, const int hasInputIndices,
+		global T *outputValues, global ulong *outputIndices,
+		local T *scratchValues, local ulong *scratchIndices) {
+	
+	const size_t lid = get_local_id(0);
+
+#ifdef OP_SUM
+	T value = 0;
+	for (ulong i = get_global_id(0); i < n; i += get_global_size(0)) {
+		value += input[i];
+	}
+	scratchValues[lid] = value;
+#else
+	T value = IDENTITY;
+	ulong index = ULONG_MAX;
+	for (ulong i = get_global_id(0); i < n; i += get_global_size(0)) {
+		const T v = input[i];
+		const ulong vi = hasInputIndices ? inputIndices[i] : i;
+		if (BETTER(v, vi, value, index)) {
+			value = v;
+			index = vi;
+		}
+	}
+	scratchValues[lid] = value;
+	scratchIndices[lid] = index;
+#endif
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	for (size_t stride = get_local_size(0) / 2; stride > 0; stride /= 2) {
+		if (lid < stride) {
+#ifdef OP_SUM
+			scratchValues[lid] += scratchValues[lid + stride];
+#else
+			if (BETTER(scratchValues[lid + stride], scratchIndices[lid + stride], scratchValues[lid], scratchIndices[lid])) {
+				scratchValues[lid] = scratchValues[lid + stride];
+				scratchIndices[lid] = scratchIndices[lid + stride];
+			}
+#endif
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+	
+	if (lid == 0) {
+		outputValues[get_group_id(0)] = scratchValues[0];
+#ifndef OP_SUM
+		outputIndices[get_group_id(0)] = scratchIndices[0];
+#endif
+	}
+}
\ No newline at end of file
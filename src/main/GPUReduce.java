@@ -0,0 +1,320 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_mem;
+
+/**
+ * GPUReduce combines all of the elements of an int, float, long, or double GPUMem into one value
+ * (sum, minimum, maximum, or the index of the minimum or maximum) on the GPU.
+ * It goes with GPUProgram.
+ *
+ * Each work group reduces part of the array in local memory, and a second pass combines the
+ * results of the work groups, so only the final value is copied back to the CPU (or it stays on
+ * the GPU, with reduce()). The reduction covers the first arrayRange.size elements on the GPU,
+ * which are the ones that copyArrayToCPU() would copy back.
+ *
+ * Sums of floats and doubles are added in a different order than a loop on the CPU, so they may
+ * differ slightly in the last few bits. Ties for the minimum or maximum go to the lowest index.
+ */
+
+public class GPUReduce {
+	
+	/**
+	 * Enum representing how the elements are combined.
+	 */
+	public enum Operation {
+		SUM,		// Sum of all the elements
+		MIN,		// Smallest element
+		MAX,		// Largest element
+		ARGMIN,		// Index of the smallest element
+		ARGMAX;		// Index of the largest element
+	}
+	
+	private static final int MAX_GROUP_SIZE = 256;	// Work items per work group (rounded down to what the GPU supports)
+	private static final int MAX_GROUPS = 1024;		// Results of the first pass (must fit in one work group for the second pass)
+	
+	private static GPUProgram[][] programs = null;	// Compiled kernels, by [ArrayType][Operation]
+	private static int[][] groupSizes = null;		// Local work group size used by each kernel
+	private static cl_mem partialValues = null;		// Result of each work group in the first pass
+	private static cl_mem partialIndices = null;	// Index of the result of each work group in the first pass
+	private static cl_mem resultValue = null;		// Final value, before it is copied to the CPU
+	private static cl_mem resultIndex = null;		// Final index, before it is copied to the CPU
+	
+	/** Reduce an int GPUMem to one value.
+	 * @param input The memory on the GPU to reduce.
+	 * @param op Operation.SUM, Operation.MIN, or Operation.MAX. (Sums wrap around on overflow.)
+	 * @return The result.
+	 */
+	public static synchronized int reduceInt(GPUMem input, Operation op) {
+		checkScalarReduce(input, ArrayType.INT, op);
+		run(input, op, null, null);
+		
+		int[] result = {0};
+		readResult(resultValue, Pointer.to(result), Sizeof.cl_int);
+		return result[0];
+	}
+	
+	/** Reduce a float GPUMem to one value.
+	 * @param input The memory on the GPU to reduce.
+	 * @param op Operation.SUM, Operation.MIN, or Operation.MAX.
+	 * @return The result.
+	 */
+	public static synchronized float reduceFloat(GPUMem input, Operation op) {
+		checkScalarReduce(input, ArrayType.FLOAT, op);
+		run(input, op, null, null);
+		
+		float[] result = {0};
+		readResult(resultValue, Pointer.to(result), Sizeof.cl_float);
+		return result[0];
+	}
+	
+	/** Reduce a long GPUMem to one value.
+	 * @param input The memory on the GPU to reduce.
+	 * @param op Operation.SUM, Operation.MIN, or Operation.MAX. (Sums wrap around on overflow.)
+	 * @return The result.
+	 */
+	public static synchronized long reduceLong(GPUMem input, Operation op) {
+		checkScalarReduce(input, ArrayType.LONG, op);
+		run(input, op, null, null);
+		
+		long[] result = {0};
+		readResult(resultValue, Pointer.to(result), Sizeof.cl_long);
+		return result[0];
+	}
+	
+	/** Reduce a double GPUMem to one value. The GPU must support doubles (see GPUProgram.isDoubleSupported).
+	 * @param input The memory on the GPU to reduce.
+	 * @param op Operation.SUM, Operation.MIN, or Operation.MAX.
+	 * @return The result.
+	 */
+	public static synchronized double reduceDouble(GPUMem input, Operation op) {
+		checkScalarReduce(input, ArrayType.DOUBLE, op);
+		run(input, op, null, null);
+		
+		double[] result = {0};
+		readResult(resultValue, Pointer.to(result), Sizeof.cl_double);
+		return result[0];
+	}
+	
+	/** Return the index of the smallest element of an int, float, long, or double GPUMem.
+	 * @param input The memory on the GPU to search.
+	 * @return Index of the first occurrence of the smallest element.
+	 */
+	public static synchronized long argMin(GPUMem input) {
+		return argReduce(input, Operation.ARGMIN);
+	}
+	
+	/** Return the index of the largest element of an int, float, long, or double GPUMem.
+	 * @param input The memory on the GPU to search.
+	 * @return Index of the first occurrence of the largest element.
+	 */
+	public static synchronized long argMax(GPUMem input) {
+		return argReduce(input, Operation.ARGMAX);
+	}
+	
+	/** Reduce a GPUMem to one value, and leave the result on the GPU for another kernel to use.
+	 * Nothing is copied to the CPU.
+	 * @param input The memory on the GPU to reduce (int, float, long, or double).
+	 * @param op How to combine the elements.
+	 * @param result The GPUMem to write the result into, at index 0. It must have the same type as 'input',
+	 * or be a long GPUMem for Operation.ARGMIN and Operation.ARGMAX.
+	 */
+	public static synchronized void reduce(GPUMem input, Operation op, GPUMem result) {
+		
+		checkInput(input, op);
+		
+		if (result == null || result.mem == null || result.arrayRange == null) {
+			error("Result GPUMem is null or deallocated.");
+		}
+		
+		final boolean isArg = (op == Operation.ARGMIN || op == Operation.ARGMAX);
+		final ArrayType resultType = isArg ? ArrayType.LONG : input.type;
+		if (result.type != resultType) {
+			error("Result of " + op + " on " + input.type + " must be a " + resultType + " GPUMem, not " + result.type);
+		}
+		
+		if (isArg) {
+			run(input, op, null, result.mem);
+		} else {
+			run(input, op, result.mem, null);
+		}
+	}
+	
+	/** Release the kernels and scratch memory used by reductions.
+	 * They are created again the next time a reduction is run.
+	 */
+	public static synchronized void dispose() {
+		if (programs != null) {
+			for (int i = 0; i < programs.length; i++) {
+				for (int j = 0; j < programs[i].length; j++) {
+					if (programs[i][j] != null) {
+						programs[i][j].dispose();
+					}
+				}
+			}
+			programs = null;
+			groupSizes = null;
+		}
+		
+		if (partialValues != null) {
+			CL.clReleaseMemObject(partialValues);
+			CL.clReleaseMemObject(partialIndices);
+			CL.clReleaseMemObject(resultValue);
+			CL.clReleaseMemObject(resultIndex);
+			partialValues = null;
+			partialIndices = null;
+			resultValue = null;
+			resultIndex = null;
+		}
+	}
+	
+	// Find the index of the min or max, and copy it back
+	private static long argReduce(GPUMem input, Operation op) {
+		checkInput(input, op);
+		run(input, op, null, null);
+		
+		long[] result = {0};
+		readResult(resultIndex, Pointer.to(result), Sizeof.cl_long);
+		return result[0];
+	}
+	
+	// Check the input of the reduceX() functions, which return one value of the given type
+	private static void checkScalarReduce(GPUMem input, ArrayType type, Operation op) {
+		checkInput(input, op);
+		
+		if (input.type != type) {
+			error("Expected a " + type + " GPUMem, but got " + input.type);
+		}
+		
+		if (op == Operation.ARGMIN || op == Operation.ARGMAX) {
+			error(op + " returns an index. Use argMin() or argMax() instead.");
+		}
+	}
+	
+	// Check that a GPUMem can be reduced
+	private static void checkInput(GPUMem input, Operation op) {
+		
+		if (input == null || op == null) {
+			error("Argument is null");
+		}
+		
+		if (input.mem == null || input.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (input.isImage()) {
+			error("Cannot reduce an image.");
+		}
+		
+		if (input.type != ArrayType.INT && input.type != ArrayType.FLOAT &&
+			input.type != ArrayType.LONG && input.type != ArrayType.DOUBLE) {
+			error("Cannot reduce a " + input.type + " GPUMem. (Only INT, FLOAT, LONG, and DOUBLE are supported.)");
+		}
+		
+		if (input.arrayRange.size <= 0) {
+			error("Cannot reduce an empty GPUMem.");
+		}
+	}
+	
+	// Reduce the input in two passes, and write the final value and index to the given memory on the GPU.
+	// (null means resultValue or resultIndex, which only exist once the first kernel is compiled)
+	private static void run(GPUMem input, Operation op, cl_mem valueOut, cl_mem indexOut) {
+		
+		final GPUProgram program = getProgram(input.type, op);
+		if (valueOut == null) {
+			valueOut = resultValue;
+		}
+		if (indexOut == null) {
+			indexOut = resultIndex;
+		}
+		final long groupSize = groupSizes[input.type.ordinal()][op.ordinal()];
+		final long n = input.arrayRange.size;
+		
+		// Enough work groups to fill the GPU, but no more than there are elements for
+		final long maxGroups = Math.min(MAX_GROUPS, 4L * GPUProgram.getMaxComputeUnits());
+		final long numGroups = Math.max(1, Math.min(maxGroups, (n + groupSize - 1) / groupSize));
+		
+		program.setLocalWorkGroupSizes(groupSize);
+		
+		// First pass: each work group reduces part of the input.
+		// (If there is only one work group, then it already produces the final result.)
+		program.setArgumentMem(0, input.mem);
+		program.setArgument(1, n, GPUAccess.READ);
+		program.setArgumentMem(2, partialIndices); // Not read
+		program.setArgument(3, 0, GPUAccess.READ);
+		program.setArgumentMem(4, numGroups == 1 ? valueOut : partialValues);
+		program.setArgumentMem(5, numGroups == 1 ? indexOut : partialIndices);
+		program.setGlobalWorkGroupSizes(numGroups * groupSize);
+		program.enqueueKernel(null, null);
+		
+		// Second pass: one work group reduces the results of the first pass
+		if (numGroups > 1) {
+			program.setArgumentMem(0, partialValues);
+			program.setArgument(1, numGroups, GPUAccess.READ);
+			program.setArgumentMem(2, partialIndices);
+			program.setArgument(3, 1, GPUAccess.READ);
+			program.setArgumentMem(4, valueOut);
+			program.setArgumentMem(5, indexOut);
+			program.setGlobalWorkGroupSizes(groupSize);
+			program.enqueueKernel(null, null);
+		}
+		
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Copy one value back from the GPU
+	private static void readResult(cl_mem mem, Pointer result, long size) {
+		CL.clEnqueueReadBuffer(GPUProgram.commandQueue, mem, true, 0, size, result, 0, null, null);
+		GPUProgram.copyToCPUCounter++;
+	}
+	
+	// Return the kernel for this type and operation, compiling it (and allocating the scratch memory) the first time
+	private static GPUProgram getProgram(ArrayType type, Operation op) {
+		
+		if (programs == null) {
+			programs = new GPUProgram[ArrayType.values().length][Operation.values().length];
+			groupSizes = new int[ArrayType.values().length][Operation.values().length];
+		}
+		
+		if (partialValues == null) {
+			partialValues = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, MAX_GROUPS * Sizeof.cl_long, null, null);
+			partialIndices = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, MAX_GROUPS * Sizeof.cl_long, null, null);
+			resultValue = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, Sizeof.cl_long, null, null);
+			resultIndex = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, Sizeof.cl_long, null, null);
+			GPUProgram.allocCounter += 4;
+		}
+		
+		GPUProgram program = programs[type.ordinal()][op.ordinal()];
+		if (program != null) {
+			return program;
+		}
+		
+		if (type == ArrayType.DOUBLE && !GPUProgram.isDoubleSupported()) {
+			error("This GPU does not support doubles.");
+		}
+		
+		program = GPUProgram.fromLibrary("reduceKernel", "GPUReduce.cl", type.getOpenCLDefines() + " -D OP_" + op);
+		
+		// The tree reduction needs a power of two
+		final int maxGroupSize = Math.min(MAX_GROUP_SIZE, program.getKernelMaxLocalWorkGroupSize());
+		int groupSize = 1;
+		while (groupSize * 2 <= maxGroupSize) {
+			groupSize *= 2;
+		}
+		
+		program.setLocalArgument(6, type, groupSize);
+		program.setLocalArgument(7, ArrayType.LONG, groupSize);
+		
+		programs[type.ordinal()][op.ordinal()] = program;
+		groupSizes[type.ordinal()][op.ordinal()] = groupSize;
+		return program;
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,73 @@
+package main;
+
+// This class specifies a rectangular (2D) or box-shaped (3D) region of a row-major array,
+// such as a window of an image. It is used for copying sub-regions to and from the GPU.
+// It goes with GPUProgram.
+
+public class GPURegion {
+	protected final long x, y, z;					// Origin of the region (element, row, slice)
+	protected final long width, height, depth;		// Size of the region (elements, rows, slices)
+	protected final long rowPitch;					// Elements per row in the whole array
+	protected final long slicePitch;				// Elements per slice in the whole array
+	
+	/**
+	 * Construct a new 2D GPURegion.
+	 * @param x First element of each row in the region.
+	 * @param y First row in the region.
+	 * @param width Number of elements in each row of the region.
+	 * @param height Number of rows in the region.
+	 * @param rowPitch Number of elements in each row of the whole array (e.g. the image width).
+	 */
+	public GPURegion(long x, long y, long width, long height, long rowPitch) {
+		this(x, y, 0, width, height, 1, rowPitch, rowPitch * (y + height));
+	}
+	
+	/**
+	 * Construct a new 3D GPURegion.
+	 * @param x First element of each row in the region.
+	 * @param y First row of each slice in the region.
+	 * @param z First slice in the region.
+	 * @param width Number of elements in each row of the region.
+	 * @param height Number of rows in each slice of the region.
+	 * @param depth Number of slices in the region.
+	 * @param rowPitch Number of elements in each row of the whole array.
+	 * @param slicePitch Number of elements in each slice of the whole array (e.g. rowPitch times the rows of each slice).
+	 * It must be given when z is more than 0 or depth is more than 1, and may be 0 for a single slice at z = 0.
+	 */
+	public GPURegion(long x, long y, long z, long width, long height, long depth, long rowPitch, long slicePitch) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.rowPitch = rowPitch;
+		this.slicePitch = (slicePitch == 0 && z == 0 && depth == 1) ? rowPitch * (y + height) : slicePitch; // Unused for one slice at 0
+		
+		if (width <= 0 || height <= 0 || depth <= 0) {
+			new Exception("GPURegion must have a positive size. (Got " + width + " x " + height + " x " + depth + ")").printStackTrace();
+			System.exit(1);
+		}
+		
+		if ((z > 0 || depth > 1) && slicePitch <= 0) {
+			new Exception("GPURegion starting at slice " + z + " with " + depth + " slices needs the slice pitch of the whole array. (Got "
+					+ slicePitch + ")").printStackTrace();
+			System.exit(1);
+		}
+		
+		if (x < 0 || y < 0 || z < 0 || x + width > rowPitch || this.slicePitch < rowPitch * (y + height)) {
+			new Exception("GPURegion " + this + " does not fit its pitches.").printStackTrace();
+			System.exit(1);
+		}
+	}
+	
+	// Return one past the last element touched by this region.
+	protected long getEnd() {
+		return (z + depth - 1) * slicePitch + (y + height - 1) * rowPitch + x + width;
+	}
+	
+	@Override
+	public String toString() {
+		return "[" + x + ", " + y + ", " + z + "] + [" + width + " x " + height + " x " + depth + "]";
+	}
+}
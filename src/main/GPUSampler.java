@@ -0,0 +1,58 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.cl_sampler;
+
+// GPUSampler describes how a kernel reads from an OpenCL image (see GPUProgram.setImageArgument).
+// It selects pixel or normalized coordinates, what happens off the edge of the image, and whether
+// reads are filtered bilinearly by the texture hardware. This goes with GPUProgram.
+
+public class GPUSampler {
+	
+	/**
+	 * Enum representing what a read from outside the image returns.
+	 */
+	public enum Addressing {
+		NONE(CL.CL_ADDRESS_NONE),						// Undefined (fastest)
+		CLAMP_TO_EDGE(CL.CL_ADDRESS_CLAMP_TO_EDGE),		// The nearest edge pixel
+		CLAMP(CL.CL_ADDRESS_CLAMP),						// Transparent black
+		REPEAT(CL.CL_ADDRESS_REPEAT),					// Wrap around (normalized coordinates only)
+		MIRRORED_REPEAT(CL.CL_ADDRESS_MIRRORED_REPEAT);	// Reflect (normalized coordinates only)
+		
+		protected final int value;
+		
+		Addressing(int addressingMode) {
+			this.value = addressingMode;
+		}
+	}
+	
+	protected cl_sampler sampler;	// Pointer to the sampler on the GPU.
+	
+	/**
+	 * Construct a new GPUSampler.
+	 * @param normalizedCoords If true, coordinates range over [0, 1] instead of [0, width] and [0, height].
+	 * @param addressing What a read from outside the image returns.
+	 * @param linearFiltering If true, reads are bilinearly interpolated between the four nearest pixels.
+	 * Otherwise, the nearest pixel is returned.
+	 */
+	@SuppressWarnings("deprecation")
+	public GPUSampler(boolean normalizedCoords, Addressing addressing, boolean linearFiltering) {
+		GPUProgram.initializeGPU();
+		
+		if (!normalizedCoords && (addressing == Addressing.REPEAT || addressing == Addressing.MIRRORED_REPEAT)) {
+			new Exception("Addressing " + addressing + " requires normalized coordinates.").printStackTrace();
+			System.exit(1);
+		}
+		
+		sampler = CL.clCreateSampler(GPUProgram.context, normalizedCoords, addressing.value,
+				linearFiltering ? CL.CL_FILTER_LINEAR : CL.CL_FILTER_NEAREST, null);
+	}
+	
+	// Release the sampler and make sure this object cannot be used again.
+	public void dispose() {
+		if (sampler != null) {
+			CL.clReleaseSampler(sampler);
+			sampler = null;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+// Prefix sums (scans) and stream compaction for GPUScan.java
+// Compiled with T (the element type) and ITEMS (the number of elements each work item scans).
+
+#ifdef USE_DOUBLE
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+// Scan 'n' elements of 'input' in tiles of (ITEMS * local size) elements, one tile per work group.
+// Each tile is scanned on its own, and the total of each tile is written to 'blockSums', so that
+// addBlockOffsets() can add the scan of the totals to each tile afterwards.
+// If 'asFlags' is set, each nonzero input counts as 1 (for compaction).
+// 'input' and 'output' may be the same memory.
+kernel void scanBlocks(global const T *input, const ulong n, global T *output, global T *blockSums,
+		const int inclusive, const int asFlags, local T *tile, local T *scratch) {
+	
+	const size_t lid = get_local_id(0);
+	const size_t groupSize = get_local_size(0);
+	const ulong tileStart = get_group_id(0) * groupSize * ITEMS;
+	
+	// Load the tile with neighboring work items reading neighboring elements
+	for (int k = 0; k < ITEMS; k++) {
+		const ulong i = tileStart + k * groupSize + lid;
+		T x = (i < n) ? input[i] : (T)0;
+		if (asFlags) {
+			x = (x != (T)0) ? (T)1 : (T)0;
+		}
+		tile[k * groupSize + lid] = x;
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	// Each work item adds up its own run of ITEMS elements
+	T total = 0;
+	for (int k = 0; k < ITEMS; k++) {
+		total += tile[lid * ITEMS + k];
+	}
+	scratch[lid] = total;
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	// Inclusive scan of the totals across the work group
+	for (size_t offset = 1; offset < groupSize; offset *= 2) {
+		const T add = (lid >= offset) ? scratch[lid - offset] : (T)0;
+		barrier(CLK_LOCAL_MEM_FENCE);
+		scratch[lid] += add;
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+	
+	// Then each work item scans its own run, starting from the total of the runs before it
+	T running = (lid > 0) ? scratch[lid - 1] : (T)0;
+	for (int k = 0; k < ITEMS; k++) {
+		const T x = tile[lid * ITEMS + k];
+		if (inclusive) {
+			running += x;
+			tile[lid * ITEMS + k] = running;
+		} else {
+			tile[lid * ITEMS + k] = running;
+			running += x;
+		}
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	for (int k = 0; k < ITEMS; k++) {
+		const ulong i = tileStart + k * groupSize + lid;
+		if (i < n) {
+			output[i] = tile[k * groupSize + lid];
+		}
+	}
+	
+	if (lid == 0) {
+		blockSums[get_group_id(0)] = scratch[groupSize - 1];
+	}
+}
+
+// Add the (exclusive) scan of the tile totals to each element of the tiles, one tile per work group.
+kernel void addBlockOffsets(global T *output, const ulong n, global const T *blockOffsets) {
+	
+	const size_t lid = get_local_id(0);
+	const size_t groupSize = get_local_size(0);
+	const ulong tileStart = get_group_id(0) * groupSize * ITEMS;
+	const T offset = blockOffsets[get_group_id(0)];
+	
+	for (int k = 0; k < ITEMS; k++) {
+		const ulong i = tileStart + k * groupSize + lid;
+		if (i < n) {
+			output[i] += offset;
+		}
+	}
+}
+
+// Copy each element of 'input' with a nonzero flag to its position in 'output',
+// where 'positions' is the exclusive scan of the flags. The number of elements kept is written to 'count'.
+kernel void compactKernel(global const T *input, global const int *flags, global const int *positions,
+		const ulong n, global T *output, global int *count) {
+	
+	const ulong i = get_global_id(0);
+	if (i >= n) {
+		return;
+	}
+	
+	const int keep = (flags[i] != 0);
+	if (keep) {
+		output[positions[i]] = input[i];
+	}
+	
+	if (i == n - 1) {
+		count[0] = positions[i] + keep;
+	}
+}
\ No newline at end of file
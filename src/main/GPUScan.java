@@ -0,0 +1,254 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.cl_mem;
+
+/**
+ * GPUScan computes prefix sums (scans) of int, float, long, or double GPUMems on the GPU, and uses them
+ * for stream compaction: keeping only the flagged elements of an array, packed together in order.
+ * It goes with GPUProgram.
+ *
+ * An exclusive scan writes the sum of all the elements before each element (starting from 0),
+ * and an inclusive scan also includes the element itself:
+ *	input:		3 1 4 1 5
+ *	exclusive:	0 3 4 8 9
+ *	inclusive:	3 4 8 9 14
+ *
+ * The scan covers the first arrayRange.size elements of the input on the GPU, which are the ones that
+ * copyArrayToCPU() would copy back. Nothing is copied to the CPU, so filters can be chained on the GPU.
+ * Sums of floats and doubles are added in a different order than a loop on the CPU, so they may differ
+ * slightly in the last few bits.
+ */
+
+public class GPUScan {
+	
+	private static final int MAX_GROUP_SIZE = 256;	// Work items per work group (rounded down to what the GPU supports)
+	private static final int ITEMS = 4;				// Elements scanned by each work item
+	
+	private static GPUProgram[] scanPrograms = null;	// Compiled scanBlocks kernels, by ArrayType
+	private static GPUProgram[] addPrograms = null;		// Compiled addBlockOffsets kernels, by ArrayType
+	private static GPUProgram[] compactPrograms = null;	// Compiled compactKernel kernels, by ArrayType
+	private static int[] groupSizes = null;				// Local work group size used by the kernels of each type
+	
+	/** Write the exclusive scan of 'input' to 'output' (the sum of the elements before each element).
+	 * @param input The memory on the GPU to scan (int, float, long, or double).
+	 * @param output The GPUMem to write the scan into. It must have the same type as 'input' and
+	 * at least as many elements. It may be 'input' itself.
+	 */
+	public static synchronized void exclusiveScan(GPUMem input, GPUMem output) {
+		checkScan(input, output);
+		scan(input.mem, output.mem, input.arrayRange.size, input.type, false, false);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	/** Write the inclusive scan of 'input' to 'output' (the sum of the elements up to and including each element).
+	 * @param input The memory on the GPU to scan (int, float, long, or double).
+	 * @param output The GPUMem to write the scan into. It must have the same type as 'input' and
+	 * at least as many elements. It may be 'input' itself.
+	 */
+	public static synchronized void inclusiveScan(GPUMem input, GPUMem output) {
+		checkScan(input, output);
+		scan(input.mem, output.mem, input.arrayRange.size, input.type, true, false);
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	/** Copy the elements of 'input' whose flag is nonzero to the start of 'output', in order.
+	 * Everything stays on the GPU. Copy 'count' to the CPU if you need the number of elements kept.
+	 * @param input The memory on the GPU to compact (int, float, long, or double).
+	 * @param flags An int GPUMem with a flag for each element of 'input'. (Nonzero to keep the element.)
+	 * @param output The GPUMem to write the kept elements into. It must have the same type as 'input' and
+	 * at least as many elements, and must not be 'input' itself.
+	 * @param count An int GPUMem to write the number of elements kept into, at index 0.
+	 */
+	public static synchronized void compact(GPUMem input, GPUMem flags, GPUMem output, GPUMem count) {
+		
+		checkScan(input, output);
+		
+		final long n = input.arrayRange.size;
+		
+		if (flags == null || count == null) {
+			error("Argument is null");
+		}
+		
+		if (flags.mem == null || count.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (flags.type != ArrayType.INT || count.type != ArrayType.INT) {
+			error("Flags and count must be INT GPUMems.");
+		}
+		
+		if (flags.maxAllocatedSize < n) {
+			error("Flags GPUMem has " + flags.maxAllocatedSize + " elements, but the input has " + n);
+		}
+		
+		if (input.mem == output.mem) {
+			error("Cannot compact in place. Use a different output GPUMem.");
+		}
+		
+		if (n > Integer.MAX_VALUE) {
+			error("Cannot compact more than " + Integer.MAX_VALUE + " elements.");
+		}
+		
+		// Find the position of each kept element with an exclusive scan of the flags
+		cl_mem positions = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, n * ArrayType.INT.getSize(), null, null);
+		GPUProgram.allocCounter++;
+		scan(flags.mem, positions, n, ArrayType.INT, false, true);
+		
+		// Then copy each kept element to its position
+		getPrograms(input.type);
+		final GPUProgram program = compactPrograms[input.type.ordinal()];
+		final long groupSize = groupSizes[input.type.ordinal()];
+		program.setArgumentMem(0, input.mem);
+		program.setArgumentMem(1, flags.mem);
+		program.setArgumentMem(2, positions);
+		program.setArgument(3, n, GPUAccess.READ);
+		program.setArgumentMem(4, output.mem);
+		program.setArgumentMem(5, count.mem);
+		program.setLocalWorkGroupSizes(groupSize);
+		program.setGlobalWorkGroupSizes((n + groupSize - 1) / groupSize * groupSize);
+		program.enqueueKernel(null, null);
+		
+		CL.clFinish(GPUProgram.commandQueue);
+		CL.clReleaseMemObject(positions);
+	}
+	
+	/** Release the kernels used by scans and compaction.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void dispose() {
+		if (scanPrograms != null) {
+			for (int i = 0; i < scanPrograms.length; i++) {
+				if (scanPrograms[i] != null) {
+					scanPrograms[i].dispose();
+					addPrograms[i].dispose();
+					compactPrograms[i].dispose();
+				}
+			}
+			scanPrograms = null;
+			addPrograms = null;
+			compactPrograms = null;
+			groupSizes = null;
+		}
+	}
+	
+	// Scan 'n' elements of 'input' into 'output'.
+	// Each work group scans one tile, then the tile totals are scanned (the same way) and added back to each tile.
+	// This doesn't wait for the kernels to finish. (Also used by GPUSort.)
+	static synchronized void scan(cl_mem input, cl_mem output, long n, ArrayType type, boolean inclusive, boolean asFlags) {
+		
+		getPrograms(type);
+		final GPUProgram scanProgram = scanPrograms[type.ordinal()];
+		final GPUProgram addProgram = addPrograms[type.ordinal()];
+		final long groupSize = groupSizes[type.ordinal()];
+		final long tileSize = groupSize * ITEMS;
+		final long numTiles = (n + tileSize - 1) / tileSize;
+		
+		cl_mem blockSums = CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, numTiles * type.getSize(), null, null);
+		GPUProgram.allocCounter++;
+		
+		scanProgram.setArgumentMem(0, input);
+		scanProgram.setArgument(1, n, GPUAccess.READ);
+		scanProgram.setArgumentMem(2, output);
+		scanProgram.setArgumentMem(3, blockSums);
+		scanProgram.setArgument(4, inclusive ? 1 : 0, GPUAccess.READ);
+		scanProgram.setArgument(5, asFlags ? 1 : 0, GPUAccess.READ);
+		scanProgram.setLocalWorkGroupSizes(groupSize);
+		scanProgram.setGlobalWorkGroupSizes(numTiles * groupSize);
+		scanProgram.enqueueKernel(null, null);
+		
+		if (numTiles > 1) {
+			// Scan the tile totals in place, then add them to each tile
+			scan(blockSums, blockSums, numTiles, type, false, false);
+			
+			addProgram.setArgumentMem(0, output);
+			addProgram.setArgument(1, n, GPUAccess.READ);
+			addProgram.setArgumentMem(2, blockSums);
+			addProgram.setLocalWorkGroupSizes(groupSize);
+			addProgram.setGlobalWorkGroupSizes(numTiles * groupSize);
+			addProgram.enqueueKernel(null, null);
+		}
+		
+		// (OpenCL keeps the memory until the kernels using it are done)
+		CL.clReleaseMemObject(blockSums);
+	}
+	
+	// Check the input and output of a scan
+	private static void checkScan(GPUMem input, GPUMem output) {
+		
+		if (input == null || output == null) {
+			error("Argument is null");
+		}
+		
+		if (input.mem == null || input.arrayRange == null || output.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (input.isImage() || output.isImage()) {
+			error("Cannot scan an image.");
+		}
+		
+		if (input.type != ArrayType.INT && input.type != ArrayType.FLOAT &&
+			input.type != ArrayType.LONG && input.type != ArrayType.DOUBLE) {
+			error("Cannot scan a " + input.type + " GPUMem. (Only INT, FLOAT, LONG, and DOUBLE are supported.)");
+		}
+		
+		if (output.type != input.type) {
+			error("Output must be a " + input.type + " GPUMem, not " + output.type);
+		}
+		
+		if (input.arrayRange.size <= 0) {
+			error("Cannot scan an empty GPUMem.");
+		}
+		
+		if (output.maxAllocatedSize < input.arrayRange.size) {
+			error("Output GPUMem has " + output.maxAllocatedSize + " elements, but the input has " + input.arrayRange.size);
+		}
+	}
+	
+	// Compile the kernels for this type the first time they're needed
+	private static void getPrograms(ArrayType type) {
+		
+		if (scanPrograms == null) {
+			scanPrograms = new GPUProgram[ArrayType.values().length];
+			addPrograms = new GPUProgram[ArrayType.values().length];
+			compactPrograms = new GPUProgram[ArrayType.values().length];
+			groupSizes = new int[ArrayType.values().length];
+		}
+		
+		if (scanPrograms[type.ordinal()] != null) {
+			return;
+		}
+		
+		if (type == ArrayType.DOUBLE && !GPUProgram.isDoubleSupported()) {
+			error("This GPU does not support doubles.");
+		}
+		
+		final String options = type.getOpenCLDefines() + " -D ITEMS=" + ITEMS;
+		final GPUProgram scanProgram = GPUProgram.fromLibrary("scanBlocks", "GPUScan.cl", options);
+		final GPUProgram addProgram = GPUProgram.fromLibrary("addBlockOffsets", "GPUScan.cl", options);
+		final GPUProgram compactProgram = GPUProgram.fromLibrary("compactKernel", "GPUScan.cl", options);
+		
+		// Every kernel of this type uses the same tile size
+		final int maxGroupSize = Math.min(MAX_GROUP_SIZE, Math.min(scanProgram.getKernelMaxLocalWorkGroupSize(),
+				Math.min(addProgram.getKernelMaxLocalWorkGroupSize(), compactProgram.getKernelMaxLocalWorkGroupSize())));
+		int groupSize = 1;
+		while (groupSize * 2 <= maxGroupSize) {
+			groupSize *= 2;
+		}
+		
+		scanProgram.setLocalArgument(6, type, (long)groupSize * ITEMS);
+		scanProgram.setLocalArgument(7, type, groupSize);
+		
+		scanPrograms[type.ordinal()] = scanProgram;
+		addPrograms[type.ordinal()] = addProgram;
+		compactPrograms[type.ordinal()] = compactProgram;
+		groupSizes[type.ordinal()] = groupSize;
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,155 @@
+// Sliding-window aggregates for GPUSlidingWindow.java
+// Compiled with AGGREGATE (one of the AGGREGATE_... values below).
+// Samples are kept in a ring buffer, where stream position p is at p % ringSize. The stream is cut into blocks of
+// 'window' samples (the ring size is a multiple of the window, so blocks don't wrap around), and each sample gets the
+// aggregate from the start of its block up to it (prefix), and once its block is complete, from it to the end of its
+// block (suffix). A window is either one whole block (the prefix of its last sample), or the suffix of its first sample
+// combined with the prefix of its last sample, so every window takes the same time however long it is.
+
+#define AGGREGATE_SUM 0
+#define AGGREGATE_MEAN 1
+#define AGGREGATE_MIN 2
+#define AGGREGATE_MAX 3
+#define AGGREGATE_VARIANCE 4
+
+#if AGGREGATE == AGGREGATE_VARIANCE
+
+// (count, mean, sum of squared differences from the mean), combined like Chan et al. so it stays accurate
+// when the mean is large compared to the spread
+#define ACC float4
+#define IDENTITY ((float4)(0.0f))
+#define LIFT(x) ((float4)(1.0f, (x), 0.0f, 0.0f))
+
+ACC combine(const ACC a, const ACC b) {
+	const float n = a.x + b.x;
+	if (n == 0.0f) {
+		return a;
+	}
+	const float d = b.y - a.y;
+	return (float4)(n, a.y + d * b.x / n, a.z + b.z + d * d * a.x * b.x / n, 0.0f);
+}
+
+#else
+
+#define ACC float
+#define LIFT(x) (x)
+
+#if AGGREGATE == AGGREGATE_MIN
+#define IDENTITY INFINITY
+ACC combine(const ACC a, const ACC b) {
+	return fmin(a, b);
+}
+#elif AGGREGATE == AGGREGATE_MAX
+#define IDENTITY (-INFINITY)
+ACC combine(const ACC a, const ACC b) {
+	return fmax(a, b);
+}
+#else
+#define IDENTITY 0.0f
+ACC combine(const ACC a, const ACC b) {
+	return a + b;
+}
+#endif
+
+#endif
+
+// Replace each total in local memory with the combination of it and the totals before it (or after it, if 'reverse')
+void inclusiveScan(local ACC *totals, const bool reverse) {
+	const int localId = get_local_id(0);
+	const int localSize = get_local_size(0);
+	for (int stride = 1; stride < localSize; stride <<= 1) {
+		const int other = reverse ? localId + stride : localId - stride;
+		const bool hasOther = other >= 0 && other < localSize;
+		const ACC otherTotal = hasOther ? totals[other] : IDENTITY;
+		barrier(CLK_LOCAL_MEM_FENCE);
+		if (hasOther) {
+			totals[localId] = reverse ? combine(totals[localId], otherTotal) : combine(otherTotal, totals[localId]);
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+}
+
+// Compute the prefix of the new samples from 'from' up to 'to', with a work group for each block they are in.
+// Each work item takes a run of the samples, and the work group scans the totals of the runs.
+kernel void prefixKernel(global const float *samples, global ACC *prefix, const int window, const long ringSize,
+		const long from, const long to, local ACC *totals) {
+	
+	const long blockStart = (from / window + get_group_id(0)) * window;
+	const long start = max(from, blockStart);
+	const long end = min(to, blockStart + window);
+	const int localId = get_local_id(0);
+	const int localSize = get_local_size(0);
+	const long run = (end - start + localSize - 1) / localSize;
+	const long runStart = min(start + localId * run, end);
+	const long runEnd = min(runStart + run, end);
+	
+	ACC total = IDENTITY;
+	for (long p = runStart; p < runEnd; p++) {
+		total = combine(total, LIFT(samples[p % ringSize]));
+	}
+	totals[localId] = total;
+	barrier(CLK_LOCAL_MEM_FENCE);
+	inclusiveScan(totals, false);
+	
+	// Continue from the samples of the block that came before (in an earlier launch)
+	ACC running = (start > blockStart) ? prefix[(start - 1) % ringSize] : IDENTITY;
+	if (localId > 0) {
+		running = combine(running, totals[localId - 1]);
+	}
+	for (long p = runStart; p < runEnd; p++) {
+		running = combine(running, LIFT(samples[p % ringSize]));
+		prefix[p % ringSize] = running;
+	}
+}
+
+// Compute the suffix of every sample in the blocks that are completed by the new samples, with a work group for each block
+kernel void suffixKernel(global const float *samples, global ACC *suffix, const int window, const long ringSize,
+		const long from, local ACC *totals) {
+	
+	const long blockStart = (from / window + get_group_id(0)) * window;
+	const long end = blockStart + window;
+	const int localId = get_local_id(0);
+	const int localSize = get_local_size(0);
+	const long run = (window + localSize - 1) / localSize;
+	const long runStart = min(blockStart + localId * run, end);
+	const long runEnd = min(runStart + run, end);
+	
+	ACC total = IDENTITY;
+	for (long p = runEnd - 1; p >= runStart; p--) {
+		total = combine(LIFT(samples[p % ringSize]), total);
+	}
+	totals[localId] = total;
+	barrier(CLK_LOCAL_MEM_FENCE);
+	inclusiveScan(totals, true);
+	
+	ACC running = (localId < localSize - 1) ? totals[localId + 1] : IDENTITY;
+	for (long p = runEnd - 1; p >= runStart; p--) {
+		running = combine(LIFT(samples[p % ringSize]), running);
+		suffix[p % ringSize] = running;
+	}
+}
+
+// Write the aggregate of the window that ends at each new sample
+kernel void windowKernel(global const ACC *prefix, global const ACC *suffix, const int window, const long ringSize,
+		const long from, const int count, global float *output, const long outputOffset) {
+	
+	const int i = get_global_id(0);
+	if (i >= count) {
+		return;
+	}
+	
+	const long last = from + i;
+	const long first = last - window + 1;
+	ACC a = prefix[last % ringSize];
+	if (first > 0 && first % window != 0) {
+		a = combine(suffix[first % ringSize], a);
+	}
+	
+#if AGGREGATE == AGGREGATE_VARIANCE
+	output[outputOffset + i] = a.z / a.x;
+#elif AGGREGATE == AGGREGATE_MEAN
+	output[outputOffset + i] = a / (float)min(last + 1, (long)window);
+#else
+	output[outputOffset + i] = a;
+#endif
+}
\ No newline at end of file
@@ -0,0 +1,346 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUSlidingWindow computes an aggregate (such as a moving average) over the last samples of a continuous stream of
+ * floats, such as a sensor, keeping the recent samples on the GPU between batches. It goes with GPUProgram.
+ *
+ * Each call to append() copies only the new samples into a ring buffer on the GPU, and writes the aggregate of the
+ * window that ends at each new sample. Until the stream has a whole window of samples, the window is every sample so far.
+ * The stream is cut into blocks as long as the window, and each sample keeps the aggregate from the start of its block
+ * up to it, and from it to the end of its block, so each window combines at most two of them (the van Herk/Gil-Werman
+ * method). That makes the cost of each sample the same however long the window is, and a sample's history is never
+ * copied to the GPU again.
+ *
+ * Aggregates:
+ *	SUM:		The sum of the window.
+ *	MEAN:		The average of the window.
+ *	MIN:		The smallest sample in the window.
+ *	MAX:		The largest sample in the window.
+ *	VARIANCE:	The population variance of the window (divided by the number of samples, not one less).
+ * To compute several aggregates of the same stream, use a GPUSlidingWindow for each, and append the same GPUMem of
+ * samples to each, so the samples are only copied to the GPU once.
+ */
+
+public class GPUSlidingWindow {
+	
+	/**
+	 * Enum representing what is computed over each window.
+	 */
+	public enum Aggregate {
+		SUM(0, 1),			// Sum
+		MEAN(1, 1),			// Average
+		MIN(2, 1),			// Smallest
+		MAX(3, 1),			// Largest
+		VARIANCE(4, 4);		// Population variance
+		
+		protected final int value;	// Value of AGGREGATE_... in the kernel
+		protected final int floats;	// Floats kept for each sample in the kernel
+		
+		Aggregate(int value, int floats) {
+			this.value = value;
+			this.floats = floats;
+		}
+	}
+	
+	/** The longest window (so counts are exact as floats). */
+	public static final int MAX_WINDOW = 1 << 24;
+	
+	private static final int CHUNK_SIZE = 1 << 20;		// Most new samples aggregated by each launch
+	private static final int MAX_GROUP_SIZE = 256;		// Work items for each block
+	
+	private static GPUProgram[] prefixPrograms = null;	// Compiled prefixKernel kernels, by Aggregate
+	private static GPUProgram[] suffixPrograms = null;	// Compiled suffixKernel kernels, by Aggregate
+	private static GPUProgram[] windowPrograms = null;	// Compiled windowKernel kernels, by Aggregate
+	
+	private final int window;				// Samples in each window
+	private final Aggregate aggregate;		// What is computed over each window
+	private final long ringSize;			// Samples kept on the GPU (a multiple of the window)
+	private cl_mem samples;					// Recent samples (ring buffer)
+	private cl_mem prefix;					// Aggregate from the start of each sample's block up to it (ring buffer)
+	private cl_mem suffix;					// Aggregate from each sample to the end of its block (ring buffer)
+	private long position;					// Samples appended since the stream started
+	
+	/**
+	 * Construct a new sliding window, with its ring buffers on the GPU.
+	 * @param window The number of samples in each window (up to MAX_WINDOW).
+	 * @param aggregate What is computed over each window.
+	 */
+	public GPUSlidingWindow(int window, Aggregate aggregate) {
+		GPUProgram.initializeGPU();
+		
+		if (aggregate == null) {
+			error("Argument is null");
+		}
+		
+		if (window <= 0 || window > MAX_WINDOW) {
+			error("Window must be 1 to " + MAX_WINDOW + " samples. (Got " + window + ")");
+		}
+		
+		this.window = window;
+		this.aggregate = aggregate;
+		
+		// Keep the window before a launch, and the new samples of the launch
+		this.ringSize = ((CHUNK_SIZE + window - 1) / window + 1) * (long)window;
+		this.samples = createBuffer(ringSize * ArrayType.FLOAT.getSize());
+		this.prefix = createBuffer(ringSize * aggregate.floats * ArrayType.FLOAT.getSize());
+		this.suffix = createBuffer(ringSize * aggregate.floats * ArrayType.FLOAT.getSize());
+		this.position = 0;
+	}
+	
+	/** Return the number of samples in each window.
+	 * @return samples
+	 */
+	public int getWindow() {
+		return window;
+	}
+	
+	/** Return what is computed over each window.
+	 * @return aggregate
+	 */
+	public Aggregate getAggregate() {
+		return aggregate;
+	}
+	
+	/** Return the number of samples appended since the stream started.
+	 * @return samples
+	 */
+	public long getPosition() {
+		return position;
+	}
+	
+	/** Append samples to the stream, and write the aggregate of the window that ends at each one. Nothing is copied to the CPU.
+	 * @param samples FLOAT GPUMem of the new samples. Its arrayRange.size is the number of samples.
+	 * @param output FLOAT GPUMem to write the aggregate of each window to (one for each new sample).
+	 */
+	public void append(GPUMem samples, GPUMem output) {
+		append(this, samples, output);
+	}
+	
+	/** Append samples to the stream, and write the aggregate of the window that ends at each one.
+	 * @param samples The new samples.
+	 * @param output The array to write the aggregate of each window to (one for each new sample).
+	 */
+	public void append(float[] samples, float[] output) {
+		append(this, samples, output);
+	}
+	
+	/** Start a new stream, forgetting every sample so far.
+	 */
+	public void reset() {
+		position = 0;
+	}
+	
+	/** Release the memory on the GPU, and make sure this window cannot be used again.
+	 */
+	public void dispose() {
+		if (samples != null) {
+			CL.clReleaseMemObject(samples);
+			CL.clReleaseMemObject(prefix);
+			CL.clReleaseMemObject(suffix);
+		}
+		samples = null;
+		prefix = null;
+		suffix = null;
+	}
+	
+	/** Release the kernels used for sliding windows.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void disposeAll() {
+		prefixPrograms = disposePrograms(prefixPrograms);
+		suffixPrograms = disposePrograms(suffixPrograms);
+		windowPrograms = disposePrograms(windowPrograms);
+	}
+	
+	// Copy the new samples into the ring buffer on the GPU, a chunk at a time
+	private static synchronized void append(GPUSlidingWindow sliding, GPUMem samples, GPUMem output) {
+		
+		checkWindow(sliding);
+		
+		if (samples == null || output == null) {
+			error("Argument is null");
+		}
+		
+		if (samples.mem == null || samples.arrayRange == null || output.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (samples.type != ArrayType.FLOAT || output.type != ArrayType.FLOAT || samples.isImage() || output.isImage()) {
+			error("Samples and output must be FLOAT GPUMems.");
+		}
+		
+		final long count = samples.arrayRange.size;
+		if (output.maxAllocatedSize < count) {
+			error("Need room for " + count + " windows. (Got " + output.maxAllocatedSize + ")");
+		}
+		
+		final long typeSize = ArrayType.FLOAT.getSize();
+		for (long start = 0; start < count; start += CHUNK_SIZE) {
+			final int chunk = (int)Math.min(CHUNK_SIZE, count - start);
+			
+			// Copy in two parts if the samples wrap around the end of the ring
+			final long ringStart = sliding.position % sliding.ringSize;
+			final long first = Math.min(chunk, sliding.ringSize - ringStart);
+			CL.clEnqueueCopyBuffer(GPUProgram.commandQueue, samples.mem, sliding.samples, start * typeSize,
+					ringStart * typeSize, first * typeSize, 0, null, null);
+			if (first < chunk) {
+				CL.clEnqueueCopyBuffer(GPUProgram.commandQueue, samples.mem, sliding.samples, (start + first) * typeSize,
+						0, (chunk - first) * typeSize, 0, null, null);
+			}
+			
+			run(sliding, chunk, output.mem, start);
+		}
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Copy the new samples into the ring buffer on the GPU, and the windows back, a chunk at a time
+	private static synchronized void append(GPUSlidingWindow sliding, float[] samples, float[] output) {
+		
+		checkWindow(sliding);
+		
+		if (samples == null || output == null) {
+			error("Argument is null");
+		}
+		
+		if (output.length < samples.length) {
+			error("Need room for " + samples.length + " windows. (Got " + output.length + ")");
+		}
+		
+		if (samples.length == 0) {
+			return;
+		}
+		
+		final long typeSize = ArrayType.FLOAT.getSize();
+		cl_mem outputMem = createBuffer(Math.min(CHUNK_SIZE, samples.length) * typeSize);
+		for (int start = 0; start < samples.length; start += CHUNK_SIZE) {
+			final int chunk = Math.min(CHUNK_SIZE, samples.length - start);
+			
+			// Copy in two parts if the samples wrap around the end of the ring
+			final long ringStart = sliding.position % sliding.ringSize;
+			final long first = Math.min(chunk, sliding.ringSize - ringStart);
+			CL.clEnqueueWriteBuffer(GPUProgram.commandQueue, sliding.samples, CL.CL_TRUE, ringStart * typeSize,
+					first * typeSize, Pointer.to(samples).withByteOffset(start * typeSize), 0, null, null);
+			GPUProgram.copyToGPUCounter++;
+			if (first < chunk) {
+				CL.clEnqueueWriteBuffer(GPUProgram.commandQueue, sliding.samples, CL.CL_TRUE, 0, (chunk - first) * typeSize,
+						Pointer.to(samples).withByteOffset((start + first) * typeSize), 0, null, null);
+				GPUProgram.copyToGPUCounter++;
+			}
+			
+			run(sliding, chunk, outputMem, 0);
+			CL.clEnqueueReadBuffer(GPUProgram.commandQueue, outputMem, CL.CL_TRUE, 0, chunk * typeSize,
+					Pointer.to(output).withByteOffset(start * typeSize), 0, null, null);
+			GPUProgram.copyToCPUCounter++;
+		}
+		CL.clReleaseMemObject(outputMem);
+	}
+	
+	// Run the kernels for the next 'count' samples, which are already in the ring buffer
+	private static void run(GPUSlidingWindow sliding, int count, cl_mem output, long outputOffset) {
+		
+		final Aggregate aggregate = sliding.aggregate;
+		getPrograms(aggregate);
+		final GPUProgram prefixProgram = prefixPrograms[aggregate.ordinal()];
+		final GPUProgram suffixProgram = suffixPrograms[aggregate.ordinal()];
+		final GPUProgram windowProgram = windowPrograms[aggregate.ordinal()];
+		
+		final int window = sliding.window;
+		final long from = sliding.position;
+		final long to = from + count;
+		
+		// Extend the prefix of the blocks that have new samples
+		int groupSize = Math.min(MAX_GROUP_SIZE, prefixProgram.getKernelMaxLocalWorkGroupSize());
+		long blocks = (to - 1) / window - from / window + 1;
+		prefixProgram.setArgumentMem(0, sliding.samples);
+		prefixProgram.setArgumentMem(1, sliding.prefix);
+		prefixProgram.setArgument(2, window, GPUAccess.READ);
+		prefixProgram.setArgument(3, sliding.ringSize, GPUAccess.READ);
+		prefixProgram.setArgument(4, from, GPUAccess.READ);
+		prefixProgram.setArgument(5, to, GPUAccess.READ);
+		prefixProgram.setLocalArgument(6, ArrayType.FLOAT, (long)groupSize * aggregate.floats);
+		prefixProgram.setLocalWorkGroupSizes(groupSize);
+		prefixProgram.setGlobalWorkGroupSizes(blocks * groupSize);
+		prefixProgram.enqueueKernel(null, null);
+		
+		// Compute the suffix of the blocks that the new samples complete
+		blocks = to / window - from / window;
+		if (blocks > 0) {
+			groupSize = Math.min(MAX_GROUP_SIZE, suffixProgram.getKernelMaxLocalWorkGroupSize());
+			suffixProgram.setArgumentMem(0, sliding.samples);
+			suffixProgram.setArgumentMem(1, sliding.suffix);
+			suffixProgram.setArgument(2, window, GPUAccess.READ);
+			suffixProgram.setArgument(3, sliding.ringSize, GPUAccess.READ);
+			suffixProgram.setArgument(4, from, GPUAccess.READ);
+			suffixProgram.setLocalArgument(5, ArrayType.FLOAT, (long)groupSize * aggregate.floats);
+			suffixProgram.setLocalWorkGroupSizes(groupSize);
+			suffixProgram.setGlobalWorkGroupSizes(blocks * groupSize);
+			suffixProgram.enqueueKernel(null, null);
+		}
+		
+		windowProgram.setArgumentMem(0, sliding.prefix);
+		windowProgram.setArgumentMem(1, sliding.suffix);
+		windowProgram.setArgument(2, window, GPUAccess.READ);
+		windowProgram.setArgument(3, sliding.ringSize, GPUAccess.READ);
+		windowProgram.setArgument(4, from, GPUAccess.READ);
+		windowProgram.setArgument(5, count, GPUAccess.READ);
+		windowProgram.setArgumentMem(6, output);
+		windowProgram.setArgument(7, outputOffset, GPUAccess.READ);
+		windowProgram.setGlobalWorkGroupSizes(count);
+		windowProgram.enqueueKernel(null, null);
+		
+		sliding.position = to;
+	}
+	
+	// Check that a window can be used
+	private static void checkWindow(GPUSlidingWindow sliding) {
+		if (sliding.samples == null) {
+			error("Attempted to use a disposed GPUSlidingWindow.");
+		}
+	}
+	
+	// Compile the kernels for an aggregate the first time they're needed
+	private static void getPrograms(Aggregate aggregate) {
+		
+		if (prefixPrograms == null) {
+			prefixPrograms = new GPUProgram[Aggregate.values().length];
+			suffixPrograms = new GPUProgram[Aggregate.values().length];
+			windowPrograms = new GPUProgram[Aggregate.values().length];
+		}
+		
+		final int i = aggregate.ordinal();
+		if (prefixPrograms[i] == null) {
+			final String options = "-D AGGREGATE=" + aggregate.value;
+			prefixPrograms[i] = GPUProgram.fromLibrary("prefixKernel", "GPUSlidingWindow.cl", options);
+			suffixPrograms[i] = GPUProgram.fromLibrary("suffixKernel", "GPUSlidingWindow.cl", options);
+			windowPrograms[i] = GPUProgram.fromLibrary("windowKernel", "GPUSlidingWindow.cl", options);
+		}
+	}
+	
+	// Release compiled kernels, and return null to clear the array
+	private static GPUProgram[] disposePrograms(GPUProgram[] programs) {
+		if (programs != null) {
+			for (int i = 0; i < programs.length; i++) {
+				if (programs[i] != null) {
+					programs[i].dispose();
+				}
+			}
+		}
+		return null;
+	}
+	
+	// Allocate memory on the GPU
+	private static cl_mem createBuffer(long bytes) {
+		GPUProgram.allocCounter++;
+		return CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, bytes, null, null);
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
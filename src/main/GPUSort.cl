@@ -0,0 +1,123 @@
+// LSD radix sort for GPUSort.java
+// Compiled with ITEMS (the number of elements each work item handles), V (uint or ulong, the bits of each value),
+// and one of KEY_INT, KEY_FLOAT, or KEY_LONG.
+// Keys and values are moved as raw bits. Only the digits are taken from an order-preserving transform of the keys.
+
+#define RADIX_BITS 4
+#define RADIX 16
+
+#if defined(KEY_INT)
+#define K uint
+#define ORDERED(k) ((k) ^ 0x80000000u)
+#elif defined(KEY_FLOAT)
+#define K uint
+// Negative floats are flipped, so they sort in reverse. Every NaN (of either sign) becomes the largest key, so they sort last.
+#define ORDERED(k) ((((k) & 0x7FFFFFFFu) > 0x7F800000u) ? 0xFFFFFFFFu : (k) ^ (((k) >> 31) ? 0xFFFFFFFFu : 0x80000000u))
+#elif defined(KEY_LONG)
+#define K ulong
+#define ORDERED(k) ((k) ^ 0x8000000000000000ul)
+#endif
+
+// The digit of element 'i' for this pass, taken from its segment id or its key
+#define DIGIT(i) (segmentPass ? ((segs[i] >> shift) & (RADIX - 1)) : (uint)((ORDERED(keys[i]) >> shift) & (RADIX - 1)))
+
+// Count how many elements of each tile (ITEMS * local size elements, one tile per work group) have each digit.
+// The counts are written digit-major, so that an exclusive scan gives where each tile writes each digit.
+// The local work group size must be at least RADIX.
+kernel void radixHistogram(global const K *keys, global const uint *segs, const int segmentPass, const int shift,
+		const uint n, global uint *histogram, local uint *counts) {
+	
+	const size_t lid = get_local_id(0);
+	const size_t groupSize = get_local_size(0);
+	const uint tileStart = get_group_id(0) * groupSize * ITEMS;
+	
+	if (lid < RADIX) {
+		counts[lid] = 0;
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	for (int k = 0; k < ITEMS; k++) {
+		const uint i = tileStart + k * groupSize + lid;
+		if (i < n) {
+			atomic_inc(&counts[DIGIT(i)]);
+		}
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	if (lid < RADIX) {
+		histogram[lid * get_num_groups(0) + get_group_id(0)] = counts[lid];
+	}
+}
+
+// Move each element of each tile to its place for this pass, keeping elements with the same digit in order.
+// 'offsets' is the exclusive scan of the histogram, and 'counts' holds RADIX entries for each work item.
+// Each work item handles ITEMS neighboring elements, so the order within a tile is the order of the work items.
+kernel void radixScatter(global const K *keys, global const V *values, global const uint *segs,
+		global K *keysOut, global V *valuesOut, global uint *segsOut,
+		const int hasValues, const int hasSegments, const int segmentPass, const int shift, const uint n,
+		global const uint *offsets, local uint *counts, local uint *scratch) {
+	
+	const size_t lid = get_local_id(0);
+	const size_t groupSize = get_local_size(0);
+	const uint first = get_group_id(0) * groupSize * ITEMS + lid * ITEMS;
+	
+	// Count the digits of this work item's elements
+	uint digits[ITEMS];
+	uint position[RADIX];
+	for (int d = 0; d < RADIX; d++) {
+		position[d] = 0;
+	}
+	for (int k = 0; k < ITEMS; k++) {
+		const uint i = first + k;
+		if (i < n) {
+			digits[k] = DIGIT(i);
+			position[digits[k]]++;
+		}
+	}
+	for (int d = 0; d < RADIX; d++) {
+		counts[d * groupSize + lid] = position[d];
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	// Exclusive scan of the counts, with each work item scanning RADIX neighboring entries
+	uint total = 0;
+	for (int j = 0; j < RADIX; j++) {
+		total += counts[lid * RADIX + j];
+	}
+	scratch[lid] = total;
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	for (size_t offset = 1; offset < groupSize; offset *= 2) {
+		const uint add = (lid >= offset) ? scratch[lid - offset] : 0;
+		barrier(CLK_LOCAL_MEM_FENCE);
+		scratch[lid] += add;
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+	
+	uint running = (lid > 0) ? scratch[lid - 1] : 0;
+	for (int j = 0; j < RADIX; j++) {
+		const uint x = counts[lid * RADIX + j];
+		counts[lid * RADIX + j] = running;
+		running += x;
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	// Where this work item writes each digit: where the tile writes it, plus the same digits before it in the tile
+	for (int d = 0; d < RADIX; d++) {
+		position[d] = offsets[d * get_num_groups(0) + get_group_id(0)] + counts[d * groupSize + lid] - counts[d * groupSize];
+	}
+	
+	for (int k = 0; k < ITEMS; k++) {
+		const uint i = first + k;
+		if (i < n) {
+			const uint p = position[digits[k]]++;
+			keysOut[p] = keys[i];
+			if (hasValues) {
+				valuesOut[p] = values[i];
+			}
+			if (hasSegments) {
+				segsOut[p] = segs[i];
+			}
+		}
+	}
+}
\ No newline at end of file
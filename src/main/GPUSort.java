@@ -0,0 +1,301 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.cl_mem;
+
+/**
+ * GPUSort sorts int, float, or long keys on the GPU in ascending order, with an LSD radix sort.
+ * It goes with GPUProgram.
+ *
+ * A parallel array of values (such as the original indices) can be moved along with the keys,
+ * and segmented sorts order the keys within each segment. The sort is stable, and the data is sorted
+ * in place on the GPU, so it stays there for the next kernel. The sort covers the first arrayRange.size
+ * keys on the GPU, which are the ones that copyArrayToCPU() would copy back.
+ *
+ * Floats are ordered like Arrays.sort(): -0.0 comes before 0.0, and every NaN (even with the sign bit set) comes after
+ * positive infinity.
+ */
+
+public class GPUSort {
+	
+	private static final int MAX_GROUP_SIZE = 256;	// Work items per work group (reduced to what the GPU supports)
+	private static final int ITEMS = 4;				// Elements handled by each work item
+	private static final int RADIX_BITS = 4;		// Bits sorted in each pass
+	private static final int RADIX = 16;			// Digits in each pass
+	
+	private static GPUProgram[][] histogramPrograms = null;	// Compiled radixHistogram kernels, by [key ArrayType][value size]
+	private static GPUProgram[][] scatterPrograms = null;	// Compiled radixScatter kernels, by [key ArrayType][value size]
+	private static int[][] groupSizes = null;				// Local work group size used by the kernels
+	
+	/** Sort the keys on the GPU in ascending order.
+	 * @param keys An int, float, or long GPUMem to sort in place.
+	 */
+	public static synchronized void sort(GPUMem keys) {
+		sort(keys, null, null);
+	}
+	
+	/** Sort the keys on the GPU in ascending order, and move each value with its key.
+	 * For example, values that start as 0, 1, 2, ... end up as the original index of each sorted key.
+	 * @param keys An int, float, or long GPUMem to sort in place.
+	 * @param values An int, float, long, or double GPUMem with a value for each key, which is rearranged in place.
+	 */
+	public static synchronized void sort(GPUMem keys, GPUMem values) {
+		if (values == null) {
+			error("Values GPUMem is null. Use sort(keys) to sort keys without values.");
+		}
+		sort(keys, values, null);
+	}
+	
+	/** Sort the keys within each segment, so independent lists can be sorted all at once.
+	 * The elements are ordered by segment id first, and then by key.
+	 * @param keys An int, float, or long GPUMem to sort in place.
+	 * @param values (Optional, may be null) A GPUMem with a value for each key, which is rearranged in place.
+	 * @param segmentIds An int GPUMem with the segment (0 or higher) of each key. If the segments are contiguous
+	 * and in increasing order, such as 0 0 0 1 1 2 2 2, then this is left unchanged. Otherwise, it is sorted too.
+	 */
+	public static synchronized void sortSegmented(GPUMem keys, GPUMem values, GPUMem segmentIds) {
+		if (segmentIds == null) {
+			error("Segment ids GPUMem is null. Use sort() to sort without segments.");
+		}
+		sort(keys, values, segmentIds);
+	}
+	
+	/** Release the kernels used by sorting.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void dispose() {
+		if (histogramPrograms != null) {
+			for (int i = 0; i < histogramPrograms.length; i++) {
+				for (int j = 0; j < histogramPrograms[i].length; j++) {
+					if (histogramPrograms[i][j] != null) {
+						histogramPrograms[i][j].dispose();
+						scatterPrograms[i][j].dispose();
+					}
+				}
+			}
+			histogramPrograms = null;
+			scatterPrograms = null;
+			groupSizes = null;
+		}
+	}
+	
+	// Sort the keys (and values and segment ids, which may be null) in place.
+	// Each pass sorts by the next RADIX_BITS bits of the keys, then of the segment ids, moving the elements
+	// back and forth between the original memory and temporary memory.
+	private static void sort(GPUMem keys, GPUMem values, GPUMem segmentIds) {
+		
+		final long n = checkSort(keys, values, segmentIds);
+		final int valueSize = (values == null) ? 4 : values.type.getSize();
+		final int keyBits = 8 * keys.type.getSize();
+		
+		// Only sort as many bits of the segment ids as they use
+		int segmentPasses = 0;
+		if (segmentIds != null) {
+			if (GPUReduce.reduceInt(segmentIds, GPUReduce.Operation.MIN) < 0) {
+				error("Segment ids must not be negative.");
+			}
+			final int maxSegment = GPUReduce.reduceInt(segmentIds, GPUReduce.Operation.MAX);
+			while (segmentPasses * RADIX_BITS < 32 && (maxSegment >>> (segmentPasses * RADIX_BITS)) != 0) {
+				segmentPasses++;
+			}
+		}
+		final int keyPasses = keyBits / RADIX_BITS;
+		final int numPasses = keyPasses + segmentPasses;
+		
+		final GPUProgram histogramProgram = getProgram(keys.type, valueSize, false);
+		final GPUProgram scatterProgram = getProgram(keys.type, valueSize, true);
+		final long groupSize = groupSizes[keys.type.ordinal()][valueSize / 8];
+		final long numTiles = (n + groupSize * ITEMS - 1) / (groupSize * ITEMS);
+		
+		// Temporary memory to move the elements into on every other pass
+		cl_mem[] keyMems = {keys.mem, createBuffer(n * keys.type.getSize())};
+		cl_mem[] valueMems = {null, null};
+		cl_mem[] segmentMems = {null, null};
+		if (values != null) {
+			valueMems[0] = values.mem;
+			valueMems[1] = createBuffer(n * valueSize);
+		}
+		if (segmentIds != null) {
+			segmentMems[0] = segmentIds.mem;
+			segmentMems[1] = createBuffer(n * ArrayType.INT.getSize());
+		}
+		cl_mem histogram = createBuffer(RADIX * numTiles * ArrayType.INT.getSize());
+		
+		histogramProgram.setArgument(4, (int)n, GPUAccess.READ);
+		histogramProgram.setArgumentMem(5, histogram);
+		histogramProgram.setLocalWorkGroupSizes(groupSize);
+		histogramProgram.setGlobalWorkGroupSizes(numTiles * groupSize);
+		
+		scatterProgram.setArgument(6, values == null ? 0 : 1, GPUAccess.READ);
+		scatterProgram.setArgument(7, segmentIds == null ? 0 : 1, GPUAccess.READ);
+		scatterProgram.setArgument(10, (int)n, GPUAccess.READ);
+		scatterProgram.setArgumentMem(11, histogram);
+		scatterProgram.setLocalWorkGroupSizes(groupSize);
+		scatterProgram.setGlobalWorkGroupSizes(numTiles * groupSize);
+		
+		for (int pass = 0; pass < numPasses; pass++) {
+			final int from = pass % 2;
+			final int to = 1 - from;
+			final boolean segmentPass = (pass >= keyPasses);
+			final int shift = segmentPass ? (pass - keyPasses) * RADIX_BITS : pass * RADIX_BITS;
+			
+			// Count the digits in each tile (unused memory arguments are bound to the keys)
+			histogramProgram.setArgumentMem(0, keyMems[from]);
+			histogramProgram.setArgumentMem(1, segmentIds == null ? keyMems[from] : segmentMems[from]);
+			histogramProgram.setArgument(2, segmentPass ? 1 : 0, GPUAccess.READ);
+			histogramProgram.setArgument(3, shift, GPUAccess.READ);
+			histogramProgram.enqueueKernel(null, null);
+			
+			// Find where each tile writes each digit
+			GPUScan.scan(histogram, histogram, RADIX * numTiles, ArrayType.INT, false, false);
+			
+			// Move the elements there
+			scatterProgram.setArgumentMem(0, keyMems[from]);
+			scatterProgram.setArgumentMem(1, values == null ? keyMems[from] : valueMems[from]);
+			scatterProgram.setArgumentMem(2, segmentIds == null ? keyMems[from] : segmentMems[from]);
+			scatterProgram.setArgumentMem(3, keyMems[to]);
+			scatterProgram.setArgumentMem(4, values == null ? keyMems[to] : valueMems[to]);
+			scatterProgram.setArgumentMem(5, segmentIds == null ? keyMems[to] : segmentMems[to]);
+			scatterProgram.setArgument(8, segmentPass ? 1 : 0, GPUAccess.READ);
+			scatterProgram.setArgument(9, shift, GPUAccess.READ);
+			scatterProgram.enqueueKernel(null, null);
+		}
+		
+		// After an odd number of passes, the result is in the temporary memory
+		if (numPasses % 2 == 1) {
+			copyBuffer(keyMems[1], keyMems[0], n * keys.type.getSize());
+			if (values != null) {
+				copyBuffer(valueMems[1], valueMems[0], n * valueSize);
+			}
+			if (segmentIds != null) {
+				copyBuffer(segmentMems[1], segmentMems[0], n * ArrayType.INT.getSize());
+			}
+		}
+		
+		CL.clFinish(GPUProgram.commandQueue);
+		
+		CL.clReleaseMemObject(keyMems[1]);
+		if (values != null) {
+			CL.clReleaseMemObject(valueMems[1]);
+		}
+		if (segmentIds != null) {
+			CL.clReleaseMemObject(segmentMems[1]);
+		}
+		CL.clReleaseMemObject(histogram);
+	}
+	
+	// Check the arguments of a sort, and return the number of keys
+	private static long checkSort(GPUMem keys, GPUMem values, GPUMem segmentIds) {
+		
+		if (keys == null) {
+			error("Keys GPUMem is null.");
+		}
+		
+		if (keys.mem == null || keys.arrayRange == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (keys.type != ArrayType.INT && keys.type != ArrayType.FLOAT && keys.type != ArrayType.LONG) {
+			error("Cannot sort a " + keys.type + " GPUMem. (Only INT, FLOAT, and LONG keys are supported.)");
+		}
+		
+		final long n = keys.arrayRange.size;
+		if (n <= 0) {
+			error("Cannot sort an empty GPUMem.");
+		}
+		
+		if (n > Integer.MAX_VALUE) {
+			error("Cannot sort more than " + Integer.MAX_VALUE + " keys.");
+		}
+		
+		if (values != null) {
+			if (values.mem == null || values.arrayRange == null) {
+				error("Attempted to access deallocated GPUMem object.");
+			}
+			
+			if (values.type != ArrayType.INT && values.type != ArrayType.FLOAT &&
+				values.type != ArrayType.LONG && values.type != ArrayType.DOUBLE) {
+				error("Cannot sort values of type " + values.type + ". (Only INT, FLOAT, LONG, and DOUBLE are supported.)");
+			}
+			
+			if (values.maxAllocatedSize < n || values.mem == keys.mem) {
+				error("Values GPUMem must be separate from the keys, with at least " + n + " elements.");
+			}
+		}
+		
+		if (segmentIds != null) {
+			if (segmentIds.mem == null || segmentIds.arrayRange == null) {
+				error("Attempted to access deallocated GPUMem object.");
+			}
+			
+			if (segmentIds.type != ArrayType.INT) {
+				error("Segment ids must be an INT GPUMem, not " + segmentIds.type);
+			}
+			
+			if (segmentIds.arrayRange.size != n) {
+				error("There must be one segment id for each of the " + n + " keys. (Got " + segmentIds.arrayRange.size + ")");
+			}
+		}
+		
+		return n;
+	}
+	
+	// Return the histogram or scatter kernel for these keys and values, compiling both the first time
+	private static GPUProgram getProgram(ArrayType keyType, int valueSize, boolean scatter) {
+		
+		if (histogramPrograms == null) {
+			histogramPrograms = new GPUProgram[ArrayType.values().length][2];
+			scatterPrograms = new GPUProgram[ArrayType.values().length][2];
+			groupSizes = new int[ArrayType.values().length][2];
+		}
+		
+		final int k = keyType.ordinal();
+		final int v = valueSize / 8;
+		if (histogramPrograms[k][v] == null) {
+			
+			final String options = "-D KEY_" + keyType + " -D V=" + (valueSize == 8 ? "ulong" : "uint") + " -D ITEMS=" + ITEMS;
+			final GPUProgram histogramProgram = GPUProgram.fromLibrary("radixHistogram", "GPUSort.cl", options);
+			final GPUProgram scatterProgram = GPUProgram.fromLibrary("radixScatter", "GPUSort.cl", options);
+			
+			// The scatter needs (RADIX + 1) ints of local memory for each work item
+			final int maxGroupSize = Math.min(MAX_GROUP_SIZE, Math.min(histogramProgram.getKernelMaxLocalWorkGroupSize(),
+					scatterProgram.getKernelMaxLocalWorkGroupSize()));
+			int groupSize = 1;
+			while (groupSize * 2 <= maxGroupSize && groupSize * 2 * (RADIX + 1) * 4L <= GPUProgram.getLocalMemorySize() / 2) {
+				groupSize *= 2;
+			}
+			
+			if (groupSize < RADIX) {
+				error("GPUSort needs work groups of at least " + RADIX + " work items.");
+			}
+			
+			histogramProgram.setLocalArgument(6, ArrayType.INT, RADIX);
+			scatterProgram.setLocalArgument(12, ArrayType.INT, (long)RADIX * groupSize);
+			scatterProgram.setLocalArgument(13, ArrayType.INT, groupSize);
+			
+			histogramPrograms[k][v] = histogramProgram;
+			scatterPrograms[k][v] = scatterProgram;
+			groupSizes[k][v] = groupSize;
+		}
+		
+		return scatter ? scatterPrograms[k][v] : histogramPrograms[k][v];
+	}
+	
+	// Allocate temporary memory on the GPU
+	private static cl_mem createBuffer(long bytes) {
+		GPUProgram.allocCounter++;
+		return CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, bytes, null, null);
+	}
+	
+	// Copy memory between places on the GPU
+	private static void copyBuffer(cl_mem source, cl_mem dest, long bytes) {
+		CL.clEnqueueCopyBuffer(GPUProgram.commandQueue, source, dest, 0, 0, bytes, 0, null, null);
+		GPUProgram.copyCounter++;
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,128 @@
+// Sparse matrix-vector multiplication (y = alpha * A * x + beta * y) for GPUSparseMatrix.java
+// The matrix is in CSR form: the nonzeros of row i are at rowPointers[i] up to rowPointers[i + 1] in 'columns' and 'values'.
+
+// Finish the result of one row (y isn't read when beta is 0, so it doesn't have to be initialized)
+float finishRow(float sum, float alpha, float beta, float y) {
+	return (beta == 0.0f) ? alpha * sum : alpha * sum + beta * y;
+}
+
+// One work item for each row. Fastest for short rows of about the same length.
+kernel void spmvScalar(global const int *rowPointers, global const int *columns, global const float *values,
+		global const float *x, global float *y, const int rows, const float alpha, const float beta) {
+	
+	const int row = get_global_id(0);
+	if (row >= rows) {
+		return;
+	}
+	
+	float sum = 0.0f;
+	const int end = rowPointers[row + 1];
+	for (int j = rowPointers[row]; j < end; j++) {
+		sum += values[j] * x[columns[j]];
+	}
+	y[row] = finishRow(sum, alpha, beta, y[row]);
+}
+
+// 'lanes' work items (a power of two, up to the work group size) for each row, which read neighboring nonzeros
+// together and then add up their sums in local memory. Best for longer rows of about the same length.
+kernel void spmvVector(global const int *rowPointers, global const int *columns, global const float *values,
+		global const float *x, global float *y, const int rows, const float alpha, const float beta,
+		const int lanes, local float *partial) {
+	
+	const int lid = get_local_id(0);
+	const int lane = lid & (lanes - 1);
+	const long row = get_global_id(0) / lanes;
+	
+	float sum = 0.0f;
+	if (row < rows) {
+		const int end = rowPointers[row + 1];
+		for (int j = rowPointers[row] + lane; j < end; j += lanes) {
+			sum += values[j] * x[columns[j]];
+		}
+	}
+	partial[lid] = sum;
+	barrier(CLK_LOCAL_MEM_FENCE);
+	
+	for (int s = lanes / 2; s > 0; s /= 2) {
+		if (lane < s) {
+			partial[lid] += partial[lid + s];
+		}
+		barrier(CLK_LOCAL_MEM_FENCE);
+	}
+	
+	if (lane == 0 && row < rows) {
+		y[row] = finishRow(partial[lid], alpha, beta, y[row]);
+	}
+}
+
+// Find where 'diagonal' crosses the merge path of the row ends and the nonzero indices (Merrill and Garland,
+// "Merge-based Parallel Sparse Matrix-Vector Multiplication"). Returns the number of rows finished before it.
+int mergePathSearch(int diagonal, global const int *rowPointers, int rows, int nnz) {
+	int low = max(diagonal - nnz, 0);
+	int high = min(diagonal, rows);
+	while (low < high) {
+		const int pivot = (low + high) / 2;
+		if (rowPointers[pivot + 1] <= diagonal - pivot - 1) {
+			low = pivot + 1;
+		} else {
+			high = pivot;
+		}
+	}
+	return low;
+}
+
+// Each work item takes the same number of steps along the merge path, where each step either multiplies one nonzero
+// or finishes one row, so very long rows are split between work items. Rows finished by a work item are written
+// to y, and the partial sum of the row it stops in is written to 'carryRows' and 'carryValues' for spmvFixup.
+kernel void spmvMerge(global const int *rowPointers, global const int *columns, global const float *values,
+		global const float *x, global float *y, const int rows, const int nnz, const float alpha, const float beta,
+		const int itemsPerWorkItem, const int numWorkItems, global int *carryRows, global float *carryValues) {
+	
+	const int t = get_global_id(0);
+	if (t >= numWorkItems) {
+		return;
+	}
+	
+	const int total = rows + nnz;
+	const int start = min(t * itemsPerWorkItem, total);
+	const int end = min(start + itemsPerWorkItem, total);
+	
+	int row = mergePathSearch(start, rowPointers, rows, nnz);
+	int j = start - row;
+	float sum = 0.0f;
+	for (int item = start; item < end; item++) {
+		if (j < rowPointers[row + 1]) {
+			sum += values[j] * x[columns[j]];
+			j++;
+		} else {
+			y[row] = finishRow(sum, alpha, beta, y[row]);
+			sum = 0.0f;
+			row++;
+		}
+	}
+	
+	carryRows[t] = (row < rows) ? row : -1;
+	carryValues[t] = sum;
+}
+
+// Add the partial sums left by spmvMerge to their rows. The work items that stopped in the same row are next to each other,
+// so the first one of each run adds them all, and no two work items write the same row.
+kernel void spmvFixup(global const int *carryRows, global const float *carryValues, global float *y,
+		const int numWorkItems, const float alpha) {
+	
+	const int t = get_global_id(0);
+	if (t >= numWorkItems) {
+		return;
+	}
+	
+	const int row = carryRows[t];
+	if (row < 0 || (t > 0 && carryRows[t - 1] == row)) {
+		return;
+	}
+	
+	float sum = 0.0f;
+	for (int i = t; i < numWorkItems && carryRows[i] == row; i++) {
+		sum += carryValues[i];
+	}
+	y[row] += alpha * sum;
+}
\ No newline at end of file
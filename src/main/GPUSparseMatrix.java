@@ -0,0 +1,412 @@
+package main;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.cl_mem;
+
+/**
+ * GPUSparseMatrix is a sparse float matrix kept on the GPU in CSR (compressed sparse row) form,
+ * for sparse matrix-vector products (y = alpha * A * x + beta * y) that stay on the GPU. It goes with GPUProgram.
+ *
+ * In CSR form, the nonzeros of row i are at rowPointers[i] up to (not including) rowPointers[i + 1] in
+ * 'columnIndices' and 'values', so 'rowPointers' has one more element than the number of rows.
+ * A matrix can be copied from arrays, or built on GPUMems (or views of them) that are already on the GPU.
+ *
+ * The kernel is chosen from the lengths of the rows when the matrix is made:
+ *	SCALAR: one work item for each row, for short rows of about the same length.
+ *	VECTOR: a few work items for each row (up to 32), for longer rows of about the same length.
+ *	MERGE: every work item does the same number of nonzeros and rows, however the nonzeros are spread between rows.
+ *		This is best when a few rows are much longer than the rest, which would leave the other work items waiting.
+ * So a power iteration (multiply, normalize, repeat) runs entirely on the GPU with the best kernel for the matrix.
+ */
+
+public class GPUSparseMatrix {
+	
+	/**
+	 * Enum representing how the work of a multiplication is split between work items.
+	 */
+	public enum Algorithm {
+		SCALAR,		// One work item for each row
+		VECTOR,		// A power of two work items for each row
+		MERGE;		// The same number of rows plus nonzeros for each work item
+	}
+	
+	private static final int MAX_GROUP_SIZE = 128;	// Work items per work group of the vector kernel
+	private static final int MAX_LANES = 32;			// Most work items used for one row by the vector kernel
+	private static final int MERGE_ITEMS = 16;		// Rows plus nonzeros for each work item of the merge kernel
+	
+	private static GPUProgram scalarProgram = null;	// Compiled spmvScalar kernel
+	private static GPUProgram vectorProgram = null;	// Compiled spmvVector kernel
+	private static GPUProgram mergeProgram = null;	// Compiled spmvMerge kernel
+	private static GPUProgram fixupProgram = null;	// Compiled spmvFixup kernel
+	
+	private final int rows;					// Number of rows
+	private final int columns;				// Number of columns
+	private final int nonzeros;				// Number of nonzero values
+	private cl_mem rowPointers;				// Where each row starts in 'columnIndices' and 'values' (rows + 1 ints)
+	private cl_mem columnIndices;			// Column of each nonzero (ints)
+	private cl_mem values;					// Each nonzero (floats)
+	private final boolean ownsMemory;		// Whether the memory above was allocated by this matrix (and is released by dispose())
+	private Algorithm algorithm;			// Kernel used by multiply()
+	private final int lanes;				// Work items for each row in the vector kernel
+	private cl_mem carryRows = null;		// (Merge only) Row each work item stopped in
+	private cl_mem carryValues = null;		// (Merge only) Partial sum of the row each work item stopped in
+	
+	/**
+	 * Construct a new matrix on the GPU with a copy of CSR arrays.
+	 * @param columns Number of columns.
+	 * @param rowPointers Where each row starts in 'columnIndices' and 'values', then the number of nonzeros.
+	 * @param columnIndices The column of each nonzero.
+	 * @param values Each nonzero.
+	 */
+	public GPUSparseMatrix(int columns, int[] rowPointers, int[] columnIndices, float[] values) {
+		GPUProgram.initializeGPU();
+		
+		if (rowPointers == null || columnIndices == null || values == null) {
+			error("Argument is null");
+		}
+		
+		this.rows = rowPointers.length - 1;
+		this.columns = columns;
+		this.nonzeros = (rowPointers.length > 0) ? rowPointers[rows] : 0;
+		checkSize();
+		
+		if (columnIndices.length < nonzeros || values.length < nonzeros) {
+			error("Matrix has " + nonzeros + " nonzeros, but " + columnIndices.length + " column indices and "
+					+ values.length + " values.");
+		}
+		
+		for (int i = 0; i < nonzeros; i++) {
+			if (columnIndices[i] < 0 || columnIndices[i] >= columns) {
+				error("Column index " + columnIndices[i] + " (nonzero " + i + ") is outside of the " + columns + " columns.");
+			}
+		}
+		
+		this.rowPointers = createBuffer(Pointer.to(rowPointers), (long)(rows + 1) * ArrayType.INT.getSize());
+		this.columnIndices = createBuffer(Pointer.to(columnIndices), Math.max(1, nonzeros) * (long)ArrayType.INT.getSize());
+		this.values = createBuffer(Pointer.to(values), Math.max(1, nonzeros) * (long)ArrayType.FLOAT.getSize());
+		this.ownsMemory = true;
+		this.lanes = chooseAlgorithm(rowPointers);
+	}
+	
+	/**
+	 * Construct a new matrix from CSR arrays already on the GPU, without copying them.
+	 * The GPUMems must not be changed or disposed while this matrix is used, and aren't released by dispose().
+	 * (The row pointers are copied to the CPU once, to choose the kernel.)
+	 * @param columns Number of columns.
+	 * @param rowPointers INT GPUMem of where each row starts in 'columnIndices' and 'values', then the number of nonzeros.
+	 * Its arrayRange.size is the number of rows + 1.
+	 * @param columnIndices INT GPUMem of the column of each nonzero.
+	 * @param values FLOAT GPUMem of each nonzero.
+	 */
+	public GPUSparseMatrix(int columns, GPUMem rowPointers, GPUMem columnIndices, GPUMem values) {
+		GPUProgram.initializeGPU();
+		
+		if (rowPointers == null || columnIndices == null || values == null) {
+			error("Argument is null");
+		}
+		
+		if (rowPointers.mem == null || rowPointers.arrayRange == null || columnIndices.mem == null || values.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (rowPointers.type != ArrayType.INT || columnIndices.type != ArrayType.INT || values.type != ArrayType.FLOAT) {
+			error("Row pointers and column indices must be INT GPUMems, and values must be a FLOAT GPUMem.");
+		}
+		
+		if (rowPointers.arrayRange.size > Integer.MAX_VALUE) {
+			error("Matrix has too many rows. (" + (rowPointers.arrayRange.size - 1) + ")");
+		}
+		
+		int[] hostRowPointers = new int[(int)rowPointers.arrayRange.size];
+		if (hostRowPointers.length > 0) {
+			CL.clEnqueueReadBuffer(GPUProgram.commandQueue, rowPointers.mem, CL.CL_TRUE, 0,
+					(long)hostRowPointers.length * ArrayType.INT.getSize(), Pointer.to(hostRowPointers), 0, null, null);
+			GPUProgram.copyToCPUCounter++;
+		}
+		
+		this.rows = hostRowPointers.length - 1;
+		this.columns = columns;
+		this.nonzeros = (hostRowPointers.length > 0) ? hostRowPointers[rows] : 0;
+		checkSize();
+		
+		if (columnIndices.maxAllocatedSize < nonzeros || values.maxAllocatedSize < nonzeros) {
+			error("Matrix has " + nonzeros + " nonzeros, but " + columnIndices.maxAllocatedSize + " column indices and "
+					+ values.maxAllocatedSize + " values.");
+		}
+		
+		this.rowPointers = rowPointers.mem;
+		this.columnIndices = columnIndices.mem;
+		this.values = values.mem;
+		this.ownsMemory = false;
+		this.lanes = chooseAlgorithm(hostRowPointers);
+	}
+	
+	/** Return the number of rows.
+	 * @return rows
+	 */
+	public int getRows() {
+		return rows;
+	}
+	
+	/** Return the number of columns.
+	 * @return columns
+	 */
+	public int getColumns() {
+		return columns;
+	}
+	
+	/** Return the number of nonzero values.
+	 * @return nonzeros
+	 */
+	public int getNonzeros() {
+		return nonzeros;
+	}
+	
+	/** Return the kernel used by multiply(), which was chosen from the lengths of the rows.
+	 * @return The algorithm.
+	 */
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+	
+	/** Use a different kernel for multiply(), such as for comparing their speeds.
+	 * @param algorithm The algorithm.
+	 */
+	public void setAlgorithm(Algorithm algorithm) {
+		
+		if (algorithm == null) {
+			error("Argument is null");
+		}
+		
+		this.algorithm = algorithm;
+	}
+	
+	/** Compute y = A * x on the GPU.
+	 * @param x FLOAT GPUMem with an element for each column.
+	 * @param y FLOAT GPUMem to write an element for each row into. It must not be 'x'.
+	 */
+	public void multiply(GPUMem x, GPUMem y) {
+		multiply(this, 1.0f, x, 0.0f, y);
+	}
+	
+	/** Compute y = alpha * A * x + beta * y on the GPU. (y isn't read if beta is 0.)
+	 * @param alpha Scale of the product.
+	 * @param x FLOAT GPUMem with an element for each column.
+	 * @param beta Scale of the old y.
+	 * @param y FLOAT GPUMem with an element for each row, which is replaced with the result. It must not be 'x'.
+	 */
+	public void multiply(float alpha, GPUMem x, float beta, GPUMem y) {
+		multiply(this, alpha, x, beta, y);
+	}
+	
+	/** Release the memory on the GPU (except GPUMems it was built on), and make sure this matrix cannot be used again.
+	 */
+	public void dispose() {
+		if (rowPointers != null && ownsMemory) {
+			CL.clReleaseMemObject(rowPointers);
+			CL.clReleaseMemObject(columnIndices);
+			CL.clReleaseMemObject(values);
+		}
+		if (carryRows != null) {
+			CL.clReleaseMemObject(carryRows);
+			CL.clReleaseMemObject(carryValues);
+		}
+		rowPointers = null;
+		columnIndices = null;
+		values = null;
+		carryRows = null;
+		carryValues = null;
+	}
+	
+	/** Release the kernels used by sparse matrices.
+	 * They are compiled again the next time they are used.
+	 */
+	public static synchronized void disposeAll() {
+		if (scalarProgram != null) {
+			scalarProgram.dispose();
+			vectorProgram.dispose();
+			mergeProgram.dispose();
+			fixupProgram.dispose();
+			scalarProgram = null;
+			vectorProgram = null;
+			mergeProgram = null;
+			fixupProgram = null;
+		}
+	}
+	
+	// Run the kernel of the matrix
+	private static synchronized void multiply(GPUSparseMatrix matrix, float alpha, GPUMem x, float beta, GPUMem y) {
+		
+		if (matrix.rowPointers == null) {
+			error("Attempted to use a disposed GPUSparseMatrix.");
+		}
+		
+		checkVector(x, matrix.columns, "x");
+		checkVector(y, matrix.rows, "y");
+		
+		if (x.mem == y.mem) {
+			error("Cannot multiply in place. Use a different GPUMem for y.");
+		}
+		
+		if (matrix.rows == 0) {
+			return;
+		}
+		
+		getPrograms();
+		if (matrix.algorithm == Algorithm.SCALAR) {
+			setMatrixArguments(scalarProgram, matrix, x, y, alpha, beta);
+			scalarProgram.setGlobalWorkGroupSizes(matrix.rows);
+			scalarProgram.enqueueKernel(null, null);
+		} else if (matrix.algorithm == Algorithm.VECTOR) {
+			// A power of two, so each row's work items are in the same work group
+			final int maxGroupSize = Math.min(MAX_GROUP_SIZE, vectorProgram.getKernelMaxLocalWorkGroupSize());
+			long groupSize = matrix.lanes;
+			while (groupSize * 2 <= maxGroupSize) {
+				groupSize *= 2;
+			}
+			final long workItems = (long)matrix.rows * matrix.lanes;
+			setMatrixArguments(vectorProgram, matrix, x, y, alpha, beta);
+			vectorProgram.setArgument(8, matrix.lanes, GPUAccess.READ);
+			vectorProgram.setLocalArgument(9, ArrayType.FLOAT, groupSize);
+			vectorProgram.setLocalWorkGroupSizes(groupSize);
+			vectorProgram.setGlobalWorkGroupSizes((workItems + groupSize - 1) / groupSize * groupSize);
+			vectorProgram.enqueueKernel(null, null);
+		} else {
+			final int numWorkItems = (int)(((long)matrix.rows + matrix.nonzeros + MERGE_ITEMS - 1) / MERGE_ITEMS);
+			if (matrix.carryRows == null) {
+				matrix.carryRows = createBuffer(null, (long)numWorkItems * ArrayType.INT.getSize());
+				matrix.carryValues = createBuffer(null, (long)numWorkItems * ArrayType.FLOAT.getSize());
+			}
+			
+			mergeProgram.setArgumentMem(0, matrix.rowPointers);
+			mergeProgram.setArgumentMem(1, matrix.columnIndices);
+			mergeProgram.setArgumentMem(2, matrix.values);
+			mergeProgram.setArgumentMem(3, x.mem);
+			mergeProgram.setArgumentMem(4, y.mem);
+			mergeProgram.setArgument(5, matrix.rows, GPUAccess.READ);
+			mergeProgram.setArgument(6, matrix.nonzeros, GPUAccess.READ);
+			mergeProgram.setArgument(7, alpha, GPUAccess.READ);
+			mergeProgram.setArgument(8, beta, GPUAccess.READ);
+			mergeProgram.setArgument(9, MERGE_ITEMS, GPUAccess.READ);
+			mergeProgram.setArgument(10, numWorkItems, GPUAccess.READ);
+			mergeProgram.setArgumentMem(11, matrix.carryRows);
+			mergeProgram.setArgumentMem(12, matrix.carryValues);
+			mergeProgram.setGlobalWorkGroupSizes(numWorkItems);
+			mergeProgram.enqueueKernel(null, null);
+			
+			fixupProgram.setArgumentMem(0, matrix.carryRows);
+			fixupProgram.setArgumentMem(1, matrix.carryValues);
+			fixupProgram.setArgumentMem(2, y.mem);
+			fixupProgram.setArgument(3, numWorkItems, GPUAccess.READ);
+			fixupProgram.setArgument(4, alpha, GPUAccess.READ);
+			fixupProgram.setGlobalWorkGroupSizes(numWorkItems);
+			fixupProgram.enqueueKernel(null, null);
+		}
+		
+		CL.clFinish(GPUProgram.commandQueue);
+	}
+	
+	// Set the arguments shared by the scalar and vector kernels
+	private static void setMatrixArguments(GPUProgram program, GPUSparseMatrix matrix, GPUMem x, GPUMem y, float alpha, float beta) {
+		program.setArgumentMem(0, matrix.rowPointers);
+		program.setArgumentMem(1, matrix.columnIndices);
+		program.setArgumentMem(2, matrix.values);
+		program.setArgumentMem(3, x.mem);
+		program.setArgumentMem(4, y.mem);
+		program.setArgument(5, matrix.rows, GPUAccess.READ);
+		program.setArgument(6, alpha, GPUAccess.READ);
+		program.setArgument(7, beta, GPUAccess.READ);
+	}
+	
+	// Choose the kernel from the lengths of the rows, and return the work items for each row of the vector kernel.
+	// Rows much longer than average would hold up their work groups in the scalar and vector kernels.
+	private int chooseAlgorithm(int[] rowPointers) {
+		
+		if (rows > 0 && rowPointers[0] != 0) {
+			error("The first row pointer must be 0. (Got " + rowPointers[0] + ")");
+		}
+		
+		int longestRow = 0;
+		for (int i = 0; i < rows; i++) {
+			if (rowPointers[i + 1] < rowPointers[i]) {
+				error("Row pointers must not decrease. (Row " + i + " starts at " + rowPointers[i] + " and ends at " + rowPointers[i + 1] + ")");
+			}
+			longestRow = Math.max(longestRow, rowPointers[i + 1] - rowPointers[i]);
+		}
+		
+		final double averageRow = (rows > 0) ? (double)nonzeros / rows : 0;
+		int vectorLanes = 2;
+		while (vectorLanes < averageRow && vectorLanes < MAX_LANES) {
+			vectorLanes *= 2;
+		}
+		
+		if (longestRow > 32 + 16 * averageRow) {
+			algorithm = Algorithm.MERGE;
+		} else if (averageRow < 4) {
+			algorithm = Algorithm.SCALAR;
+		} else {
+			algorithm = Algorithm.VECTOR;
+		}
+		
+		return vectorLanes;
+	}
+	
+	// Check the size of the matrix
+	private void checkSize() {
+		
+		if (rows < 0 || columns <= 0) {
+			error("Matrix needs at least one row pointer and one column. (Got " + (rows + 1) + " row pointers and " + columns + " columns)");
+		}
+		
+		if ((long)rows + nonzeros > Integer.MAX_VALUE) {
+			error("Matrix is too large. (" + rows + " rows and " + nonzeros + " nonzeros)");
+		}
+	}
+	
+	// Check that a vector is a FLOAT GPUMem with at least 'size' elements
+	private static void checkVector(GPUMem vector, long size, String name) {
+		
+		if (vector == null) {
+			error("Argument is null");
+		}
+		
+		if (vector.mem == null) {
+			error("Attempted to access deallocated GPUMem object.");
+		}
+		
+		if (vector.type != ArrayType.FLOAT || vector.isImage()) {
+			error("Vector " + name + " must be a FLOAT GPUMem, not " + vector.type);
+		}
+		
+		if (vector.maxAllocatedSize < size) {
+			error("Vector " + name + " needs " + size + " elements, but only has " + vector.maxAllocatedSize);
+		}
+	}
+	
+	// Allocate memory on the GPU, copying from 'pointer' if it isn't null
+	private static cl_mem createBuffer(Pointer pointer, long bytes) {
+		GPUProgram.allocCounter++;
+		if (pointer == null) {
+			return CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_WRITE, bytes, null, null);
+		}
+		GPUProgram.copyToGPUCounter++;
+		return CL.clCreateBuffer(GPUProgram.context, CL.CL_MEM_READ_ONLY | CL.CL_MEM_COPY_HOST_PTR, bytes, pointer, null);
+	}
+	
+	// Compile the kernels the first time they're needed
+	private static void getPrograms() {
+		if (scalarProgram == null) {
+			scalarProgram = GPUProgram.fromLibrary("spmvScalar", "GPUSparseMatrix.cl", "");
+			vectorProgram = GPUProgram.fromLibrary("spmvVector", "GPUSparseMatrix.cl", "");
+			mergeProgram = GPUProgram.fromLibrary("spmvMerge", "GPUSparseMatrix.cl", "");
+			fixupProgram = GPUProgram.fromLibrary("spmvFixup", "GPUSparseMatrix.cl", "");
+		}
+	}
+	
+	// Conveniently print an error
+	private static void error(String s) {
+		new Exception(s).printStackTrace();
+		System.exit(1);
+	}
+}
@@ -0,0 +1,229 @@
+package test;
+
+import java.util.Random;
+
+import main.GPUAccess;
+import main.GPUBlas;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify matrix multiplication with the GPUProgram library.
+ */
+
+public class GPUBlasTest {
+	
+	static private int testsFailed = 0;
+	static private Random random = new Random(5);
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		//* GEMM in every layout and transpose, with sizes that aren't multiples of any tile size (32, 16, or 8)
+		final int[][] gemmSizes = {{37, 53, 29}, {130, 70, 301}, {1, 9, 1}};
+		for (int s = 0; s < gemmSizes.length; s++) {
+			for (int layout = 0; layout < 2; layout++) {
+				for (int trans = 0; trans < 4; trans++) {
+					final int m = gemmSizes[s][0];
+					final int n = gemmSizes[s][1];
+					final int k = gemmSizes[s][2];
+					final boolean columnMajor = (layout == 1);
+					final boolean transA = (trans & 1) != 0;
+					final boolean transB = (trans & 2) != 0;
+					check("GEMM " + m + "x" + n + "x" + k + (columnMajor ? " column-major" : " row-major")
+							+ (transA ? ", A^T" : "") + (transB ? ", B^T" : "") + ", wrong", 0,
+							gemmWrong(columnMajor, transA, transB, m, n, k, 3));
+				}
+			}
+		}
+		
+		// With beta 0, C isn't read, so NaNs in C don't matter
+		check("GEMM with beta 0 over NaNs, wrong", 0, gemmWrongOverNaN(45, 33, 17));
+		print("----------------------\n");
+		//*/
+		
+		
+		//* GEMV in every layout and transpose
+		final int[][] gemvSizes = {{45, 77}, {300, 5}, {1, 1}};
+		for (int s = 0; s < gemvSizes.length; s++) {
+			for (int layout = 0; layout < 2; layout++) {
+				for (int trans = 0; trans < 2; trans++) {
+					final int m = gemvSizes[s][0];
+					final int n = gemvSizes[s][1];
+					final boolean columnMajor = (layout == 1);
+					final boolean transA = (trans == 1);
+					check("GEMV " + m + "x" + n + (columnMajor ? " column-major" : " row-major")
+							+ (transA ? ", A^T" : "") + ", wrong", 0, gemvWrong(columnMajor, transA, m, n, 5));
+				}
+			}
+		}
+		print("----------------------");
+		//*/
+		
+		GPUBlas.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Run GEMM on random matrices (with leading dimensions 'pad' larger than needed), and count the elements
+	// of C that aren't close to the CPU
+	static int gemmWrong(boolean columnMajor, boolean transA, boolean transB, int m, int n, int k, int pad) {
+		
+		final double alpha = 1.5;
+		final double beta = 0.5;
+		
+		// A is stored as m x k (k x m if transposed), B as k x n (n x k if transposed), and C as m x n
+		final int lda = (columnMajor ? (transA ? k : m) : (transA ? m : k)) + pad;
+		final int ldb = (columnMajor ? (transB ? n : k) : (transB ? k : n)) + pad;
+		final int ldc = (columnMajor ? m : n) + pad;
+		float[] a = randomMatrix((columnMajor ? (transA ? m : k) : (transA ? k : m)) * lda);
+		float[] b = randomMatrix((columnMajor ? (transB ? k : n) : (transB ? n : k)) * ldb);
+		float[] c = randomMatrix((columnMajor ? n : m) * ldc);
+		float[] original = c.clone();
+		
+		GPUMem aMem = GPUProgram.copyArrayToGPU(a, GPUAccess.READ);
+		GPUMem bMem = GPUProgram.copyArrayToGPU(b, GPUAccess.READ);
+		GPUMem cMem = GPUProgram.copyArrayToGPU(c, GPUAccess.READ_WRITE);
+		GPUBlas.gemm(columnMajor, transA, transB, m, n, k, alpha, aMem, lda, bMem, ldb, beta, cMem, ldc);
+		GPUProgram.copyArrayToCPU(cMem);
+		aMem.dispose();
+		bMem.dispose();
+		cMem.dispose();
+		
+		int wrong = 0;
+		for (int i = 0; i < m; i++) {
+			for (int j = 0; j < n; j++) {
+				double sum = 0;
+				double magnitude = 0;
+				for (int p = 0; p < k; p++) {
+					final double product = (double)get(a, columnMajor, lda, transA ? p : i, transA ? i : p)
+							* get(b, columnMajor, ldb, transB ? j : p, transB ? p : j);
+					sum += product;
+					magnitude += Math.abs(product);
+				}
+				final int index = columnMajor ? j * ldc + i : i * ldc + j;
+				final double expected = alpha * sum + beta * original[index];
+				if (!(Math.abs(c[index] - expected) <= 1e-4 * (Math.abs(alpha) * magnitude + Math.abs(beta * original[index])) + 1e-6)) {
+					wrong++;
+				}
+			}
+		}
+		
+		// The padding between rows (or columns) is left alone
+		for (int i = 0; i < c.length; i++) {
+			final int inner = i % ldc;
+			if (inner >= (columnMajor ? m : n) && c[i] != original[i]) {
+				wrong++;
+			}
+		}
+		return wrong;
+	}
+	
+	// Run row-major GEMM with beta 0 into a C full of NaNs, and count the elements of C that aren't close to the CPU
+	static int gemmWrongOverNaN(int m, int n, int k) {
+		float[] a = randomMatrix(m * k);
+		float[] b = randomMatrix(k * n);
+		float[] c = new float[m * n];
+		for (int i = 0; i < c.length; i++) {
+			c[i] = Float.NaN;
+		}
+		
+		GPUMem aMem = GPUProgram.copyArrayToGPU(a, GPUAccess.READ);
+		GPUMem bMem = GPUProgram.copyArrayToGPU(b, GPUAccess.READ);
+		GPUMem cMem = GPUProgram.copyArrayToGPU(c, GPUAccess.READ_WRITE);
+		GPUBlas.gemm(false, false, false, m, n, k, 1, aMem, k, bMem, n, 0, cMem, n);
+		GPUProgram.copyArrayToCPU(cMem);
+		aMem.dispose();
+		bMem.dispose();
+		cMem.dispose();
+		
+		int wrong = 0;
+		for (int i = 0; i < m; i++) {
+			for (int j = 0; j < n; j++) {
+				double sum = 0;
+				double magnitude = 0;
+				for (int p = 0; p < k; p++) {
+					sum += (double)a[i * k + p] * b[p * n + j];
+					magnitude += Math.abs((double)a[i * k + p] * b[p * n + j]);
+				}
+				if (!(Math.abs(c[i * n + j] - sum) <= 1e-4 * magnitude + 1e-6)) {
+					wrong++;
+				}
+			}
+		}
+		return wrong;
+	}
+	
+	// Run GEMV on a random matrix (with a leading dimension 'pad' larger than needed) and vector, and count
+	// the elements of y that aren't close to the CPU
+	static int gemvWrong(boolean columnMajor, boolean transA, int m, int n, int pad) {
+		
+		final double alpha = -2;
+		final double beta = 0.25;
+		final int lda = (columnMajor ? m : n) + pad;
+		final int xLength = transA ? m : n;
+		final int yLength = transA ? n : m;
+		float[] a = randomMatrix((columnMajor ? n : m) * lda);
+		float[] x = randomMatrix(xLength);
+		float[] y = randomMatrix(yLength);
+		float[] original = y.clone();
+		
+		GPUMem aMem = GPUProgram.copyArrayToGPU(a, GPUAccess.READ);
+		GPUMem xMem = GPUProgram.copyArrayToGPU(x, GPUAccess.READ);
+		GPUMem yMem = GPUProgram.copyArrayToGPU(y, GPUAccess.READ_WRITE);
+		GPUBlas.gemv(columnMajor, transA, m, n, alpha, aMem, lda, xMem, beta, yMem);
+		GPUProgram.copyArrayToCPU(yMem);
+		aMem.dispose();
+		xMem.dispose();
+		yMem.dispose();
+		
+		int wrong = 0;
+		for (int i = 0; i < yLength; i++) {
+			double sum = 0;
+			double magnitude = 0;
+			for (int j = 0; j < xLength; j++) {
+				final double product = (double)get(a, columnMajor, lda, transA ? j : i, transA ? i : j) * x[j];
+				sum += product;
+				magnitude += Math.abs(product);
+			}
+			final double expected = alpha * sum + beta * original[i];
+			if (!(Math.abs(y[i] - expected) <= 1e-4 * (Math.abs(alpha) * magnitude + Math.abs(beta * original[i])) + 1e-6)) {
+				wrong++;
+			}
+		}
+		return wrong;
+	}
+	
+	// Return the element at a row and column of a stored matrix
+	static float get(float[] matrix, boolean columnMajor, int ld, int row, int column) {
+		return columnMajor ? matrix[column * ld + row] : matrix[row * ld + column];
+	}
+	
+	// Return random numbers between -1 and 1
+	static float[] randomMatrix(int length) {
+		float[] matrix = new float[length];
+		for (int i = 0; i < length; i++) {
+			matrix[i] = random.nextFloat() * 2 - 1;
+		}
+		return matrix;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
@@ -0,0 +1,316 @@
+package test;
+
+import java.util.Arrays;
+
+import main.GPUAccess;
+import main.GPUColumns;
+import main.GPUExpression;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify relational operators on columns with the GPUProgram library.
+ */
+
+public class GPUColumnsTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int n = 1000000;
+		final int keyRange = 10000;
+		
+		int[] keys = new int[n];
+		int[] ints = new int[n];
+		float[] floats = new float[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = (int)(Math.random() * keyRange) - keyRange / 2;
+			ints[i] = (int)(Math.random() * 2000) - 1000;
+			floats[i] = (float)(Math.random() * 200 - 100);
+		}
+		
+		GPUMem keysMem = GPUProgram.copyArrayToGPU(keys, GPUAccess.READ);
+		GPUMem intsMem = GPUProgram.copyArrayToGPU(ints, GPUAccess.READ);
+		GPUMem floatsMem = GPUProgram.copyArrayToGPU(floats, GPUAccess.READ);
+		int[] groupIds = new int[n];
+		int[] groupKeys = new int[n];
+		GPUMem groupIdsMem = GPUProgram.allocateMemoryOnGPU(groupIds, GPUAccess.READ_WRITE, false);
+		GPUMem groupKeysMem = GPUProgram.allocateMemoryOnGPU(groupKeys, GPUAccess.READ_WRITE, false);
+		
+		//* Filter the rows with ints > 500, then gather their floats
+		int[] selection = new int[n];
+		GPUMem selectionMem = GPUProgram.allocateMemoryOnGPU(selection, GPUAccess.READ_WRITE, false);
+		final int count = GPUColumns.filter(GPUExpression.of(intsMem).greaterThan(500), selectionMem);
+		GPUProgram.copyArrayToCPU(selectionMem);
+		
+		int expectedCount = 0;
+		int wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (ints[i] > 500) {
+				if (expectedCount >= count || selection[expectedCount] != i) {
+					wrong++;
+				}
+				expectedCount++;
+			}
+		}
+		check("filtered rows", expectedCount, count);
+		check("wrong selected rows", 0, wrong);
+		
+		float[] gathered = new float[n];
+		GPUMem gatheredMem = GPUProgram.allocateMemoryOnGPU(gathered, GPUAccess.READ_WRITE, false);
+		GPUColumns.gather(floatsMem, selectionMem, count, gatheredMem);
+		GPUProgram.copyArrayToCPU(gatheredMem);
+		wrong = 0;
+		for (int i = 0; i < count; i++) {
+			if (gathered[i] != floats[selection[i]]) {
+				wrong++;
+			}
+		}
+		check("wrong gathered rows", 0, wrong);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Group by hashing, then aggregate against the same groups on the CPU
+		boolean[] present = new boolean[keyRange];
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (!present[keys[i] + keyRange / 2]) {
+				present[keys[i] + keyRange / 2] = true;
+				distinct++;
+			}
+		}
+		
+		int groups = GPUColumns.groupBy(keysMem, GPUColumns.Grouping.HASH, groupIdsMem, groupKeysMem);
+		GPUProgram.copyArrayToCPU(groupIdsMem);
+		GPUProgram.copyArrayToCPU(groupKeysMem);
+		check("hash groups", distinct, groups);
+		check("rows in the wrong hash group", 0, countWrongGroups(keys, groupIds, groupKeys, groups));
+		checkAggregates("hash", groupIdsMem, groupIds, groups, intsMem, ints, floatsMem, floats);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Group by sorting, which numbers the groups in ascending order of key
+		groups = GPUColumns.groupBy(keysMem, GPUColumns.Grouping.SORT, groupIdsMem, groupKeysMem);
+		GPUProgram.copyArrayToCPU(groupIdsMem);
+		GPUProgram.copyArrayToCPU(groupKeysMem);
+		check("sort groups", distinct, groups);
+		check("rows in the wrong sort group", 0, countWrongGroups(keys, groupIds, groupKeys, groups));
+		
+		int[] sortedKeys = new int[distinct];
+		int next = 0;
+		for (int i = 0; i < keyRange; i++) {
+			if (present[i]) {
+				sortedKeys[next++] = i - keyRange / 2;
+			}
+		}
+		check("sort group keys in order", 1, Arrays.equals(sortedKeys, Arrays.copyOf(groupKeys, groups)) ? 1 : 0);
+		checkAggregates("sort", groupIdsMem, groupIds, groups, intsMem, ints, floatsMem, floats);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Every row in one group, so every work group combines into the same result
+		int[] sameKeys = new int[n];
+		Arrays.fill(sameKeys, 42);
+		GPUMem sameKeysMem = GPUProgram.copyArrayToGPU(sameKeys, GPUAccess.READ);
+		
+		GPUColumns.Grouping[] groupings = GPUColumns.Grouping.values();
+		for (int g = 0; g < groupings.length; g++) {
+			groups = GPUColumns.groupBy(sameKeysMem, groupings[g], groupIdsMem, groupKeysMem);
+			GPUProgram.copyArrayToCPU(groupIdsMem);
+			GPUProgram.copyArrayToCPU(groupKeysMem);
+			check(groupings[g] + " groups of one key", 1, groups);
+			check(groupings[g] + " rows in the wrong group of one key", 0, countWrongGroups(sameKeys, groupIds, groupKeys, groups));
+			checkAggregates(groupings[g] + " one key", groupIdsMem, groupIds, groups, intsMem, ints, floatsMem, floats);
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* No rows selected
+		// (A column always has at least one row, since a GPURange can't be empty, so no rows is an empty selection.)
+		check("rows selected by a false predicate", 0, GPUColumns.filter(GPUExpression.of(intsMem).greaterThan(1000), selectionMem));
+		
+		Arrays.fill(gathered, -1);
+		GPUProgram.copyArrayToGPU(gathered, gatheredMem);
+		GPUColumns.gather(floatsMem, selectionMem, 0, gatheredMem);
+		GPUProgram.copyArrayToCPU(gatheredMem);
+		check("gathered elements changed", 0, n - countEqual(gathered, -1));
+		
+		int[] untouched = new int[16];
+		Arrays.fill(untouched, 7);
+		GPUMem untouchedMem = GPUProgram.copyArrayToGPU(untouched, GPUAccess.READ_WRITE);
+		GPUColumns.aggregate(groupIdsMem, intsMem, 0, GPUColumns.Aggregate.SUM, untouchedMem);
+		GPUColumns.topK(intsMem, 0, untouchedMem);
+		GPUProgram.copyArrayToCPU(untouchedMem);
+		check("results changed by 0 groups or 0 top rows", 0, 16 - countEqual(untouched, 7));
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Top k rows of a column, with ties in descending order of row index
+		final int k = 1000;
+		long[] ordered = new long[n];
+		for (int i = 0; i < n; i++) {
+			ordered[i] = ((long)ints[i] << 32) | i;
+		}
+		Arrays.sort(ordered);
+		
+		int[] top = new int[k];
+		GPUMem topMem = GPUProgram.allocateMemoryOnGPU(top, GPUAccess.READ_WRITE, false);
+		GPUColumns.topK(intsMem, k, topMem);
+		GPUProgram.copyArrayToCPU(topMem);
+		wrong = 0;
+		for (int i = 0; i < k; i++) {
+			if (top[i] != (int)ordered[n - 1 - i]) {
+				wrong++;
+			}
+		}
+		check("wrong top rows", 0, wrong);
+		//*/
+		
+		keysMem.dispose();
+		intsMem.dispose();
+		floatsMem.dispose();
+		groupIdsMem.dispose();
+		groupKeysMem.dispose();
+		selectionMem.dispose();
+		gatheredMem.dispose();
+		sameKeysMem.dispose();
+		untouchedMem.dispose();
+		topMem.dispose();
+		GPUColumns.dispose();
+		GPUExpression.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Count the rows whose group doesn't have the row's key
+	static int countWrongGroups(int[] keys, int[] groupIds, int[] groupKeys, int groups) {
+		int wrong = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (groupIds[i] < 0 || groupIds[i] >= groups || groupKeys[groupIds[i]] != keys[i]) {
+				wrong++;
+			}
+		}
+		return wrong;
+	}
+	
+	// Compare every aggregate of the GPU groups with the same aggregate on the CPU
+	static void checkAggregates(String name, GPUMem groupIdsMem, int[] groupIds, int groups, GPUMem intsMem, int[] ints,
+			GPUMem floatsMem, float[] floats) {
+		
+		int[] counts = new int[groups];
+		int[] sums = new int[groups];
+		int[] maxes = new int[groups];
+		float[] mins = new float[groups];
+		double[] floatSums = new double[groups];
+		Arrays.fill(maxes, Integer.MIN_VALUE);
+		Arrays.fill(mins, Float.POSITIVE_INFINITY);
+		for (int i = 0; i < groupIds.length; i++) {
+			final int g = groupIds[i];
+			counts[g]++;
+			sums[g] += ints[i];
+			maxes[g] = Math.max(maxes[g], ints[i]);
+			mins[g] = Math.min(mins[g], floats[i]);
+			floatSums[g] += floats[i];
+		}
+		
+		int[] intResults = new int[groups];
+		float[] floatResults = new float[groups];
+		GPUMem intResultsMem = GPUProgram.allocateMemoryOnGPU(intResults, GPUAccess.READ_WRITE, false);
+		GPUMem floatResultsMem = GPUProgram.allocateMemoryOnGPU(floatResults, GPUAccess.READ_WRITE, false);
+		
+		GPUColumns.aggregate(groupIdsMem, null, groups, GPUColumns.Aggregate.COUNT, intResultsMem);
+		GPUProgram.copyArrayToCPU(intResultsMem);
+		check(name + " COUNT wrong groups", 0, groups - countEqual(counts, intResults));
+		
+		GPUColumns.aggregate(groupIdsMem, intsMem, groups, GPUColumns.Aggregate.SUM, intResultsMem);
+		GPUProgram.copyArrayToCPU(intResultsMem);
+		check(name + " SUM wrong groups", 0, groups - countEqual(sums, intResults));
+		
+		GPUColumns.aggregate(groupIdsMem, intsMem, groups, GPUColumns.Aggregate.MAX, intResultsMem);
+		GPUProgram.copyArrayToCPU(intResultsMem);
+		check(name + " MAX wrong groups", 0, groups - countEqual(maxes, intResults));
+		
+		GPUColumns.aggregate(groupIdsMem, floatsMem, groups, GPUColumns.Aggregate.MIN, floatResultsMem);
+		GPUProgram.copyArrayToCPU(floatResultsMem);
+		int wrong = 0;
+		for (int g = 0; g < groups; g++) {
+			if (mins[g] != floatResults[g]) {
+				wrong++;
+			}
+		}
+		check(name + " MIN wrong groups", 0, wrong);
+		
+		// Float sums are added in no particular order, so compare within a tolerance
+		GPUColumns.aggregate(groupIdsMem, floatsMem, groups, GPUColumns.Aggregate.AVG, floatResultsMem);
+		GPUProgram.copyArrayToCPU(floatResultsMem);
+		wrong = 0;
+		for (int g = 0; g < groups; g++) {
+			if (!(Math.abs(floatSums[g] / counts[g] - floatResults[g]) <= 1e-3)) {
+				wrong++;
+			}
+		}
+		check(name + " AVG wrong groups", 0, wrong);
+		
+		intResultsMem.dispose();
+		floatResultsMem.dispose();
+	}
+	
+	// Count the elements that are the same in both arrays
+	static int countEqual(int[] expected, int[] actual) {
+		int equal = 0;
+		for (int i = 0; i < expected.length; i++) {
+			if (expected[i] == actual[i]) {
+				equal++;
+			}
+		}
+		return equal;
+	}
+	
+	// Count the elements equal to a value
+	static int countEqual(int[] array, int value) {
+		int equal = 0;
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == value) {
+				equal++;
+			}
+		}
+		return equal;
+	}
+	
+	// Count the elements equal to a value
+	static int countEqual(float[] array, float value) {
+		int equal = 0;
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == value) {
+				equal++;
+			}
+		}
+		return equal;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
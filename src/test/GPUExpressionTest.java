@@ -0,0 +1,216 @@
+package test;
+
+import java.util.Random;
+
+import main.GPUAccess;
+import main.GPUExpression;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify element-wise expressions with the GPUProgram library.
+ */
+
+public class GPUExpressionTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int n = 100000;
+		Random random = new Random(11);
+		
+		// Ints above 2^24, which floats can't hold exactly, and small floats
+		int[] a = new int[n];
+		int[] b = new int[n];
+		float[] f = new float[n];
+		for (int i = 0; i < n; i++) {
+			a[i] = (1 << 24) + random.nextInt(1 << 28);
+			b[i] = random.nextInt(2001) - 1000;
+			f[i] = random.nextFloat() * 2000 - 1000;
+		}
+		a[0] = 16777217;
+		a[1] = 16777216;
+		
+		//* Expressions of ints are computed in ints
+		int[] ints = new int[n];
+		GPUExpression.of(a).add(GPUExpression.of(b)).evaluate(ints);
+		int wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (ints[i] != a[i] + b[i]) {
+				wrong++;
+			}
+		}
+		check("wrong a + b", 0, wrong);
+		
+		GPUExpression.of(a).multiply(GPUExpression.of(b)).subtract(7).max(GPUExpression.of(b).abs().negate()).evaluate(ints);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (ints[i] != Math.max(a[i] * b[i] - 7, -Math.abs(b[i]))) {
+				wrong++;
+			}
+		}
+		check("wrong max(a * b - 7, -abs(b)) (wrapping around like Java)", 0, wrong);
+		
+		GPUExpression.of(a).isEqual(16777217).evaluate(ints);
+		int equal = 0;
+		for (int i = 0; i < n; i++) {
+			equal += ints[i];
+		}
+		int expectedEqual = 0;
+		for (int i = 0; i < n; i++) {
+			expectedEqual += (a[i] == 16777217) ? 1 : 0;
+		}
+		check("elements equal to 16777217", expectedEqual, equal);
+		check("16777216 isn't equal to 16777217", 0, ints[1]);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Mixed types, divide, and select are computed in floats
+		float[] floats = new float[n];
+		GPUExpression.of(b).add(GPUExpression.of(f)).evaluate(floats);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (floats[i] != b[i] + f[i]) {
+				wrong++;
+			}
+		}
+		check("wrong b + f", 0, wrong);
+		
+		GPUExpression.of(b).divide(8).evaluate(floats);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (!isClose(b[i] / 8.0f, floats[i])) {
+				wrong++;
+			}
+		}
+		check("wrong b / 8 (not rounded to an int)", 0, wrong);
+		
+		GPUExpression x = GPUExpression.of(b);
+		GPUExpression y = GPUExpression.of(f);
+		GPUExpression.select(x.greaterThan(y), x.multiply(2), y.multiply(0.5)).evaluate(floats);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (floats[i] != (b[i] > f[i] ? b[i] * 2.0f : f[i] * 0.5f)) {
+				wrong++;
+			}
+		}
+		check("wrong select(b > f, b * 2, f * 0.5)", 0, wrong);
+		
+		// A select of ints stays exact, even with a float condition
+		GPUExpression.select(y.lessThan(0), GPUExpression.of(a), GPUExpression.of(a).add(1)).evaluate(ints);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (ints[i] != (f[i] < 0 ? a[i] : a[i] + 1)) {
+				wrong++;
+			}
+		}
+		check("wrong select(f < 0, a, a + 1)", 0, wrong);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Inputs used more than once are only passed once
+		GPUProgram.resetDebugCounters();
+		GPUExpression z = GPUExpression.of(f);
+		z.multiply(z).add(z).evaluate(floats);
+		check("copies to the GPU of an array used three times", 1, GPUProgram.copyToGPUCounter);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (!isClose(f[i] * f[i] + f[i], floats[i])) {
+				wrong++;
+			}
+		}
+		check("wrong f * f + f", 0, wrong);
+		
+		// Two expressions of the same GPUMem, written back into it
+		GPUMem fMem = GPUProgram.copyArrayToGPU(f.clone(), GPUAccess.READ_WRITE);
+		GPUExpression.of(fMem).subtract(GPUExpression.of(fMem).floor()).evaluate(fMem);
+		GPUProgram.copyArrayToCPU(fMem, floats);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (floats[i] != f[i] - (float)Math.floor(f[i])) {
+				wrong++;
+			}
+		}
+		check("wrong f - floor(f), in place", 0, wrong);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* The same shape with other constants and inputs uses the cached kernel, so each constant must still be used
+		for (int c = -3; c <= 3; c++) {
+			GPUExpression.of(b).multiply(c).add(GPUExpression.of(a)).evaluate(ints);
+			wrong = 0;
+			for (int i = 0; i < n; i++) {
+				if (ints[i] != b[i] * c + a[i]) {
+					wrong++;
+				}
+			}
+			check("wrong b * " + c + " + a", 0, wrong);
+		}
+		
+		// A fraction instead of a whole number is a new shape
+		GPUExpression.of(b).multiply(0.25).add(GPUExpression.of(f)).evaluate(floats);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (floats[i] != b[i] * 0.25f + f[i]) {
+				wrong++;
+			}
+		}
+		check("wrong b * 0.25 + f", 0, wrong);
+		
+		// More shapes than the cache keeps, then the first shape again
+		wrong = 0;
+		for (int s = 0; s < 70; s++) {
+			GPUExpression e = GPUExpression.of(b);
+			for (int j = 0; j < s; j++) {
+				e = e.add(1);
+			}
+			e.evaluate(ints);
+			if (ints[n - 1] != b[n - 1] + s) {
+				wrong++;
+			}
+		}
+		GPUExpression.of(b).multiply(5).add(GPUExpression.of(a)).evaluate(ints);
+		for (int i = 0; i < n; i++) {
+			if (ints[i] != b[i] * 5 + a[i]) {
+				wrong++;
+			}
+		}
+		check("wrong results after replacing cached kernels", 0, wrong);
+		print("----------------------");
+		//*/
+		
+		fMem.dispose();
+		GPUExpression.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Whether a float is within rounding of the CPU (divides and fused multiply-adds may round differently)
+	static boolean isClose(float expected, float actual) {
+		return Math.abs(expected - actual) <= 1e-6f * Math.abs(expected) + 1e-6f;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
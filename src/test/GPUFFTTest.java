@@ -0,0 +1,201 @@
+package test;
+
+import java.util.Random;
+
+import main.GPUAccess;
+import main.GPUFFT;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify fast Fourier transforms with the GPUProgram library.
+ */
+
+public class GPUFFTTest {
+	
+	static private int testsFailed = 0;
+	static private Random random = new Random(9);
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		// Powers of 4 (radix-4 passes only), powers of 2 that aren't (with one radix-2 pass), and one of 2s, 3s, and 5s
+		final int[] sizes = {4, 16, 256, 1024, 2, 8, 32, 2048, 60};
+		final int batch = 3;
+		
+		//* Complex transforms against a DFT on the CPU, and back again
+		for (int s = 0; s < sizes.length; s++) {
+			final int n = sizes[s];
+			float[] original = randomData(2 * n * batch);
+			float[] data = original.clone();
+			GPUMem dataMem = GPUProgram.copyArrayToGPU(data, GPUAccess.READ_WRITE);
+			GPUFFT plan = new GPUFFT(n);
+			
+			plan.forward(dataMem, batch);
+			GPUProgram.copyArrayToCPU(dataMem);
+			check("forward of " + n + ", wrong", 0, countWrong(dft(original, n, 1, batch, -1), data, n));
+			
+			// The inverse of the forward transform is the original data
+			plan.inverse(dataMem, batch);
+			GPUProgram.copyArrayToCPU(dataMem);
+			check("round trip of " + n + ", wrong", 0, countWrong(toDouble(original), data, 1));
+			
+			// The inverse alone, scaled by 1 / n
+			System.arraycopy(original, 0, data, 0, data.length);
+			GPUProgram.copyArrayToGPU(dataMem);
+			plan.inverse(dataMem, batch);
+			GPUProgram.copyArrayToCPU(dataMem);
+			check("inverse of " + n + ", wrong", 0, countWrong(dft(original, n, 1, batch, 1), data, 1));
+			
+			plan.dispose();
+			dataMem.dispose();
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Real transforms against a DFT on the CPU
+		for (int s = 0; s < sizes.length; s++) {
+			final int n = sizes[s];
+			float[] real = randomData(n * batch);
+			float[] complex = new float[2 * n * batch];
+			for (int i = 0; i < n * batch; i++) {
+				complex[2 * i] = real[i];
+			}
+			double[] expected = dft(complex, n, 1, batch, -1);
+			
+			float[] output = new float[2 * (n / 2 + 1) * batch];
+			GPUMem realMem = GPUProgram.copyArrayToGPU(real, GPUAccess.READ);
+			GPUMem outputMem = GPUProgram.allocateMemoryOnGPU(output, GPUAccess.READ_WRITE, true);
+			GPUFFT.getPlan(n, 1).forwardReal(realMem, outputMem, batch);
+			GPUProgram.copyArrayToCPU(outputMem);
+			
+			// Only the first n / 2 + 1 outputs of each frame are written
+			double[] half = new double[output.length];
+			for (int f = 0; f < batch; f++) {
+				System.arraycopy(expected, 2 * n * f, half, 2 * (n / 2 + 1) * f, 2 * (n / 2 + 1));
+			}
+			check("real forward of " + n + ", wrong", 0, countWrong(half, output, n));
+			
+			realMem.dispose();
+			outputMem.dispose();
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* 2D transforms, with rows and columns of different sizes
+		final int width = 64;
+		final int height = 32;
+		float[] original = randomData(2 * width * height * batch);
+		float[] data = original.clone();
+		GPUMem dataMem = GPUProgram.copyArrayToGPU(data, GPUAccess.READ_WRITE);
+		GPUFFT plan = new GPUFFT(width, height);
+		plan.forward(dataMem, batch);
+		GPUProgram.copyArrayToCPU(dataMem);
+		check("2D forward of " + width + "x" + height + ", wrong", 0,
+				countWrong(dft(original, width, height, batch, -1), data, width * height));
+		
+		plan.inverse(dataMem, batch);
+		GPUProgram.copyArrayToCPU(dataMem);
+		check("2D round trip of " + width + "x" + height + ", wrong", 0, countWrong(toDouble(original), data, 1));
+		print("----------------------");
+		//*/
+		
+		plan.dispose();
+		dataMem.dispose();
+		GPUFFT.disposeAll();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Transform interleaved complex frames of width x height on the CPU, one row and then one column at a time,
+	// by the definition of the DFT (sign -1 for forward, or +1 for inverse, which is scaled by 1 / (width * height))
+	static double[] dft(float[] data, int width, int height, int batch, int sign) {
+		double[] result = toDouble(data);
+		for (int f = 0; f < batch; f++) {
+			final int frame = 2 * width * height * f;
+			for (int y = 0; y < height; y++) {
+				dft1D(result, frame + 2 * width * y, 2, width, sign);
+			}
+			for (int x = 0; x < width && height > 1; x++) {
+				dft1D(result, frame + 2 * x, 2 * width, height, sign);
+			}
+		}
+		
+		if (sign > 0) {
+			for (int i = 0; i < result.length; i++) {
+				result[i] /= (double)width * height;
+			}
+		}
+		return result;
+	}
+	
+	// Transform n complex numbers in place, starting at 'start' and 'stride' doubles apart
+	static void dft1D(double[] data, int start, int stride, int n, int sign) {
+		double[] out = new double[2 * n];
+		for (int k = 0; k < n; k++) {
+			for (int j = 0; j < n; j++) {
+				final double angle = sign * 2 * Math.PI * ((long)j * k % n) / n;
+				final double re = data[start + stride * j];
+				final double im = data[start + stride * j + 1];
+				out[2 * k] += re * Math.cos(angle) - im * Math.sin(angle);
+				out[2 * k + 1] += re * Math.sin(angle) + im * Math.cos(angle);
+			}
+		}
+		for (int k = 0; k < n; k++) {
+			data[start + stride * k] = out[2 * k];
+			data[start + stride * k + 1] = out[2 * k + 1];
+		}
+	}
+	
+	// Count the results that aren't close to the CPU. Rounding errors grow with the square root of the number of
+	// elements summed into each output ('terms') times the passes, so the tolerance does too.
+	static int countWrong(double[] expected, float[] actual, int terms) {
+		final double tolerance = 1e-5 * Math.sqrt(terms) * (1 + Math.log(terms) / Math.log(2)) + 1e-5;
+		int wrong = 0;
+		for (int i = 0; i < expected.length; i++) {
+			if (!(Math.abs(expected[i] - actual[i]) <= tolerance)) {
+				wrong++;
+			}
+		}
+		return wrong;
+	}
+	
+	// Return a copy of a float array as doubles
+	static double[] toDouble(float[] data) {
+		double[] result = new double[data.length];
+		for (int i = 0; i < data.length; i++) {
+			result[i] = data[i];
+		}
+		return result;
+	}
+	
+	// Return random numbers between -1 and 1
+	static float[] randomData(int length) {
+		float[] data = new float[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = random.nextFloat() * 2 - 1;
+		}
+		return data;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
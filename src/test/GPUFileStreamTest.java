@@ -0,0 +1,145 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import main.ArrayType;
+import main.GPUAccess;
+import main.GPUFileStream;
+import main.GPUProgram;
+import main.GPURange;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify streaming files through kernels with the GPUProgram library.
+ */
+
+public class GPUFileStreamTest {
+	
+	static private int testsFailed = 0;
+	
+	// Scale each element of the window, and add its index in the file
+	static private final String SCALE_SOURCE =
+			"kernel void scale(global const float *in, global float *out, const float factor) {\n"
+			+ "	const int i = get_global_id(0) - get_global_offset(0);\n"
+			+ "	out[i] = in[i] * factor + (float)get_global_id(0);\n"
+			+ "}";
+	
+	public static void main(String[] args) throws IOException {
+		
+		GPUProgram.initializeGPU();
+		
+		// Windows that don't divide the file, so the last window is shorter (and odd)
+		final int n = 1000003;
+		final int window = 65536;
+		final float factor = 3;
+		float[] values = new float[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = (float)(Math.random() * 2 - 1);
+		}
+		
+		File input = File.createTempFile("GPUFileStreamTest", ".in");
+		File output = File.createTempFile("GPUFileStreamTest", ".out");
+		File empty = File.createTempFile("GPUFileStreamTest", ".empty");
+		input.deleteOnExit();
+		output.deleteOnExit();
+		empty.deleteOnExit();
+		writeFloats(input, values);
+		
+		GPUProgram scale = GPUProgram.fromSource("scale", SCALE_SOURCE, null);
+		scale.setArgument(2, factor, GPUAccess.READ);
+		
+		//* Stream the whole file
+		GPUFileStream stream = new GPUFileStream(input.getPath(), ArrayType.FLOAT, window);
+		stream.setOutputFile(output.getPath(), ArrayType.FLOAT);
+		check("elements in the file", n, stream.getElementCount());
+		stream.process(scale, 0, 1);
+		
+		float[] results = readFloats(output);
+		check("elements in the output file", n, results.length);
+		check("elements wrong", 0, countWrong(values, 0, results, factor));
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Stream part of the file, starting and ending inside windows
+		final int start = window / 2 + 1;
+		final int end = n - 17;
+		stream.process(scale, 0, 1, new GPURange(start, end));
+		
+		results = readFloats(output);
+		check("elements in the output file of the range", end - start, results.length);
+		check("elements of the range wrong", 0, countWrong(values, start, results, factor));
+		print("----------------------\n");
+		//*/
+		
+		
+		//* An empty file runs nothing, and empties the output file
+		GPUFileStream emptyStream = new GPUFileStream(empty.getPath(), ArrayType.FLOAT, window);
+		emptyStream.setOutputFile(output.getPath(), ArrayType.FLOAT);
+		check("elements in the empty file", 0, emptyStream.getElementCount());
+		emptyStream.process(scale, 0, 1);
+		check("bytes in the output file of the empty file", 0, output.length());
+		print("----------------------");
+		//*/
+		
+		scale.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Write floats to a file in little-endian order, as the GPU reads them
+	static void writeFloats(File file, float[] values) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asFloatBuffer().put(values);
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		out.setLength(0);
+		out.write(buffer.array());
+		out.close();
+	}
+	
+	// Read a file of little-endian floats
+	static float[] readFloats(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		byte[] bytes = new byte[(int)in.length()];
+		in.readFully(bytes);
+		in.close();
+		
+		float[] values = new float[bytes.length / 4];
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+		return values;
+	}
+	
+	// Count the results that don't match the kernel on the CPU, for elements of the file from 'start'
+	// (The kernel may fuse the multiply and add, so compare within rounding)
+	static int countWrong(float[] values, int start, float[] results, float factor) {
+		int wrong = 0;
+		for (int i = 0; i < results.length; i++) {
+			final float expected = values[start + i] * factor + (float)(start + i);
+			if (!(Math.abs(results[i] - expected) <= 1e-6f * Math.abs(expected) + 1e-6f)) {
+				wrong++;
+			}
+		}
+		return wrong;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
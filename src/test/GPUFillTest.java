@@ -0,0 +1,125 @@
+package test;
+
+import main.GPUAccess;
+import main.GPUFill;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify fills, ranges, and random numbers with the GPUProgram library.
+ */
+
+public class GPUFillTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int N = 1000000;
+		
+		int[] ints = new int[N];
+		float[] floats = new float[N];
+		float[] shifted = new float[N];
+		GPUMem intMem = GPUProgram.allocateMemoryOnGPU(ints, GPUAccess.READ_WRITE, false);
+		GPUMem floatMem = GPUProgram.allocateMemoryOnGPU(floats, GPUAccess.READ_WRITE, false);
+		GPUMem shiftedMem = GPUProgram.allocateMemoryOnGPU(shifted, GPUAccess.READ_WRITE, false);
+		
+		//* Test fill and iota
+		GPUFill.fill(floatMem, 2.5);
+		GPUProgram.copyArrayToCPU(floatMem);
+		check("fill", 2.5, floats[N - 1]);
+		
+		GPUFill.iota(intMem, 7, 3);
+		GPUProgram.copyArrayToCPU(intMem);
+		int mismatches = 0;
+		for (int i = 0; i < N; i++) {
+			if (ints[i] != 7 + 3 * i) {
+				mismatches++;
+			}
+		}
+		check("iota mismatches", 0, mismatches);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Test random bits against the Philox4x32-10 known answer (counter 0, key 0)
+		GPUFill.uniform(intMem, 0, 0);
+		GPUProgram.copyArrayToCPU(intMem);
+		check("Philox4x32-10 of 0", 0x6627e8d5, ints[0]);
+		//*/
+		
+		
+		//* Test that the same seed gives the same stream, wherever it starts
+		GPUFill.uniform(floatMem, 12345, 0);
+		GPUFill.uniform(shiftedMem, 12345, 100);
+		GPUProgram.copyArrayToCPU(floatMem);
+		GPUProgram.copyArrayToCPU(shiftedMem);
+		mismatches = 0;
+		double mean = 0;
+		for (int i = 0; i < N; i++) {
+			if (floats[i] < 0 || floats[i] >= 1 || (i >= 100 && floats[i] != shifted[i - 100])) {
+				mismatches++;
+			}
+			mean += floats[i] / N;
+		}
+		check("uniform mismatches", 0, mismatches);
+		print("uniform mean: " + mean);
+		if (Math.abs(mean - 0.5) > 0.01) {
+			testsFailed++;
+		}
+		//*/
+		
+		
+		//* Test the mean and standard deviation of normal numbers
+		GPUFill.normal(floatMem, 6789, 0, 10, 2);
+		GPUProgram.copyArrayToCPU(floatMem);
+		mean = 0;
+		double variance = 0;
+		for (int i = 0; i < N; i++) {
+			mean += floats[i] / N;
+		}
+		for (int i = 0; i < N; i++) {
+			variance += (floats[i] - mean) * (floats[i] - mean) / N;
+		}
+		print("normal mean: " + mean + ", standard deviation: " + Math.sqrt(variance));
+		if (Math.abs(mean - 10) > 0.02 || Math.abs(Math.sqrt(variance) - 2) > 0.02) {
+			testsFailed++;
+		}
+		print("----------------------");
+		//*/
+		
+		intMem.dispose();
+		floatMem.dispose();
+		shiftedMem.dispose();
+		GPUFill.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void check(String name, double expected, double actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
@@ -0,0 +1,232 @@
+package test;
+
+import java.util.Random;
+
+import main.GPUAccess;
+import main.GPUGraph;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify breadth-first search and connected components with the GPUProgram library.
+ */
+
+public class GPUGraphTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		Random random = new Random(21);
+		
+		// A random graph of 4 edges from each vertex (so the frontier soon has enough edges to go bottom-up, and then
+		// few enough vertices to go back to top-down), then a long path out of it (one vertex per level, top-down
+		// again), then vertices with no edges (never reached)
+		final int n = 1 << 18;
+		final int path = 1000;
+		final int isolated = 1000;
+		final int core = n - path - isolated;
+		int[] from = new int[2 * (4 * core + path)];
+		int[] to = new int[from.length];
+		int e = 0;
+		for (int v = 0; v < core; v++) {
+			for (int j = 0; j < 4; j++) {
+				from[e] = v;
+				to[e++] = random.nextInt(core);
+			}
+		}
+		for (int v = core; v < core + path; v++) {
+			from[e] = v - 1;
+			to[e++] = v;
+		}
+		final int directedEdges = e;
+		for (int i = 0; i < directedEdges; i++) {
+			from[e] = to[i];
+			to[e++] = from[i];
+		}
+		
+		//* Breadth-first search of an undirected graph
+		int[][] csr = toCSR(n, from, to, e);
+		GPUGraph graph = new GPUGraph(csr[0], csr[1], true);
+		check("vertices", n, graph.getVertices());
+		check("edges", e, graph.getEdges());
+		
+		int[] distances = new int[n];
+		GPUMem distancesMem = GPUProgram.allocateMemoryOnGPU(distances, GPUAccess.READ_WRITE, false);
+		for (int source = 0; source < n; source += n / 3) {
+			int[] expected = breadthFirstSearchCPU(csr[0], csr[1], source);
+			final int reached = graph.breadthFirstSearch(source, distancesMem);
+			GPUProgram.copyArrayToCPU(distancesMem);
+			check("vertices reached from " + source, countReached(expected), reached);
+			check("distances from " + source + " wrong", 0, countWrong(expected, distances));
+		}
+		graph.dispose();
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Breadth-first search of the same edges in one direction only (top-down only)
+		int[][] directed = toCSR(n, from, to, directedEdges);
+		GPUGraph directedGraph = new GPUGraph(directed[0], directed[1], false);
+		int[] expected = breadthFirstSearchCPU(directed[0], directed[1], 0);
+		final int reached = directedGraph.breadthFirstSearch(0, distancesMem);
+		GPUProgram.copyArrayToCPU(distancesMem);
+		check("vertices reached along directed edges", countReached(expected), reached);
+		check("distances along directed edges wrong", 0, countWrong(expected, distances));
+		directedGraph.dispose();
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Connected components of a directed graph, which ignore the direction of edges
+		// Many small groups, with each edge pointing a random way, so a component is often connected only backwards
+		final int groups = 5000;
+		final int sparse = n / 2;
+		int[] componentFrom = new int[sparse];
+		int[] componentTo = new int[sparse];
+		for (int i = 0; i < sparse; i++) {
+			final int a = random.nextInt(n);
+			final int b = (random.nextInt(n / groups) * groups + a % groups) % n;
+			componentFrom[i] = random.nextBoolean() ? a : b;
+			componentTo[i] = (componentFrom[i] == a) ? b : a;
+		}
+		int[][] components = toCSR(n, componentFrom, componentTo, sparse);
+		GPUGraph componentGraph = new GPUGraph(components[0], components[1], false);
+		int[] labels = new int[n];
+		GPUMem labelsMem = GPUProgram.allocateMemoryOnGPU(labels, GPUAccess.READ_WRITE, false);
+		componentGraph.connectedComponents(labelsMem);
+		GPUProgram.copyArrayToCPU(labelsMem);
+		
+		int[] expectedLabels = componentsCPU(n, componentFrom, componentTo, sparse);
+		int componentCount = 0;
+		for (int v = 0; v < n; v++) {
+			if (expectedLabels[v] == v) {
+				componentCount++;
+			}
+		}
+		print("Components: " + componentCount);
+		check("labels wrong", 0, countWrong(expectedLabels, labels));
+		componentGraph.dispose();
+		print("----------------------");
+		//*/
+		
+		distancesMem.dispose();
+		labelsMem.dispose();
+		GPUGraph.disposeAll();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Return the offsets and neighbors (in CSR form) of the first 'count' edges
+	static int[][] toCSR(int n, int[] from, int[] to, int count) {
+		int[] offsets = new int[n + 1];
+		for (int i = 0; i < count; i++) {
+			offsets[from[i] + 1]++;
+		}
+		for (int v = 0; v < n; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		
+		int[] next = offsets.clone();
+		int[] neighbors = new int[Math.max(1, count)];
+		for (int i = 0; i < count; i++) {
+			neighbors[next[from[i]]++] = to[i];
+		}
+		return new int[][] {offsets, neighbors};
+	}
+	
+	// Breadth-first search on the CPU, with a queue
+	static int[] breadthFirstSearchCPU(int[] offsets, int[] neighbors, int source) {
+		final int n = offsets.length - 1;
+		int[] distances = new int[n];
+		for (int v = 0; v < n; v++) {
+			distances[v] = -1;
+		}
+		
+		int[] queue = new int[n];
+		int head = 0;
+		int tail = 0;
+		distances[source] = 0;
+		queue[tail++] = source;
+		while (head < tail) {
+			final int v = queue[head++];
+			for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+				if (distances[neighbors[i]] < 0) {
+					distances[neighbors[i]] = distances[v] + 1;
+					queue[tail++] = neighbors[i];
+				}
+			}
+		}
+		return distances;
+	}
+	
+	// Label each vertex with the smallest vertex of its weak component, with union-find on the CPU
+	static int[] componentsCPU(int n, int[] from, int[] to, int count) {
+		int[] parents = new int[n];
+		for (int v = 0; v < n; v++) {
+			parents[v] = v;
+		}
+		for (int i = 0; i < count; i++) {
+			final int a = find(parents, from[i]);
+			final int b = find(parents, to[i]);
+			parents[Math.max(a, b)] = Math.min(a, b);
+		}
+		
+		int[] labels = new int[n];
+		for (int v = 0; v < n; v++) {
+			labels[v] = find(parents, v);
+		}
+		return labels;
+	}
+	
+	// Return the root of a vertex (the smallest vertex of its set), halving the path to it
+	static int find(int[] parents, int v) {
+		while (parents[v] != v) {
+			parents[v] = parents[parents[v]];
+			v = parents[v];
+		}
+		return v;
+	}
+	
+	// Count the vertices with a distance
+	static int countReached(int[] distances) {
+		int reached = 0;
+		for (int v = 0; v < distances.length; v++) {
+			if (distances[v] >= 0) {
+				reached++;
+			}
+		}
+		return reached;
+	}
+	
+	// Count the elements that differ from the CPU
+	static int countWrong(int[] expected, int[] actual) {
+		int wrong = 0;
+		for (int i = 0; i < expected.length; i++) {
+			if (expected[i] != actual[i]) {
+				wrong++;
+			}
+		}
+		return wrong;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
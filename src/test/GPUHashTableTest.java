@@ -0,0 +1,140 @@
+package test;
+
+import main.ArrayType;
+import main.GPUAccess;
+import main.GPUHashTable;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify the GPU hash table with the GPUProgram library.
+ */
+
+public class GPUHashTableTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int n = 1000000;
+		final int range = 400000;
+		
+		// Keys with many duplicates, inserted into a table that starts too small
+		int[] keys = new int[n];
+		boolean[] present = new boolean[range];
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			keys[i] = (int)(Math.random() * range) * 7 - range;
+			if (!present[(keys[i] + range) / 7]) {
+				present[(keys[i] + range) / 7] = true;
+				distinct++;
+			}
+		}
+		
+		GPUHashTable table = new GPUHashTable(ArrayType.INT, 1000);
+		GPUMem keysMem = GPUProgram.copyArrayToGPU(keys, GPUAccess.READ);
+		table.insert(keysMem);
+		check("distinct keys", distinct, table.size());
+		
+		//* Every inserted key maps back to an index where it occurs
+		int[] indices = new int[n];
+		GPUMem indicesMem = GPUProgram.allocateMemoryOnGPU(indices, GPUAccess.READ_WRITE, false);
+		table.probe(keysMem, indicesMem, -1);
+		GPUProgram.copyArrayToCPU(indicesMem);
+		int wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (indices[i] < 0 || keys[indices[i]] != keys[i]) {
+				wrong++;
+			}
+		}
+		check("wrong probes", 0, wrong);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Remove the keys at even indices, then probe again
+		int[] removed = new int[n / 2];
+		for (int i = 0; i < removed.length; i++) {
+			removed[i] = keys[2 * i];
+		}
+		GPUMem removedMem = GPUProgram.copyArrayToGPU(removed, GPUAccess.READ);
+		table.remove(removedMem);
+		
+		boolean[] isRemoved = new boolean[range];
+		for (int i = 0; i < removed.length; i++) {
+			isRemoved[(removed[i] + range) / 7] = true;
+		}
+		int remaining = 0;
+		for (int i = 0; i < range; i++) {
+			if (present[i] && !isRemoved[i]) {
+				remaining++;
+			}
+		}
+		check("keys after removing", remaining, table.size());
+		
+		table.probe(keysMem, indicesMem, -1);
+		GPUProgram.copyArrayToCPU(indicesMem);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			final boolean shouldFind = !isRemoved[(keys[i] + range) / 7];
+			if (shouldFind != (indices[i] >= 0) || (shouldFind && keys[indices[i]] != keys[i])) {
+				wrong++;
+			}
+		}
+		check("wrong probes after removing", 0, wrong);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Copy the remaining keys out (removing duplicates)
+		int[] unique = new int[remaining];
+		int[] uniqueValues = new int[remaining];
+		GPUMem uniqueMem = GPUProgram.allocateMemoryOnGPU(unique, GPUAccess.READ_WRITE, false);
+		GPUMem uniqueValuesMem = GPUProgram.allocateMemoryOnGPU(uniqueValues, GPUAccess.READ_WRITE, false);
+		check("keys copied", remaining, table.copyEntries(uniqueMem, uniqueValuesMem));
+		GPUProgram.copyArrayToCPU(uniqueMem);
+		GPUProgram.copyArrayToCPU(uniqueValuesMem);
+		boolean[] seen = new boolean[range];
+		wrong = 0;
+		for (int i = 0; i < remaining; i++) {
+			final int k = (unique[i] + range) / 7;
+			if (seen[k] || isRemoved[k] || keys[uniqueValues[i]] != unique[i]) {
+				wrong++;
+			}
+			seen[k] = true;
+		}
+		check("wrong entries", 0, wrong);
+		print("----------------------");
+		//*/
+		
+		table.dispose();
+		keysMem.dispose();
+		indicesMem.dispose();
+		removedMem.dispose();
+		uniqueMem.dispose();
+		uniqueValuesMem.dispose();
+		GPUHashTable.disposeAll();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
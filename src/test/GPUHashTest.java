@@ -0,0 +1,117 @@
+package test;
+
+import main.GPUHash;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify checksums and hashes of blocks with the GPUProgram library.
+ */
+
+public class GPUHashTest {
+	
+	static private int testsFailed = 0;
+	static private int[] crcTable = null;	// CRC32C of each byte, for the CPU reference
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int blocks = 20000;
+		
+		// Blocks of random lengths, including empty ones
+		long[] offsets = new long[blocks + 1];
+		for (int i = 0; i < blocks; i++) {
+			offsets[i + 1] = offsets[i] + (int)(Math.random() * 300);
+		}
+		byte[] data = new byte[(int)offsets[blocks]];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)(Math.random() * 256);
+		}
+		
+		//* CRC32C against a table on the CPU, after checking the table with the standard check value
+		byte[] check = "123456789".getBytes();
+		check("CRC32C(\"123456789\") on the CPU", 0xE3069283L, crc32c(check, 0, check.length));
+		check("CRC32C(\"123456789\")", 0xE3069283L, GPUHash.hash(GPUHash.Algorithm.CRC32C, check, new long[] {0, check.length}, 0)[0]);
+		
+		long[] crcs = GPUHash.hash(GPUHash.Algorithm.CRC32C, data, offsets, 0);
+		int wrong = 0;
+		for (int i = 0; i < blocks; i++) {
+			if (crc32c(data, (int)offsets[i], (int)(offsets[i + 1] - offsets[i])) != crcs[i]) {
+				wrong++;
+			}
+		}
+		check("wrong CRC32C blocks", 0, wrong);
+		
+		// Fixed-size blocks, with a shorter last block
+		final int blockSize = 4096;
+		long[] fixedCrcs = GPUHash.hash(GPUHash.Algorithm.CRC32C, data, blockSize, 0);
+		wrong = 0;
+		for (int i = 0; i < fixedCrcs.length; i++) {
+			if (crc32c(data, i * blockSize, Math.min(blockSize, data.length - i * blockSize)) != fixedCrcs[i]) {
+				wrong++;
+			}
+		}
+		check("wrong fixed-size CRC32C blocks", 0, wrong);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Known outputs of the reference xxHash64 and MurmurHash3_x64_128
+		byte[] text = "abcNobody inspects the spammish repetitionfoo".getBytes();
+		int[] textOffsets = {0, 0, 3, 42, 45};
+		long[] xxHashes = GPUHash.hash(GPUHash.Algorithm.XXHASH64, text, textOffsets, 0);
+		check("XXH64(\"\")", 0xEF46DB3751D8E999L, xxHashes[0]);
+		check("XXH64(\"abc\")", 0x44BC2CF5AD770999L, xxHashes[1]);
+		check("XXH64(\"Nobody inspects the spammish repetition\")", 0xFBCEA83C8A378BF1L, xxHashes[2]);
+		
+		long[] murmurHashes = GPUHash.hash(GPUHash.Algorithm.MURMUR3_128, text, textOffsets, 0);
+		check("MurmurHash3(\"\") first half", 0, murmurHashes[0]);
+		check("MurmurHash3(\"\") second half", 0, murmurHashes[1]);
+		check("MurmurHash3(\"foo\") first half", -2129773440516405919L, murmurHashes[6]);
+		check("MurmurHash3(\"foo\") second half", 9128664383759220103L, murmurHashes[7]);
+		print("----------------------");
+		//*/
+		
+		GPUHash.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// CRC32C (Castagnoli, reflected polynomial 0x82F63B78) of part of an array, a byte at a time with a table
+	static long crc32c(byte[] data, int start, int length) {
+		if (crcTable == null) {
+			crcTable = new int[256];
+			for (int i = 0; i < 256; i++) {
+				int c = i;
+				for (int j = 0; j < 8; j++) {
+					c = ((c & 1) != 0) ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+				}
+				crcTable[i] = c;
+			}
+		}
+		
+		int crc = 0xFFFFFFFF;
+		for (int i = start; i < start + length; i++) {
+			crc = (crc >>> 8) ^ crcTable[(crc ^ data[i]) & 0xFF];
+		}
+		return (crc ^ 0xFFFFFFFF) & 0xFFFFFFFFL;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
@@ -0,0 +1,163 @@
+package test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import main.GPUImage;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify image conversion, filters, and resizing with the GPUProgram library.
+ */
+
+public class GPUImageTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int width = 640;
+		final int height = 480;
+		
+		BufferedImage bgr = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				bgr.setRGB(x, y, (int)(Math.random() * 0xFFFFFF));
+			}
+		}
+		
+		//* Test converting 3BYTE_BGR to INT_ARGB, which should be exact
+		GPUImage image = new GPUImage(bgr);
+		BufferedImage argb = image.toBufferedImage(BufferedImage.TYPE_INT_ARGB);
+		int mismatches = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (argb.getRGB(x, y) != bgr.getRGB(x, y)) {
+					mismatches++;
+				}
+			}
+		}
+		check("3BYTE_BGR to INT_ARGB mismatches", 0, mismatches);
+		//*/
+		
+		
+		//* Test converting to gray (within 1 of the luminance, for rounding)
+		BufferedImage gray = image.toBufferedImage(BufferedImage.TYPE_BYTE_GRAY);
+		mismatches = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final int c = bgr.getRGB(x, y);
+				final double luminance = 0.299 * ((c >> 16) & 0xFF) + 0.587 * ((c >> 8) & 0xFF) + 0.114 * (c & 0xFF);
+				if (Math.abs(gray.getRaster().getSample(x, y, 0) - luminance) > 1) {
+					mismatches++;
+				}
+			}
+		}
+		check("gray mismatches", 0, mismatches);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Test converting between premultiplied and straight alpha (within a few steps, for rounding)
+		// (Alpha is at least 64, since dividing colors by a small alpha magnifies their rounding)
+		BufferedImage straight = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		BufferedImage premultiplied = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final int c = ((64 + (int)(Math.random() * 192)) << 24) | (int)(Math.random() * 0xFFFFFF);
+				straight.setRGB(x, y, c);
+				premultiplied.setRGB(x, y, c); // Java premultiplies the colors
+			}
+		}
+		
+		image.load(premultiplied);
+		BufferedImage fromPremultiplied = image.toBufferedImage(BufferedImage.TYPE_INT_ARGB);
+		check("INT_ARGB_PRE to INT_ARGB mismatches", 0, countMismatches(straight, fromPremultiplied, 3));
+		
+		image.load(straight);
+		BufferedImage toPremultiplied = image.toBufferedImage(BufferedImage.TYPE_INT_ARGB_PRE);
+		check("INT_ARGB to INT_ARGB_PRE mismatches", 0, countMismatches(premultiplied, toPremultiplied, 1));
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Test that blurring and resizing a solid color doesn't change it
+		BufferedImage solid = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				solid.setRGB(x, y, 0x336699);
+			}
+		}
+		image.load(solid);
+		image.gaussianBlur(3.0f, GPUImage.EdgeMode.CLAMP);
+		image.boxBlur(4, GPUImage.EdgeMode.MIRROR);
+		check("blurred color", 0xFF336699, image.toBufferedImage(BufferedImage.TYPE_INT_ARGB).getRGB(width / 2, 0));
+		
+		GPUImage.Interpolation[] interpolations = GPUImage.Interpolation.values();
+		for (int i = 0; i < interpolations.length; i++) {
+			GPUImage smaller = image.resize(width / 3, height / 3, interpolations[i]);
+			GPUImage larger = smaller.resize(width * 2, height * 2, interpolations[i]);
+			check(interpolations[i] + " resized color", 0xFF336699,
+					larger.toBufferedImage(BufferedImage.TYPE_INT_ARGB).getRGB(width - 1, height - 1));
+			smaller.dispose();
+			larger.dispose();
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Test that Sobel finds no edges in a solid color (with clamped edges), and sees the edge of the image with zero edges
+		image.sobel(GPUImage.EdgeMode.CLAMP);
+		check("Sobel of solid color", 0xFF000000, image.toBufferedImage(BufferedImage.TYPE_INT_ARGB).getRGB(0, 0));
+		image.load(solid);
+		image.sobel(GPUImage.EdgeMode.ZERO);
+		BufferedImage edges = image.toBufferedImage(BufferedImage.TYPE_INT_ARGB);
+		if (edges.getRGB(0, height / 2) == 0xFF000000 || edges.getRGB(width / 2, height / 2) != 0xFF000000) {
+			print("Sobel with zero edges: wrong");
+			testsFailed++;
+		}
+		print("----------------------");
+		//*/
+		
+		image.dispose();
+		GPUImage.disposeAll();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Count the pixels of two INT images of the same type whose stored channels differ by more than 'tolerance'
+	static int countMismatches(BufferedImage expected, BufferedImage actual, int tolerance) {
+		final int[] a = ((DataBufferInt)expected.getRaster().getDataBuffer()).getData();
+		final int[] b = ((DataBufferInt)actual.getRaster().getDataBuffer()).getData();
+		int mismatches = 0;
+		for (int i = 0; i < a.length; i++) {
+			for (int shift = 0; shift < 32; shift += 8) {
+				if (Math.abs(((a[i] >> shift) & 0xFF) - ((b[i] >> shift) & 0xFF)) > tolerance) {
+					mismatches++;
+					break;
+				}
+			}
+		}
+		return mismatches;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
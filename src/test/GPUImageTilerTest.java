@@ -0,0 +1,135 @@
+package test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+import main.GPUAccess;
+import main.GPUImageTiler;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify processing images one tile at a time with the GPUProgram library.
+ */
+
+public class GPUImageTilerTest {
+	
+	static private int testsFailed = 0;
+	
+	// Average each channel over a square around each pixel, clamped to the edges of the image,
+	// so pixels near the edges of a tile read its halo
+	static private final String BLUR_SOURCE =
+			"kernel void blur(global const int *in, global int *out, const int width, const int height, const int radius,\n"
+			+ "		const int tileX, const int tileY, const int inputX, const int inputY, const int inputWidth, const int inputHeight) {\n"
+			+ "	const int x = tileX + get_global_id(0);\n"
+			+ "	const int y = tileY + get_global_id(1);\n"
+			+ "	int4 sum = (int4)(0);\n"
+			+ "	for (int dy = -radius; dy <= radius; dy++) {\n"
+			+ "		for (int dx = -radius; dx <= radius; dx++) {\n"
+			+ "			const int xx = clamp(x + dx, 0, width - 1);\n"
+			+ "			const int yy = clamp(y + dy, 0, height - 1);\n"
+			+ "			const int p = in[(yy - inputY) * inputWidth + (xx - inputX)];\n"
+			+ "			sum += (int4)((p >> 24) & 0xFF, (p >> 16) & 0xFF, (p >> 8) & 0xFF, p & 0xFF);\n"
+			+ "		}\n"
+			+ "	}\n"
+			+ "	sum /= (2 * radius + 1) * (2 * radius + 1);\n"
+			+ "	out[get_global_id(1) * get_global_size(0) + get_global_id(0)] = (int)(((uint)sum.x << 24) | (sum.y << 16) | (sum.z << 8) | sum.w);\n"
+			+ "}";
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		// Not a multiple of the tile size in either direction, so the last tiles are smaller
+		final int width = 1000;
+		final int height = 700;
+		Random random = new Random(13);
+		BufferedImage input = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt)input.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = random.nextInt();
+		}
+		
+		GPUProgram blur = GPUProgram.fromSource("blur", BLUR_SOURCE, null);
+		blur.setArgument(2, width, GPUAccess.READ);
+		blur.setArgument(3, height, GPUAccess.READ);
+		
+		//* Tiles with a halo as wide as the blur match one launch over the whole image
+		final int[][] tiles = {{128, 96}, {37, 250}, {1000, 1}, {2000, 2000}};
+		for (int radius = 1; radius <= 2; radius++) {
+			int[] expected = blurWhole(blur, pixels, width, height, radius);
+			check("blur of radius " + radius + " changes the image", 1, expected[width + 1] != pixels[width + 1] ? 1 : 0);
+			for (int t = 0; t < tiles.length; t++) {
+				BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+				blur.setArgument(4, radius, GPUAccess.READ);
+				new GPUImageTiler(tiles[t][0], tiles[t][1], radius).process(blur, input, output, 0, 1, 5);
+				
+				final int[] actual = ((DataBufferInt)output.getRaster().getDataBuffer()).getData();
+				int wrong = 0;
+				for (int i = 0; i < expected.length; i++) {
+					if (actual[i] != expected[i]) {
+						wrong++;
+					}
+				}
+				check("blur of radius " + radius + " in tiles of " + tiles[t][0] + "x" + tiles[t][1] + ", pixels wrong", 0, wrong);
+			}
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* A kernel that doesn't read its neighbors needs no halo
+		BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		blur.setArgument(4, 0, GPUAccess.READ);
+		new GPUImageTiler(128, 96, 0).process(blur, input, output, 0, 1, 5);
+		final int[] copied = ((DataBufferInt)output.getRaster().getDataBuffer()).getData();
+		int wrong = 0;
+		for (int i = 0; i < pixels.length; i++) {
+			if (copied[i] != pixels[i]) {
+				wrong++;
+			}
+		}
+		check("copy in tiles without a halo, pixels wrong", 0, wrong);
+		print("----------------------");
+		//*/
+		
+		blur.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Blur the whole image in one launch, as one tile with no halo
+	static int[] blurWhole(GPUProgram blur, int[] pixels, int width, int height, int radius) {
+		int[] result = new int[pixels.length];
+		blur.setArgument(0, pixels, GPUAccess.READ);
+		blur.setArgument(1, result, GPUAccess.WRITE);
+		blur.setArgument(4, radius, GPUAccess.READ);
+		blur.setArgument(5, 0, GPUAccess.READ);
+		blur.setArgument(6, 0, GPUAccess.READ);
+		blur.setArgument(7, 0, GPUAccess.READ);
+		blur.setArgument(8, 0, GPUAccess.READ);
+		blur.setArgument(9, width, GPUAccess.READ);
+		blur.setArgument(10, height, GPUAccess.READ);
+		blur.setGlobalWorkGroupSizes(width, height);
+		blur.executeKernel();
+		return result;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
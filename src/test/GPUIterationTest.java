@@ -0,0 +1,180 @@
+package test;
+
+import main.GPUAccess;
+import main.GPUIteration;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify iterative kernels with swapped arguments with the GPUProgram library.
+ */
+
+public class GPUIterationTest {
+	
+	static private int testsFailed = 0;
+	
+	// One step of heat diffusion along a rod, with both ends held at their starting values
+	static private final String HEAT_SOURCE =
+			"kernel void heat(global const float *in, global float *out, const int n, const float alpha) {\n"
+			+ "	const int i = get_global_id(0);\n"
+			+ "	if (i >= n) {\n"
+			+ "		return;\n"
+			+ "	}\n"
+			+ "	if (i == 0 || i == n - 1) {\n"
+			+ "		out[i] = in[i];\n"
+			+ "	} else {\n"
+			+ "		out[i] = in[i] + alpha * (in[i - 1] - 2.0f * in[i] + in[i + 1]);\n"
+			+ "	}\n"
+			+ "}";
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int n = 64;
+		final float alpha = 0.25f;
+		
+		float[] initial = new float[n];
+		initial[n / 2] = 1;
+		
+		//* Every iteration swaps the buffers, so the newest values move between them
+		GPUProgram heat = GPUProgram.fromSource("heat", HEAT_SOURCE, null);
+		GPUMem first = GPUProgram.copyArrayToGPU(initial.clone(), GPUAccess.READ_WRITE);
+		GPUMem second = GPUProgram.allocateMemoryOnGPU(new float[n], GPUAccess.READ_WRITE, true);
+		heat.setArgument(2, n, GPUAccess.READ);
+		heat.setArgument(3, alpha, GPUAccess.READ);
+		heat.setGlobalWorkGroupSizes(n);
+		GPUIteration iteration = new GPUIteration(heat, 0, 1, first, second);
+		
+		iteration.step(7);
+		check("iterations after 7 steps", 7, iteration.getIterations());
+		check("current after 7 steps is the other buffer", 1, iteration.getCurrent() == second ? 1 : 0);
+		check("elements wrong in current after 7 steps", 0, countWrong(heatCPU(initial, alpha, 7), iteration.getCurrent()));
+		check("elements wrong in previous after 7 steps", 0, countWrong(heatCPU(initial, alpha, 6), iteration.getPrevious()));
+		
+		iteration.step(1);
+		check("iterations after 8 steps", 8, iteration.getIterations());
+		check("current after 8 steps is the first buffer", 1, iteration.getCurrent() == first ? 1 : 0);
+		check("elements wrong in current after 8 steps", 0, countWrong(heatCPU(initial, alpha, 8), iteration.getCurrent()));
+		
+		iteration.step(1000);
+		check("elements wrong in current after 1008 steps", 0, countWrong(heatCPU(initial, alpha, 1008), iteration.getCurrent()));
+		
+		// Residuals of the last step
+		float[] last = heatCPU(initial, alpha, 1008);
+		float[] beforeLast = heatCPU(initial, alpha, 1007);
+		double max = 0;
+		double sumSquares = 0;
+		for (int i = 0; i < n; i++) {
+			final double d = last[i] - beforeLast[i];
+			max = Math.max(max, Math.abs(d));
+			sumSquares += d * d;
+		}
+		check("MAX residual close to the CPU", 1, isClose(max, iteration.residual(GPUIteration.Norm.MAX)) ? 1 : 0);
+		check("L2 residual close to the CPU", 1, isClose(Math.sqrt(sumSquares), iteration.residual(GPUIteration.Norm.L2)) ? 1 : 0);
+		iteration.dispose();
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Stop once the residual is small enough
+		GPUProgram converge = GPUProgram.fromSource("heat", HEAT_SOURCE, null);
+		GPUMem start = GPUProgram.copyArrayToGPU(initial.clone(), GPUAccess.READ_WRITE);
+		GPUMem other = GPUProgram.allocateMemoryOnGPU(new float[n], GPUAccess.READ_WRITE, true);
+		converge.setArgument(2, n, GPUAccess.READ);
+		converge.setArgument(3, alpha, GPUAccess.READ);
+		converge.setGlobalWorkGroupSizes(n);
+		GPUIteration solver = new GPUIteration(converge, 0, 1, start, other);
+		
+		final int maxIterations = 100000;
+		final int checkEvery = 10;
+		final double tolerance = 1e-4;
+		final int done = solver.run(maxIterations, checkEvery, GPUIteration.Norm.MAX, tolerance);
+		print("Iterations until the residual was at most " + tolerance + ": " + done);
+		
+		check("stopped before the most iterations", 1, done < maxIterations ? 1 : 0);
+		check("stopped at a check", 0, done % checkEvery);
+		check("iterations run", done, solver.getIterations());
+		check("residual at most the tolerance", 1, solver.getResidual() <= tolerance ? 1 : 0);
+		check("CPU residual above the tolerance at the check before", 1,
+				maxChange(heatCPU(initial, alpha, done - checkEvery), heatCPU(initial, alpha, done - checkEvery - 1)) > tolerance ? 1 : 0);
+		check("elements wrong in the result", 0, countWrong(heatCPU(initial, alpha, done), solver.getCurrent()));
+		solver.dispose();
+		print("----------------------");
+		//*/
+		
+		first.dispose();
+		second.dispose();
+		start.dispose();
+		other.dispose();
+		heat.dispose();
+		converge.dispose();
+		GPUIteration.disposeAll();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Run the same steps of heat diffusion on the CPU
+	static float[] heatCPU(float[] initial, float alpha, int iterations) {
+		final int n = initial.length;
+		float[] in = initial.clone();
+		float[] out = new float[n];
+		for (int t = 0; t < iterations; t++) {
+			out[0] = in[0];
+			out[n - 1] = in[n - 1];
+			for (int i = 1; i < n - 1; i++) {
+				out[i] = in[i] + alpha * (in[i - 1] - 2.0f * in[i] + in[i + 1]);
+			}
+			
+			float[] swap = in;
+			in = out;
+			out = swap;
+		}
+		return in;
+	}
+	
+	// Largest absolute difference between two arrays
+	static double maxChange(float[] a, float[] b) {
+		double max = 0;
+		for (int i = 0; i < a.length; i++) {
+			max = Math.max(max, Math.abs(a[i] - b[i]));
+		}
+		return max;
+	}
+	
+	// Count the elements of a GPUMem that aren't close to the CPU result
+	static int countWrong(float[] expected, GPUMem mem) {
+		float[] actual = new float[expected.length];
+		GPUProgram.copyArrayToCPU(mem, actual);
+		int wrong = 0;
+		for (int i = 0; i < expected.length; i++) {
+			if (!(Math.abs(expected[i] - actual[i]) <= 1e-5)) {
+				wrong++;
+			}
+		}
+		return wrong;
+	}
+	
+	// Whether a residual is within 1% (or 1e-7) of the CPU
+	static boolean isClose(double expected, double actual) {
+		return Math.abs(expected - actual) <= Math.max(1e-7, Math.abs(expected) * 0.01);
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
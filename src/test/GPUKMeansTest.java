@@ -0,0 +1,150 @@
+package test;
+
+import java.util.Random;
+
+import main.GPUAccess;
+import main.GPUKMeans;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify k-means clustering with the GPUProgram library.
+ */
+
+public class GPUKMeansTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int n = 200000;
+		final int d = 4;
+		final int k = 8;
+		final long seed = 12345;
+		
+		// Points spread by 1 around centers 100 apart in each dimension, so each cluster is one center
+		Random random = new Random(3);
+		float[] centers = new float[k * d];
+		for (int c = 0; c < k; c++) {
+			for (int j = 0; j < d; j++) {
+				centers[c * d + j] = c * 100 - 350;
+			}
+		}
+		
+		float[] points = new float[n * d];
+		int[] labels = new int[n];
+		double[] means = new double[k * d];
+		int[] sizes = new int[k];
+		for (int i = 0; i < n; i++) {
+			labels[i] = random.nextInt(k);
+			sizes[labels[i]]++;
+			for (int j = 0; j < d; j++) {
+				points[i * d + j] = centers[labels[i] * d + j] + (float)random.nextGaussian();
+				means[labels[i] * d + j] += points[i * d + j];
+			}
+		}
+		for (int i = 0; i < k * d; i++) {
+			means[i] /= sizes[i / d];
+		}
+		
+		GPUMem pointsMem = GPUProgram.copyArrayToGPU(points, GPUAccess.READ);
+		float[] centroids = new float[k * d];
+		int[] assignments = new int[n];
+		GPUMem centroidsMem = GPUProgram.allocateMemoryOnGPU(centroids, GPUAccess.READ_WRITE, false);
+		GPUMem assignmentsMem = GPUProgram.allocateMemoryOnGPU(assignments, GPUAccess.READ_WRITE, false);
+		
+		//* Cluster with k-means++ starting centroids
+		final int iterations = GPUKMeans.cluster(pointsMem, d, k, centroidsMem, assignmentsMem, 100, 0, seed);
+		print("Iterations: " + iterations);
+		GPUProgram.copyArrayToCPU(centroidsMem);
+		GPUProgram.copyArrayToCPU(assignmentsMem);
+		check("converged before the most iterations", 1, iterations < 100 ? 1 : 0);
+		
+		// Each cluster should be the points of exactly one center
+		int[] clusterOf = new int[k];
+		int[] centerOf = new int[k];
+		for (int c = 0; c < k; c++) {
+			clusterOf[c] = -1;
+			centerOf[c] = -1;
+		}
+		int mixed = 0;
+		for (int i = 0; i < n; i++) {
+			final int cluster = assignments[i];
+			if (cluster < 0 || cluster >= k) {
+				mixed++;
+			} else if (clusterOf[labels[i]] == -1 && centerOf[cluster] == -1) {
+				clusterOf[labels[i]] = cluster;
+				centerOf[cluster] = labels[i];
+			} else if (clusterOf[labels[i]] != cluster) {
+				mixed++;
+			}
+		}
+		check("points in the wrong cluster", 0, mixed);
+		
+		// Each centroid should be the mean of its center's points (within the rounding of float sums)
+		int wrong = 0;
+		for (int c = 0; c < k; c++) {
+			for (int j = 0; j < d && clusterOf[c] >= 0; j++) {
+				if (!(Math.abs(centroids[clusterOf[c] * d + j] - means[c * d + j]) <= 1e-4 * Math.abs(means[c * d + j]) + 1e-2)) {
+					wrong++;
+				}
+			}
+		}
+		check("centroids away from the mean", 0, wrong);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* The same seed gives the same clusters, and refining converged centroids changes nothing
+		int[] first = assignments.clone();
+		GPUKMeans.cluster(pointsMem, d, k, centroidsMem, assignmentsMem, 100, 0, seed);
+		GPUProgram.copyArrayToCPU(assignmentsMem);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (assignments[i] != first[i]) {
+				wrong++;
+			}
+		}
+		check("assignments different with the same seed", 0, wrong);
+		
+		// One iteration assigns every point, and one more finds that none changed
+		check("iterations to refine converged centroids", 2, GPUKMeans.refine(pointsMem, d, k, centroidsMem, assignmentsMem, 100, 0));
+		GPUProgram.copyArrayToCPU(assignmentsMem);
+		wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (assignments[i] != first[i]) {
+				wrong++;
+			}
+		}
+		check("assignments different after refining", 0, wrong);
+		print("----------------------");
+		//*/
+		
+		pointsMem.dispose();
+		centroidsMem.dispose();
+		assignmentsMem.dispose();
+		GPUKMeans.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
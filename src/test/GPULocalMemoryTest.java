@@ -0,0 +1,132 @@
+package test;
+
+import main.ArrayType;
+import main.GPUAccess;
+import main.GPUMem;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify local memory arguments with the GPUProgram library.
+ */
+
+public class GPULocalMemoryTest {
+	
+	static private int testsFailed = 0;
+	
+	// Sum the elements of each work group in local memory, with one element of 'scratch' for each work item
+	static private final String SUM_SOURCE =
+			"kernel void groupSum(global const int *in, global int *out, local int *scratch) {\n"
+			+ "	const int lid = get_local_id(0);\n"
+			+ "	const int size = get_local_size(0);\n"
+			+ "	scratch[lid] = in[get_global_id(0)];\n"
+			+ "	barrier(CLK_LOCAL_MEM_FENCE);\n"
+			+ "	for (int stride = size / 2; stride > 0; stride /= 2) {\n"
+			+ "		if (lid < stride) {\n"
+			+ "			scratch[lid] += scratch[lid + stride];\n"
+			+ "		}\n"
+			+ "		barrier(CLK_LOCAL_MEM_FENCE);\n"
+			+ "	}\n"
+			+ "	if (lid == 0) {\n"
+			+ "		out[get_group_id(0)] = scratch[0];\n"
+			+ "	}\n"
+			+ "}";
+	
+	// Write the index of each work item
+	static private final String IOTA_SOURCE =
+			"kernel void iota(const int n, global int *out) {\n"
+			+ "	const int i = get_global_id(0);\n"
+			+ "	if (i < n) {\n"
+			+ "		out[i] = i;\n"
+			+ "	}\n"
+			+ "}";
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int n = 1 << 16;
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = (int)(Math.random() * 1000);
+		}
+		
+		//* Local memory sized per work item follows the local work group size of each launch
+		GPUProgram sum = GPUProgram.fromSource("groupSum", SUM_SOURCE, null);
+		GPUMem valuesMem = GPUProgram.copyArrayToGPU(values, GPUAccess.READ);
+		int[] sums = new int[n];
+		GPUMem sumsMem = GPUProgram.allocateMemoryOnGPU(sums, GPUAccess.READ_WRITE, true);
+		sum.setArgument(0, valuesMem);
+		sum.setArgument(1, sumsMem);
+		sum.setLocalArgumentPerWorkItem(2, ArrayType.INT, 1);
+		sum.setGlobalWorkGroupSizes(n);
+		
+		final int maxGroupSize = Math.min(256, sum.getKernelMaxLocalWorkGroupSize());
+		for (int groupSize = 16; groupSize <= maxGroupSize; groupSize *= 4) {
+			sum.setLocalWorkGroupSizes(groupSize);
+			sum.executeKernelNoCopyback();
+			GPUProgram.copyArrayToCPU(sumsMem);
+			
+			int wrong = 0;
+			for (int g = 0; g < n / groupSize; g++) {
+				int expected = 0;
+				for (int i = g * groupSize; i < (g + 1) * groupSize; i++) {
+					expected += values[i];
+				}
+				if (sums[g] != expected) {
+					wrong++;
+				}
+			}
+			check("wrong sums of groups of " + groupSize, 0, wrong);
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* An argument sized per work item, then bound to a GPUMem, stays bound to the GPUMem
+		GPUProgram iota = GPUProgram.fromSource("iota", IOTA_SOURCE, null);
+		int[] indices = new int[n];
+		GPUMem indicesMem = GPUProgram.allocateMemoryOnGPU(indices, GPUAccess.READ_WRITE, true);
+		iota.setLocalArgumentPerWorkItem(1, ArrayType.INT, 1);
+		iota.setArgument(0, n, GPUAccess.READ);
+		iota.setArgument(1, indicesMem);
+		iota.setGlobalWorkGroupSizes(n);
+		iota.executeKernelNoCopyback();
+		GPUProgram.copyArrayToCPU(indicesMem);
+		
+		int wrong = 0;
+		for (int i = 0; i < n; i++) {
+			if (indices[i] != i) {
+				wrong++;
+			}
+		}
+		check("wrong indices", 0, wrong);
+		print("----------------------");
+		//*/
+		
+		valuesMem.dispose();
+		sumsMem.dispose();
+		indicesMem.dispose();
+		sum.dispose();
+		iota.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
@@ -0,0 +1,141 @@
+package test;
+
+import main.GPUNearestNeighbors;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify nearest neighbor search with the GPUProgram library.
+ */
+
+public class GPUNearestNeighborsTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int n = 100;
+		final int dimensions = 16;
+		final int queries = 20;
+		final int zero = 7;
+		
+		// Random vectors, with one all-zero database vector
+		float[] database = new float[n * dimensions];
+		for (int i = 0; i < database.length; i++) {
+			database[i] = (i / dimensions == zero) ? 0 : (float)(Math.random() * 2 - 1);
+		}
+		float[] query = new float[queries * dimensions];
+		for (int i = 0; i < query.length; i++) {
+			query[i] = (float)(Math.random() * 2 - 1);
+		}
+		
+		//* Cosine, with every database vector as a neighbor (so the zero vector is in the middle of each list)
+		GPUNearestNeighbors search = new GPUNearestNeighbors(database, dimensions, GPUNearestNeighbors.Metric.COSINE);
+		final int k = n;
+		int[] ids = new int[queries * k];
+		float[] scores = new float[queries * k];
+		search.search(query, k, ids, scores);
+		
+		int notFinite = 0;
+		int unsorted = 0;
+		int wrongScores = 0;
+		int missing = 0;
+		for (int q = 0; q < queries; q++) {
+			boolean[] seen = new boolean[n];
+			for (int r = 0; r < k; r++) {
+				final int id = ids[q * k + r];
+				final float s = scores[q * k + r];
+				if (Float.isNaN(s) || Float.isInfinite(s)) {
+					notFinite++;
+				}
+				if (r > 0 && s > scores[q * k + r - 1]) {
+					unsorted++;
+				}
+				if (id < 0 || id >= n || seen[id]) {
+					missing++;
+					continue;
+				}
+				seen[id] = true;
+				if (Math.abs(s - cosine(query, q, database, id, dimensions)) > 1e-4) {
+					wrongScores++;
+				}
+			}
+		}
+		check("scores that aren't finite", 0, notFinite);
+		check("scores out of order", 0, unsorted);
+		check("scores that don't match the CPU", 0, wrongScores);
+		check("missing or repeated neighbors", 0, missing);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* The best few neighbors match the CPU
+		final int fewK = 5;
+		int[] fewIds = new int[queries * fewK + 3];
+		float[] fewScores = new float[queries * fewK + 3];
+		for (int i = queries * fewK; i < fewIds.length; i++) {
+			fewIds[i] = -7;
+			fewScores[i] = -7;
+		}
+		search.search(query, fewK, fewIds, fewScores);
+		int wrongIds = 0;
+		for (int q = 0; q < queries; q++) {
+			for (int r = 0; r < fewK; r++) {
+				if (fewIds[q * fewK + r] != ids[q * k + r]) {
+					wrongIds++;
+				}
+			}
+		}
+		check("top " + fewK + " that differ from the full list", 0, wrongIds);
+		
+		// Elements past the neighbors are left alone
+		int overwritten = 0;
+		for (int i = queries * fewK; i < fewIds.length; i++) {
+			if (fewIds[i] != -7 || fewScores[i] != -7) {
+				overwritten++;
+			}
+		}
+		check("elements past the neighbors overwritten", 0, overwritten);
+		print("----------------------");
+		//*/
+		
+		search.dispose();
+		GPUNearestNeighbors.disposeAll();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Cosine of a query and a database vector on the CPU (0 if either one is all zeros)
+	static double cosine(float[] queries, int q, float[] database, int i, int dimensions) {
+		double dot = 0;
+		double queryNorm = 0;
+		double databaseNorm = 0;
+		for (int d = 0; d < dimensions; d++) {
+			final double a = queries[q * dimensions + d];
+			final double b = database[i * dimensions + d];
+			dot += a * b;
+			queryNorm += a * a;
+			databaseNorm += b * b;
+		}
+		return (queryNorm * databaseNorm > 0) ? dot / Math.sqrt(queryNorm * databaseNorm) : 0;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
@@ -0,0 +1,172 @@
+package test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import main.GPUPatternMatcher;
+import main.GPUProgram;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify multi-pattern matching with the GPUProgram library.
+ */
+
+public class GPUPatternMatcherTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int n = 1000000;
+		final int randomPatterns = 200;
+		Random random = new Random(42);
+		
+		// Data from a small alphabet, so patterns match often and overlap
+		byte[] data = new byte[n];
+		for (int i = 0; i < n; i++) {
+			data[i] = (byte)('a' + random.nextInt(4));
+		}
+		
+		// Patterns that overlap themselves, prefixes and suffixes of each other, a repeat, and random patterns
+		byte[][] patterns = new byte[randomPatterns + 6][];
+		patterns[0] = "aaaa".getBytes();
+		patterns[1] = "aaaaaa".getBytes();
+		patterns[2] = "abab".getBytes();
+		patterns[3] = "bab".getBytes();
+		patterns[4] = "ababab".getBytes();
+		patterns[5] = "abab".getBytes();
+		for (int p = 6; p < patterns.length; p++) {
+			patterns[p] = new byte[6 + random.nextInt(11)];
+			for (int i = 0; i < patterns[p].length; i++) {
+				patterns[p][i] = (byte)('a' + random.nextInt(4));
+			}
+		}
+		
+		long[] expected = findCPU(data, patterns);
+		print("Matches: " + expected.length);
+		
+		GPUPatternMatcher matcher = new GPUPatternMatcher(patterns);
+		
+		//* Scan all the data at once
+		long[] hitOffsets = new long[expected.length];
+		int[] hitPatterns = new int[expected.length];
+		int hits = matcher.scan(data, hitOffsets, hitPatterns);
+		check("matches", expected.length, hits);
+		check("matches wrong", 0, countWrong(expected, hitOffsets, hitPatterns, Math.min(hits, expected.length), patterns.length));
+		
+		// Matches come back sorted by offset
+		int unsorted = 0;
+		for (int i = 1; i < Math.min(hits, expected.length); i++) {
+			if (hitOffsets[i] < hitOffsets[i - 1]) {
+				unsorted++;
+			}
+		}
+		check("matches out of order", 0, unsorted);
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Scan the same data as a stream of uneven chunks, some shorter than the longest pattern
+		long[] streamOffsets = new long[expected.length];
+		int[] streamPatterns = new int[expected.length];
+		long[] chunkOffsets = new long[expected.length];
+		int[] chunkPatterns = new int[expected.length];
+		int streamHits = 0;
+		int crossing = 0;
+		matcher.resetStream();
+		for (int start = 0; start < n; ) {
+			final int length = Math.min(n - start, random.nextBoolean() ? 1 + random.nextInt(5) : 1 + random.nextInt(50000));
+			byte[] chunk = Arrays.copyOfRange(data, start, start + length);
+			
+			hits = matcher.scanNext(chunk, chunkOffsets, chunkPatterns);
+			for (int i = 0; i < hits && streamHits < expected.length; i++) {
+				if (chunkOffsets[i] < start) {
+					crossing++;
+				}
+				streamOffsets[streamHits] = chunkOffsets[i];
+				streamPatterns[streamHits] = chunkPatterns[i];
+				streamHits++;
+			}
+			start += length;
+		}
+		print("Matches crossing into a later chunk: " + crossing);
+		check("stream matches", expected.length, streamHits);
+		check("stream matches wrong", 0, countWrong(expected, streamOffsets, streamPatterns, streamHits, patterns.length));
+		check("some matches cross chunks", 1, crossing > 0 ? 1 : 0);
+		
+		// After a reset, offsets start from 0 again
+		matcher.resetStream();
+		hits = matcher.scanNext(Arrays.copyOfRange(data, 0, 1000), chunkOffsets, chunkPatterns);
+		long[] firstExpected = findCPU(Arrays.copyOfRange(data, 0, 1000), patterns);
+		check("matches after a reset", firstExpected.length, hits);
+		check("matches wrong after a reset", 0, countWrong(firstExpected, chunkOffsets, chunkPatterns, hits, patterns.length));
+		print("----------------------");
+		//*/
+		
+		matcher.dispose();
+		GPUPatternMatcher.disposeAll();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Find every match with a naive scan of each pattern at each offset, as offset * patterns + pattern id, sorted
+	static long[] findCPU(byte[] data, byte[][] patterns) {
+		long[] matches = new long[1024];
+		int count = 0;
+		for (int p = 0; p < patterns.length; p++) {
+			for (int i = 0; i + patterns[p].length <= data.length; i++) {
+				int j = 0;
+				while (j < patterns[p].length && data[i + j] == patterns[p][j]) {
+					j++;
+				}
+				
+				if (j == patterns[p].length) {
+					if (count == matches.length) {
+						matches = Arrays.copyOf(matches, count * 2);
+					}
+					matches[count++] = (long)i * patterns.length + p;
+				}
+			}
+		}
+		
+		matches = Arrays.copyOf(matches, count);
+		Arrays.sort(matches);
+		return matches;
+	}
+	
+	// Count the differences from the CPU matches (matches at the same offset may be in any order)
+	static int countWrong(long[] expected, long[] hitOffsets, int[] hitPatterns, int hits, int patterns) {
+		long[] actual = new long[hits];
+		for (int i = 0; i < hits; i++) {
+			actual[i] = hitOffsets[i] * patterns + hitPatterns[i];
+		}
+		Arrays.sort(actual);
+		
+		int wrong = Math.abs(expected.length - hits);
+		for (int i = 0; i < Math.min(expected.length, hits); i++) {
+			if (expected[i] != actual[i]) {
+				wrong++;
+			}
+		}
+		return wrong;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
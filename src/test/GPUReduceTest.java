@@ -0,0 +1,134 @@
+package test;
+
+import main.GPUAccess;
+import main.GPUMem;
+import main.GPUProgram;
+import main.GPUReduce;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify parallel reductions with the GPUProgram library.
+ */
+
+public class GPUReduceTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int N = 10000000;
+		
+		int[] ints = new int[N];
+		float[] floats = new float[N];
+		long[] longs = new long[N];
+		for (int i = 0; i < N; i++) {
+			ints[i] = (int)(Math.random() * 2000000) - 1000000;
+			floats[i] = (float)(Math.random() * 2 - 1);
+			longs[i] = (long)(Math.random() * Long.MAX_VALUE) - Long.MAX_VALUE / 2;
+		}
+		
+		// Put the same minimum at two places, to check that ties go to the lowest index
+		ints[N / 3] = -2000000;
+		ints[N / 2] = -2000000;
+		
+		GPUMem intMem = GPUProgram.copyArrayToGPU(ints, GPUAccess.READ);
+		GPUMem floatMem = GPUProgram.copyArrayToGPU(floats, GPUAccess.READ);
+		GPUMem longMem = GPUProgram.copyArrayToGPU(longs, GPUAccess.READ);
+		
+		//* Test ints
+		int intSum = 0;
+		int intMin = Integer.MAX_VALUE;
+		int intMax = Integer.MIN_VALUE;
+		long intArgMax = 0;
+		for (int i = 0; i < N; i++) {
+			intSum += ints[i];
+			intMin = Math.min(intMin, ints[i]);
+			if (ints[i] > intMax) {
+				intMax = ints[i];
+				intArgMax = i;
+			}
+		}
+		
+		check("int sum", intSum, GPUReduce.reduceInt(intMem, GPUReduce.Operation.SUM));
+		check("int min", intMin, GPUReduce.reduceInt(intMem, GPUReduce.Operation.MIN));
+		check("int max", intMax, GPUReduce.reduceInt(intMem, GPUReduce.Operation.MAX));
+		check("int argmin", N / 3, GPUReduce.argMin(intMem));
+		check("int argmax", intArgMax, GPUReduce.argMax(intMem));
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Test floats (the sum is only checked approximately, since it's added in a different order)
+		double floatSum = 0;
+		float floatMin = Float.MAX_VALUE;
+		float floatMax = -Float.MAX_VALUE;
+		for (int i = 0; i < N; i++) {
+			floatSum += floats[i];
+			floatMin = Math.min(floatMin, floats[i]);
+			floatMax = Math.max(floatMax, floats[i]);
+		}
+		
+		float gpuFloatSum = GPUReduce.reduceFloat(floatMem, GPUReduce.Operation.SUM);
+		print("float sum: " + floatSum + " (CPU), " + gpuFloatSum + " (GPU)");
+		if (Math.abs(gpuFloatSum - floatSum) > 1) {
+			testsFailed++;
+		}
+		check("float min", floatMin, GPUReduce.reduceFloat(floatMem, GPUReduce.Operation.MIN));
+		check("float max", floatMax, GPUReduce.reduceFloat(floatMem, GPUReduce.Operation.MAX));
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Test longs, leaving the result on the GPU
+		long longSum = 0;
+		long longMin = Long.MAX_VALUE;
+		for (int i = 0; i < N; i++) {
+			longSum += longs[i];
+			longMin = Math.min(longMin, longs[i]);
+		}
+		
+		check("long sum", longSum, GPUReduce.reduceLong(longMem, GPUReduce.Operation.SUM));
+		
+		long[] result = new long[1];
+		GPUMem resultMem = GPUProgram.allocateMemoryOnGPU(result, GPUAccess.READ_WRITE, false);
+		GPUReduce.reduce(longMem, GPUReduce.Operation.MIN, resultMem);
+		GPUProgram.copyArrayToCPU(resultMem);
+		check("long min on GPU", longMin, result[0]);
+		print("----------------------");
+		//*/
+		
+		intMem.dispose();
+		floatMem.dispose();
+		longMem.dispose();
+		resultMem.dispose();
+		GPUReduce.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void check(String name, double expected, double actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
@@ -0,0 +1,185 @@
+package test;
+
+import java.util.Random;
+
+import main.GPUAccess;
+import main.GPUMem;
+import main.GPUProgram;
+import main.GPUScan;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify prefix sums (scans) with the GPUProgram library.
+ */
+
+public class GPUScanTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		Random random = new Random(17);
+		
+		// Less than one block, around one block (up to 256 x 4 elements), and enough blocks that the sums of
+		// the blocks are scanned recursively once and twice
+		final int[] sizes = {1, 5, 1023, 1024, 1025, 4097, (1 << 20) + 3, 3000001};
+		
+		//* Exclusive and inclusive scans of ints (which wrap around on overflow, like Java)
+		for (int s = 0; s < sizes.length; s++) {
+			final int n = sizes[s];
+			int[] input = new int[n];
+			for (int i = 0; i < n; i++) {
+				input[i] = random.nextInt();
+			}
+			
+			int[] output = new int[n];
+			GPUMem inputMem = GPUProgram.copyArrayToGPU(input, GPUAccess.READ);
+			GPUMem outputMem = GPUProgram.allocateMemoryOnGPU(output, GPUAccess.READ_WRITE, false);
+			GPUScan.exclusiveScan(inputMem, outputMem);
+			GPUProgram.copyArrayToCPU(outputMem);
+			check("exclusive scan of " + n + " ints, wrong", 0, countWrong(input, output, false));
+			
+			GPUScan.inclusiveScan(inputMem, outputMem);
+			GPUProgram.copyArrayToCPU(outputMem);
+			check("inclusive scan of " + n + " ints, wrong", 0, countWrong(input, output, true));
+			inputMem.dispose();
+			outputMem.dispose();
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Scans in place
+		for (int s = 0; s < sizes.length; s++) {
+			final int n = sizes[s];
+			int[] input = new int[n];
+			for (int i = 0; i < n; i++) {
+				input[i] = random.nextInt(1000) - 500;
+			}
+			
+			int[] x = input.clone();
+			GPUMem xMem = GPUProgram.copyArrayToGPU(x, GPUAccess.READ_WRITE);
+			GPUScan.inclusiveScan(xMem, xMem);
+			GPUProgram.copyArrayToCPU(xMem);
+			check("inclusive scan of " + n + " ints in place, wrong", 0, countWrong(input, x, true));
+			
+			System.arraycopy(input, 0, x, 0, n);
+			GPUProgram.copyArrayToGPU(xMem);
+			GPUScan.exclusiveScan(xMem, xMem);
+			GPUProgram.copyArrayToCPU(xMem);
+			check("exclusive scan of " + n + " ints in place, wrong", 0, countWrong(input, x, false));
+			xMem.dispose();
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Scans of longs, floats, and doubles, with the recursive pass
+		final int n = sizes[sizes.length - 1];
+		long[] longs = new long[n];
+		float[] floats = new float[n];
+		double[] doubles = new double[n];
+		for (int i = 0; i < n; i++) {
+			longs[i] = random.nextLong() >> 8;
+			floats[i] = random.nextFloat();
+			doubles[i] = random.nextDouble() - 0.5;
+		}
+		
+		long[] longOutput = new long[n];
+		GPUMem longsMem = GPUProgram.copyArrayToGPU(longs, GPUAccess.READ);
+		GPUMem longOutputMem = GPUProgram.allocateMemoryOnGPU(longOutput, GPUAccess.READ_WRITE, false);
+		GPUScan.inclusiveScan(longsMem, longOutputMem);
+		GPUProgram.copyArrayToCPU(longOutputMem);
+		int wrong = 0;
+		long longSum = 0;
+		for (int i = 0; i < n; i++) {
+			longSum += longs[i];
+			if (longOutput[i] != longSum) {
+				wrong++;
+			}
+		}
+		check("inclusive scan of " + n + " longs, wrong", 0, wrong);
+		longsMem.dispose();
+		longOutputMem.dispose();
+		
+		float[] floatOutput = new float[n];
+		GPUMem floatsMem = GPUProgram.copyArrayToGPU(floats, GPUAccess.READ);
+		GPUMem floatOutputMem = GPUProgram.allocateMemoryOnGPU(floatOutput, GPUAccess.READ_WRITE, false);
+		GPUScan.exclusiveScan(floatsMem, floatOutputMem);
+		GPUProgram.copyArrayToCPU(floatOutputMem);
+		wrong = 0;
+		double floatSum = 0;
+		for (int i = 0; i < n; i++) {
+			// (All positive, so the sum is also the size of the rounding errors)
+			if (!(Math.abs(floatOutput[i] - floatSum) <= 1e-5 * floatSum + 1e-6)) {
+				wrong++;
+			}
+			floatSum += floats[i];
+		}
+		check("exclusive scan of " + n + " floats, wrong", 0, wrong);
+		floatsMem.dispose();
+		floatOutputMem.dispose();
+		
+		if (GPUProgram.isDoubleSupported()) {
+			GPUMem doublesMem = GPUProgram.copyArrayToGPU(doubles.clone(), GPUAccess.READ_WRITE);
+			GPUScan.inclusiveScan(doublesMem, doublesMem);
+			double[] doubleOutput = new double[n];
+			GPUProgram.copyArrayToCPU(doublesMem, doubleOutput);
+			wrong = 0;
+			double doubleSum = 0;
+			double magnitude = 0;
+			for (int i = 0; i < n; i++) {
+				doubleSum += doubles[i];
+				magnitude += Math.abs(doubles[i]);
+				if (!(Math.abs(doubleOutput[i] - doubleSum) <= 1e-12 * magnitude + 1e-12)) {
+					wrong++;
+				}
+			}
+			check("inclusive scan of " + n + " doubles in place, wrong", 0, wrong);
+			doublesMem.dispose();
+		}
+		print("----------------------");
+		//*/
+		
+		GPUScan.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Count the elements of a scan of ints that differ from a loop on the CPU
+	static int countWrong(int[] input, int[] output, boolean inclusive) {
+		int wrong = 0;
+		int sum = 0;
+		for (int i = 0; i < input.length; i++) {
+			if (inclusive) {
+				sum += input[i];
+			}
+			if (output[i] != sum) {
+				wrong++;
+			}
+			if (!inclusive) {
+				sum += input[i];
+			}
+		}
+		return wrong;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
@@ -0,0 +1,165 @@
+package test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import main.GPUAccess;
+import main.GPUMem;
+import main.GPUProgram;
+import main.GPUSlidingWindow;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify sliding-window aggregates of a stream with the GPUProgram library.
+ */
+
+public class GPUSlidingWindowTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		// Longer than the ring buffer of every window below, so appends cross its end more than once
+		final int n = 5000000;
+		Random random = new Random(7);
+		float[] samples = new float[n];
+		for (int i = 0; i < n; i++) {
+			samples[i] = random.nextFloat() * 2 - 1;
+		}
+		
+		// Appends of uneven sizes: a few samples, up to a launch, and more than a launch (1 << 20 samples)
+		int[] chunks = new int[n];
+		int appends = 0;
+		for (int start = 0; start < n; appends++) {
+			final int kind = random.nextInt(3);
+			int size = 1 + random.nextInt(10);
+			if (kind == 1) {
+				size = 1 + random.nextInt(200000);
+			} else if (kind == 2) {
+				size = 1000000 + random.nextInt(1500000);
+			}
+			chunks[appends] = Math.min(size, n - start);
+			start += chunks[appends];
+		}
+		print("Appends: " + appends);
+		
+		// Windows of one sample, that don't divide a launch, and longer than a launch
+		final int[] windows = {1, 333, 1000, 1500000};
+		final GPUSlidingWindow.Aggregate[] aggregates = {GPUSlidingWindow.Aggregate.SUM,
+				GPUSlidingWindow.Aggregate.MIN, GPUSlidingWindow.Aggregate.VARIANCE};
+		
+		//* Append the stream from the CPU, and compare each window with the CPU
+		float[] output = new float[n];
+		for (int a = 0; a < aggregates.length; a++) {
+			for (int w = 0; w < windows.length; w++) {
+				GPUSlidingWindow sliding = new GPUSlidingWindow(windows[w], aggregates[a]);
+				int start = 0;
+				for (int c = 0; c < appends; c++) {
+					float[] chunkOutput = new float[chunks[c]];
+					sliding.append(Arrays.copyOfRange(samples, start, start + chunks[c]), chunkOutput);
+					System.arraycopy(chunkOutput, 0, output, start, chunks[c]);
+					start += chunks[c];
+				}
+				check(aggregates[a] + " of " + windows[w] + " samples, position", n, sliding.getPosition());
+				check(aggregates[a] + " of " + windows[w] + " samples, windows wrong", 0,
+						countWrong(samples, windows[w], aggregates[a], output));
+				sliding.dispose();
+			}
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Append the whole stream as one GPUMem, after a reset
+		GPUSlidingWindow sliding = new GPUSlidingWindow(333, GPUSlidingWindow.Aggregate.SUM);
+		sliding.append(Arrays.copyOfRange(samples, 0, 1000), new float[1000]);
+		sliding.reset();
+		
+		GPUMem samplesMem = GPUProgram.copyArrayToGPU(samples, GPUAccess.READ);
+		GPUMem outputMem = GPUProgram.allocateMemoryOnGPU(output, GPUAccess.READ_WRITE, false);
+		sliding.append(samplesMem, outputMem);
+		GPUProgram.copyArrayToCPU(outputMem);
+		check("SUM of 333 samples from a GPUMem, windows wrong", 0, countWrong(samples, 333, GPUSlidingWindow.Aggregate.SUM, output));
+		print("----------------------");
+		//*/
+		
+		sliding.dispose();
+		samplesMem.dispose();
+		outputMem.dispose();
+		GPUSlidingWindow.disposeAll();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	// Count the windows that aren't close to the same window on the CPU
+	// (Sums and variances of floats are combined in a different order than on the CPU, so compare within a tolerance)
+	static int countWrong(float[] samples, int window, GPUSlidingWindow.Aggregate aggregate, float[] output) {
+		
+		final int n = samples.length;
+		int wrong = 0;
+		if (aggregate == GPUSlidingWindow.Aggregate.MIN) {
+			// Indices of the samples that are smaller than every later sample in the window, in order (a deque)
+			int[] candidates = new int[n];
+			int head = 0;
+			int tail = 0;
+			for (int i = 0; i < n; i++) {
+				while (tail > head && samples[candidates[tail - 1]] >= samples[i]) {
+					tail--;
+				}
+				candidates[tail++] = i;
+				if (candidates[head] <= i - window) {
+					head++;
+				}
+				
+				if (output[i] != samples[candidates[head]]) {
+					wrong++;
+				}
+			}
+			return wrong;
+		}
+		
+		// Sums of the samples and of their squares before each index
+		double[] sums = new double[n + 1];
+		double[] squares = new double[n + 1];
+		for (int i = 0; i < n; i++) {
+			sums[i + 1] = sums[i] + samples[i];
+			squares[i + 1] = squares[i] + (double)samples[i] * samples[i];
+		}
+		
+		for (int i = 0; i < n; i++) {
+			final int first = Math.max(0, i + 1 - window);
+			final int count = i + 1 - first;
+			final double sum = sums[i + 1] - sums[first];
+			if (aggregate == GPUSlidingWindow.Aggregate.SUM) {
+				if (!(Math.abs(output[i] - sum) <= 1e-5 * count + 1e-3)) {
+					wrong++;
+				}
+			} else {
+				final double variance = Math.max(0, (squares[i + 1] - squares[first] - sum * sum / count) / count);
+				if (!(Math.abs(output[i] - variance) <= 1e-3 * variance + 1e-5)) {
+					wrong++;
+				}
+			}
+		}
+		return wrong;
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
@@ -0,0 +1,129 @@
+package test;
+
+import java.util.Arrays;
+
+import main.GPUAccess;
+import main.GPUMem;
+import main.GPUProgram;
+import main.GPUSort;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify radix sorting with the GPUProgram library.
+ */
+
+public class GPUSortTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int N = 10000000;
+		
+		int[] ints = new int[N];
+		float[] floats = new float[N];
+		long[] longs = new long[N];
+		int[] indices = new int[N];
+		for (int i = 0; i < N; i++) {
+			ints[i] = (int)(Math.random() * Integer.MAX_VALUE * 2.0 + Integer.MIN_VALUE);
+			floats[i] = (float)(Math.random() * 2000 - 1000);
+			longs[i] = (long)(Math.random() * Long.MAX_VALUE) - Long.MAX_VALUE / 2;
+			indices[i] = i;
+		}
+		floats[0] = -0.0f;
+		floats[1] = 0.0f;
+		floats[2] = Float.NEGATIVE_INFINITY;
+		floats[3] = Float.NaN;
+		floats[4] = Float.intBitsToFloat(0xFFC00000); // NaN with the sign bit set
+		
+		//* Test int keys with their original indices as values
+		int[] sortedInts = ints.clone();
+		long start = System.currentTimeMillis();
+		Arrays.sort(sortedInts);
+		print("CPU Sort Time: " + (System.currentTimeMillis() - start) + " ms");
+		
+		int[] intResult = ints.clone();
+		GPUMem intMem = GPUProgram.copyArrayToGPU(intResult, GPUAccess.READ_WRITE);
+		GPUMem indexMem = GPUProgram.copyArrayToGPU(indices, GPUAccess.READ_WRITE);
+		start = System.currentTimeMillis();
+		GPUSort.sort(intMem, indexMem);
+		print("GPU Sort Time: " + (System.currentTimeMillis() - start) + " ms");
+		GPUProgram.copyArrayToCPU(intMem);
+		GPUProgram.copyArrayToCPU(indexMem);
+		
+		boolean passed = Arrays.equals(sortedInts, intResult);
+		for (int i = 0; i < N; i++) {
+			if (ints[indices[i]] != intResult[i] || (i > 0 && intResult[i] == intResult[i - 1] && indices[i] < indices[i - 1])) {
+				passed = false; // Wrong value, or not stable
+				break;
+			}
+		}
+		check("int keys with values", passed);
+		//*/
+		
+		
+		//* Test float and long keys
+		float[] sortedFloats = floats.clone();
+		Arrays.sort(sortedFloats);
+		GPUMem floatMem = GPUProgram.copyArrayToGPU(floats, GPUAccess.READ_WRITE);
+		GPUSort.sort(floatMem);
+		GPUProgram.copyArrayToCPU(floatMem);
+		check("float keys", Arrays.equals(sortedFloats, floats));
+		
+		long[] sortedLongs = longs.clone();
+		Arrays.sort(sortedLongs);
+		GPUMem longMem = GPUProgram.copyArrayToGPU(longs, GPUAccess.READ_WRITE);
+		GPUSort.sort(longMem);
+		GPUProgram.copyArrayToCPU(longMem);
+		check("long keys", Arrays.equals(sortedLongs, longs));
+		//*/
+		
+		
+		//* Test sorting 1000 segments at once
+		int[] segmentIds = new int[N];
+		int[] segmented = ints.clone();
+		for (int i = 0; i < N; i++) {
+			segmentIds[i] = (int)((long)i * 1000 / N);
+		}
+		int[] sortedSegments = ints.clone();
+		for (int s = 0; s < 1000; s++) {
+			Arrays.sort(sortedSegments, (int)((long)s * N / 1000), (int)((long)(s + 1) * N / 1000));
+		}
+		
+		GPUMem segmentedMem = GPUProgram.copyArrayToGPU(segmented, GPUAccess.READ_WRITE);
+		GPUMem segmentMem = GPUProgram.copyArrayToGPU(segmentIds, GPUAccess.READ_WRITE);
+		GPUSort.sortSegmented(segmentedMem, null, segmentMem);
+		GPUProgram.copyArrayToCPU(segmentedMem);
+		check("segmented int keys", Arrays.equals(sortedSegments, segmented));
+		//*/
+		
+		intMem.dispose();
+		indexMem.dispose();
+		floatMem.dispose();
+		longMem.dispose();
+		segmentedMem.dispose();
+		segmentMem.dispose();
+		GPUSort.dispose();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	static void check(String name, boolean passed) {
+		print(name + ": " + (passed ? "passed" : "FAILED"));
+		if (!passed) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}
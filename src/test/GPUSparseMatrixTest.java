@@ -0,0 +1,115 @@
+package test;
+
+import main.GPUAccess;
+import main.GPUMem;
+import main.GPUProgram;
+import main.GPUSparseMatrix;
+
+/**
+ * Created on October 19, 2026
+ *
+ * Created to test and verify sparse matrix-vector products with the GPUProgram library.
+ */
+
+public class GPUSparseMatrixTest {
+	
+	static private int testsFailed = 0;
+	
+	public static void main(String[] args) {
+		
+		GPUProgram.initializeGPU();
+		
+		final int rows = 200000;
+		final int columns = 50000;
+		
+		// Mostly short rows, with a few very long ones
+		int[] rowPointers = new int[rows + 1];
+		for (int i = 0; i < rows; i++) {
+			final int length = (i % 10000 == 0) ? 40000 : (int)(Math.random() * 8);
+			rowPointers[i + 1] = rowPointers[i] + length;
+		}
+		final int nonzeros = rowPointers[rows];
+		int[] columnIndices = new int[nonzeros];
+		float[] values = new float[nonzeros];
+		for (int i = 0; i < nonzeros; i++) {
+			columnIndices[i] = (int)(Math.random() * columns);
+			values[i] = (float)(Math.random() * 2 - 1);
+		}
+		
+		float[] x = new float[columns];
+		float[] y = new float[rows];
+		for (int i = 0; i < columns; i++) {
+			x[i] = (float)Math.random();
+		}
+		
+		double[] expected = new double[rows];
+		for (int i = 0; i < rows; i++) {
+			for (int j = rowPointers[i]; j < rowPointers[i + 1]; j++) {
+				expected[i] += values[j] * x[columnIndices[j]];
+			}
+		}
+		
+		GPUSparseMatrix matrix = new GPUSparseMatrix(columns, rowPointers, columnIndices, values);
+		GPUMem xMem = GPUProgram.copyArrayToGPU(x, GPUAccess.READ);
+		GPUMem yMem = GPUProgram.allocateMemoryOnGPU(y, GPUAccess.READ_WRITE, false);
+		
+		check("chosen algorithm", GPUSparseMatrix.Algorithm.MERGE.ordinal(), matrix.getAlgorithm().ordinal());
+		
+		//* Test every algorithm against the CPU
+		GPUSparseMatrix.Algorithm[] algorithms = GPUSparseMatrix.Algorithm.values();
+		for (int a = 0; a < algorithms.length; a++) {
+			matrix.setAlgorithm(algorithms[a]);
+			matrix.multiply(xMem, yMem);
+			GPUProgram.copyArrayToCPU(yMem);
+			
+			double maxError = 0;
+			for (int i = 0; i < rows; i++) {
+				maxError = Math.max(maxError, Math.abs(y[i] - expected[i]));
+			}
+			print(algorithms[a] + " max error: " + maxError);
+			if (maxError > 0.01) {
+				testsFailed++;
+			}
+		}
+		print("----------------------\n");
+		//*/
+		
+		
+		//* Test alpha and beta: y = 2 * A * x - y should give A * x again
+		matrix.multiply(2, xMem, -1, yMem);
+		GPUProgram.copyArrayToCPU(yMem);
+		double maxError = 0;
+		for (int i = 0; i < rows; i++) {
+			maxError = Math.max(maxError, Math.abs(y[i] - expected[i]));
+		}
+		print("alpha and beta max error: " + maxError);
+		if (maxError > 0.01) {
+			testsFailed++;
+		}
+		print("----------------------");
+		//*/
+		
+		matrix.dispose();
+		xMem.dispose();
+		yMem.dispose();
+		GPUSparseMatrix.disposeAll();
+		
+		// Print final result
+		if (testsFailed > 0) {
+			System.err.println("Failed " + testsFailed + " test" + (testsFailed > 1 ? "s" : "") + "!");
+		} else {
+			print("PASS");
+		}
+	}
+	
+	static void check(String name, long expected, long actual) {
+		print(name + ": " + expected + " (CPU), " + actual + " (GPU)");
+		if (expected != actual) {
+			testsFailed++;
+		}
+	}
+	
+	static void print(Object o) {
+		System.out.println(o);
+	}
+}